@@ -0,0 +1,8 @@
+package by.losik.configuration;
+
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,33 @@
+package by.losik.configuration;
+
+import io.smallrye.common.vertx.VertxContext;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+// The point in time by which the current request must be answered. It is kept in the request's
+// duplicated Vert.x context, so every Uni continuation of that request (resource, service,
+// repository) sees the same deadline without passing it through method signatures.
+public final class RequestDeadline {
+
+    private static final String KEY = RequestDeadline.class.getName();
+
+    private RequestDeadline() {
+    }
+
+    public static void start(long budgetMillis) {
+        Context context = Vertx.currentContext();
+        if (context != null && VertxContext.isDuplicatedContext(context)) {
+            context.putLocal(KEY, System.nanoTime() + budgetMillis * 1_000_000L);
+        }
+    }
+
+    // milliseconds left, negative once the deadline has passed, null outside a request
+    public static Long remainingMillis() {
+        Context context = Vertx.currentContext();
+        if (context == null || !VertxContext.isDuplicatedContext(context)) {
+            return null;
+        }
+        Long deadline = context.getLocal(KEY);
+        return deadline != null ? (deadline - System.nanoTime()) / 1_000_000L : null;
+    }
+}
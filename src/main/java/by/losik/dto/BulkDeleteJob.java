@@ -0,0 +1,28 @@
+package by.losik.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+import java.time.Instant;
+
+@Getter
+@Setter
+public class BulkDeleteJob {
+    private String id;
+    private String type;
+    private String target;
+    private volatile String status;
+    private volatile boolean cancelRequested;
+    private volatile long deleted;
+    private volatile long chunks;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+
+    public double getRowsPerSecond() {
+        Instant end = finishedAt != null ? finishedAt : Instant.now();
+        long millis = Duration.between(startedAt, end).toMillis();
+        return millis > 0 ? deleted * 1000.0 / millis : 0;
+    }
+}
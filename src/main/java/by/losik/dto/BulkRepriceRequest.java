@@ -0,0 +1,16 @@
+package by.losik.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+public class BulkRepriceRequest {
+    private Long categoryId;
+    private String manufacturer;
+    private String codePrefix;
+    private String mode;
+    private BigDecimal value;
+}
@@ -0,0 +1,34 @@
+package by.losik.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+public class EntityChangeEvent {
+    private Long id;
+    private String entity;
+    private Long entityId;
+    private String operation;
+    private String origin;
+    // "relation:id,..." for the rows the changed row referenced before and after the change
+    private String refs;
+
+    // empty when the change carries no references, e.g. a bulk statement
+    public List<Long> refIds(String relation) {
+        List<Long> ids = new ArrayList<>();
+        if (refs == null || refs.isEmpty()) {
+            return ids;
+        }
+        for (String ref : refs.split(",")) {
+            int separator = ref.indexOf(':');
+            if (ref.substring(0, separator).equals(relation)) {
+                ids.add(Long.parseLong(ref.substring(separator + 1)));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,15 @@
+package by.losik.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class IdempotentResponse {
+    // SHA-256 of the request body the response belongs to
+    private String requestHash;
+    private int status;
+    private String contentType;
+    private String location;
+    private String body;
+}
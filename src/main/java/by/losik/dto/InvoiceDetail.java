@@ -0,0 +1,30 @@
+package by.losik.dto;
+
+import by.losik.entity.Customer;
+import by.losik.entity.Invoice;
+import by.losik.entity.InvoiceItem;
+import by.losik.entity.Product;
+import by.losik.entity.Region;
+import by.losik.entity.Settlement;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+public class InvoiceDetail {
+    private Invoice invoice;
+    private Customer customer;
+    private Settlement settlement;
+    private Region region;
+    private List<Item> items = new ArrayList<>();
+
+    @Getter
+    @Setter
+    public static class Item {
+        private InvoiceItem item;
+        private Product product;
+    }
+}
@@ -0,0 +1,18 @@
+package by.losik.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+
+@Getter
+@Setter
+public class InvoiceFeedEvent {
+    private String operation;
+    private Long id;
+    private Long customerId;
+    private Long settlementId;
+    private BigDecimal totalAmount;
+    private Date invoiceDate;
+}
@@ -0,0 +1,15 @@
+package by.losik.dto;
+
+import by.losik.entity.Invoice;
+import by.losik.entity.InvoiceItem;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+public class InvoiceWithItemsRequest {
+    private Invoice invoice;
+    private List<InvoiceItem> items;
+}
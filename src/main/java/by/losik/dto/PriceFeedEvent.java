@@ -0,0 +1,17 @@
+package by.losik.dto;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+
+@Getter
+@Setter
+public class PriceFeedEvent {
+    private String operation;
+    private Long id;
+    private Long productId;
+    private BigDecimal price;
+    private Date changeDate;
+}
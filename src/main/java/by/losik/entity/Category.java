@@ -10,10 +10,14 @@ import lombok.Setter;
 @Setter
 public class Category {
     @Id
-    @GeneratedValue(strategy = GenerationType.SEQUENCE)
-    @Column(name = "id", columnDefinition = "serial", nullable = false, unique = true)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "categories_id_pool_seq")
+    @SequenceGenerator(name = "categories_id_pool_seq", schema = "lab2var10", sequenceName = "categories_id_pool_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false, unique = true)
     private Long id;
 
     @Column(name = "name", columnDefinition = "varchar(100)", nullable = false, unique = true)
     private String name;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
@@ -10,7 +10,8 @@ import lombok.Setter;
 @Setter
 public class Customer {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "customers_id_pool_seq")
+    @SequenceGenerator(name = "customers_id_pool_seq", schema = "lab2var10", sequenceName = "customers_id_pool_seq", allocationSize = 50)
     @Column(name = "id")
     private Long id;
 
@@ -34,4 +35,7 @@ public class Customer {
 
     @Column(name = "bank_account", columnDefinition = "varchar(100)")
     private String bankAccount;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
\ No newline at end of file
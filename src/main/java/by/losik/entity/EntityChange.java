@@ -0,0 +1,37 @@
+package by.losik.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.sql.Timestamp;
+
+@Entity
+@Table(schema = "lab2var10", name = "entity_changes")
+@Getter
+@Setter
+public class EntityChange {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "entity_changes_id_pool_seq")
+    @SequenceGenerator(name = "entity_changes_id_pool_seq", schema = "lab2var10", sequenceName = "entity_changes_id_pool_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false, unique = true)
+    private Long id;
+
+    @Column(name = "entity_name", columnDefinition = "varchar(50)", nullable = false)
+    private String entityName;
+
+    @Column(name = "entity_id")
+    private Long entityId;
+
+    @Column(name = "operation", columnDefinition = "varchar(10)", nullable = false)
+    private String operation;
+
+    @Column(name = "origin", columnDefinition = "varchar(36)", nullable = false)
+    private String origin;
+
+    @Column(name = "refs", columnDefinition = "varchar(200)")
+    private String refs;
+
+    @Column(name = "changed_at", nullable = false, insertable = false, updatable = false)
+    private Timestamp changedAt;
+}
@@ -15,7 +15,8 @@ import java.sql.Date;
 @Setter
 public class Invoice {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoices_id_pool_seq")
+    @SequenceGenerator(name = "invoices_id_pool_seq", schema = "lab2var10", sequenceName = "invoices_id_pool_seq", allocationSize = 50)
     @Column(name = "id", nullable = false, unique = true)
     private Long id;
 
@@ -37,4 +38,7 @@ public class Invoice {
 
     @Column(name = "enterprise", columnDefinition = "varchar(200)", nullable = false)
     private String enterprise;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
@@ -0,0 +1,39 @@
+package by.losik.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import org.hibernate.annotations.Immutable;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+
+// Per customer and settlement totals of the archived invoices, written only by the archive job
+@Entity
+@Immutable
+@Table(schema = "lab2var10", name = "invoice_archive_totals")
+@Getter
+@Setter
+public class InvoiceArchiveTotal {
+    @Id
+    @Column(name = "id", nullable = false, unique = true)
+    private Long id;
+
+    @Column(name = "customer_id", nullable = false)
+    private Long customerId;
+
+    @Column(name = "settlement_id", nullable = false)
+    private Long settlementId;
+
+    @Column(name = "invoice_count", nullable = false)
+    private Long invoiceCount;
+
+    @Column(name = "total_amount", precision = 17, scale = 2, nullable = false)
+    private BigDecimal totalAmount;
+
+    @Column(name = "min_date", nullable = false)
+    private Date minDate;
+
+    @Column(name = "max_date", nullable = false)
+    private Date maxDate;
+}
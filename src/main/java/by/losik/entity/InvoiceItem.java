@@ -15,7 +15,8 @@ import java.math.BigInteger;
 @Setter
 public class InvoiceItem {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "invoice_items_id_pool_seq")
+    @SequenceGenerator(name = "invoice_items_id_pool_seq", schema = "lab2var10", sequenceName = "invoice_items_id_pool_seq", allocationSize = 50)
     @Column(name = "id", nullable = false, unique = true)
     private Long id;
 
@@ -34,4 +35,7 @@ public class InvoiceItem {
 
     @Column(name = "price", precision = 15, scale = 2, nullable = false)
     private BigDecimal price;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
@@ -15,7 +15,8 @@ import java.sql.Date;
 @Setter
 public class PriceHistory {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "price_history_id_pool_seq")
+    @SequenceGenerator(name = "price_history_id_pool_seq", schema = "lab2var10", sequenceName = "price_history_id_pool_seq", allocationSize = 50)
     @Column(name = "id", nullable = false, unique = true)
     private Long id;
 
@@ -29,4 +30,7 @@ public class PriceHistory {
 
     @Column(name = "price", precision = 15, scale = 2, nullable = false)
     private BigDecimal price;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
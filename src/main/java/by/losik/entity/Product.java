@@ -12,8 +12,9 @@ import org.hibernate.annotations.OnDeleteAction;
 @Setter
 public class Product {
     @Id
-    @GeneratedValue(strategy = GenerationType.SEQUENCE)
-    @Column(name = "id", columnDefinition = "serial", nullable = false, unique = true)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "products_id_pool_seq")
+    @SequenceGenerator(name = "products_id_pool_seq", schema = "lab2var10", sequenceName = "products_id_pool_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false, unique = true)
     private Long id;
 
     @Column(name = "code", columnDefinition = "varchar(50)", nullable = false, unique = true)
@@ -29,4 +30,7 @@ public class Product {
 
     @Column(name = "manufacturer", columnDefinition = "varchar(200)", nullable = false)
     private String manufacturer;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
@@ -10,8 +10,9 @@ import lombok.Setter;
 @Setter
 public class Region {
     @Id
-    @GeneratedValue(strategy = GenerationType.SEQUENCE)
-    @Column(name = "id", columnDefinition = "serial", nullable = false, unique = true)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "regions_id_pool_seq")
+    @SequenceGenerator(name = "regions_id_pool_seq", schema = "lab2var10", sequenceName = "regions_id_pool_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false, unique = true)
     private Long id;
 
     @Column(name = "name", columnDefinition = "varchar(100)", nullable = false, unique = true)
@@ -19,4 +20,7 @@ public class Region {
 
     @Column(name = "country", columnDefinition = "varchar(100)", nullable = false)
     private String country;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
@@ -12,8 +12,9 @@ import org.hibernate.annotations.OnDeleteAction;
 @Setter
 public class Settlement {
     @Id
-    @GeneratedValue(strategy = GenerationType.SEQUENCE)
-    @Column(name = "id", columnDefinition = "serial", nullable = false, unique = true)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "settlements_id_pool_seq")
+    @SequenceGenerator(name = "settlements_id_pool_seq", schema = "lab2var10", sequenceName = "settlements_id_pool_seq", allocationSize = 50)
+    @Column(name = "id", nullable = false, unique = true)
     private Long id;
 
     @Column(name = "name", columnDefinition = "varchar(100)", nullable = false, unique = true)
@@ -23,4 +24,7 @@ public class Settlement {
     @JoinColumn(name = "region_id", nullable = false)
     @OnDelete(action = OnDeleteAction.CASCADE)
     private Region region;
+
+    @Column(name = "version", nullable = false, insertable = false, updatable = false)
+    private Long version;
 }
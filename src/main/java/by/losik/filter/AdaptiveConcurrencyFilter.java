@@ -0,0 +1,160 @@
+package by.losik.filter;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.annotation.Priority;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.Provider;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Admits requests per endpoint group (one group per resource class, e.g. "invoice-item") up to an
+// AdaptiveLimiter limit that follows observed latency, and answers the rest with 503 and
+// Retry-After instead of letting them pile up in front of the database. A group's max-limit can be
+// overridden with app.concurrency.groups.<group>.max-limit.
+// In front of the groups sits the SharedLimiter, which admits each RequestClass only up to its
+// share of the database capacity.
+// Permits are returned when the HTTP exchange ends, however it ends: a completed response gives a
+// latency sample, a failed or abandoned one just frees its slot.
+@Provider
+@Priority(Priorities.USER)
+@Slf4j
+public class AdaptiveConcurrencyFilter implements ContainerRequestFilter {
+
+    @ConfigProperty(name = "app.concurrency.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.concurrency.initial-limit", defaultValue = "20")
+    int initialLimit;
+
+    @ConfigProperty(name = "app.concurrency.min-limit", defaultValue = "5")
+    int minLimit;
+
+    @ConfigProperty(name = "app.concurrency.max-limit", defaultValue = "200")
+    int maxLimit;
+
+    @ConfigProperty(name = "app.concurrency.smoothing", defaultValue = "0.2")
+    double smoothing;
+
+    // how far latency may rise above its long-term average before the limit shrinks
+    @ConfigProperty(name = "app.concurrency.tolerance", defaultValue = "1.5")
+    double tolerance;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @Inject
+    RequestClassifier requestClassifier;
+
+    @Inject
+    SharedLimiter sharedLimiter;
+
+    @Inject
+    RoutingContext routingContext;
+
+    @Context
+    ResourceInfo resourceInfo;
+
+    private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Class<?> resourceClass = resourceInfo.getResourceClass();
+        if (!enabled || resourceClass == null || isEventStream(resourceInfo.getResourceMethod())) {
+            return;
+        }
+        String path = requestContext.getUriInfo().getPath();
+        RequestClass requestClass = requestClassifier.classify(requestContext.getMethod(), path, resourceInfo.getResourceMethod());
+        if (!sharedLimiter.tryAcquire(requestClass)) {
+            meterRegistry.counter("http.shedding.rejected", "class", requestClass.name().toLowerCase()).increment();
+            log.warn("Shedding {} {} ({}): shared concurrency limit {} reached",
+                    requestContext.getMethod(), path, requestClass, sharedLimiter.getLimit());
+            requestContext.abortWith(busy(sharedLimiter.retryAfterSeconds()));
+            return;
+        }
+        String group = group(resourceClass);
+        AdaptiveLimiter limiter = limiters.computeIfAbsent(group, this::register);
+        if (!limiter.tryAcquire()) {
+            sharedLimiter.cancel();
+            meterRegistry.counter("http.concurrency.rejected", "group", group).increment();
+            log.warn("Rejecting {} {}: concurrency limit {} of group {} reached",
+                    requestContext.getMethod(), path, limiter.getLimit(), group);
+            requestContext.abortWith(busy(limiter.retryAfterSeconds()));
+            return;
+        }
+        long start = System.nanoTime();
+        AtomicBoolean released = new AtomicBoolean();
+        // runs once the response is written, the request fails or the client goes away, including
+        // when a later filter aborts the request
+        routingContext.addEndHandler(result -> {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            if (result.failed()) {
+                limiter.cancel();
+                sharedLimiter.cancel();
+                log.debug("Released permits of {} {} without a latency sample: {}",
+                        requestContext.getMethod(), path, result.cause().getMessage());
+                return;
+            }
+            long rtt = System.nanoTime() - start;
+            limiter.release(rtt);
+            sharedLimiter.release(rtt);
+            meterRegistry.timer("http.shedding.latency", "class", requestClass.name().toLowerCase())
+                    .record(rtt, TimeUnit.NANOSECONDS);
+        });
+    }
+
+    private static Response busy(long retryAfterSeconds) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", retryAfterSeconds)
+                .entity("Server is busy, retry later")
+                .build();
+    }
+
+    private AdaptiveLimiter register(String group) {
+        int groupMaxLimit = ConfigProvider.getConfig()
+                .getOptionalValue("app.concurrency.groups." + group + ".max-limit", Integer.class)
+                .orElse(maxLimit);
+        AdaptiveLimiter limiter = new AdaptiveLimiter(Math.min(initialLimit, groupMaxLimit),
+                Math.min(minLimit, groupMaxLimit), groupMaxLimit, smoothing, tolerance);
+        Gauge.builder("http.concurrency.limit", limiter, AdaptiveLimiter::getLimit)
+                .tag("group", group)
+                .register(meterRegistry);
+        Gauge.builder("http.concurrency.in.flight", limiter, AdaptiveLimiter::getInFlight)
+                .tag("group", group)
+                .register(meterRegistry);
+        log.info("Registered concurrency limiter for group {} with max limit {}", group, groupMaxLimit);
+        return limiter;
+    }
+
+    // live feeds answer at once and then stay open without touching the database, so their
+    // round trip says nothing about database latency
+    private static boolean isEventStream(Method method) {
+        Produces produces = method != null ? method.getAnnotation(Produces.class) : null;
+        return produces != null && Arrays.asList(produces.value()).contains(MediaType.SERVER_SENT_EVENTS);
+    }
+
+    // InvoiceItemResource -> invoice-item
+    private static String group(Class<?> resourceClass) {
+        String name = resourceClass.getSimpleName().replaceFirst("_Subclass$", "").replaceFirst("Resource$", "");
+        return name.replaceAll("([a-z0-9])([A-Z])", "$1-$2").toLowerCase();
+    }
+}
@@ -0,0 +1,93 @@
+package by.losik.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Gradient concurrency limit for one endpoint group. Each completed request compares its latency
+// with a slow moving average: while they match, the limit grows by about sqrt(limit); when latency
+// climbs past tolerance times the average, the limit shrinks in proportion, down to minLimit.
+public class AdaptiveLimiter {
+
+    // weight of one sample in the long-term average, roughly a window of the last 100 requests
+    private static final double LONG_RTT_WEIGHT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double smoothing;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+    private volatile long lastRttNanos;
+    private double longRttNanos;
+
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double smoothing, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.smoothing = smoothing;
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1.0);
+    }
+
+    // admits only while in-flight requests stay below share of the limit, so lower priority
+    // traffic is turned away first as the limit shrinks
+    public boolean tryAcquire(double share) {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) (limit * share)) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(long rttNanos) {
+        int inFlightAtRelease = inFlight.getAndDecrement();
+        sample(rttNanos, inFlightAtRelease);
+    }
+
+    // gives back a permit without a latency sample, for requests rejected further down the line
+    public void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    // whole seconds a rejected client should wait: the latest latency, at least one second
+    public long retryAfterSeconds() {
+        return Math.max(1, (long) Math.ceil(lastRttNanos / 1_000_000_000.0));
+    }
+
+    private synchronized void sample(long rttNanos, int inFlightAtRelease) {
+        long rtt = Math.max(1, rttNanos);
+        lastRttNanos = rtt;
+        if (longRttNanos == 0) {
+            longRttNanos = rtt;
+            return;
+        }
+        longRttNanos = longRttNanos * (1 - LONG_RTT_WEIGHT) + rtt * LONG_RTT_WEIGHT;
+        // after a slow period the average would otherwise stay high and hide the next overload
+        if (longRttNanos > 2 * rtt) {
+            longRttNanos *= 0.95;
+        }
+        // a group running far below its limit says nothing about how much more it could take
+        if (inFlightAtRelease < limit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRttNanos / rtt));
+        double target = limit * gradient + Math.sqrt(limit);
+        double next = limit * (1 - smoothing) + target * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
@@ -0,0 +1,40 @@
+package by.losik.filter;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.Base64;
+
+// Checks a Basic Authorization header against the configured user, for BasicAuthFilter and the
+// gRPC BasicAuthInterceptor alike
+@ApplicationScoped
+@Slf4j
+public class BasicCredentials {
+    @ConfigProperty(name = "app.auth.username")
+    String VALID_USERNAME;
+    @ConfigProperty(name = "app.auth.password")
+    String VALID_PASSWORD;
+
+    public boolean matches(String authHeader) {
+        if (authHeader == null || !authHeader.startsWith("Basic ")) {
+            return false;
+        }
+
+        try {
+            String[] values = new String(
+                    Base64.getDecoder()
+                            .decode(authHeader.substring("Basic ".length()))).split(":", 2);
+
+            if (values.length == 2 &&
+                    VALID_USERNAME.equals(values[0]) &&
+                    VALID_PASSWORD.equals(values[1])) {
+                log.info("Success! for {}", VALID_USERNAME);
+                return true;
+            }
+        } catch (Exception e) {
+            log.error("Fail! for {}", VALID_USERNAME);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,66 @@
+package by.losik.filter;
+
+import by.losik.configuration.RequestDeadline;
+import jakarta.annotation.Priority;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerRequestFilter;
+import jakarta.ws.rs.container.ResourceInfo;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.ext.Provider;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+
+// Starts the request deadline before anything else runs. The budget is the @Timeout of the
+// matched endpoint (method first, then its resource class), so bulk endpoints with a longer
+// timeout keep their time; app.deadline.budget-ms applies to endpoints without one. Clients may
+// ask for a shorter budget with X-Request-Timeout (milliseconds), never a longer one.
+@Provider
+@Priority(Priorities.AUTHENTICATION - 100)
+@Slf4j
+public class DeadlineFilter implements ContainerRequestFilter {
+
+    static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    @ConfigProperty(name = "app.deadline.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.deadline.budget-ms", defaultValue = "5000")
+    long budgetMillis;
+
+    @Context
+    ResourceInfo resourceInfo;
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        if (!enabled) {
+            return;
+        }
+        long limit = endpointBudgetMillis(resourceInfo.getResourceMethod());
+        long budget = limit;
+        String requested = requestContext.getHeaderString(TIMEOUT_HEADER);
+        if (requested != null) {
+            try {
+                budget = Math.max(1, Math.min(limit, Long.parseLong(requested.trim())));
+            } catch (NumberFormatException e) {
+                log.debug("Ignoring invalid {} header: {}", TIMEOUT_HEADER, requested);
+            }
+        }
+        RequestDeadline.start(budget);
+    }
+
+    long endpointBudgetMillis(Method method) {
+        if (method == null) {
+            return budgetMillis;
+        }
+        Timeout timeout = method.getAnnotation(Timeout.class);
+        if (timeout == null) {
+            timeout = method.getDeclaringClass().getAnnotation(Timeout.class);
+        }
+        return timeout != null ? Duration.of(timeout.value(), timeout.unit()).toMillis() : budgetMillis;
+    }
+}
@@ -0,0 +1,232 @@
+package by.losik.filter;
+
+import by.losik.dto.IdempotentResponse;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import io.vertx.mutiny.core.Vertx;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Priorities;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.resteasy.reactive.server.ServerRequestFilter;
+import org.jboss.resteasy.reactive.server.ServerResponseFilter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Set;
+
+// Makes client retries of writes safe. A POST, PUT, PATCH or DELETE carrying an Idempotency-Key
+// claims the key in Redis before the resource runs, and its response is kept under the key for
+// app.idempotency.ttl; a retry with the same key gets that response back without reaching the
+// service layer. A retry arriving while the first execution still runs waits for its response, up
+// to app.idempotency.wait. The key is bound to a hash of the request body: reusing it for another
+// payload is answered with 422. Only 2xx and deterministic 4xx responses are kept; any other
+// response releases the key so the request can really be retried. 400 is not kept, because the
+// resources also answer service failures and expired deadlines with it.
+// Reactive filters rather than a ContainerRequestFilter, so the Redis round trips do not block.
+// When Redis is unavailable the request runs without replay protection instead of failing.
+@Slf4j
+public class IdempotencyFilter {
+
+    static final String KEY_HEADER = "Idempotency-Key";
+    static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final String KEY_PROPERTY = IdempotencyFilter.class.getName() + ".key";
+    private static final String HASH_PROPERTY = IdempotencyFilter.class.getName() + ".hash";
+    private static final String PENDING = "pending:";
+    private static final int UNPROCESSABLE_ENTITY = 422;
+    // the same request is answered the same way however often it is sent
+    private static final Set<Integer> DETERMINISTIC_CLIENT_ERRORS = Set.of(404, 405, 409, 410, 413, 415, 422);
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final Set<String> METHODS = Set.of("POST", "PUT", "PATCH", "DELETE");
+
+    @ConfigProperty(name = "app.idempotency.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.idempotency.ttl", defaultValue = "24h")
+    Duration ttl;
+
+    // outlives the longest resource @Timeout, so only a crashed execution loses its key this way
+    @ConfigProperty(name = "app.idempotency.lock-ttl", defaultValue = "5m")
+    Duration lockTtl;
+
+    @ConfigProperty(name = "app.idempotency.wait", defaultValue = "10s")
+    Duration wait;
+
+    @ConfigProperty(name = "app.idempotency.poll-interval", defaultValue = "100ms")
+    Duration pollInterval;
+
+    @Inject
+    ReactiveRedisDataSource redis;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    Vertx vertx;
+
+    // after authentication, before the concurrency limiter so replays and waiters hold no permit
+    @ServerRequestFilter(priority = Priorities.USER - 100)
+    public Uni<Response> claim(ContainerRequestContext requestContext) {
+        String key = requestContext.getHeaderString(KEY_HEADER);
+        if (!enabled || key == null || !METHODS.contains(requestContext.getMethod())) {
+            return Uni.createFrom().nullItem();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(KEY_HEADER + " must be between 1 and " + MAX_KEY_LENGTH + " characters")
+                    .build());
+        }
+        String redisKey = "idempotency:" + requestContext.getMethod() + ":"
+                + requestContext.getUriInfo().getPath() + ":" + key;
+        String hash = hashBody(requestContext);
+        return claim(requestContext, redisKey, hash, System.nanoTime() + wait.toNanos())
+                .onFailure().recoverWithItem(throwable -> {
+                    log.warn("Idempotency store unavailable, running {} without replay protection", redisKey, throwable);
+                    return null;
+                });
+    }
+
+    @ServerResponseFilter(priority = Priorities.USER - 100)
+    public Uni<Void> store(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        Object key = requestContext.getProperty(KEY_PROPERTY);
+        if (key == null) {
+            return Uni.createFrom().voidItem();
+        }
+        requestContext.removeProperty(KEY_PROPERTY);
+        String redisKey = (String) key;
+        String stored = isReplayable(responseContext.getStatus())
+                ? serialize(responseContext, (String) requestContext.getProperty(HASH_PROPERTY))
+                : null;
+        Uni<Void> write = stored != null
+                ? redis.value(String.class).psetex(redisKey, ttl.toMillis(), stored)
+                : redis.key().del(redisKey).replaceWithVoid();
+        return write
+                .onFailure().invoke(throwable -> log.warn("Error storing the response for {}", redisKey, throwable))
+                .onFailure().recoverWithNull();
+    }
+
+    private Uni<Response> claim(ContainerRequestContext requestContext, String redisKey, String hash, long deadline) {
+        return redis.execute("SET", redisKey, PENDING + hash, "NX", "PX", String.valueOf(lockTtl.toMillis()))
+                .onItem().transformToUni(claimed -> {
+                    if (claimed != null) {
+                        requestContext.setProperty(KEY_PROPERTY, redisKey);
+                        requestContext.setProperty(HASH_PROPERTY, hash);
+                        return Uni.createFrom().nullItem();
+                    }
+                    return redis.value(String.class).get(redisKey)
+                            .onItem().transformToUni(stored -> {
+                                // released by a failed first execution since the SET; claim it again
+                                if (stored == null) {
+                                    return claim(requestContext, redisKey, hash, deadline);
+                                }
+                                if (!stored.startsWith(PENDING)) {
+                                    IdempotentResponse response = read(stored);
+                                    // responses stored before keys were bound to a body carry no hash
+                                    if (response.getRequestHash() != null && !hash.equals(response.getRequestHash())) {
+                                        return Uni.createFrom().item(mismatch());
+                                    }
+                                    log.debug("Replaying stored response for {}", redisKey);
+                                    return Uni.createFrom().item(replay(response));
+                                }
+                                if (!stored.substring(PENDING.length()).equals(hash)) {
+                                    return Uni.createFrom().item(mismatch());
+                                }
+                                if (System.nanoTime() > deadline) {
+                                    return Uni.createFrom().item(Response.status(Response.Status.CONFLICT)
+                                            .header("Retry-After", Math.max(1, pollInterval.toSeconds()))
+                                            .entity("A request with this " + KEY_HEADER + " is still in progress")
+                                            .build());
+                                }
+                                return delay().onItem().transformToUni(ignored -> claim(requestContext, redisKey, hash, deadline));
+                            });
+                });
+    }
+
+    // a Vert.x timer keeps the retry on the request's context
+    private Uni<Void> delay() {
+        return Uni.createFrom().emitter(emitter ->
+                vertx.setTimer(pollInterval.toMillis(), id -> emitter.complete(null)));
+    }
+
+    private static boolean isReplayable(int status) {
+        return status >= 200 && status < 300 || DETERMINISTIC_CLIENT_ERRORS.contains(status);
+    }
+
+    // the body is already buffered for the resource method; it is put back after hashing
+    private static String hashBody(ContainerRequestContext requestContext) {
+        byte[] body = new byte[0];
+        if (requestContext.hasEntity()) {
+            try {
+                body = requestContext.getEntityStream().readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unreadable request body", e);
+            }
+            requestContext.setEntityStream(new ByteArrayInputStream(body));
+        }
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static Response mismatch() {
+        return Response.status(UNPROCESSABLE_ENTITY)
+                .entity(KEY_HEADER + " was already used for a different request body")
+                .build();
+    }
+
+    private IdempotentResponse read(String stored) {
+        try {
+            return objectMapper.readValue(stored, IdempotentResponse.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable stored response", e);
+        }
+    }
+
+    private Response replay(IdempotentResponse response) {
+        Response.ResponseBuilder builder = Response.status(response.getStatus())
+                .header(REPLAYED_HEADER, "true")
+                .entity(response.getBody());
+        if (response.getContentType() != null) {
+            builder.type(response.getContentType());
+        }
+        if (response.getLocation() != null) {
+            builder.header(HttpHeaders.LOCATION, response.getLocation());
+        }
+        return builder.build();
+    }
+
+    // null when the entity cannot be written, which releases the key instead
+    private String serialize(ContainerResponseContext responseContext, String requestHash) {
+        try {
+            Object entity = responseContext.getEntity();
+            IdempotentResponse response = new IdempotentResponse();
+            response.setRequestHash(requestHash);
+            response.setStatus(responseContext.getStatus());
+            response.setContentType(responseContext.getMediaType() != null
+                    ? responseContext.getMediaType().toString()
+                    : null);
+            response.setLocation(responseContext.getHeaderString(HttpHeaders.LOCATION));
+            response.setBody(entity == null || entity instanceof String
+                    ? (String) entity
+                    : objectMapper.writeValueAsString(entity));
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            log.warn("Error serializing a response for replay", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package by.losik.filter;
+
+// Admission classes in the order they are shed under overload: analytics first, critical writes last
+public enum RequestClass {
+    ANALYTICS,
+    BULK,
+    DEFAULT,
+    CRITICAL
+}
@@ -0,0 +1,75 @@
+package by.losik.filter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Resolves the admission class of a request: a @Shedding annotation on the method or resource
+// class wins, then the first app.shedding.paths.<class> entry that matches, then DEFAULT.
+// Path entries are regular expressions found anywhere in the path, optionally prefixed with an
+// HTTP method, e.g. "POST /invoices$".
+@ApplicationScoped
+public class RequestClassifier {
+
+    private final Map<RequestClass, List<PathRule>> rules = new EnumMap<>(RequestClass.class);
+    private final Map<Method, Optional<RequestClass>> annotated = new ConcurrentHashMap<>();
+
+    private record PathRule(String method, Pattern pattern) {
+    }
+
+    @PostConstruct
+    void loadRules() {
+        for (RequestClass requestClass : RequestClass.values()) {
+            List<PathRule> classRules = new ArrayList<>();
+            ConfigProvider.getConfig()
+                    .getOptionalValues("app.shedding.paths." + requestClass.name().toLowerCase(), String.class)
+                    .ifPresent(entries -> entries.forEach(entry -> classRules.add(rule(entry.trim()))));
+            rules.put(requestClass, classRules);
+        }
+    }
+
+    public RequestClass classify(String httpMethod, String path, Method resourceMethod) {
+        if (resourceMethod != null) {
+            Optional<RequestClass> pinned = annotated.computeIfAbsent(resourceMethod, RequestClassifier::annotation);
+            if (pinned.isPresent()) {
+                return pinned.get();
+            }
+        }
+        // most important classes first, so a write matching both a critical and a bulk rule is kept
+        for (int i = RequestClass.values().length - 1; i >= 0; i--) {
+            RequestClass requestClass = RequestClass.values()[i];
+            for (PathRule rule : rules.get(requestClass)) {
+                if ((rule.method() == null || rule.method().equalsIgnoreCase(httpMethod))
+                        && rule.pattern().matcher(path).find()) {
+                    return requestClass;
+                }
+            }
+        }
+        return RequestClass.DEFAULT;
+    }
+
+    private static Optional<RequestClass> annotation(Method method) {
+        Shedding shedding = method.getAnnotation(Shedding.class);
+        if (shedding == null) {
+            shedding = method.getDeclaringClass().getAnnotation(Shedding.class);
+        }
+        return Optional.ofNullable(shedding).map(Shedding::value);
+    }
+
+    private static PathRule rule(String entry) {
+        int space = entry.indexOf(' ');
+        if (space > 0 && entry.substring(0, space).chars().allMatch(Character::isLetter)) {
+            return new PathRule(entry.substring(0, space), Pattern.compile(entry.substring(space + 1).trim()));
+        }
+        return new PathRule(null, Pattern.compile(entry));
+    }
+}
@@ -0,0 +1,87 @@
+package by.losik.filter;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.ConfigProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// The one limiter shared by all API traffic, REST requests and gRPC ingestion batches alike,
+// standing in for database capacity. Each RequestClass may fill only its app.shedding.share.<class>
+// of the limit, so as the limit shrinks analytics are turned away first, then bulk work, and
+// critical writes last. With app.shedding.enabled=false everything is admitted and nothing counted.
+@ApplicationScoped
+public class SharedLimiter {
+
+    private static final Map<RequestClass, Double> DEFAULT_SHARES = Map.of(
+            RequestClass.ANALYTICS, 0.5,
+            RequestClass.BULK, 0.7,
+            RequestClass.DEFAULT, 0.9,
+            RequestClass.CRITICAL, 1.0);
+
+    @ConfigProperty(name = "app.shedding.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.shedding.initial-limit", defaultValue = "50")
+    int initialLimit;
+
+    @ConfigProperty(name = "app.shedding.max-limit", defaultValue = "400")
+    int maxLimit;
+
+    @ConfigProperty(name = "app.concurrency.min-limit", defaultValue = "5")
+    int minLimit;
+
+    @ConfigProperty(name = "app.concurrency.smoothing", defaultValue = "0.2")
+    double smoothing;
+
+    @ConfigProperty(name = "app.concurrency.tolerance", defaultValue = "1.5")
+    double tolerance;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final Map<RequestClass, Double> shares = new EnumMap<>(RequestClass.class);
+    private AdaptiveLimiter limiter;
+
+    @PostConstruct
+    void init() {
+        for (RequestClass requestClass : RequestClass.values()) {
+            shares.put(requestClass, ConfigProvider.getConfig()
+                    .getOptionalValue("app.shedding.share." + requestClass.name().toLowerCase(), Double.class)
+                    .orElse(DEFAULT_SHARES.get(requestClass)));
+        }
+        limiter = new AdaptiveLimiter(initialLimit, minLimit, maxLimit, smoothing, tolerance);
+        Gauge.builder("http.shedding.limit", limiter, AdaptiveLimiter::getLimit).register(meterRegistry);
+        Gauge.builder("http.shedding.in.flight", limiter, AdaptiveLimiter::getInFlight).register(meterRegistry);
+    }
+
+    public boolean tryAcquire(RequestClass requestClass) {
+        return !enabled || limiter.tryAcquire(shares.get(requestClass));
+    }
+
+    public void release(long rttNanos) {
+        if (enabled) {
+            limiter.release(rttNanos);
+        }
+    }
+
+    // for work whose duration says nothing about database latency, or that never ran
+    public void cancel() {
+        if (enabled) {
+            limiter.cancel();
+        }
+    }
+
+    public int getLimit() {
+        return limiter.getLimit();
+    }
+
+    public long retryAfterSeconds() {
+        return limiter.retryAfterSeconds();
+    }
+}
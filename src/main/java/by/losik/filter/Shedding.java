@@ -0,0 +1,13 @@
+package by.losik.filter;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Pins the admission class of a resource method or class; takes precedence over app.shedding.paths.*
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface Shedding {
+    RequestClass value();
+}
@@ -0,0 +1,36 @@
+package by.losik.grpc;
+
+import by.losik.filter.BasicCredentials;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.quarkus.grpc.GlobalInterceptor;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+// BasicAuthFilter for gRPC calls, which bypass the REST filters; checked once per call, not per
+// streamed record
+@ApplicationScoped
+@GlobalInterceptor
+public class BasicAuthInterceptor implements ServerInterceptor {
+
+    private static final Metadata.Key<String> AUTHORIZATION =
+            Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+    @Inject
+    BasicCredentials basicCredentials;
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        if (basicCredentials.matches(headers.get(AUTHORIZATION))) {
+            return next.startCall(call, headers);
+        }
+
+        call.close(Status.UNAUTHENTICATED.withDescription("Authentication required"), new Metadata());
+        return new ServerCall.Listener<>() {
+        };
+    }
+}
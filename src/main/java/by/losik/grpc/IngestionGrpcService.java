@@ -0,0 +1,252 @@
+package by.losik.grpc;
+
+import by.losik.configuration.DeadlineExceededException;
+import by.losik.configuration.RequestDeadline;
+import by.losik.entity.Customer;
+import by.losik.entity.Invoice;
+import by.losik.entity.InvoiceItem;
+import by.losik.entity.PriceHistory;
+import by.losik.entity.Product;
+import by.losik.entity.Settlement;
+import by.losik.filter.RequestClass;
+import by.losik.filter.SharedLimiter;
+import by.losik.service.InvoiceItemService;
+import by.losik.service.InvoiceService;
+import by.losik.service.PriceHistoryService;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.quarkus.grpc.GrpcService;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Client-streaming bulk ingestion for the ERP feed, served by the HTTP server over HTTP/2.
+// Records are validated one by one and stored in batches of app.ingestion.batch-size through the
+// services' saveAll, one transaction per batch; a failed batch is stored again in halves, so only
+// the records that fail on their own report the error. Batches are written one after another, so
+// gRPC flow control holds a fast client back.
+// Each batch takes a BULK permit of the SharedLimiter the REST API is admitted by; a shed batch
+// reports every record as busy. A gRPC deadline becomes the request deadline of the call, which
+// caps its statements like a REST request's. There is no idempotency key: a resent stream stores
+// its records again, so a client resends only the records whose result carries an error.
+@GrpcService
+@Slf4j
+public class IngestionGrpcService implements Ingestion {
+
+    @ConfigProperty(name = "app.ingestion.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @Inject
+    InvoiceService invoiceService;
+
+    @Inject
+    InvoiceItemService invoiceItemService;
+
+    @Inject
+    PriceHistoryService priceHistoryService;
+
+    @Inject
+    SharedLimiter sharedLimiter;
+
+    @Override
+    public Uni<IngestSummary> ingestInvoices(Multi<InvoiceRecord> request) {
+        return ingest("invoices", request, IngestionGrpcService::toInvoice, invoiceService::saveAll, Invoice::getId);
+    }
+
+    @Override
+    public Uni<IngestSummary> ingestInvoiceItems(Multi<InvoiceItemRecord> request) {
+        return ingest("invoice items", request, IngestionGrpcService::toInvoiceItem, invoiceItemService::saveAll,
+                InvoiceItem::getId);
+    }
+
+    @Override
+    public Uni<IngestSummary> ingestPriceHistory(Multi<PriceHistoryRecord> request) {
+        return ingest("price histories", request, IngestionGrpcService::toPriceHistory, priceHistoryService::saveAll,
+                PriceHistory::getId);
+    }
+
+    private <R, T> Uni<IngestSummary> ingest(String target, Multi<R> records, Function<R, T> mapper,
+                                             Function<List<T>, Uni<Void>> writer, Function<T, Long> idOf) {
+        log.info("Ingesting {} over gRPC", target);
+        Deadline deadline = Context.current().getDeadline();
+        if (deadline != null) {
+            RequestDeadline.start(Math.max(1, deadline.timeRemaining(TimeUnit.MILLISECONDS)));
+        }
+        AtomicInteger position = new AtomicInteger();
+        return records
+                .group().intoLists().of(batchSize)
+                .onItem().transformToUniAndConcatenate(batch ->
+                        write(target, batch, position, mapper, writer, idOf))
+                .collect().in(IngestSummary::newBuilder, IngestSummary.Builder::addAllResults)
+                .onItem().transform(summary -> {
+                    int rejected = (int) summary.getResultsList().stream()
+                            .filter(result -> !result.getError().isEmpty())
+                            .count();
+                    log.info("Ingested {} {} over gRPC, rejected {}",
+                            summary.getResultsCount() - rejected, target, rejected);
+                    return summary.setAccepted(summary.getResultsCount() - rejected)
+                            .setRejected(rejected)
+                            .build();
+                })
+                .onFailure().invoke(throwable -> log.error("Error ingesting {} over gRPC", target, throwable));
+    }
+
+    private <R, T> Uni<List<RecordResult>> write(String target, List<R> batch, AtomicInteger position,
+                                                 Function<R, T> mapper, Function<List<T>, Uni<Void>> writer,
+                                                 Function<T, Long> idOf) {
+        List<RecordResult.Builder> results = new ArrayList<>(batch.size());
+        List<RecordResult.Builder> pending = new ArrayList<>(batch.size());
+        List<R> valid = new ArrayList<>(batch.size());
+        for (R record : batch) {
+            RecordResult.Builder result = RecordResult.newBuilder().setIndex(position.getAndIncrement());
+            results.add(result);
+            try {
+                mapper.apply(record);
+                valid.add(record);
+                pending.add(result);
+            } catch (IllegalArgumentException e) {
+                result.setError(e.getMessage());
+            }
+        }
+        if (valid.isEmpty()) {
+            return Uni.createFrom().item(() -> build(results));
+        }
+        if (!sharedLimiter.tryAcquire(RequestClass.BULK)) {
+            log.warn("Shedding a batch of {} {}: shared concurrency limit {} reached",
+                    valid.size(), target, sharedLimiter.getLimit());
+            pending.forEach(result -> result.setError("Server is busy, retry later"));
+            return Uni.createFrom().item(() -> build(results));
+        }
+        // a batch runs far longer than a request, so it holds a permit without feeding its latency
+        return store(target, valid, pending, mapper, writer, idOf)
+                .onTermination().invoke(() -> sharedLimiter.cancel())
+                .onItem().transform(ignored -> build(results));
+    }
+
+    // entities are mapped again on every attempt: a rolled back persist leaves its generated ids behind
+    private <R, T> Uni<Void> store(String target, List<R> records, List<RecordResult.Builder> results,
+                                   Function<R, T> mapper, Function<List<T>, Uni<Void>> writer,
+                                   Function<T, Long> idOf) {
+        List<T> entities = new ArrayList<>(records.size());
+        for (R record : records) {
+            entities.add(mapper.apply(record));
+        }
+        return writer.apply(entities)
+                .onItem().invoke(() -> {
+                    for (int i = 0; i < entities.size(); i++) {
+                        Long id = idOf.apply(entities.get(i));
+                        if (id != null) {
+                            results.get(i).setId(id);
+                        }
+                    }
+                })
+                .onFailure().recoverWithUni(throwable -> {
+                    if (records.size() > 1 && !(throwable instanceof DeadlineExceededException)) {
+                        log.warn("Error storing a batch of {} {}, storing it again in halves",
+                                records.size(), target, throwable);
+                        int half = records.size() / 2;
+                        return store(target, records.subList(0, half), results.subList(0, half),
+                                mapper, writer, idOf)
+                                .chain(() -> store(target, records.subList(half, records.size()),
+                                        results.subList(half, records.size()), mapper, writer, idOf));
+                    }
+                    log.warn("Rejecting {} {}: {}", records.size(), target, throwable.getMessage());
+                    String error = throwable.getMessage() != null ? throwable.getMessage() : throwable.toString();
+                    results.forEach(result -> result.setError(error));
+                    return Uni.createFrom().voidItem();
+                });
+    }
+
+    private static List<RecordResult> build(List<RecordResult.Builder> results) {
+        return results.stream().map(RecordResult.Builder::build).toList();
+    }
+
+    // the same checks as the REST create endpoints; IllegalArgumentException rejects the record
+    private static Invoice toInvoice(InvoiceRecord record) {
+        Customer customer = new Customer();
+        customer.setId(requireId(record.getCustomerId(), "Customer"));
+        Settlement settlement = new Settlement();
+        settlement.setId(requireId(record.getSettlementId(), "Settlement"));
+        if (record.getEnterprise().isBlank()) {
+            throw new IllegalArgumentException("Enterprise name is required");
+        }
+
+        Invoice invoice = new Invoice();
+        invoice.setCustomer(customer);
+        invoice.setSettlement(settlement);
+        invoice.setInvoiceDate(requireDate(record.getInvoiceDate(), "Invoice date"));
+        invoice.setTotalAmount(requirePositive(record.getTotalAmount(), "Total amount"));
+        invoice.setEnterprise(record.getEnterprise().trim());
+        return invoice;
+    }
+
+    private static InvoiceItem toInvoiceItem(InvoiceItemRecord record) {
+        Invoice invoice = new Invoice();
+        invoice.setId(requireId(record.getInvoiceId(), "Invoice"));
+        Product product = new Product();
+        product.setId(requireId(record.getProductId(), "Product"));
+        if (record.getQuantity() <= 0) {
+            throw new IllegalArgumentException("Quantity must be greater than 0");
+        }
+
+        InvoiceItem item = new InvoiceItem();
+        item.setInvoice(invoice);
+        item.setProduct(product);
+        item.setQuantity(BigInteger.valueOf(record.getQuantity()));
+        item.setPrice(requirePositive(record.getPrice(), "Price"));
+        return item;
+    }
+
+    private static PriceHistory toPriceHistory(PriceHistoryRecord record) {
+        Product product = new Product();
+        product.setId(requireId(record.getProductId(), "Product"));
+
+        PriceHistory priceHistory = new PriceHistory();
+        priceHistory.setProduct(product);
+        priceHistory.setChangeDate(requireDate(record.getChangeDate(), "Change date"));
+        priceHistory.setPrice(requirePositive(record.getPrice(), "Price"));
+        return priceHistory;
+    }
+
+    private static Long requireId(long id, String name) {
+        if (id <= 0) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        return id;
+    }
+
+    private static Date requireDate(String date, String name) {
+        if (date.isBlank()) {
+            throw new IllegalArgumentException(name + " is required");
+        }
+        try {
+            return Date.valueOf(date.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(name + " must be yyyy-MM-dd");
+        }
+    }
+
+    private static BigDecimal requirePositive(String amount, String name) {
+        BigDecimal value;
+        try {
+            value = new BigDecimal(amount.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a decimal number");
+        }
+        if (value.compareTo(BigDecimal.ZERO) <= 0) {
+            throw new IllegalArgumentException(name + " must be greater than 0");
+        }
+        return value;
+    }
+}
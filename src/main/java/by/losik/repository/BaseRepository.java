@@ -1,15 +1,44 @@
 package by.losik.repository;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.hibernate.reactive.panache.Panache;
 import io.quarkus.hibernate.reactive.panache.PanacheRepository;
 import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
 import io.quarkus.panache.common.Page;
 import io.quarkus.panache.common.Sort;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import jakarta.persistence.Column;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.Table;
+import org.hibernate.reactive.mutiny.Mutiny;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class BaseRepository<T> implements PanacheRepository<T> {
 
+    private static final String VERSION_COLUMN = "version";
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    EntityChangeRepository entityChangeRepository;
+
     @WithTransaction
     public Uni<List<T>> findAllSorted(Sort sort) {
         return listAll(sort);
@@ -20,6 +49,15 @@ public abstract class BaseRepository<T> implements PanacheRepository<T> {
         return find("id", id).firstResult();
     }
 
+    // one IN query for the whole id list; ids without a row are simply absent from the result
+    @WithTransaction
+    public Uni<List<T>> findByIds(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return Uni.createFrom().item(List.of());
+        }
+        return find("id in ?1", ids).list();
+    }
+
     @WithTransaction
     public Uni<List<T>> findByField(String fieldName, Object value) {
         return find(fieldName, value).list();
@@ -47,6 +85,52 @@ public abstract class BaseRepository<T> implements PanacheRepository<T> {
         return findAll(sort).page(page).list();
     }
 
+    // reads only the requested fields (id is always included) and returns one {field: value} map per
+    // row; a relation is read as its foreign key and returned as {"id": ...}, the shape of the entity
+    @WithTransaction
+    public Uni<List<Map<String, Object>>> findPaginatedSortedFields(List<String> fields, int pageIndex, int pageSize, Sort sort) {
+        Class<T> entityClass = entityClass();
+        List<String> selected = new ArrayList<>();
+        selected.add(idField(entityClass));
+        for (String field : fields) {
+            if (!selected.contains(field)) {
+                selected.add(field);
+            }
+        }
+        List<Boolean> relations = new ArrayList<>(selected.size());
+        StringBuilder hql = new StringBuilder("SELECT ");
+        for (int i = 0; i < selected.size(); i++) {
+            boolean relation = isRelation(declaredField(entityClass, selected.get(i)));
+            relations.add(relation);
+            hql.append(i > 0 ? ", " : "").append(path(entityClass, selected.get(i)));
+        }
+        hql.append(" FROM ").append(entityClass.getSimpleName()).append(" e");
+        if (sort != null && !sort.getColumns().isEmpty()) {
+            hql.append(" ORDER BY ");
+            for (int i = 0; i < sort.getColumns().size(); i++) {
+                Sort.Column column = sort.getColumns().get(i);
+                hql.append(i > 0 ? ", " : "").append(path(entityClass, column.getName()))
+                        .append(column.getDirection() == Sort.Direction.Descending ? " DESC" : " ASC");
+            }
+        }
+        return getSession().flatMap(session ->
+                session.createQuery(hql.toString(), Object[].class)
+                        .setFirstResult(pageIndex * pageSize)
+                        .setMaxResults(pageSize)
+                        .getResultList()
+        ).map(rows -> {
+            List<Map<String, Object>> projected = new ArrayList<>(rows.size());
+            for (Object[] row : rows) {
+                Map<String, Object> values = new LinkedHashMap<>();
+                for (int i = 0; i < selected.size(); i++) {
+                    values.put(selected.get(i), relations.get(i) && row[i] != null ? Map.of("id", row[i]) : row[i]);
+                }
+                projected.add(values);
+            }
+            return projected;
+        });
+    }
+
     @WithTransaction
     public Uni<List<T>> findByFieldPaginated(String fieldName, Object value, int pageIndex, int pageSize) {
         Page page = Page.of(pageIndex, pageSize);
@@ -76,26 +160,95 @@ public abstract class BaseRepository<T> implements PanacheRepository<T> {
 
     @WithTransaction
     public Uni<T> save(T entity) {
-        return persist(entity);
+        return persist(entity)
+                .call(saved -> recordChange(saved, EntityChangeRepository.OPERATION_SAVE, null));
     }
 
+    // the references are read before the merge too, so a moved row is recorded under both parents
     @WithTransaction
     public Uni<T> update(T entity) {
-        return getSession().flatMap(session -> session.merge(entity));
+        return currentRefs(idOf(entity))
+                .flatMap(previous -> getSession().flatMap(session -> session.merge(entity))
+                        .call(updated -> recordChange(updated, EntityChangeRepository.OPERATION_UPDATE, previous)));
+    }
+
+    @WithTransaction
+    public Uni<Void> remove(T entity) {
+        return removeById(idOf(entity)).replaceWithVoid();
+    }
+
+    // the references are read before the delete, since consumers cannot look up a deleted row
+    @WithTransaction
+    public Uni<Boolean> removeById(Long id) {
+        return currentRefs(id)
+                .flatMap(refs -> delete("id", id)
+                        .call(count -> count > 0
+                                ? entityChangeRepository.record(entityClass().getSimpleName(), id,
+                                        EntityChangeRepository.OPERATION_DELETE, refs)
+                                : Uni.createFrom().voidItem()))
+                .map(count -> count > 0);
+    }
+
+    // one UPDATE ... RETURNING instead of merge's select-then-update; null when no row matched.
+    // The version column is bumped by a trigger, so every writer invalidates a stale expectedVersion
+    @WithTransaction
+    public Uni<T> patch(Long id, Map<String, Object> changes, Long expectedVersion) {
+        Class<T> entityClass = entityClass();
+        return Uni.createFrom().item(() -> toColumns(entityClass, changes))
+                .onItem().transformToUni(columns -> (relinks(entityClass, columns.keySet())
+                        ? currentRefs(id)
+                        : Uni.createFrom().<String>nullItem())
+                        .flatMap(previous -> patchColumns(entityClass, id, columns, expectedVersion)
+                                .call(patched -> patched != null
+                                        ? recordChange(patched, EntityChangeRepository.OPERATION_UPDATE, previous)
+                                        : Uni.createFrom().voidItem())));
+    }
+
+    private Uni<T> patchColumns(Class<T> entityClass, Long id, Map<String, Object> columns, Long expectedVersion) {
+        return getSession().flatMap(session -> {
+            Table table = entityClass.getAnnotation(Table.class);
+            StringBuilder sql = new StringBuilder("UPDATE ")
+                    .append(table.schema()).append('.').append(table.name()).append(" SET ");
+            int i = 0;
+            for (String column : columns.keySet()) {
+                sql.append(i == 0 ? "" : ", ").append(column).append(" = :value").append(i++);
+            }
+            sql.append(" WHERE id = :id");
+            if (expectedVersion != null) {
+                sql.append(" AND ").append(VERSION_COLUMN).append(" = :expectedVersion");
+            }
+            sql.append(" RETURNING *");
+
+            Mutiny.SelectionQuery<T> update = session.createNativeQuery(sql.toString(), entityClass);
+            i = 0;
+            for (Object value : columns.values()) {
+                update.setParameter("value" + i++, value);
+            }
+            update.setParameter("id", id);
+            if (expectedVersion != null) {
+                update.setParameter("expectedVersion", expectedVersion);
+            }
+            return update.getSingleResultOrNull();
+        });
     }
 
     @WithTransaction
     public Uni<Long> deleteByField(String fieldName, Object value) {
-        return delete(fieldName, value);
+        return delete(fieldName, value)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Integer> updateField(Long id, String fieldName, Object newValue) {
-        return update(fieldName + " = ?1 where id = ?2", newValue, id);
+        return update(fieldName + " = ?1 where id = ?2", newValue, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
     @WithTransaction
     public Uni<Void> saveAll(List<T> entities) {
-        return persist(entities);
+        return persist(entities)
+                .call(() -> entityChangeRepository.recordAll(entityClass().getSimpleName(),
+                        entities.stream().map(this::idOf).toList(),
+                        entities.stream().map(this::refsOf).toList(), EntityChangeRepository.OPERATION_SAVE));
     }
 
     @WithTransaction
@@ -147,4 +300,256 @@ public abstract class BaseRepository<T> implements PanacheRepository<T> {
     public Uni<Boolean> existsById(Long id) {
         return existsByField("id", id);
     }
-}
\ No newline at end of file
+
+    // maps merge-patch members to columns; a relation is patched with {"id": ...}
+    private Map<String, Object> toColumns(Class<T> entityClass, Map<String, Object> changes) {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Field field = declaredField(entityClass, change.getKey());
+            Object value = change.getValue();
+            Column column = field.getAnnotation(Column.class);
+            JoinColumn joinColumn = field.getAnnotation(JoinColumn.class);
+            if (field.isAnnotationPresent(Id.class) || (column != null && !column.updatable())) {
+                throw new IllegalArgumentException("Field cannot be patched: " + change.getKey());
+            }
+            if (column != null) {
+                if (value == null && !column.nullable()) {
+                    throw new IllegalArgumentException("Field must not be null: " + change.getKey());
+                }
+                columns.put(column.name(), value != null ? objectMapper.convertValue(value, field.getType()) : null);
+            } else if (joinColumn != null) {
+                if (!(value instanceof Map<?, ?> reference) || reference.get("id") == null) {
+                    throw new IllegalArgumentException("Field must reference an id: " + change.getKey());
+                }
+                columns.put(joinColumn.name(), objectMapper.convertValue(reference.get("id"), Long.class));
+            } else {
+                throw new IllegalArgumentException("Field cannot be patched: " + change.getKey());
+            }
+        }
+        return columns;
+    }
+
+    protected Uni<Void> recordChange(T entity, String operation, String previousRefs) {
+        return entityChangeRepository.record(entityClass().getSimpleName(), idOf(entity), operation,
+                joinRefs(previousRefs, refsOf(entity)));
+    }
+
+    // for statements that bypass the entity: a known id is recorded with the row's references as they
+    // are after the statement, a null id as one bulk change of the entity
+    protected Uni<Void> recordWrite(Number count, Long id, String operation) {
+        if (count.longValue() == 0) {
+            return Uni.createFrom().voidItem();
+        }
+        if (id == null) {
+            return entityChangeRepository.record(entityClass().getSimpleName(), null, operation);
+        }
+        return currentRefs(id)
+                .flatMap(refs -> entityChangeRepository.record(entityClass().getSimpleName(), id, operation, refs));
+    }
+
+    // "relation:id,..." naming each row the entity references, in field order; null without relations
+    private String refsOf(T entity) {
+        List<String> refs = new ArrayList<>();
+        for (Field field : entityClass().getDeclaredFields()) {
+            if (!isRelation(field)) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                Object reference = field.get(entity);
+                // through the getter, which a lazy proxy answers without loading the row
+                Object referenceId = reference != null ? reference.getClass().getMethod("getId").invoke(reference) : null;
+                if (referenceId != null) {
+                    refs.add(field.getName() + ":" + referenceId);
+                }
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Cannot read " + field.getName() + " of " + entityClass().getSimpleName(), e);
+            }
+        }
+        return refs.isEmpty() ? null : String.join(",", refs);
+    }
+
+    // the same encoding read from the stored row; null when the row or the relations are missing
+    private Uni<String> currentRefs(Long id) {
+        Class<T> entityClass = entityClass();
+        List<String> refs = new ArrayList<>();
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (isRelation(field)) {
+                refs.add("'" + field.getName() + ":' || " + field.getAnnotation(JoinColumn.class).name());
+            }
+        }
+        if (refs.isEmpty() || id == null) {
+            return Uni.createFrom().nullItem();
+        }
+        Table table = entityClass.getAnnotation(Table.class);
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT NULLIF(concat_ws(',', " + String.join(", ", refs) + "), '') FROM " +
+                                table.schema() + "." + table.name() + " WHERE id = :id", String.class)
+                        .setParameter("id", id)
+                        .getSingleResultOrNull()
+        );
+    }
+
+    private static boolean relinks(Class<?> entityClass, Collection<String> columns) {
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (isRelation(field) && columns.contains(field.getAnnotation(JoinColumn.class).name())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String joinRefs(String previous, String current) {
+        if (previous == null || previous.equals(current)) {
+            return current;
+        }
+        if (current == null) {
+            return previous;
+        }
+        Set<String> refs = new LinkedHashSet<>(Arrays.asList(previous.split(",")));
+        refs.addAll(Arrays.asList(current.split(",")));
+        return String.join(",", refs);
+    }
+
+    public Long idOf(T entity) {
+        for (Field field : entityClass().getDeclaredFields()) {
+            if (field.isAnnotationPresent(Id.class)) {
+                try {
+                    field.setAccessible(true);
+                    return (Long) field.get(entity);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException("Cannot read id of " + entityClass().getSimpleName(), e);
+                }
+            }
+        }
+        throw new IllegalStateException("No @Id field on " + entityClass().getSimpleName());
+    }
+
+    // HQL path of a mapped field; names come from clients, so only declared columns and relations pass
+    private static String path(Class<?> entityClass, String name) {
+        Field field = declaredField(entityClass, name);
+        if (isRelation(field)) {
+            return "e." + name + ".id";
+        }
+        if (field.isAnnotationPresent(Column.class) || field.isAnnotationPresent(Id.class)) {
+            return "e." + name;
+        }
+        throw new IllegalArgumentException("Unknown field: " + name);
+    }
+
+    private static boolean isRelation(Field field) {
+        return field.isAnnotationPresent(JoinColumn.class);
+    }
+
+    private static String idField(Class<?> entityClass) {
+        for (Field field : entityClass.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Id.class)) {
+                return field.getName();
+            }
+        }
+        throw new IllegalStateException("No @Id field on " + entityClass.getSimpleName());
+    }
+
+    private static Field declaredField(Class<?> entityClass, String name) {
+        try {
+            return entityClass.getDeclaredField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown field: " + name);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public Class<T> entityClass() {
+        for (Class<?> type = getClass(); type != null; type = type.getSuperclass()) {
+            if (type.getGenericSuperclass() instanceof ParameterizedType generic
+                    && generic.getRawType() == BaseRepository.class) {
+                return (Class<T>) generic.getActualTypeArguments()[0];
+            }
+        }
+        throw new IllegalStateException("Cannot resolve entity type of " + getClass().getName());
+    }
+
+    // emits matching rows in id order, one keyset page per session, so memory is bounded by the page
+    // size rather than by the result; query is an HQL filter whose positional parameters are params
+    protected Multi<T> streamInIdOrder(String query, int pageSize, Object... params) {
+        String pageQuery = query + " and id > ?" + (params.length + 1) + " order by id";
+        return Multi.createBy().repeating()
+                .uni(() -> new AtomicLong(0), lastId -> {
+                    Object[] pageParams = Arrays.copyOf(params, params.length + 1);
+                    pageParams[params.length] = lastId.get();
+                    return Panache.withSession(() -> find(pageQuery, pageParams).range(0, pageSize - 1).list())
+                            .onItem().invoke(page -> {
+                                if (!page.isEmpty()) {
+                                    lastId.set(idOf(page.get(page.size() - 1)));
+                                }
+                            });
+                })
+                .whilst(page -> page.size() == pageSize)
+                .onItem().disjoint();
+    }
+
+    protected Uni<Integer> updateColumnByIds(String table, String column, String sqlType, Map<Long, ?> values) {
+        if (values.isEmpty()) {
+            return Uni.createFrom().item(0);
+        }
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" AS t SET ").append(column)
+                .append(" = v.value FROM (VALUES ");
+        for (int i = 0; i < values.size(); i++) {
+            sql.append(i == 0 ? "" : ", ")
+                    .append("(CAST(:id").append(i).append(" AS integer), CAST(:value").append(i)
+                    .append(" AS ").append(sqlType).append("))");
+        }
+        sql.append(") AS v(id, value) WHERE t.id = v.id");
+
+        return getSession().flatMap(session -> {
+            Mutiny.Query<Object> update = session.createNativeQuery(sql.toString());
+            int i = 0;
+            for (Map.Entry<Long, ?> entry : values.entrySet()) {
+                update.setParameter("id" + i, entry.getKey());
+                update.setParameter("value" + i, entry.getValue());
+                i++;
+            }
+            return update.executeUpdate();
+        }).call(count -> count > 0
+                ? entityChangeRepository.recordAll(entityClass().getSimpleName(), new ArrayList<>(values.keySet()),
+                        null, EntityChangeRepository.OPERATION_UPDATE)
+                : Uni.createFrom().voidItem());
+    }
+
+    // deletes the next chunk of matching rows after afterId in id order and returns {deleted, last deleted id};
+    // each call is its own short transaction, so bulk deletes never hold locks for longer than one chunk
+    protected Uni<Object[]> deleteChunk(String table, String filter, Map<String, Object> parameters,
+                                        long afterId, int limit) {
+        String sql = "WITH deleted AS (DELETE FROM " + table + " WHERE " + filter + " AND id IN (" +
+                "SELECT id FROM " + table + " WHERE " + filter + " AND id > :afterId ORDER BY id LIMIT :limit) " +
+                "RETURNING id) SELECT COUNT(*), MAX(id) FROM deleted";
+        return getSession().flatMap(session -> {
+                    Mutiny.SelectionQuery<Object[]> delete = session.createNativeQuery(sql, Object[].class);
+                    parameters.forEach(delete::setParameter);
+                    delete.setParameter("afterId", afterId);
+                    delete.setParameter("limit", limit);
+                    return delete.getSingleResult();
+                })
+                .call(row -> ((Number) row[0]).longValue() > 0
+                        ? entityChangeRepository.record(entityClass().getSimpleName(), null, EntityChangeRepository.OPERATION_DELETE)
+                        : Uni.createFrom().voidItem());
+    }
+
+    protected Uni<Boolean> createMonthlyPartition(String table, LocalDate month) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT lab2var10.create_monthly_partition(:table, :month)", Boolean.class)
+                        .setParameter("table", table)
+                        .setParameter("month", Date.valueOf(month))
+                        .getSingleResult()
+        );
+    }
+
+    protected Uni<Integer> detachMonthlyPartitionsBefore(String table, LocalDate month) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT lab2var10.detach_monthly_partitions(:table, :month)", Integer.class)
+                        .setParameter("table", table)
+                        .setParameter("month", Date.valueOf(month))
+                        .getSingleResult()
+        );
+    }
+}
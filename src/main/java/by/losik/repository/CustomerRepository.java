@@ -5,11 +5,20 @@ import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 
+import java.util.Collection;
 import java.util.List;
 
 @ApplicationScoped
 public class CustomerRepository extends BaseRepository<Customer> {
 
+    // archived invoices stay in the lifetime values through their frozen per-customer totals
+    private static final String LIFETIME_VALUE_COLUMNS =
+            "COUNT(i) + COALESCE((SELECT SUM(t.invoiceCount) FROM InvoiceArchiveTotal t WHERE t.customerId = c.id), 0), " +
+                    "COALESCE(SUM(i.totalAmount), 0) + " +
+                    "COALESCE((SELECT SUM(t.totalAmount) FROM InvoiceArchiveTotal t WHERE t.customerId = c.id), 0), " +
+                    "least(MIN(i.invoiceDate), (SELECT MIN(t.minDate) FROM InvoiceArchiveTotal t WHERE t.customerId = c.id)), " +
+                    "greatest(MAX(i.invoiceDate), (SELECT MAX(t.maxDate) FROM InvoiceArchiveTotal t WHERE t.customerId = c.id))";
+
     @WithTransaction
     public Uni<List<Customer>> findByLegalEntityStatus(Boolean isLegalEntity) {
         return find("isLegalEntity", isLegalEntity).list();
@@ -48,17 +57,20 @@ public class CustomerRepository extends BaseRepository<Customer> {
 
     @WithTransaction
     public Uni<Integer> updateCustomerAddress(Long id, String newAddress) {
-        return update("address = ?1 where id = ?2", newAddress, id);
+        return update("address = ?1 where id = ?2", newAddress, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updateBankDetails(Long id, String bankName, String bankAccount) {
-        return update("bankName = ?1, bankAccount = ?2 where id = ?3", bankName, bankAccount, id);
+        return update("bankName = ?1, bankAccount = ?2 where id = ?3", bankName, bankAccount, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> markAllLegalEntitiesWithBank(String bankName) {
-        return update("set bankName = ?1 where isLegalEntity = true", bankName);
+        return update("set bankName = ?1 where isLegalEntity = true", bankName)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
@@ -76,4 +88,28 @@ public class CustomerRepository extends BaseRepository<Customer> {
     public Uni<List<Customer>> findCustomerStatsByLegalEntity() {
         return find("select isLegalEntity, count(*) from Customer group by isLegalEntity").list();
     }
+
+    @WithTransaction
+    public Uni<List<Object[]>> getLifetimeValueStats() {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT c.id, c.name, c.isLegalEntity, " + LIFETIME_VALUE_COLUMNS + " " +
+                                "FROM Customer c " +
+                                "LEFT JOIN Invoice i ON i.customer.id = c.id " +
+                                "GROUP BY c.id, c.name, c.isLegalEntity", Object[].class)
+                        .getResultList()
+        );
+    }
+
+    @WithTransaction
+    public Uni<List<Object[]>> getLifetimeValueStats(Collection<Long> customerIds) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT c.id, c.name, c.isLegalEntity, " + LIFETIME_VALUE_COLUMNS + " " +
+                                "FROM Customer c " +
+                                "LEFT JOIN Invoice i ON i.customer.id = c.id " +
+                                "WHERE c.id IN :customerIds " +
+                                "GROUP BY c.id, c.name, c.isLegalEntity", Object[].class)
+                        .setParameter("customerIds", customerIds)
+                        .getResultList()
+        );
+    }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package by.losik.repository;
+
+import by.losik.entity.EntityChange;
+import io.quarkus.hibernate.reactive.panache.PanacheRepository;
+import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+@ApplicationScoped
+public class EntityChangeRepository implements PanacheRepository<EntityChange> {
+
+    // identifies this process on the change stream so it can skip changes it already applied
+    public static final String ORIGIN = UUID.randomUUID().toString();
+
+    public static final String OPERATION_SAVE = "save";
+    public static final String OPERATION_UPDATE = "update";
+    public static final String OPERATION_DELETE = "delete";
+    public static final String OPERATION_ARCHIVE = "archive";
+
+    // no transaction of its own: the row commits or rolls back with the caller's entity change.
+    // A null entityId records a bulk statement that may have touched any row of the entity
+    public Uni<Void> record(String entityName, Long entityId, String operation) {
+        return record(entityName, entityId, operation, null);
+    }
+
+    public Uni<Void> record(String entityName, Long entityId, String operation, String refs) {
+        return persist(change(entityName, entityId, operation, refs)).replaceWithVoid();
+    }
+
+    // refs is null or holds one entry per id
+    public Uni<Void> recordAll(String entityName, List<Long> entityIds, List<String> refs, String operation) {
+        List<EntityChange> changes = new ArrayList<>(entityIds.size());
+        for (int i = 0; i < entityIds.size(); i++) {
+            changes.add(change(entityName, entityIds.get(i), operation, refs != null ? refs.get(i) : null));
+        }
+        return persist(changes);
+    }
+
+    @WithTransaction
+    public Uni<Long> deleteOlderThan(Timestamp cutoff) {
+        return delete("changedAt < ?1", cutoff);
+    }
+
+    private static EntityChange change(String entityName, Long entityId, String operation, String refs) {
+        EntityChange change = new EntityChange();
+        change.setEntityName(entityName);
+        change.setEntityId(entityId);
+        change.setOperation(operation);
+        change.setOrigin(ORIGIN);
+        change.setRefs(refs);
+        return change;
+    }
+}
@@ -5,21 +5,76 @@ import by.losik.entity.InvoiceItem;
 import by.losik.entity.Product;
 import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
 import io.quarkus.panache.common.Page;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @ApplicationScoped
 public class InvoiceItemRepository extends BaseRepository<InvoiceItem> {
 
+    // items of archived invoices unpacked from the invoice's segment, hidden once the customer,
+    // settlement or product is gone; callers narrow the segments through the archive indexes
+    private static final String ARCHIVED_ITEMS =
+            "SELECT it.id, r.id AS invoice_id, it.product_id, it.quantity, it.price, it.version " +
+                    "FROM lab2var10.invoice_archive_segments s " +
+                    "CROSS JOIN LATERAL jsonb_to_recordset(s.payload) AS r(id integer, customer_id integer, " +
+                    "settlement_id integer, items jsonb) " +
+                    "CROSS JOIN LATERAL jsonb_to_recordset(r.items) AS it(id integer, product_id integer, " +
+                    "quantity integer, price numeric(15,2), version bigint) " +
+                    "WHERE EXISTS (SELECT 1 FROM lab2var10.customers c WHERE c.id = r.customer_id) " +
+                    "AND EXISTS (SELECT 1 FROM lab2var10.settlements st WHERE st.id = r.settlement_id) " +
+                    "AND EXISTS (SELECT 1 FROM lab2var10.products p WHERE p.id = it.product_id)";
+
+    private static final String ARCHIVED_INVOICE_FILTER =
+            " AND s.id IN (SELECT segment_id FROM lab2var10.invoice_archive_index WHERE invoice_id IN :invoiceIds)" +
+                    " AND r.id IN :invoiceIds";
+
     @WithTransaction
     public Uni<List<InvoiceItem>> findByInvoiceId(Long invoiceId) {
         return find("invoiceId.id", invoiceId).list();
     }
 
+    // {item, invoice id, product id} for all items of the given invoices, in id order
+    @WithTransaction
+    public Uni<List<Object[]>> findWithReferenceIdsByInvoiceIds(Collection<Long> invoiceIds) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT it, it.invoice.id, it.product.id " +
+                                "FROM InvoiceItem it WHERE it.invoice.id IN :ids ORDER BY it.id", Object[].class)
+                        .setParameter("ids", invoiceIds)
+                        .getResultList()
+        );
+    }
+
+    @WithTransaction
+    public Uni<Long> findInvoiceId(Long id) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT it.invoice.id FROM InvoiceItem it WHERE it.id = :id", Long.class)
+                        .setParameter("id", id)
+                        .getSingleResultOrNull()
+        );
+    }
+
+    @WithTransaction
+    public Uni<List<Long>> findInvoiceIds(Collection<Long> ids) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT DISTINCT it.invoice.id FROM InvoiceItem it WHERE it.id IN :ids", Long.class)
+                        .setParameter("ids", ids)
+                        .getResultList()
+        );
+    }
+
+    public Multi<InvoiceItem> streamByInvoiceId(Long invoiceId, int pageSize) {
+        return streamInIdOrder("invoice.id = ?1", pageSize, invoiceId);
+    }
+
     @WithTransaction
     public Uni<List<InvoiceItem>> findByProductId(Long productId) {
         return find("productId.id", productId).list();
@@ -95,37 +150,49 @@ public class InvoiceItemRepository extends BaseRepository<InvoiceItem> {
 
     @WithTransaction
     public Uni<Long> deleteByInvoice(Invoice invoice) {
-        return delete("invoice", invoice);
+        return delete("invoice", invoice)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByInvoiceId(Long invoiceId) {
-        return delete("invoice.id", invoiceId);
+        return delete("invoice.id", invoiceId)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByProduct(Product product) {
-        return delete("product", product);
+        return delete("product", product)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Integer> updateQuantity(Long id, BigInteger newQuantity) {
-        return update("quantity = ?1 where id = ?2", newQuantity, id);
+        return update("quantity = ?1 where id = ?2", newQuantity, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updatePrice(Long id, BigDecimal newPrice) {
-        return update("price = ?1 where id = ?2", newPrice, id);
+        return update("price = ?1 where id = ?2", newPrice, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
+    }
+
+    @WithTransaction
+    public Uni<Integer> updatePrices(Map<Long, BigDecimal> prices) {
+        return updateColumnByIds("lab2var10.invoice_items", "price", "numeric", prices);
     }
 
     @WithTransaction
     public Uni<Integer> updateQuantityAndPrice(Long id, BigInteger newQuantity, BigDecimal newPrice) {
-        return update("quantity = ?1, price = ?2 where id = ?3", newQuantity, newPrice, id);
+        return update("quantity = ?1, price = ?2 where id = ?3", newQuantity, newPrice, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updatePricesForProduct(Product product, BigDecimal newPrice) {
-        return update("price = ?1 where product = ?2", newPrice, product);
+        return update("price = ?1 where product = ?2", newPrice, product)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
@@ -148,4 +215,65 @@ public class InvoiceItemRepository extends BaseRepository<InvoiceItem> {
         return count("invoice", invoice)
                 .map(count -> (count + pageSize - 1) / pageSize);
     }
+
+    @WithTransaction
+    public Uni<InvoiceItem> findArchivedById(Long id) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery(ARCHIVED_ITEMS +
+                                " AND s.id = (SELECT segment_id FROM lab2var10.invoice_archive_item_index WHERE item_id = :id)" +
+                                " AND it.id = :id", InvoiceItem.class)
+                        .setParameter("id", id)
+                        .getSingleResultOrNull()
+        );
+    }
+
+    @WithTransaction
+    public Uni<List<InvoiceItem>> findArchivedByInvoiceId(Long invoiceId, int offset, int limit) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery(ARCHIVED_ITEMS + ARCHIVED_INVOICE_FILTER + " ORDER BY it.id", InvoiceItem.class)
+                        .setParameter("invoiceIds", List.of(invoiceId))
+                        .setFirstResult(offset)
+                        .setMaxResults(limit)
+                        .getResultList()
+        );
+    }
+
+    @WithTransaction
+    public Uni<Long> countArchivedByInvoiceId(Long invoiceId) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT COUNT(*) FROM (" + ARCHIVED_ITEMS + ARCHIVED_INVOICE_FILTER + ") archived",
+                                Long.class)
+                        .setParameter("invoiceIds", List.of(invoiceId))
+                        .getSingleResult()
+        );
+    }
+
+    // {item, invoice id, product id} for the items of archived invoices, shaped like findWithReferenceIdsByInvoiceIds
+    @WithTransaction
+    public Uni<List<Object[]>> findArchivedWithReferenceIdsByInvoiceIds(Collection<Long> invoiceIds) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery(ARCHIVED_ITEMS + ARCHIVED_INVOICE_FILTER + " ORDER BY it.id", InvoiceItem.class)
+                        .setParameter("invoiceIds", invoiceIds)
+                        .getResultList()
+                        .flatMap(items -> items.isEmpty()
+                                ? Uni.createFrom().item(List.<Object[]>of())
+                                : session.createNativeQuery("SELECT a.id, a.invoice_id, a.product_id FROM (" +
+                                                ARCHIVED_ITEMS + ARCHIVED_INVOICE_FILTER + ") a", Object[].class)
+                                        .setParameter("invoiceIds", invoiceIds)
+                                        .getResultList()
+                                        .map(references -> {
+                                            Map<Long, Object[]> byId = new HashMap<>();
+                                            for (Object[] reference : references) {
+                                                byId.put(((Number) reference[0]).longValue(), reference);
+                                            }
+                                            List<Object[]> rows = new ArrayList<>(items.size());
+                                            for (InvoiceItem item : items) {
+                                                Object[] reference = byId.get(item.getId());
+                                                rows.add(new Object[]{item, ((Number) reference[1]).longValue(),
+                                                        ((Number) reference[2]).longValue()});
+                                            }
+                                            return rows;
+                                        }))
+        );
+    }
 }
\ No newline at end of file
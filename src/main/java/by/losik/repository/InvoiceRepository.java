@@ -2,24 +2,50 @@ package by.losik.repository;
 
 import by.losik.entity.Customer;
 import by.losik.entity.Invoice;
+import by.losik.entity.InvoiceItem;
 import by.losik.entity.Settlement;
 import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
 import io.quarkus.panache.common.Page;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.LockModeType;
+import org.hibernate.reactive.mutiny.Mutiny;
 
 import java.math.BigDecimal;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 @ApplicationScoped
 public class InvoiceRepository extends BaseRepository<Invoice> {
 
+    // archived invoices unpacked from their segments, hidden once the customer or settlement is gone
+    private static final String ARCHIVED_INVOICES =
+            "SELECT r.id, r.invoice_date, r.customer_id, r.settlement_id, r.total_amount, r.enterprise, r.version " +
+                    "FROM lab2var10.invoice_archive_segments s " +
+                    "CROSS JOIN LATERAL jsonb_to_recordset(s.payload) AS r(id integer, invoice_date date, " +
+                    "customer_id integer, settlement_id integer, total_amount numeric(15,2), enterprise varchar(200), " +
+                    "version bigint) " +
+                    "WHERE EXISTS (SELECT 1 FROM lab2var10.customers c WHERE c.id = r.customer_id) " +
+                    "AND EXISTS (SELECT 1 FROM lab2var10.settlements st WHERE st.id = r.settlement_id)";
+
+    private static final String AMOUNT_SKETCH_LOCK = "hashtext('lab2var10.invoice_amount_sketches')";
+
     @WithTransaction
     public Uni<List<Invoice>> findByCustomerId(Long customerId) {
         return find("customer.id", customerId).list();
     }
 
+    public Multi<Invoice> streamByCustomerId(Long customerId, int pageSize) {
+        return streamInIdOrder("customer.id = ?1", pageSize, customerId);
+    }
+
     @WithTransaction
     public Uni<List<Invoice>> findBySettlementId(Long settlementId) {
         return find("settlement.id", settlementId).list();
@@ -138,27 +164,44 @@ public class InvoiceRepository extends BaseRepository<Invoice> {
 
     @WithTransaction
     public Uni<Long> deleteByCustomer(Customer customer) {
-        return delete("customer", customer);
+        return delete("customer", customer)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByDateRange(Date startDate, Date endDate) {
-        return delete("invoiceDate between ?1 and ?2", startDate, endDate);
+        return delete("invoiceDate between ?1 and ?2", startDate, endDate)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
+    }
+
+    @WithTransaction
+    public Uni<Object[]> deleteChunkByCustomer(Long customerId, long afterId, int limit) {
+        return deleteChunk("lab2var10.invoices", "customer_id = :customerId",
+                Map.of("customerId", customerId), afterId, limit);
+    }
+
+    @WithTransaction
+    public Uni<Object[]> deleteChunkByDateRange(Date startDate, Date endDate, long afterId, int limit) {
+        return deleteChunk("lab2var10.invoices", "invoice_date BETWEEN :startDate AND :endDate",
+                Map.of("startDate", startDate, "endDate", endDate), afterId, limit);
     }
 
     @WithTransaction
     public Uni<Integer> updateTotalAmount(Long id, BigDecimal newAmount) {
-        return update("totalAmount = ?1 where id = ?2", newAmount, id);
+        return update("totalAmount = ?1 where id = ?2", newAmount, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updateEnterprise(Long id, String newEnterprise) {
-        return update("enterprise = ?1 where id = ?2", newEnterprise, id);
+        return update("enterprise = ?1 where id = ?2", newEnterprise, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updateAmountsForCustomer(Customer customer, BigDecimal newAmount) {
-        return update("totalAmount = ?1 where customer = ?2", newAmount, customer);
+        return update("totalAmount = ?1 where customer = ?2", newAmount, customer)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
@@ -183,9 +226,370 @@ public class InvoiceRepository extends BaseRepository<Invoice> {
                 .map(count -> (count + pageSize - 1) / pageSize);
     }
 
+    @WithTransaction
+    public Uni<List<Invoice>> findByDateRangeSlice(Date startDate, Date endDate, int firstIndex, int lastIndex) {
+        return find("invoiceDate between ?1 and ?2 order by invoiceDate, id", startDate, endDate)
+                .range(firstIndex, lastIndex).list();
+    }
+
     @WithTransaction
     public Uni<Long> getPageCountByDateRange(Date startDate, Date endDate, int pageSize) {
         return count("invoiceDate between ?1 and ?2", startDate, endDate)
                 .map(count -> (count + pageSize - 1) / pageSize);
     }
+
+    // {invoice, customer id, settlement id, region id} per invoice; the ids come from the foreign
+    // key columns so the referenced rows can be resolved in one batch per type
+    @WithTransaction
+    public Uni<List<Object[]>> findWithReferenceIds(Collection<Long> ids) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT i, i.customer.id, s.id, s.region.id " +
+                                "FROM Invoice i JOIN i.settlement s WHERE i.id IN :ids", Object[].class)
+                        .setParameter("ids", ids)
+                        .getResultList()
+        );
+    }
+
+    @WithTransaction
+    public Uni<Object[]> findWriteSnapshot(Long id) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT i.settlement.id, i.customer.id, i.totalAmount, i.invoiceDate " +
+                                "FROM Invoice i WHERE i.id = :id", Object[].class)
+                        .setParameter("id", id)
+                        .getSingleResultOrNull()
+        );
+    }
+
+    // runs write in one transaction with the invoice's {settlement id, customer id, total amount, invoice
+    // date} as they were before it, read under the row lock the write takes anyway, so concurrent writers
+    // of one invoice each see the other's result; previous is null when there is no such invoice
+    @WithTransaction
+    public <R> Uni<SnapshotWrite<R>> writeWithSnapshot(Long id, Function<Object[], Uni<R>> write) {
+        return getSession().flatMap(session ->
+                        session.createQuery("SELECT i.settlement.id, i.customer.id, i.totalAmount, i.invoiceDate " +
+                                        "FROM Invoice i WHERE i.id = :id", Object[].class)
+                                .setParameter("id", id)
+                                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                                .getSingleResultOrNull())
+                .flatMap(previous -> write.apply(previous)
+                        .map(result -> new SnapshotWrite<>(previous, result)));
+    }
+
+    // to is exclusive; archived invoices of the range are included
+    @WithTransaction
+    public Uni<List<Object[]>> getRevenueSeries(String unit, Date from, Date to) {
+        Date endDate = Date.valueOf(to.toLocalDate().minusDays(1));
+        return getSession().flatMap(session -> {
+            Mutiny.SelectionQuery<Object[]> query = session.createNativeQuery(
+                    "SELECT to_char(date_trunc(:unit, invoice_date), 'YYYY-MM-DD'), " +
+                            "COUNT(*), COALESCE(SUM(total_amount), 0) " +
+                            "FROM " + hotAndArchived(from, endDate) + " " +
+                            "GROUP BY 1 ORDER BY 1", Object[].class);
+            bindArchivedDateFilter(query, from, endDate);
+            return query.setParameter("unit", unit).getResultList();
+        });
+    }
+
+    @WithTransaction
+    public Uni<List<Object[]>> findTopPurchasesByDay(Date date) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT date_, customer_name, address, purchase_sum " +
+                                "FROM lab2var10.get_max_purchase_customers(:date)", Object[].class)
+                        .setParameter("date", date)
+                        .getResultList()
+        );
+    }
+
+    @WithTransaction
+    public Uni<List<Object[]>> findTopPurchasesByDateRange(Date startDate, Date endDate) {
+        return getSession().flatMap(session -> {
+            // one ranged scan instead of a per-day function call, so only the covered partitions are read
+            Mutiny.SelectionQuery<Object[]> query = session.createNativeQuery(
+                    "SELECT i.invoice_date, c.name, c.address, i.total_amount " +
+                            "FROM (SELECT invoice_date, customer_id, total_amount, " +
+                            "rank() OVER (PARTITION BY invoice_date ORDER BY total_amount DESC) AS amount_rank " +
+                            "FROM " + hotAndArchived(startDate, endDate) + ") i " +
+                            "JOIN lab2var10.customers c ON c.id = i.customer_id " +
+                            "WHERE i.amount_rank = 1 " +
+                            "ORDER BY i.invoice_date", Object[].class);
+            bindArchivedDateFilter(query, startDate, endDate);
+            return query.getResultList();
+        });
+    }
+
+    @WithTransaction
+    public Uni<Boolean> createMonthlyPartition(LocalDate month) {
+        return createMonthlyPartition("invoices", month);
+    }
+
+    @WithTransaction
+    public Uni<Integer> detachMonthlyPartitionsBefore(LocalDate month) {
+        return detachMonthlyPartitionsBefore("invoices", month);
+    }
+
+    @WithTransaction
+    public Uni<List<Object[]>> findAmountSketches() {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT settlement_id, to_char(month, 'YYYY-MM-DD'), zero_count, bins " +
+                                "FROM lab2var10.invoice_amount_sketches", Object[].class)
+                        .getResultList()
+        );
+    }
+
+    // null when another replica holds the rebuild lock; merges wait for the rebuild instead of
+    // colliding with its inserts. Archived invoices are counted too, so archiving never changes a sketch.
+    @WithTransaction
+    public Uni<Integer> rebuildAmountSketches(double logGamma) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT pg_try_advisory_xact_lock(" + AMOUNT_SKETCH_LOCK + ")", Boolean.class)
+                        .getSingleResult()
+                        .flatMap(locked -> !locked
+                                ? Uni.createFrom().<Integer>nullItem()
+                                : session.createNativeQuery("DELETE FROM lab2var10.invoice_amount_sketches")
+                                        .executeUpdate()
+                                        .flatMap(deleted -> session.createNativeQuery(
+                                                        "INSERT INTO lab2var10.invoice_amount_sketches (settlement_id, month, zero_count, bins) " +
+                                                                "SELECT settlement_id, month, " +
+                                                                "SUM(CASE WHEN bin IS NULL THEN bin_count ELSE 0 END), " +
+                                                                "COALESCE(string_agg(bin || ':' || bin_count, ',' ORDER BY bin) " +
+                                                                "FILTER (WHERE bin IS NOT NULL), '') " +
+                                                                "FROM (SELECT settlement_id, " +
+                                                                "CAST(date_trunc('month', invoice_date) AS date) AS month, " +
+                                                                "CASE WHEN total_amount > 0 THEN " +
+                                                                "CAST(ceil(ln(CAST(total_amount AS double precision)) / :logGamma) AS integer) " +
+                                                                "END AS bin, " +
+                                                                "COUNT(*) AS bin_count " +
+                                                                "FROM " + hotAndArchived(null, null) + " GROUP BY 1, 2, 3) bins " +
+                                                                "GROUP BY settlement_id, month")
+                                                .setParameter("logGamma", logGamma)
+                                                .executeUpdate()))
+        );
+    }
+
+    // rows are deltas: their counts are added to the stored sketch in the row lock, so replicas
+    // flushing the same settlement and month at once do not overwrite each other; deltas for a
+    // settlement deleted meanwhile are dropped along with its sketches
+    @WithTransaction
+    public Uni<Integer> mergeAmountSketches(List<Object[]> rows) {
+        return getSession().flatMap(session -> {
+            Uni<Integer> merged = session.createNativeQuery("SELECT 1 FROM pg_advisory_xact_lock_shared(" + AMOUNT_SKETCH_LOCK + ")")
+                    .getSingleResult()
+                    .replaceWith(0);
+            for (Object[] row : rows) {
+                merged = merged.flatMap(total -> session.createNativeQuery(
+                                "INSERT INTO lab2var10.invoice_amount_sketches AS s (settlement_id, month, zero_count, bins) " +
+                                        "SELECT id, :month, GREATEST(:zeroCount, 0), lab2var10.merge_sketch_bins('', :bins) " +
+                                        "FROM lab2var10.settlements WHERE id = :settlementId " +
+                                        "ON CONFLICT (settlement_id, month) " +
+                                        "DO UPDATE SET zero_count = GREATEST(s.zero_count + :zeroCount, 0), " +
+                                        "bins = lab2var10.merge_sketch_bins(s.bins, :bins)")
+                        .setParameter("settlementId", row[0])
+                        .setParameter("month", row[1])
+                        .setParameter("zeroCount", row[2])
+                        .setParameter("bins", row[3])
+                        .executeUpdate()
+                        .map(count -> total + count));
+            }
+            return merged;
+        });
+    }
+
+    // the items are written in one statement, so their outbox rows carry the references by hand
+    @WithTransaction
+    public Uni<Invoice> saveWithItems(Invoice invoice, List<InvoiceItem> items) {
+        return persistAndFlush(invoice)
+                .call(saved -> recordChange(saved, EntityChangeRepository.OPERATION_SAVE, null))
+                .call(saved -> getSession().flatMap(session -> {
+                    StringBuilder sql = new StringBuilder(
+                            "INSERT INTO lab2var10.invoice_items (invoice_id, product_id, quantity, price) VALUES ");
+                    for (int i = 0; i < items.size(); i++) {
+                        sql.append(i == 0 ? "" : ", ")
+                                .append("(:invoiceId, :product").append(i)
+                                .append(", :quantity").append(i)
+                                .append(", :price").append(i).append(')');
+                    }
+                    sql.append(" RETURNING id, product_id");
+                    Mutiny.SelectionQuery<Object[]> insert = session.createNativeQuery(sql.toString(), Object[].class);
+                    insert.setParameter("invoiceId", saved.getId());
+                    for (int i = 0; i < items.size(); i++) {
+                        InvoiceItem item = items.get(i);
+                        insert.setParameter("product" + i, item.getProduct().getId());
+                        insert.setParameter("quantity" + i, item.getQuantity());
+                        insert.setParameter("price" + i, item.getPrice());
+                    }
+                    return insert.getResultList();
+                }).flatMap(rows -> rows.isEmpty()
+                        ? Uni.createFrom().voidItem()
+                        : entityChangeRepository.recordAll(InvoiceItem.class.getSimpleName(),
+                                rows.stream().map(row -> ((Number) row[0]).longValue()).toList(),
+                                rows.stream().map(row -> "invoice:" + saved.getId() + ",product:" + row[1]).toList(),
+                                EntityChangeRepository.OPERATION_SAVE)));
+    }
+
+    // moves the oldest invoices before the cutoff, with their items, into one compressed segment and
+    // adds them to the frozen per customer and settlement totals that keep them in the aggregates;
+    // items are read from the statement snapshot before the invoice delete trigger removes them
+    @WithTransaction
+    public Uni<Integer> archiveBefore(Date cutoff, int limit) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("WITH batch AS (" +
+                                "SELECT id, invoice_date FROM lab2var10.invoices WHERE invoice_date < :cutoff " +
+                                "ORDER BY invoice_date, id LIMIT :limit), " +
+                                "moved AS (" +
+                                "DELETE FROM lab2var10.invoices i USING batch b " +
+                                "WHERE i.id = b.id AND i.invoice_date = b.invoice_date AND i.invoice_date < :cutoff " +
+                                "RETURNING i.*), " +
+                                "segment AS (" +
+                                "INSERT INTO lab2var10.invoice_archive_segments (min_date, max_date, invoice_count, payload) " +
+                                "SELECT MIN(m.invoice_date), MAX(m.invoice_date), COUNT(*), " +
+                                "jsonb_agg(jsonb_build_object('id', m.id, 'invoice_date', m.invoice_date, " +
+                                "'customer_id', m.customer_id, 'settlement_id', m.settlement_id, " +
+                                "'total_amount', m.total_amount, 'enterprise', m.enterprise, 'version', m.version, " +
+                                "'items', COALESCE((SELECT jsonb_agg(jsonb_build_object('id', ii.id, " +
+                                "'product_id', ii.product_id, 'quantity', ii.quantity, 'price', ii.price, " +
+                                "'version', ii.version) ORDER BY ii.id) " +
+                                "FROM lab2var10.invoice_items ii WHERE ii.invoice_id = m.id), CAST('[]' AS jsonb))) " +
+                                "ORDER BY m.invoice_date, m.id) " +
+                                "FROM moved m HAVING COUNT(*) > 0 " +
+                                "RETURNING id), " +
+                                "item_index AS (" +
+                                "INSERT INTO lab2var10.invoice_archive_item_index (item_id, segment_id) " +
+                                "SELECT ii.id, s.id FROM moved m " +
+                                "JOIN lab2var10.invoice_items ii ON ii.invoice_id = m.id CROSS JOIN segment s), " +
+                                "totals AS (" +
+                                "INSERT INTO lab2var10.invoice_archive_totals " +
+                                "(customer_id, settlement_id, invoice_count, total_amount, min_date, max_date) " +
+                                "SELECT m.customer_id, m.settlement_id, COUNT(*), SUM(m.total_amount), " +
+                                "MIN(m.invoice_date), MAX(m.invoice_date) " +
+                                "FROM moved m GROUP BY m.customer_id, m.settlement_id " +
+                                "ON CONFLICT (customer_id, settlement_id) DO UPDATE SET " +
+                                "invoice_count = invoice_archive_totals.invoice_count + excluded.invoice_count, " +
+                                "total_amount = invoice_archive_totals.total_amount + excluded.total_amount, " +
+                                "min_date = LEAST(invoice_archive_totals.min_date, excluded.min_date), " +
+                                "max_date = GREATEST(invoice_archive_totals.max_date, excluded.max_date)) " +
+                                "INSERT INTO lab2var10.invoice_archive_index (invoice_id, segment_id) " +
+                                "SELECT m.id, s.id FROM moved m CROSS JOIN segment s")
+                        .setParameter("cutoff", cutoff)
+                        .setParameter("limit", limit)
+                        .executeUpdate()
+        ).call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_ARCHIVE));
+    }
+
+    @WithTransaction
+    public Uni<Invoice> findArchivedById(Long id) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery(ARCHIVED_INVOICES +
+                                " AND s.id = (SELECT segment_id FROM lab2var10.invoice_archive_index WHERE invoice_id = :id)" +
+                                " AND r.id = :id", Invoice.class)
+                        .setParameter("id", id)
+                        .getSingleResultOrNull()
+        );
+    }
+
+    @WithTransaction
+    public Uni<Boolean> isArchived(Long id) {
+        return getSession().flatMap(session ->
+                session.createNativeQuery("SELECT EXISTS (SELECT 1 FROM lab2var10.invoice_archive_index " +
+                                "WHERE invoice_id = :id)", Boolean.class)
+                        .setParameter("id", id)
+                        .getSingleResult()
+        );
+    }
+
+    // {invoice, customer id, settlement id, region id} per archived invoice, shaped like findWithReferenceIds
+    @WithTransaction
+    public Uni<List<Object[]>> findArchivedWithReferenceIds(Collection<Long> ids) {
+        String segments = " AND s.id IN (SELECT segment_id FROM lab2var10.invoice_archive_index WHERE invoice_id IN :ids)" +
+                " AND r.id IN :ids";
+        return getSession().flatMap(session ->
+                session.createNativeQuery(ARCHIVED_INVOICES + segments, Invoice.class)
+                        .setParameter("ids", ids)
+                        .getResultList()
+                        .flatMap(invoices -> invoices.isEmpty()
+                                ? Uni.createFrom().item(List.<Object[]>of())
+                                : session.createNativeQuery("SELECT a.id, a.customer_id, a.settlement_id, st.region_id " +
+                                                "FROM (" + ARCHIVED_INVOICES + segments + ") a " +
+                                                "JOIN lab2var10.settlements st ON st.id = a.settlement_id", Object[].class)
+                                        .setParameter("ids", ids)
+                                        .getResultList()
+                                        .map(references -> {
+                                            Map<Long, Object[]> byId = new HashMap<>();
+                                            for (Object[] reference : references) {
+                                                byId.put(((Number) reference[0]).longValue(), reference);
+                                            }
+                                            List<Object[]> rows = new ArrayList<>(invoices.size());
+                                            for (Invoice invoice : invoices) {
+                                                Object[] reference = byId.get(invoice.getId());
+                                                rows.add(new Object[]{invoice, ((Number) reference[1]).longValue(),
+                                                        ((Number) reference[2]).longValue(), ((Number) reference[3]).longValue()});
+                                            }
+                                            return rows;
+                                        }))
+        );
+    }
+
+    // both bounds are inclusive and either may be null
+    @WithTransaction
+    public Uni<List<Invoice>> findArchivedByDateRange(Date startDate, Date endDate) {
+        return findArchivedByDateRange(startDate, endDate, 0, Integer.MAX_VALUE);
+    }
+
+    @WithTransaction
+    public Uni<List<Invoice>> findArchivedByDateRange(Date startDate, Date endDate, int offset, int limit) {
+        String sql = ARCHIVED_INVOICES + archivedDateFilter(startDate, endDate) + " ORDER BY r.invoice_date, r.id";
+        return getSession().flatMap(session -> {
+            Mutiny.SelectionQuery<Invoice> query = session.createNativeQuery(sql, Invoice.class);
+            bindArchivedDateFilter(query, startDate, endDate);
+            return query.setFirstResult(offset).setMaxResults(limit).getResultList();
+        });
+    }
+
+    @WithTransaction
+    public Uni<Long> countArchivedByDateRange(Date startDate, Date endDate) {
+        String sql = "SELECT COUNT(*) FROM (" + ARCHIVED_INVOICES + archivedDateFilter(startDate, endDate) + ") archived";
+        return getSession().flatMap(session -> {
+            Mutiny.SelectionQuery<Long> query = session.createNativeQuery(sql, Long.class);
+            bindArchivedDateFilter(query, startDate, endDate);
+            return query.getSingleResult();
+        });
+    }
+
+    // hot and archived invoices of an inclusive date range as one derived table; either bound may be
+    // null and both are bound through bindArchivedDateFilter
+    private static String hotAndArchived(Date startDate, Date endDate) {
+        StringBuilder hotFilter = new StringBuilder();
+        if (startDate != null) {
+            hotFilter.append(hotFilter.isEmpty() ? " WHERE" : " AND").append(" invoice_date >= :startDate");
+        }
+        if (endDate != null) {
+            hotFilter.append(hotFilter.isEmpty() ? " WHERE" : " AND").append(" invoice_date <= :endDate");
+        }
+        return "(SELECT invoice_date, customer_id, settlement_id, total_amount FROM lab2var10.invoices" + hotFilter +
+                " UNION ALL SELECT invoice_date, customer_id, settlement_id, total_amount FROM (" +
+                ARCHIVED_INVOICES + archivedDateFilter(startDate, endDate) + ") archived) invoices";
+    }
+
+    // segment bounds skip whole segments before the rows are unpacked
+    private static String archivedDateFilter(Date startDate, Date endDate) {
+        StringBuilder filter = new StringBuilder();
+        if (startDate != null) {
+            filter.append(" AND s.max_date >= :startDate AND r.invoice_date >= :startDate");
+        }
+        if (endDate != null) {
+            filter.append(" AND s.min_date <= :endDate AND r.invoice_date <= :endDate");
+        }
+        return filter.toString();
+    }
+
+    private static void bindArchivedDateFilter(Mutiny.SelectionQuery<?> query, Date startDate, Date endDate) {
+        if (startDate != null) {
+            query.setParameter("startDate", startDate);
+        }
+        if (endDate != null) {
+            query.setParameter("endDate", endDate);
+        }
+    }
+
+    public record SnapshotWrite<R>(Object[] previous, R result) {
+    }
 }
\ No newline at end of file
@@ -4,12 +4,16 @@ import by.losik.entity.PriceHistory;
 import by.losik.entity.Product;
 import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
 import io.quarkus.panache.common.Page;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.reactive.mutiny.Mutiny;
 
 import java.math.BigDecimal;
 import java.sql.Date;
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 @ApplicationScoped
 public class PriceHistoryRepository extends BaseRepository<PriceHistory> {
@@ -19,29 +23,33 @@ public class PriceHistoryRepository extends BaseRepository<PriceHistory> {
         return find("product.id", productId).list();
     }
 
+    public Multi<PriceHistory> streamByProductId(Long productId, int pageSize) {
+        return streamInIdOrder("product.id = ?1", pageSize, productId);
+    }
+
     @WithTransaction
     public Uni<List<PriceHistory>> findByProduct(Product product) {
-        return find("productId", product).list();
+        return find("product", product).list();
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> findByChangeDate(Date date) {
-        return find("invoiceDate", date).list();
+        return find("changeDate", date).list();
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> findByChangeDateRange(Date startDate, Date endDate) {
-        return find("invoiceDate between ?1 and ?2", startDate, endDate).list();
+        return find("changeDate between ?1 and ?2", startDate, endDate).list();
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> findByChangeDateBefore(Date date) {
-        return find("invoiceDate < ?1", date).list();
+        return find("changeDate < ?1", date).list();
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> findByChangeDateAfter(Date date) {
-        return find("invoiceDate > ?1", date).list();
+        return find("changeDate > ?1", date).list();
     }
 
     @WithTransaction
@@ -61,39 +69,39 @@ public class PriceHistoryRepository extends BaseRepository<PriceHistory> {
 
     @WithTransaction
     public Uni<PriceHistory> findLatestByProduct(Product product) {
-        return find("productId = ?1 order by invoiceDate desc", product).firstResult();
+        return find("product = ?1 order by changeDate desc", product).firstResult();
     }
 
     @WithTransaction
     public Uni<PriceHistory> findLatestByProductId(Long productId) {
-        return find("productId.id = ?1 order by invoiceDate desc", productId).firstResult();
+        return find("product.id = ?1 order by changeDate desc", productId).firstResult();
     }
 
     @WithTransaction
     public Uni<PriceHistory> findOldestByProduct(Product product) {
-        return find("productId = ?1 order by invoiceDate asc", product).firstResult();
+        return find("product = ?1 order by changeDate asc", product).firstResult();
     }
 
     @WithTransaction
     public Uni<PriceHistory> findPriceAtDate(Product product, Date date) {
-        return find("productId = ?1 and invoiceDate = ?2", product, date).firstResult();
+        return find("product = ?1 and changeDate = ?2", product, date).firstResult();
     }
 
     @WithTransaction
     public Uni<PriceHistory> findPriceAtDateByProductId(Long productId, Date date) {
-        return find("productId.id = ?1 and invoiceDate = ?2", productId, date).firstResult();
+        return find("product.id = ?1 and changeDate = ?2", productId, date).firstResult();
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> findByProductPaginated(Product product, int pageIndex, int pageSize) {
         Page page = Page.of(pageIndex, pageSize);
-        return find("productId", product).page(page).list();
+        return find("product", product).page(page).list();
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> findByDateRangePaginated(Date startDate, Date endDate, int pageIndex, int pageSize) {
         Page page = Page.of(pageIndex, pageSize);
-        return find("invoiceDate between ?1 and ?2", startDate, endDate).page(page).list();
+        return find("changeDate between ?1 and ?2", startDate, endDate).page(page).list();
     }
 
     @WithTransaction
@@ -104,81 +112,150 @@ public class PriceHistoryRepository extends BaseRepository<PriceHistory> {
 
     @WithTransaction
     public Uni<PriceHistory> getPriceChange(Product product) {
-        return find("select (max(price) - min(price)) from PriceHistory where productId = ?1", product)
+        return find("select (max(price) - min(price)) from PriceHistory where product = ?1", product)
                 .singleResult();
     }
 
     @WithTransaction
     public Uni<PriceHistory> getMaxPriceByProduct(Product product) {
-        return find("select max(price) from PriceHistory where productId = ?1", product)
+        return find("select max(price) from PriceHistory where product = ?1", product)
                 .singleResult();
     }
 
     @WithTransaction
     public Uni<PriceHistory> getMinPriceByProduct(Product product) {
-        return find("select min(price) from PriceHistory where productId = ?1", product)
+        return find("select min(price) from PriceHistory where product = ?1", product)
                 .singleResult();
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> getPriceTrend(Product product, int limit) {
-        return find("productId = ?1 order by invoiceDate desc", product).range(0, limit - 1).list();
+        return find("product = ?1 order by changeDate desc", product).range(0, limit - 1).list();
     }
 
     @WithTransaction
     public Uni<Long> countPriceChangesByProduct(Product product) {
-        return count("productId", product);
+        return count("product", product);
     }
 
     @WithTransaction
     public Uni<Long> countPriceChangesByDateRange(Date startDate, Date endDate) {
-        return count("invoiceDate between ?1 and ?2", startDate, endDate);
+        return count("changeDate between ?1 and ?2", startDate, endDate);
     }
 
     @WithTransaction
     public Uni<Boolean> existsByProductAndDate(Product product, Date date) {
-        return count("productId = ?1 and invoiceDate = ?2", product, date).map(count -> count > 0);
+        return count("product = ?1 and changeDate = ?2", product, date).map(count -> count > 0);
     }
 
     @WithTransaction
     public Uni<Boolean> hasPriceHistory(Product product) {
-        return count("productId", product).map(count -> count > 0);
+        return count("product", product).map(count -> count > 0);
     }
 
     @WithTransaction
     public Uni<Long> deleteByProduct(Product product) {
-        return delete("productId", product);
+        return delete("product", product)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByDateRange(Date startDate, Date endDate) {
-        return delete("invoiceDate between ?1 and ?2", startDate, endDate);
+        return delete("changeDate between ?1 and ?2", startDate, endDate)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
+    }
+
+    // {product id, price, change date} for the live price feed
+    @WithTransaction
+    public Uni<Object[]> findFeedSnapshot(Long id) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT p.product.id, p.price, p.changeDate " +
+                                "FROM PriceHistory p WHERE p.id = :id", Object[].class)
+                        .setParameter("id", id)
+                        .getSingleResultOrNull()
+        );
     }
 
     @WithTransaction
     public Uni<Integer> updatePrice(Long id, BigDecimal newPrice) {
-        return update("price = ?1 where id = ?2", newPrice, id);
+        return update("price = ?1 where id = ?2", newPrice, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
+    }
+
+    @WithTransaction
+    public Uni<Integer> updatePrices(Map<Long, BigDecimal> prices) {
+        return updateColumnByIds("lab2var10.price_history", "price", "numeric", prices);
+    }
+
+    // records new_price = latest_price * factor + delta for every matching product in one INSERT ... SELECT
+    @WithTransaction
+    public Uni<Integer> repriceProducts(Long categoryId, String manufacturer, String codePrefix,
+                                        BigDecimal factor, BigDecimal delta) {
+        StringBuilder filter = new StringBuilder("WHERE TRUE");
+        if (categoryId != null) {
+            filter.append(" AND p.category_id = :categoryId");
+        }
+        if (manufacturer != null) {
+            filter.append(" AND p.manufacturer = :manufacturer");
+        }
+        if (codePrefix != null) {
+            filter.append(" AND p.code LIKE :codePrefix");
+        }
+        String sql = "INSERT INTO lab2var10.price_history (product_id, change_date, price) " +
+                "SELECT product_id, CURRENT_DATE, new_price FROM (" +
+                "SELECT DISTINCT ON (ph.product_id) ph.product_id, ROUND(ph.price * :factor + :delta, 2) AS new_price " +
+                "FROM lab2var10.price_history ph JOIN lab2var10.products p ON p.id = ph.product_id " +
+                filter + " ORDER BY ph.product_id, ph.change_date DESC, ph.id DESC) latest " +
+                "WHERE new_price > 0";
+        return getSession().flatMap(session -> {
+            Mutiny.Query<Object> insert = session.createNativeQuery(sql);
+            insert.setParameter("factor", factor);
+            insert.setParameter("delta", delta);
+            if (categoryId != null) {
+                insert.setParameter("categoryId", categoryId);
+            }
+            if (manufacturer != null) {
+                insert.setParameter("manufacturer", manufacturer);
+            }
+            if (codePrefix != null) {
+                insert.setParameter("codePrefix", codePrefix.replace("\\", "\\\\")
+                        .replace("%", "\\%").replace("_", "\\_") + "%");
+            }
+            return insert.executeUpdate();
+        }).call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_SAVE));
+    }
+
+    @WithTransaction
+    public Uni<Boolean> createMonthlyPartition(LocalDate month) {
+        return createMonthlyPartition("price_history", month);
+    }
+
+    @WithTransaction
+    public Uni<Integer> detachMonthlyPartitionsBefore(LocalDate month) {
+        return detachMonthlyPartitionsBefore("price_history", month);
     }
 
     @WithTransaction
     public Uni<Integer> updateChangeDate(Long id, Date newDate) {
-        return update("invoiceDate = ?1 where id = ?2", newDate, id);
+        return update("changeDate = ?1 where id = ?2", newDate, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updatePricesForProduct(Product product, BigDecimal newPrice) {
-        return update("price = ?1 where productId = ?2", newPrice, product);
+        return update("price = ?1 where product = ?2", newPrice, product)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<List<PriceHistory>> findRecentPriceChanges(int days) {
         Date recentDate = new Date(System.currentTimeMillis() - (long) days * 24 * 60 * 60 * 1000);
-        return find("invoiceDate >= ?1", recentDate).list();
+        return find("changeDate >= ?1", recentDate).list();
     }
 
     @WithTransaction
     public Uni<Long> getPageCountByProduct(Product product, int pageSize) {
-        return count("productId", product)
+        return count("product", product)
                 .map(count -> (count + pageSize - 1) / pageSize);
     }
 }
\ No newline at end of file
@@ -5,8 +5,10 @@ import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
 import io.quarkus.panache.common.Page;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.hibernate.reactive.mutiny.Mutiny;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @ApplicationScoped
@@ -83,21 +85,65 @@ public class ProductRepository extends BaseRepository<Product> {
 
     @WithTransaction
     public Uni<Integer> updateProductCode(Long id, String newCode) {
-        return update("code = ?1 where id = ?2", newCode, id);
+        return update("code = ?1 where id = ?2", newCode, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updateProductName(Long id, String newName) {
-        return update("name = ?1 where id = ?2", newName, id);
+        return update("name = ?1 where id = ?2", newName, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByCategory(Long categoryId) {
-        return delete("category.id", categoryId);
+        return delete("category.id", categoryId)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
+    }
+
+    @WithTransaction
+    public Uni<Object[]> deleteChunkByCategory(Long categoryId, long afterId, int limit) {
+        return deleteChunk("lab2var10.products", "category_id = :categoryId",
+                Map.of("categoryId", categoryId), afterId, limit);
     }
 
     @WithTransaction
     public Uni<Long> deleteByManufacturer(String manufacturer) {
-        return delete("manufacturer", manufacturer);
+        return delete("manufacturer", manufacturer)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
+    }
+
+    // rows whose values are unchanged are skipped, so only inserted or modified products are returned
+    @WithTransaction
+    public Uni<List<Object[]>> upsertByCode(List<Product> products) {
+        return getSession().flatMap(session -> {
+            StringBuilder sql = new StringBuilder(
+                    "INSERT INTO lab2var10.products (code, name, category_id, manufacturer) VALUES ");
+            for (int i = 0; i < products.size(); i++) {
+                sql.append(i == 0 ? "" : ", ")
+                        .append("(:code").append(i)
+                        .append(", :name").append(i)
+                        .append(", :category").append(i)
+                        .append(", :manufacturer").append(i).append(')');
+            }
+            sql.append(" ON CONFLICT (code) DO UPDATE SET name = excluded.name, " +
+                    "category_id = excluded.category_id, manufacturer = excluded.manufacturer " +
+                    "WHERE (products.name, products.category_id, products.manufacturer) " +
+                    "IS DISTINCT FROM (excluded.name, excluded.category_id, excluded.manufacturer) " +
+                    "RETURNING id, code");
+            Mutiny.SelectionQuery<Object[]> upsert = session.createNativeQuery(sql.toString(), Object[].class);
+            for (int i = 0; i < products.size(); i++) {
+                Product product = products.get(i);
+                upsert.setParameter("code" + i, product.getCode());
+                upsert.setParameter("name" + i, product.getName());
+                upsert.setParameter("category" + i, product.getCategory().getId());
+                upsert.setParameter("manufacturer" + i, product.getManufacturer());
+            }
+            return upsert.getResultList();
+        }).call(rows -> rows.isEmpty()
+                ? Uni.createFrom().voidItem()
+                : entityChangeRepository.recordAll(entityClass().getSimpleName(),
+                        rows.stream().map(row -> ((Number) row[0]).longValue()).toList(),
+                        null, EntityChangeRepository.OPERATION_SAVE));
     }
 }
\ No newline at end of file
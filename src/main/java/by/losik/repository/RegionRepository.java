@@ -6,11 +6,18 @@ import io.quarkus.panache.common.Page;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 
+import java.util.Collection;
 import java.util.List;
 
 @ApplicationScoped
 public class RegionRepository extends BaseRepository<Region> {
 
+    // archived invoices stay in the rollup through their frozen per-settlement totals
+    private static final String ARCHIVED_COUNT =
+            "COALESCE((SELECT SUM(t.invoiceCount) FROM InvoiceArchiveTotal t WHERE t.settlementId = s.id), 0)";
+    private static final String ARCHIVED_AMOUNT =
+            "COALESCE((SELECT SUM(t.totalAmount) FROM InvoiceArchiveTotal t WHERE t.settlementId = s.id), 0)";
+
     @WithTransaction
     public Uni<List<Region>> findByCountry(String country) {
         return find("country", country).list();
@@ -62,17 +69,20 @@ public class RegionRepository extends BaseRepository<Region> {
 
     @WithTransaction
     public Uni<Integer> updateRegionName(Long id, String newName) {
-        return update("name = ?1 where id = ?2", newName, id);
+        return update("name = ?1 where id = ?2", newName, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByCountry(String country) {
-        return delete("country", country);
+        return delete("country", country)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByName(String name) {
-        return delete("name", name);
+        return delete("name", name)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
@@ -95,12 +105,14 @@ public class RegionRepository extends BaseRepository<Region> {
 
     @WithTransaction
     public Uni<Integer> updateRegionCountry(Long id, String newCountry) {
-        return update("country = ?1 where id = ?2", newCountry, id);
+        return update("country = ?1 where id = ?2", newCountry, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updateCountryForRegions(String oldCountry, String newCountry) {
-        return update("set country = ?1 where country = ?2", newCountry, oldCountry);
+        return update("set country = ?1 where country = ?2", newCountry, oldCountry)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
@@ -118,4 +130,31 @@ public class RegionRepository extends BaseRepository<Region> {
                         .getResultList()
         );
     }
+
+    @WithTransaction
+    public Uni<List<Object[]>> getInvoiceRollup() {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT r.id, r.name, r.country, s.id, s.name, " +
+                                "COUNT(i) + " + ARCHIVED_COUNT + ", COALESCE(SUM(i.totalAmount), 0) + " + ARCHIVED_AMOUNT + " " +
+                                "FROM Region r " +
+                                "LEFT JOIN Settlement s ON s.region.id = r.id " +
+                                "LEFT JOIN Invoice i ON i.settlement.id = s.id " +
+                                "GROUP BY r.id, r.name, r.country, s.id, s.name", Object[].class)
+                        .getResultList()
+        );
+    }
+
+    @WithTransaction
+    public Uni<List<Object[]>> getSettlementRollup(Collection<Long> settlementIds) {
+        return getSession().flatMap(session ->
+                session.createQuery("SELECT s.id, s.name, s.region.id, " +
+                                "COUNT(i) + " + ARCHIVED_COUNT + ", COALESCE(SUM(i.totalAmount), 0) + " + ARCHIVED_AMOUNT + " " +
+                                "FROM Settlement s " +
+                                "LEFT JOIN Invoice i ON i.settlement.id = s.id " +
+                                "WHERE s.id IN :settlementIds " +
+                                "GROUP BY s.id, s.name, s.region.id", Object[].class)
+                        .setParameter("settlementIds", settlementIds)
+                        .getResultList()
+        );
+    }
 }
\ No newline at end of file
@@ -96,27 +96,32 @@ public class SettlementRepository extends BaseRepository<Settlement> {
 
     @WithTransaction
     public Uni<Integer> updateSettlementName(Long id, String newName) {
-        return update("name = ?1 where id = ?2", newName, id);
+        return update("name = ?1 where id = ?2", newName, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> updateSettlementRegion(Long id, Long newRegionId) {
-        return update("region.id = ?1 where id = ?2", newRegionId, id);
+        return update("region.id = ?1 where id = ?2", newRegionId, id)
+                .call(count -> recordWrite(count, id, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Integer> bulkUpdateRegionForSettlements(Long oldRegionId, Long newRegionId) {
-        return update("set region.id = ?1 where region.id = ?2", newRegionId, oldRegionId);
+        return update("set region.id = ?1 where region.id = ?2", newRegionId, oldRegionId)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_UPDATE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByRegionId(Long regionId) {
-        return delete("region.id", regionId);
+        return delete("region.id", regionId)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
     public Uni<Long> deleteByName(String name) {
-        return delete("name", name);
+        return delete("name", name)
+                .call(count -> recordWrite(count, null, EntityChangeRepository.OPERATION_DELETE));
     }
 
     @WithTransaction
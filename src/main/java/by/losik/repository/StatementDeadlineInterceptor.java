@@ -0,0 +1,75 @@
+package by.losik.repository;
+
+import by.losik.configuration.DeadlineExceededException;
+import by.losik.configuration.RequestDeadline;
+import io.quarkus.hibernate.reactive.panache.Panache;
+import io.quarkus.hibernate.reactive.panache.common.WithTransaction;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import jakarta.annotation.Priority;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.Interceptor;
+import jakarta.interceptor.InvocationContext;
+import org.hibernate.reactive.mutiny.Mutiny;
+
+// Runs inside the transaction opened by @WithTransaction (its interceptor has a lower priority)
+// and caps every statement of that transaction at the time left until the request deadline, so
+// PostgreSQL cancels a query the client has stopped waiting for. Once the deadline has passed,
+// for example on a @Retry attempt after a @Timeout, the repository call fails without touching the
+// database. Calls without a request deadline, such as scheduled jobs, are left alone.
+// The setting lasts until the transaction ends, so it is sent once per transaction: calls nested in
+// it, such as the outbox writes, run under the cap their outermost call set.
+@WithTransaction
+@Interceptor
+@Priority(Interceptor.Priority.PLATFORM_BEFORE + 300)
+public class StatementDeadlineInterceptor {
+
+    private static final String CAPPED_TRANSACTION_KEY = StatementDeadlineInterceptor.class.getName() + ".transaction";
+
+    @AroundInvoke
+    Object applyDeadline(InvocationContext context) throws Exception {
+        Long remaining = RequestDeadline.remainingMillis();
+        if (remaining == null || !Uni.class.isAssignableFrom(context.getMethod().getReturnType())) {
+            return context.proceed();
+        }
+        if (remaining <= 0) {
+            return Uni.createFrom().failure(new DeadlineExceededException(
+                    "Request deadline exceeded before " + context.getMethod().getName()));
+        }
+        Context requestContext = Vertx.currentContext();
+        return currentTransaction()
+                .chain(transaction -> {
+                    if (transaction != null && transaction == requestContext.getLocal(CAPPED_TRANSACTION_KEY)) {
+                        return proceed(context);
+                    }
+                    return setStatementTimeout(remaining)
+                            .invoke(() -> {
+                                if (transaction != null) {
+                                    requestContext.putLocal(CAPPED_TRANSACTION_KEY, transaction);
+                                }
+                            })
+                            .chain(() -> proceed(context));
+                });
+    }
+
+    Uni<Mutiny.Transaction> currentTransaction() {
+        return Panache.currentTransaction();
+    }
+
+    Uni<String> setStatementTimeout(long timeoutMillis) {
+        return Panache.getSession()
+                .chain(session -> session.createNativeQuery("SELECT set_config('statement_timeout', :timeout, true)", String.class)
+                        .setParameter("timeout", timeoutMillis + "ms")
+                        .getSingleResult());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Uni<Object> proceed(InvocationContext context) {
+        try {
+            return (Uni<Object>) context.proceed();
+        } catch (Exception e) {
+            return Uni.createFrom().failure(e);
+        }
+    }
+}
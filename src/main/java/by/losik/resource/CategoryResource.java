@@ -9,11 +9,12 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 
+import java.util.Map;
+
 @Path("/api/categories")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
@@ -26,7 +27,6 @@ import org.eclipse.microprofile.faulttolerance.Timeout;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class CategoryResource {
 
     @Inject
@@ -120,6 +120,7 @@ public class CategoryResource {
     }
 
     @POST
+    @Retry(maxRetries = 0)
     public Uni<Response> create(Category category) {
         log.info("Creating new category: {}", category != null ? category.getName() : "null");
 
@@ -167,6 +168,47 @@ public class CategoryResource {
                 });
     }
 
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patch(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching category with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return categoryService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedCategory -> {
+                    log.info("Successfully patched category with id: {}", id);
+                    return EntityVersions.patched(patchedCategory, patchedCategory.getVersion());
+                })
+                .onItem().ifNull().continueWith(() -> {
+                    log.warn("Category with id {} not found", id);
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Category not found with id: " + id)
+                            .build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching category with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "category");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> update(@PathParam("id") Long id, Category category) {
@@ -9,11 +9,12 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 @Path("/api/customers")
@@ -28,7 +29,6 @@ import java.util.Objects;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class CustomerResource {
 
     @Inject
@@ -39,7 +39,13 @@ public class CustomerResource {
             @QueryParam("sort") String sortField,
             @QueryParam("direction") @DefaultValue("asc") String direction,
             @QueryParam("page") @DefaultValue("0") int page,
-            @QueryParam("size") @DefaultValue("20") int size) {
+            @QueryParam("size") @DefaultValue("20") int size,
+            @QueryParam("ids") String ids,
+            @QueryParam("fields") String fields) {
+
+        if (ids != null) {
+            return findByIds(EntityIds.parse(ids));
+        }
 
         log.info("Getting all customers, page: {}, size: {}, sort: {}", page, size, sortField);
 
@@ -76,6 +82,10 @@ public class CustomerResource {
                             ? Sort.by(sortField, sortDirection)
                             : Sort.by("name", sortDirection);
 
+                    if (fields != null && !fields.isBlank()) {
+                        return findFields(SparseFields.parse(fields), page, size, sort);
+                    }
+
                     return customerService.findPaginatedSorted(page, size, sort)
                             .onItem().transform(customers -> Response.ok(customers).build());
                 })
@@ -87,6 +97,12 @@ public class CustomerResource {
                 });
     }
 
+    @POST
+    @Path("/by-ids")
+    public Uni<Response> getCustomersByIds(List<Long> ids) {
+        return findByIds(ids);
+    }
+
     @GET
     @Path("/{id}")
     public Uni<Response> getCustomerById(@PathParam("id") Long id) {
@@ -122,6 +138,7 @@ public class CustomerResource {
     }
 
     @POST
+    @Retry(maxRetries = 0)
     public Uni<Response> createCustomer(Customer customer) {
         log.info("Creating new customer: {}", customer != null ? customer.getName() : "null");
 
@@ -169,6 +186,47 @@ public class CustomerResource {
                 });
     }
 
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patchCustomer(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching customer with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return customerService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedCustomer -> {
+                    log.info("Successfully patched customer with id: {}", id);
+                    return EntityVersions.patched(patchedCustomer, patchedCustomer.getVersion());
+                })
+                .onItem().ifNull().continueWith(() -> {
+                    log.warn("Customer with id {} not found", id);
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Customer not found with id: " + id)
+                            .build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching customer with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "customer");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> updateCustomer(@PathParam("id") Long id, Customer customer) {
@@ -664,6 +722,71 @@ public class CustomerResource {
                 });
     }
 
+    @GET
+    @Path("/stats/top-revenue")
+    public Uni<Response> getTopCustomersByRevenue(
+            @QueryParam("k") @DefaultValue("10") int k,
+            @QueryParam("legalEntity") Boolean legalEntity) {
+
+        log.info("Getting top {} customers by revenue, legal entity filter: {}", k, legalEntity);
+
+        return Uni.createFrom().item(k)
+                .onItem().transform(limit -> limit <= 0 || limit > 100)
+                .onItem().transform(isInvalid -> {
+                    if (isInvalid) {
+                        return Response.status(Response.Status.BAD_REQUEST)
+                                .entity("K must be between 1 and 100")
+                                .build();
+                    }
+                    return null;
+                })
+                .onItem().ifNotNull().transform(response -> response)
+                .onItem().ifNull().switchTo(() ->
+                        customerService.getTopCustomersByRevenue(k, legalEntity)
+                                .onItem().transform(customers -> Response.ok(customers).build())
+                )
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting top {} customers by revenue", k, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving top customers: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @GET
+    @Path("/{id}/lifetime-value")
+    public Uni<Response> getLifetimeValue(@PathParam("id") Long id) {
+        log.info("Getting lifetime value for customer id: {}", id);
+
+        return Uni.createFrom().item(id)
+                .onItem().transform(i -> i == null || i <= 0)
+                .onItem().transform(isInvalid -> {
+                    if (isInvalid) {
+                        return Response.status(Response.Status.BAD_REQUEST)
+                                .entity("Invalid customer ID")
+                                .build();
+                    }
+                    return null;
+                })
+                .onItem().ifNotNull().transform(response -> response)
+                .onItem().ifNull().switchTo(() ->
+                        customerService.getLifetimeValue(id)
+                                .onItem().transform(lifetimeValue -> {
+                                    if (lifetimeValue == null) {
+                                        log.warn("Customer with id {} not found", id);
+                                        return Response.status(Response.Status.NOT_FOUND).build();
+                                    }
+                                    return Response.ok(lifetimeValue).build();
+                                })
+                )
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting lifetime value for customer id: {}", id, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving lifetime value: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
     @GET
     @Path("/search/page-count")
     public Uni<Response> getSearchPageCount(
@@ -725,4 +848,38 @@ public class CustomerResource {
                             .build();
                 });
     }
-}
\ No newline at end of file
+
+    private Uni<Response> findByIds(List<Long> ids) {
+        String error = EntityIds.validate(ids);
+        if (error != null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(error)
+                    .build());
+        }
+        log.info("Getting {} customers by ids", ids.size());
+
+        return customerService.findByIds(ids)
+                .onItem().transform(customers -> {
+                    log.debug("Found {} of {} requested customers", customers.size(), ids.size());
+                    return Response.ok(customers).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting customers by ids", throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving customers: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    private Uni<Response> findFields(List<String> fields, int pageIndex, int pageSize, Sort sort) {
+        return customerService.findPaginatedSortedFields(fields, pageIndex, pageSize, sort)
+                .onItem().transform(rows -> {
+                    log.debug("Retrieved {} customers with fields {}", rows.size(), fields);
+                    return Response.ok(rows).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting customers with fields {}", fields, throwable);
+                    return SparseFields.failed(throwable, "customers");
+                });
+    }
+}
@@ -0,0 +1,50 @@
+package by.losik.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// id list handling shared by the multi-get endpoints (?ids=1,2,3 and POST /by-ids)
+final class EntityIds {
+
+    // bounds the IN list and the MGET; longer lists should be split by the caller
+    static final int MAX_IDS = 1000;
+
+    private EntityIds() {
+    }
+
+    // null when the list is not comma-separated numbers, so validate rejects it
+    static List<Long> parse(String ids) {
+        List<Long> parsed = new ArrayList<>();
+        for (String part : ids.split(",")) {
+            if (part.isBlank()) {
+                continue;
+            }
+            try {
+                parsed.add(Long.parseLong(part.trim()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return parsed;
+    }
+
+    static String validate(List<Long> ids) {
+        return validate(ids, MAX_IDS);
+    }
+
+    // the error message, or null when the ids can be looked up
+    static String validate(List<Long> ids, int maxIds) {
+        if (ids == null || ids.isEmpty()) {
+            return "ids must be a non-empty list of positive ids";
+        }
+        if (ids.size() > maxIds) {
+            return "At most " + maxIds + " ids can be requested at once";
+        }
+        for (Long id : ids) {
+            if (id == null || id <= 0) {
+                return "ids must be a non-empty list of positive ids";
+            }
+        }
+        return null;
+    }
+}
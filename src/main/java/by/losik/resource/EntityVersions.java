@@ -0,0 +1,53 @@
+package by.losik.resource;
+
+import jakarta.persistence.OptimisticLockException;
+import jakarta.ws.rs.core.EntityTag;
+import jakarta.ws.rs.core.Response;
+
+// If-Match/ETag handling shared by the PATCH endpoints; the tag is the row's version column
+final class EntityVersions {
+
+    static final String MERGE_PATCH_JSON = "application/merge-patch+json";
+
+    private EntityVersions() {
+    }
+
+    // accepts 3, "3" and W/"3"; a missing header means an unconditional patch
+    static Long parseIfMatch(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank()) {
+            return null;
+        }
+        String tag = ifMatch.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+            tag = tag.substring(1, tag.length() - 1);
+        }
+        return Long.parseLong(tag);
+    }
+
+    static Response patched(Object entity, Long version) {
+        Response.ResponseBuilder response = Response.ok(entity);
+        if (version != null) {
+            response.tag(new EntityTag(version.toString()));
+        }
+        return response.build();
+    }
+
+    static Response patchFailed(Throwable throwable, String entityName) {
+        if (throwable instanceof OptimisticLockException) {
+            return Response.status(Response.Status.PRECONDITION_FAILED)
+                    .entity(throwable.getMessage())
+                    .build();
+        }
+        if (throwable instanceof IllegalArgumentException) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid patch: " + throwable.getMessage())
+                    .build();
+        }
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity("Error patching " + entityName + ": " + throwable.getMessage())
+                .build();
+    }
+}
@@ -3,20 +3,22 @@ package by.losik.resource;
 import by.losik.entity.Invoice;
 import by.losik.entity.InvoiceItem;
 import by.losik.service.InvoiceItemService;
+import by.losik.service.PriceWriteBehindService;
 import io.quarkus.panache.common.Sort;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Map;
 
 @Path("/api/invoice-items")
 @Produces(MediaType.APPLICATION_JSON)
@@ -30,7 +32,6 @@ import java.math.BigInteger;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class InvoiceItemResource {
 
     @Inject
@@ -103,6 +104,7 @@ public class InvoiceItemResource {
     }
 
     @POST
+    @Retry(maxRetries = 0)
     public Uni<Response> createInvoiceItem(InvoiceItem invoiceItem) {
         log.info("Creating new invoice item");
 
@@ -147,6 +149,47 @@ public class InvoiceItemResource {
                 });
     }
 
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patchInvoiceItem(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching invoice item with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return invoiceItemService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedInvoiceItem -> {
+                    log.info("Successfully patched invoice item with id: {}", id);
+                    return EntityVersions.patched(patchedInvoiceItem, patchedInvoiceItem.getVersion());
+                })
+                .onItem().ifNull().continueWith(() -> {
+                    log.warn("Invoice item with id {} not found", id);
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Invoice item not found with id: " + id)
+                            .build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching invoice item with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "invoice item");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> updateInvoiceItem(@PathParam("id") Long id, InvoiceItem invoiceItem) {
@@ -216,23 +259,19 @@ public class InvoiceItemResource {
 
     @GET
     @Path("/invoice/{invoiceId}")
-    public Uni<Response> getItemsByInvoiceId(@PathParam("invoiceId") Long invoiceId) {
+    public Multi<InvoiceItem> getItemsByInvoiceId(@PathParam("invoiceId") Long invoiceId) {
         log.info("Getting invoice items by invoice id: {}", invoiceId);
 
         if (invoiceId == null || invoiceId <= 0) {
-            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
                     .entity("Invalid invoice ID")
                     .build());
         }
 
-        return invoiceItemService.findByInvoiceId(invoiceId)
-                .onItem().transform(items -> Response.ok(items).build())
-                .onFailure().recoverWithItem(throwable -> {
-                    log.error("Error getting invoice items by invoice id: {}", invoiceId, throwable);
-                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                            .entity("Error retrieving invoice items: " + throwable.getMessage())
-                            .build();
-                });
+        // written as a JSON array while pages arrive; a failure after the first item aborts the response
+        return invoiceItemService.streamByInvoiceId(invoiceId)
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting invoice items by invoice id: {}", invoiceId, throwable));
     }
 
     @GET
@@ -563,6 +602,9 @@ public class InvoiceItemResource {
 
         return invoiceItemService.updatePrice(id, newPrice)
                 .onItem().transform(updatedCount -> {
+                    if (updatedCount == PriceWriteBehindService.QUEUED) {
+                        return Response.accepted().entity("Price update queued").build();
+                    }
                     if (updatedCount > 0) {
                         return Response.ok().entity("Price updated successfully").build();
                     } else {
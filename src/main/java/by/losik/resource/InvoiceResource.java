@@ -1,22 +1,38 @@
 package by.losik.resource;
 
+import by.losik.dto.InvoiceFeedEvent;
+import by.losik.dto.InvoiceWithItemsRequest;
 import by.losik.entity.Customer;
 import by.losik.entity.Invoice;
+import by.losik.entity.InvoiceItem;
+import by.losik.filter.RequestClass;
+import by.losik.filter.Shedding;
+import by.losik.service.InvoiceDetailService;
 import by.losik.service.InvoiceService;
+import by.losik.service.LiveFeedService;
+import by.losik.service.RevenueSeriesService;
 import io.quarkus.panache.common.Sort;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
 import java.math.BigDecimal;
 import java.sql.Date;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Path("/api/invoices")
 @Produces(MediaType.APPLICATION_JSON)
@@ -30,18 +46,30 @@ import java.sql.Date;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class InvoiceResource {
 
+    private static final int MAX_ITEMS_PER_INVOICE = 1000;
+    private static final long MAX_SERIES_DAYS = 3660;
+    private static final long MAX_TOP_PURCHASES_DAYS = 366;
+    private static final List<Double> DEFAULT_PERCENTILES = List.of(50.0, 90.0, 99.0);
+    private static final int MAX_DETAIL_INVOICES = 100;
+
     @Inject
     InvoiceService invoiceService;
 
+    @Inject
+    InvoiceDetailService invoiceDetailService;
+
+    @Inject
+    LiveFeedService liveFeedService;
+
     @GET
     public Uni<Response> getAllInvoices(
             @QueryParam("sort") String sortField,
             @QueryParam("direction") @DefaultValue("asc") String direction,
             @QueryParam("page") @DefaultValue("0") int page,
-            @QueryParam("size") @DefaultValue("20") int size) {
+            @QueryParam("size") @DefaultValue("20") int size,
+            @QueryParam("fields") String fields) {
 
         log.info("Getting all invoices, page: {}, size: {}", page, size);
 
@@ -65,6 +93,10 @@ public class InvoiceResource {
                 ? Sort.by(sortField, sortDirection)
                 : Sort.by("invoiceDate", sortDirection);
 
+        if (fields != null && !fields.isBlank()) {
+            return findFields(SparseFields.parse(fields), page, size, sort);
+        }
+
         return invoiceService.findPaginatedSorted(page, size, sort)
                 .onItem().transform(invoices -> Response.ok(invoices).build())
                 .onFailure().recoverWithItem(throwable -> {
@@ -102,7 +134,61 @@ public class InvoiceResource {
                 });
     }
 
+    @GET
+    @Path("/{id}/detail")
+    public Uni<Response> getInvoiceDetail(@PathParam("id") Long id) {
+        log.info("Getting invoice detail by id: {}", id);
+
+        if (id == null || id <= 0) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid invoice ID")
+                    .build());
+        }
+
+        return invoiceDetailService.findDetail(id)
+                .onItem().transform(detail -> {
+                    if (detail == null) {
+                        log.warn("Invoice with id {} not found", id);
+                        return Response.status(Response.Status.NOT_FOUND).build();
+                    }
+                    return Response.ok(detail).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting invoice detail by id: {}", id, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving invoice detail: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @GET
+    @Path("/details")
+    public Uni<Response> getInvoiceDetails(@QueryParam("ids") String ids) {
+        log.info("Getting invoice details by ids: {}", ids);
+
+        List<Long> parsed = ids != null ? EntityIds.parse(ids) : null;
+        String error = EntityIds.validate(parsed, MAX_DETAIL_INVOICES);
+        if (error != null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(error)
+                    .build());
+        }
+
+        return invoiceDetailService.findDetails(parsed)
+                .onItem().transform(details -> Response.ok(details).build())
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting invoice details by ids: {}", ids, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving invoice details: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    // not idempotent: a retry after a timed-out insert that still committed duplicates the invoice;
+    // clients retry with an Idempotency-Key instead
     @POST
+    @Shedding(RequestClass.CRITICAL)
+    @Retry(maxRetries = 0)
     public Uni<Response> createInvoice(Invoice invoice) {
         log.info("Creating new invoice");
 
@@ -153,6 +239,126 @@ public class InvoiceResource {
                 });
     }
 
+    @POST
+    @Path("/with-items")
+    @Shedding(RequestClass.CRITICAL)
+    @Retry(maxRetries = 0)
+    public Uni<Response> createInvoiceWithItems(InvoiceWithItemsRequest request) {
+        log.info("Creating new invoice with items");
+
+        if (request == null || request.getInvoice() == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invoice is required")
+                    .build());
+        }
+
+        Invoice invoice = request.getInvoice();
+        List<InvoiceItem> items = request.getItems();
+
+        if (invoice.getCustomer() == null || invoice.getCustomer().getId() == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Customer is required")
+                    .build());
+        }
+
+        if (invoice.getSettlement() == null || invoice.getSettlement().getId() == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Settlement is required")
+                    .build());
+        }
+
+        if (invoice.getInvoiceDate() == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invoice date is required")
+                    .build());
+        }
+
+        if (invoice.getEnterprise() == null || invoice.getEnterprise().trim().isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Enterprise name is required")
+                    .build());
+        }
+
+        if (items == null || items.isEmpty() || items.size() > MAX_ITEMS_PER_INVOICE) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invoice must have between 1 and " + MAX_ITEMS_PER_INVOICE + " items")
+                    .build());
+        }
+
+        for (InvoiceItem item : items) {
+            if (item == null || item.getProduct() == null || item.getProduct().getId() == null) {
+                return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Product is required for every item")
+                        .build());
+            }
+            if (item.getQuantity() == null || item.getQuantity().signum() <= 0) {
+                return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Quantity must be greater than 0")
+                        .build());
+            }
+            if (item.getPrice() == null || item.getPrice().compareTo(BigDecimal.ZERO) <= 0) {
+                return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Price must be greater than 0")
+                        .build());
+            }
+        }
+
+        return invoiceService.saveWithItems(invoice, items)
+                .onItem().transform(savedInvoice ->
+                        Response.status(Response.Status.CREATED).entity(savedInvoice).build())
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error creating invoice with items", throwable);
+                    return Response.status(Response.Status.BAD_REQUEST)
+                            .entity("Error creating invoice: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patchInvoice(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching invoice with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return invoiceService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedInvoice -> {
+                    log.info("Successfully patched invoice with id: {}", id);
+                    return EntityVersions.patched(patchedInvoice, patchedInvoice.getVersion());
+                })
+                .onItem().ifNull().switchTo(() -> invoiceService.isArchived(id)
+                        .onItem().transform(archived -> {
+                            if (archived) {
+                                return archivedConflict(id);
+                            }
+                            log.warn("Invoice with id {} not found", id);
+                            return Response.status(Response.Status.NOT_FOUND)
+                                    .entity("Invoice not found with id: " + id)
+                                    .build();
+                        }))
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching invoice with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "invoice");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> updateInvoice(@PathParam("id") Long id, Invoice invoice) {
@@ -183,8 +389,11 @@ public class InvoiceResource {
         }
 
         invoice.setId(id);
-        return invoiceService.update(invoice)
-                .onItem().transform(updatedInvoice -> Response.ok(updatedInvoice).build())
+        return invoiceService.isArchived(id)
+                .onItem().transformToUni(archived -> archived
+                        ? Uni.createFrom().item(archivedConflict(id))
+                        : invoiceService.update(invoice)
+                                .onItem().transform(updatedInvoice -> Response.ok(updatedInvoice).build()))
                 .onFailure().recoverWithItem(throwable -> {
                     log.error("Error updating invoice with id: {}", id, throwable);
                     return Response.status(Response.Status.BAD_REQUEST)
@@ -205,13 +414,12 @@ public class InvoiceResource {
         }
 
         return invoiceService.deleteById(id)
-                .onItem().transform(deleted -> {
-                    if (deleted) {
-                        return Response.noContent().build();
-                    } else {
-                        return Response.status(Response.Status.NOT_FOUND).build();
-                    }
-                })
+                .onItem().transformToUni(deleted -> deleted
+                        ? Uni.createFrom().item(Response.noContent().build())
+                        : invoiceService.isArchived(id)
+                                .onItem().transform(archived -> archived
+                                        ? archivedConflict(id)
+                                        : Response.status(Response.Status.NOT_FOUND).build()))
                 .onFailure().recoverWithItem(throwable -> {
                     log.error("Error deleting invoice with id: {}", id, throwable);
                     return Response.status(Response.Status.BAD_REQUEST)
@@ -222,23 +430,19 @@ public class InvoiceResource {
 
     @GET
     @Path("/customer/{customerId}")
-    public Uni<Response> getInvoicesByCustomerId(@PathParam("customerId") Long customerId) {
+    public Multi<Invoice> getInvoicesByCustomerId(@PathParam("customerId") Long customerId) {
         log.info("Getting invoices by customer id: {}", customerId);
 
         if (customerId == null || customerId <= 0) {
-            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
                     .entity("Invalid customer ID")
                     .build());
         }
 
-        return invoiceService.findByCustomerId(customerId)
-                .onItem().transform(invoices -> Response.ok(invoices).build())
-                .onFailure().recoverWithItem(throwable -> {
-                    log.error("Error getting invoices by customer id: {}", customerId, throwable);
-                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                            .entity("Error retrieving invoices: " + throwable.getMessage())
-                            .build();
-                });
+        // written as a JSON array while pages arrive; a failure after the first item aborts the response
+        return invoiceService.streamByCustomerId(customerId)
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting invoices by customer id: {}", customerId, throwable));
     }
 
     @GET
@@ -510,6 +714,24 @@ public class InvoiceResource {
                 });
     }
 
+    // pushes each invoice write as it commits, so dashboards need not poll /recent
+    @GET
+    @Path("/feed")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<InvoiceFeedEvent> getInvoiceFeed(@QueryParam("customerId") Long customerId,
+                                                  @QueryParam("settlementId") Long settlementId) {
+        log.info("Subscribing to invoice feed, customer id: {}, settlement id: {}", customerId, settlementId);
+
+        if ((customerId != null && customerId <= 0) || (settlementId != null && settlementId <= 0)) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid customer or settlement ID")
+                    .build());
+        }
+
+        return liveFeedService.invoices(customerId, settlementId);
+    }
+
     @GET
     @Path("/without-items")
     public Uni<Response> getInvoicesWithoutItems() {
@@ -593,6 +815,159 @@ public class InvoiceResource {
                 });
     }
 
+    @GET
+    @Path("/stats/top-purchases/date/{date}")
+    public Uni<Response> getTopPurchasesByDate(@PathParam("date") Date date) {
+        log.info("Getting top purchases for date: {}", date);
+
+        if (date == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Date is required")
+                    .build());
+        }
+
+        return invoiceService.findTopPurchasesByDay(date)
+                .onItem().transform(purchases -> Response.ok(purchases).build())
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting top purchases for date: {}", date, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving top purchases: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @GET
+    @Path("/stats/top-purchases")
+    public Uni<Response> getTopPurchasesByDateRange(
+            @QueryParam("start") Date startDate,
+            @QueryParam("end") Date endDate) {
+
+        log.info("Getting top purchases from {} to {}", startDate, endDate);
+
+        if (startDate == null || endDate == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Start date and end date are required")
+                    .build());
+        }
+
+        if (endDate.before(startDate)) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("End date must be after start date")
+                    .build());
+        }
+
+        if (ChronoUnit.DAYS.between(startDate.toLocalDate(), endDate.toLocalDate()) > MAX_TOP_PURCHASES_DAYS) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Date range cannot exceed " + MAX_TOP_PURCHASES_DAYS + " days")
+                    .build());
+        }
+
+        return invoiceService.findTopPurchasesByDateRange(startDate, endDate)
+                .onItem().transform(purchases -> Response.ok(purchases).build())
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting top purchases from {} to {}", startDate, endDate, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving top purchases: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @GET
+    @Path("/stats/revenue-series")
+    public Uni<Response> getRevenueSeries(
+            @QueryParam("unit") @DefaultValue("day") String unit,
+            @QueryParam("start") Date startDate,
+            @QueryParam("end") Date endDate) {
+
+        log.info("Getting {} revenue series from {} to {}", unit, startDate, endDate);
+
+        if (!RevenueSeriesService.UNITS.contains(unit)) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Unit must be one of: " + String.join(", ", RevenueSeriesService.UNITS))
+                    .build());
+        }
+
+        if (startDate == null || endDate == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Start date and end date are required")
+                    .build());
+        }
+
+        if (endDate.before(startDate)) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("End date must be after start date")
+                    .build());
+        }
+
+        if (ChronoUnit.DAYS.between(startDate.toLocalDate(), endDate.toLocalDate()) > MAX_SERIES_DAYS) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Date range cannot exceed " + MAX_SERIES_DAYS + " days")
+                    .build());
+        }
+
+        return invoiceService.getRevenueSeries(unit, startDate.toLocalDate(), endDate.toLocalDate())
+                .onItem().transform(series -> Response.ok(series).build())
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting {} revenue series from {} to {}", unit, startDate, endDate, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving revenue series: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @GET
+    @Path("/stats/amount-distribution")
+    public Uni<Response> getAmountDistribution(
+            @QueryParam("settlementId") List<Long> settlementIds,
+            @QueryParam("from") String from,
+            @QueryParam("to") String to,
+            @QueryParam("p") List<Double> percentiles,
+            @QueryParam("bins") @DefaultValue("20") int bins) {
+
+        log.info("Getting invoice amount distribution for settlements: {}, months: {} to {}",
+                settlementIds, from, to);
+
+        YearMonth fromMonth;
+        YearMonth toMonth;
+        try {
+            fromMonth = from != null ? YearMonth.parse(from) : null;
+            toMonth = to != null ? YearMonth.parse(to) : null;
+        } catch (DateTimeParseException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Months must be in yyyy-MM format")
+                    .build());
+        }
+
+        if (fromMonth != null && toMonth != null && toMonth.isBefore(fromMonth)) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("End month must be after start month")
+                    .build());
+        }
+
+        List<Double> requested = percentiles == null || percentiles.isEmpty() ? DEFAULT_PERCENTILES : percentiles;
+        if (requested.stream().anyMatch(p -> p == null || p < 0 || p > 100)) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Percentiles must be between 0 and 100")
+                    .build());
+        }
+
+        if (bins <= 0 || bins > 200) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Bins must be between 1 and 200")
+                    .build());
+        }
+
+        Set<Long> settlements = settlementIds == null ? Set.of() : new HashSet<>(settlementIds);
+        return invoiceService.getAmountDistribution(settlements, fromMonth, toMonth, requested, bins)
+                .onItem().transform(distribution -> Response.ok(distribution).build())
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting invoice amount distribution", throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving amount distribution: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
     @GET
     @Path("/exists/customer-date")
     public Uni<Response> existsByCustomerAndDate(
@@ -763,13 +1138,10 @@ public class InvoiceResource {
 
         Customer customer = new Customer();
         customer.setId(customerId);
-        return invoiceService.deleteByCustomer(customer)
-                .onItem().transform(count -> {
-                    log.info("Deleted {} invoices for customer id: {}", count, customerId);
-                    return Response.ok().entity("Deleted " + count + " invoices").build();
-                })
+        return invoiceService.startDeleteByCustomer(customer)
+                .onItem().transform(JobResource::accepted)
                 .onFailure().recoverWithItem(throwable -> {
-                    log.error("Error deleting invoices for customer id: {}", customerId, throwable);
+                    log.error("Error starting delete of invoices for customer id: {}", customerId, throwable);
                     return Response.status(Response.Status.BAD_REQUEST)
                             .entity("Error deleting invoices: " + throwable.getMessage())
                             .build();
@@ -796,13 +1168,10 @@ public class InvoiceResource {
                     .build());
         }
 
-        return invoiceService.deleteByDateRange(startDate, endDate)
-                .onItem().transform(count -> {
-                    log.info("Deleted {} invoices for date range: {} to {}", count, startDate, endDate);
-                    return Response.ok().entity("Deleted " + count + " invoices").build();
-                })
+        return invoiceService.startDeleteByDateRange(startDate, endDate)
+                .onItem().transform(JobResource::accepted)
                 .onFailure().recoverWithItem(throwable -> {
-                    log.error("Error deleting invoices by date range: {} to {}", startDate, endDate, throwable);
+                    log.error("Error starting delete of invoices by date range: {} to {}", startDate, endDate, throwable);
                     return Response.status(Response.Status.BAD_REQUEST)
                             .entity("Error deleting invoices: " + throwable.getMessage())
                             .build();
@@ -880,4 +1249,23 @@ public class InvoiceResource {
                             .build();
                 });
     }
-}
\ No newline at end of file
+
+    private Uni<Response> findFields(List<String> fields, int pageIndex, int pageSize, Sort sort) {
+        return invoiceService.findPaginatedSortedFields(fields, pageIndex, pageSize, sort)
+                .onItem().transform(rows -> {
+                    log.debug("Retrieved {} invoices with fields {}", rows.size(), fields);
+                    return Response.ok(rows).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting invoices with fields {}", fields, throwable);
+                    return SparseFields.failed(throwable, "invoices");
+                });
+    }
+
+    private static Response archivedConflict(Long id) {
+        log.warn("Invoice with id {} is archived", id);
+        return Response.status(Response.Status.CONFLICT)
+                .entity("Invoice " + id + " is archived and read-only")
+                .build();
+    }
+}
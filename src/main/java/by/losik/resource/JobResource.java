@@ -0,0 +1,78 @@
+package by.losik.resource;
+
+import by.losik.dto.BulkDeleteJob;
+import by.losik.service.BulkDeleteJobService;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
+import org.eclipse.microprofile.faulttolerance.Retry;
+import org.eclipse.microprofile.faulttolerance.Timeout;
+
+import java.net.URI;
+
+@Path("/api/jobs")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@Slf4j
+@Timeout(5000)
+@Retry(maxRetries = 3, delay = 1000)
+@CircuitBreaker(
+        requestVolumeThreshold = 4,
+        failureRatio = 0.5,
+        delay = 10000,
+        successThreshold = 2
+)
+public class JobResource {
+
+    @Inject
+    BulkDeleteJobService bulkDeleteJobService;
+
+    static Response accepted(BulkDeleteJob job) {
+        return Response.accepted(job)
+                .location(URI.create("/api/jobs/" + job.getId()))
+                .build();
+    }
+
+    @GET
+    public Uni<Response> getAllJobs() {
+        log.info("Getting all bulk delete jobs");
+
+        return bulkDeleteJobService.findAll()
+                .onItem().transform(jobs -> Response.ok(jobs).build());
+    }
+
+    @GET
+    @Path("/{id}")
+    public Uni<Response> getJobById(@PathParam("id") String id) {
+        log.info("Getting bulk delete job by id: {}", id);
+
+        return bulkDeleteJobService.findById(id)
+                .onItem().ifNotNull().transform(job -> Response.ok(job).build())
+                .onItem().ifNull().continueWith(() -> Response.status(Response.Status.NOT_FOUND)
+                        .entity("Job not found with id: " + id)
+                        .build());
+    }
+
+    @DELETE
+    @Path("/{id}")
+    public Uni<Response> cancelJob(@PathParam("id") String id) {
+        log.info("Cancelling bulk delete job: {}", id);
+
+        return bulkDeleteJobService.cancel(id)
+                .onItem().ifNotNull().transform(job -> {
+                    if (!BulkDeleteJobService.STATUS_RUNNING.equals(job.getStatus())) {
+                        return Response.status(Response.Status.CONFLICT)
+                                .entity("Job " + id + " is already " + job.getStatus())
+                                .build();
+                    }
+                    return Response.accepted(job).build();
+                })
+                .onItem().ifNull().continueWith(() -> Response.status(Response.Status.NOT_FOUND)
+                        .entity("Job not found with id: " + id)
+                        .build());
+    }
+}
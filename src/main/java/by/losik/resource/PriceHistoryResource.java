@@ -1,9 +1,14 @@
 package by.losik.resource;
 
+import by.losik.dto.BulkRepriceRequest;
+import by.losik.dto.PriceFeedEvent;
 import by.losik.entity.PriceHistory;
 import by.losik.entity.Product;
+import by.losik.service.LiveFeedService;
 import by.losik.service.PriceHistoryService;
+import by.losik.service.PriceWriteBehindService;
 import io.quarkus.panache.common.Sort;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import io.vertx.core.json.JsonObject;
 import jakarta.inject.Inject;
@@ -11,13 +16,14 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
+import org.jboss.resteasy.reactive.RestStreamElementType;
 
 import java.math.BigDecimal;
 import java.sql.Date;
+import java.util.Map;
 
 @Path("/api/price-history")
 @Produces(MediaType.APPLICATION_JSON)
@@ -31,12 +37,14 @@ import java.sql.Date;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class PriceHistoryResource {
 
     @Inject
     PriceHistoryService priceHistoryService;
 
+    @Inject
+    LiveFeedService liveFeedService;
+
     @GET
     public Uni<Response> getAllPriceHistories(
             @QueryParam("sort") @DefaultValue("changeDate") String sortField,
@@ -89,26 +97,19 @@ public class PriceHistoryResource {
 
     @GET
     @Path("/product/{productId}")
-    public Uni<Response> getPriceHistoriesByProductId(@PathParam("productId") Long productId) {
+    public Multi<PriceHistory> getPriceHistoriesByProductId(@PathParam("productId") Long productId) {
         log.info("Getting price histories by product id: {}", productId);
 
         if (productId == null || productId <= 0) {
-            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
                     .entity("Invalid product ID")
                     .build());
         }
 
-        return priceHistoryService.findByProductId(productId)
-                .onItem().transform(histories -> {
-                    log.debug("Found {} price histories for product id: {}", histories.size(), productId);
-                    return Response.ok(histories).build();
-                })
-                .onFailure().recoverWithItem(throwable -> {
-                    log.error("Error getting price histories by product id: {}", productId, throwable);
-                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                            .entity("Error retrieving price histories: " + throwable.getMessage())
-                            .build();
-                });
+        // written as a JSON array while pages arrive; a failure after the first item aborts the response
+        return priceHistoryService.streamByProductId(productId)
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting price histories by product id: {}", productId, throwable));
     }
 
     @GET
@@ -254,6 +255,7 @@ public class PriceHistoryResource {
     }
 
     @POST
+    @Retry(maxRetries = 0)
     public Uni<Response> createPriceHistory(PriceHistory priceHistory) {
         log.info("Creating new price history");
 
@@ -295,6 +297,107 @@ public class PriceHistoryResource {
                 });
     }
 
+    // not idempotent: a retry after a commit whose response was lost would apply the change twice
+    @POST
+    @Path("/bulk-reprice")
+    @Retry(maxRetries = 0)
+    @Timeout(30000)
+    public Uni<Response> repriceProducts(BulkRepriceRequest request) {
+        log.info("Bulk repricing products");
+
+        if (request == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Reprice request is required")
+                    .build());
+        }
+
+        if (request.getCategoryId() == null && request.getManufacturer() == null && request.getCodePrefix() == null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("At least one of categoryId, manufacturer or codePrefix is required")
+                    .build());
+        }
+
+        if (request.getCodePrefix() != null && request.getCodePrefix().isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Code prefix must not be empty")
+                    .build());
+        }
+
+        String mode = request.getMode();
+        if (!PriceHistoryService.REPRICE_PERCENT.equals(mode) && !PriceHistoryService.REPRICE_ABSOLUTE.equals(mode)) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Mode must be one of: " + PriceHistoryService.REPRICE_PERCENT + ", "
+                            + PriceHistoryService.REPRICE_ABSOLUTE)
+                    .build());
+        }
+
+        if (request.getValue() == null || request.getValue().signum() == 0) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Value must be a non-zero number")
+                    .build());
+        }
+
+        if (PriceHistoryService.REPRICE_PERCENT.equals(mode) && request.getValue().compareTo(BigDecimal.valueOf(-100)) <= 0) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Percentage change must be greater than -100")
+                    .build());
+        }
+
+        return priceHistoryService.repriceProducts(request.getCategoryId(), request.getManufacturer(),
+                        request.getCodePrefix(), mode, request.getValue())
+                .onItem().transform(repricedCount -> {
+                    log.info("Successfully repriced {} products", repricedCount);
+                    return Response.ok(Map.of("repricedCount", repricedCount)).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error bulk repricing products", throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error repricing products: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patchPriceHistory(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching price history with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return priceHistoryService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedPriceHistory -> {
+                    log.info("Successfully patched price history with id: {}", id);
+                    return EntityVersions.patched(patchedPriceHistory, patchedPriceHistory.getVersion());
+                })
+                .onItem().ifNull().continueWith(() -> {
+                    log.warn("Price history with id {} not found", id);
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Price history not found with id: " + id)
+                            .build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching price history with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "price history");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> updatePriceHistory(@PathParam("id") Long id, PriceHistory priceHistory) {
@@ -350,6 +453,9 @@ public class PriceHistoryResource {
 
         return priceHistoryService.updatePrice(id, newPrice)
                 .onItem().transform(updatedCount -> {
+                    if (updatedCount == PriceWriteBehindService.QUEUED) {
+                        return Response.accepted().entity("Price update queued").build();
+                    }
                     if (updatedCount > 0) {
                         log.info("Successfully updated price for price history id: {}", id);
                         return Response.ok().entity("Price updated successfully").build();
@@ -481,6 +587,23 @@ public class PriceHistoryResource {
                 });
     }
 
+    // pushes each price change as it commits, so dashboards need not poll /recent
+    @GET
+    @Path("/feed")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @RestStreamElementType(MediaType.APPLICATION_JSON)
+    public Multi<PriceFeedEvent> getPriceFeed(@QueryParam("productId") Long productId) {
+        log.info("Subscribing to price feed, product id: {}", productId);
+
+        if (productId != null && productId <= 0) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid product ID")
+                    .build());
+        }
+
+        return liveFeedService.prices(productId);
+    }
+
     @GET
     @Path("/stats/product/{productId}")
     public Uni<Response> getPriceStatsByProductId(@PathParam("productId") Long productId) {
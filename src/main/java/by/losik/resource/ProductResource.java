@@ -9,11 +9,13 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 
+import java.util.List;
+import java.util.Map;
+
 @Path("/api/products")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
@@ -26,9 +28,11 @@ import org.eclipse.microprofile.faulttolerance.Timeout;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class ProductResource {
 
+    private static final int MAX_UPSERT_PRODUCTS = 250000;
+    private static final int MAX_CODE_LENGTH = 50;
+
     @Inject
     ProductService productService;
 
@@ -37,7 +41,13 @@ public class ProductResource {
             @QueryParam("sort") @DefaultValue("name") String sortField,
             @QueryParam("direction") @DefaultValue("asc") String direction,
             @QueryParam("page") @DefaultValue("0") int pageIndex,
-            @QueryParam("size") @DefaultValue("20") int pageSize) {
+            @QueryParam("size") @DefaultValue("20") int pageSize,
+            @QueryParam("ids") String ids,
+            @QueryParam("fields") String fields) {
+
+        if (ids != null) {
+            return findByIds(EntityIds.parse(ids));
+        }
 
         log.info("Getting all products sorted by {} {}, page: {}, size: {}",
                 sortField, direction, pageIndex, pageSize);
@@ -48,6 +58,10 @@ public class ProductResource {
 
         Sort sort = Sort.by(sortField, sortDirection);
 
+        if (fields != null && !fields.isBlank()) {
+            return findFields(SparseFields.parse(fields), pageIndex, pageSize, sort);
+        }
+
         return productService.findPaginatedSorted(pageIndex, pageSize, sort)
                 .onItem().transform(products -> {
                     log.debug("Retrieved {} products", products.size());
@@ -61,6 +75,12 @@ public class ProductResource {
                 });
     }
 
+    @POST
+    @Path("/by-ids")
+    public Uni<Response> getProductsByIds(List<Long> ids) {
+        return findByIds(ids);
+    }
+
     @GET
     @Path("/{id}")
     public Uni<Response> getProductById(@PathParam("id") Long id) {
@@ -240,6 +260,7 @@ public class ProductResource {
     }
 
     @POST
+    @Retry(maxRetries = 0)
     public Uni<Response> createProduct(Product product) {
         log.info("Creating new product: {}, code: {}", product.getName(), product.getCode());
 
@@ -280,6 +301,99 @@ public class ProductResource {
                 });
     }
 
+    // a full catalog sync needs more than the default timeout; no retry, which after that timeout
+    // would run the whole sync again while the client may already be retrying with its Idempotency-Key
+    @POST
+    @Path("/bulk-upsert")
+    @Retry(maxRetries = 0)
+    @Timeout(120000)
+    public Uni<Response> upsertProducts(List<Product> products) {
+        log.info("Bulk upserting products by code");
+
+        if (products == null || products.isEmpty() || products.size() > MAX_UPSERT_PRODUCTS) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Request must contain between 1 and " + MAX_UPSERT_PRODUCTS + " products")
+                    .build());
+        }
+
+        for (Product product : products) {
+            if (product == null || product.getCode() == null || product.getCode().trim().isEmpty()
+                    || product.getCode().length() > MAX_CODE_LENGTH) {
+                return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Product code is required and must be at most " + MAX_CODE_LENGTH + " characters")
+                        .build());
+            }
+            if (product.getName() == null || product.getName().trim().isEmpty()) {
+                return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Product name is required for code: " + product.getCode())
+                        .build());
+            }
+            if (product.getManufacturer() == null || product.getManufacturer().trim().isEmpty()) {
+                return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Manufacturer is required for code: " + product.getCode())
+                        .build());
+            }
+            if (product.getCategory() == null || product.getCategory().getId() == null) {
+                return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                        .entity("Category is required for code: " + product.getCode())
+                        .build());
+            }
+        }
+
+        return productService.upsertByCode(products)
+                .onItem().transform(changed -> {
+                    log.info("Bulk upsert of {} products changed {}", products.size(), changed);
+                    return Response.ok(Map.of("received", products.size(), "changed", changed)).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error bulk upserting products", throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error upserting products: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patchProduct(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching product with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return productService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedProduct -> {
+                    log.info("Successfully patched product with id: {}", id);
+                    return EntityVersions.patched(patchedProduct, patchedProduct.getVersion());
+                })
+                .onItem().ifNull().continueWith(() -> {
+                    log.warn("Product with id {} not found", id);
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Product not found with id: " + id)
+                            .build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching product with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "product");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> updateProduct(@PathParam("id") Long id, Product product) {
@@ -396,13 +510,16 @@ public class ProductResource {
     public Uni<Response> deleteProductsByCategory(@PathParam("categoryId") Long categoryId) {
         log.info("Deleting products by category id: {}", categoryId);
 
-        return productService.deleteByCategory(categoryId)
-                .onItem().transform(deletedCount -> {
-                    log.info("Successfully deleted {} products for category id: {}", deletedCount, categoryId);
-                    return Response.ok().entity("Deleted " + deletedCount + " products").build();
-                })
+        if (categoryId == null || categoryId <= 0) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid category ID")
+                    .build());
+        }
+
+        return productService.startDeleteByCategory(categoryId)
+                .onItem().transform(JobResource::accepted)
                 .onFailure().recoverWithItem(throwable -> {
-                    log.error("Error deleting products by category id: {}", categoryId, throwable);
+                    log.error("Error starting delete of products by category id: {}", categoryId, throwable);
                     return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                             .entity("Error deleting products: " + throwable.getMessage())
                             .build();
@@ -507,4 +624,38 @@ public class ProductResource {
                             .build();
                 });
     }
-}
\ No newline at end of file
+
+    private Uni<Response> findByIds(List<Long> ids) {
+        String error = EntityIds.validate(ids);
+        if (error != null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(error)
+                    .build());
+        }
+        log.info("Getting {} products by ids", ids.size());
+
+        return productService.findByIds(ids)
+                .onItem().transform(products -> {
+                    log.debug("Found {} of {} requested products", products.size(), ids.size());
+                    return Response.ok(products).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting products by ids", throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving products: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    private Uni<Response> findFields(List<String> fields, int pageIndex, int pageSize, Sort sort) {
+        return productService.findPaginatedSortedFields(fields, pageIndex, pageSize, sort)
+                .onItem().transform(rows -> {
+                    log.debug("Retrieved {} products with fields {}", rows.size(), fields);
+                    return Response.ok(rows).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting products with fields {}", fields, throwable);
+                    return SparseFields.failed(throwable, "products");
+                });
+    }
+}
@@ -6,7 +6,6 @@ import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
@@ -20,7 +19,6 @@ import org.eclipse.microprofile.faulttolerance.Timeout;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class PublicResource {
     
     @Inject
@@ -9,11 +9,12 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 
+import java.util.Map;
+
 @Path("/api/regions")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
@@ -26,7 +27,6 @@ import org.eclipse.microprofile.faulttolerance.Timeout;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class RegionResource {
 
     @Inject
@@ -218,6 +218,7 @@ public class RegionResource {
     }
 
     @POST
+    @Retry(maxRetries = 0)
     public Uni<Response> createRegion(Region region) {
         log.info("Creating new region: {}, country: {}", region.getName(), region.getCountry());
 
@@ -258,6 +259,47 @@ public class RegionResource {
                 });
     }
 
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patchRegion(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching region with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return regionService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedRegion -> {
+                    log.info("Successfully patched region with id: {}", id);
+                    return EntityVersions.patched(patchedRegion, patchedRegion.getVersion());
+                })
+                .onItem().ifNull().continueWith(() -> {
+                    log.warn("Region with id {} not found", id);
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Region not found with id: " + id)
+                            .build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching region with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "region");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> updateRegion(@PathParam("id") Long id, Region region) {
@@ -468,6 +510,60 @@ public class RegionResource {
                 });
     }
 
+    @GET
+    @Path("/stats/rollup")
+    public Uni<Response> getCountryRollup() {
+        log.info("Getting invoice rollup by country");
+
+        return regionService.getCountryRollup()
+                .onItem().transform(results -> {
+                    log.debug("Found invoice rollup for {} countries", results.size());
+                    return Response.ok(results).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting invoice rollup by country", throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving invoice rollup: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @GET
+    @Path("/stats/rollup/country/{country}")
+    public Uni<Response> getRegionRollup(@PathParam("country") String country) {
+        log.info("Getting invoice rollup by region for country: {}", country);
+
+        return regionService.getRegionRollup(country)
+                .onItem().transform(results -> {
+                    log.debug("Found invoice rollup for {} regions in country: {}", results.size(), country);
+                    return Response.ok(results).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting invoice rollup by region for country: {}", country, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving invoice rollup: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
+    @GET
+    @Path("/stats/rollup/region/{regionId}")
+    public Uni<Response> getSettlementRollup(@PathParam("regionId") Long regionId) {
+        log.info("Getting invoice rollup by settlement for region id: {}", regionId);
+
+        return regionService.getSettlementRollup(regionId)
+                .onItem().transform(results -> {
+                    log.debug("Found invoice rollup for {} settlements in region id: {}", results.size(), regionId);
+                    return Response.ok(results).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting invoice rollup by settlement for region id: {}", regionId, throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving invoice rollup: " + throwable.getMessage())
+                            .build();
+                });
+    }
+
     @GET
     @Path("/exists/name-country")
     public Uni<Response> checkRegionExistsByNameAndCountry(
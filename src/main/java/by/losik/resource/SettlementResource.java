@@ -1,6 +1,8 @@
 package by.losik.resource;
 
 import by.losik.entity.Settlement;
+import by.losik.filter.RequestClass;
+import by.losik.filter.Shedding;
 import by.losik.service.SettlementService;
 import io.quarkus.panache.common.Sort;
 import io.smallrye.mutiny.Uni;
@@ -9,11 +11,13 @@ import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.extern.slf4j.Slf4j;
-import org.eclipse.microprofile.faulttolerance.Bulkhead;
 import org.eclipse.microprofile.faulttolerance.CircuitBreaker;
 import org.eclipse.microprofile.faulttolerance.Retry;
 import org.eclipse.microprofile.faulttolerance.Timeout;
 
+import java.util.List;
+import java.util.Map;
+
 @Path("/api/settlements")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
@@ -26,7 +30,6 @@ import org.eclipse.microprofile.faulttolerance.Timeout;
         delay = 10000,
         successThreshold = 2
 )
-@Bulkhead(value = 50)
 public class SettlementResource {
 
     @Inject
@@ -37,7 +40,12 @@ public class SettlementResource {
             @QueryParam("sort") @DefaultValue("name") String sortField,
             @QueryParam("direction") @DefaultValue("asc") String direction,
             @QueryParam("page") @DefaultValue("0") int pageIndex,
-            @QueryParam("size") @DefaultValue("20") int pageSize) {
+            @QueryParam("size") @DefaultValue("20") int pageSize,
+            @QueryParam("ids") String ids) {
+
+        if (ids != null) {
+            return findByIds(EntityIds.parse(ids));
+        }
 
         log.info("Getting all settlements sorted by {} {}, page: {}, size: {}",
                 sortField, direction, pageIndex, pageSize);
@@ -61,6 +69,12 @@ public class SettlementResource {
                 });
     }
 
+    @POST
+    @Path("/by-ids")
+    public Uni<Response> getSettlementsByIds(List<Long> ids) {
+        return findByIds(ids);
+    }
+
     @GET
     @Path("/{id}")
     public Uni<Response> getSettlementById(@PathParam("id") Long id) {
@@ -236,6 +250,7 @@ public class SettlementResource {
     }
 
     @POST
+    @Retry(maxRetries = 0)
     public Uni<Response> createSettlement(Settlement settlement) {
         log.info("Creating new settlement: {}, region id: {}",
                 settlement.getName(),
@@ -280,6 +295,47 @@ public class SettlementResource {
                 });
     }
 
+    @PATCH
+    @Path("/{id}")
+    @Consumes({EntityVersions.MERGE_PATCH_JSON, MediaType.APPLICATION_JSON})
+    public Uni<Response> patchSettlement(
+            @PathParam("id") Long id,
+            @HeaderParam("If-Match") String ifMatch,
+            Map<String, Object> changes) {
+        log.info("Patching settlement with id: {}", id);
+
+        if (changes == null || changes.isEmpty()) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Patch document must not be empty")
+                    .build());
+        }
+
+        Long expectedVersion;
+        try {
+            expectedVersion = EntityVersions.parseIfMatch(ifMatch);
+        } catch (NumberFormatException e) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid If-Match header: " + ifMatch)
+                    .build());
+        }
+
+        return settlementService.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().transform(patchedSettlement -> {
+                    log.info("Successfully patched settlement with id: {}", id);
+                    return EntityVersions.patched(patchedSettlement, patchedSettlement.getVersion());
+                })
+                .onItem().ifNull().continueWith(() -> {
+                    log.warn("Settlement with id {} not found", id);
+                    return Response.status(Response.Status.NOT_FOUND)
+                            .entity("Settlement not found with id: " + id)
+                            .build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error patching settlement with id: {}", id, throwable);
+                    return EntityVersions.patchFailed(throwable, "settlement");
+                });
+    }
+
     @PUT
     @Path("/{id}")
     public Uni<Response> updateSettlement(@PathParam("id") Long id, Settlement settlement) {
@@ -462,6 +518,7 @@ public class SettlementResource {
 
     @GET
     @Path("/stats/invoice-stats")
+    @Shedding(RequestClass.ANALYTICS)
     public Uni<Response> getSettlementInvoiceStats() {
         log.info("Getting settlement invoice statistics");
 
@@ -504,4 +561,26 @@ public class SettlementResource {
                             .build();
                 });
     }
-}
\ No newline at end of file
+
+    private Uni<Response> findByIds(List<Long> ids) {
+        String error = EntityIds.validate(ids);
+        if (error != null) {
+            return Uni.createFrom().item(Response.status(Response.Status.BAD_REQUEST)
+                    .entity(error)
+                    .build());
+        }
+        log.info("Getting {} settlements by ids", ids.size());
+
+        return settlementService.findByIds(ids)
+                .onItem().transform(settlements -> {
+                    log.debug("Found {} of {} requested settlements", settlements.size(), ids.size());
+                    return Response.ok(settlements).build();
+                })
+                .onFailure().recoverWithItem(throwable -> {
+                    log.error("Error getting settlements by ids", throwable);
+                    return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                            .entity("Error retrieving settlements: " + throwable.getMessage())
+                            .build();
+                });
+    }
+}
@@ -0,0 +1,35 @@
+package by.losik.resource;
+
+import jakarta.ws.rs.core.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// ?fields=name,address handling shared by the list endpoints; the names are pushed down into the
+// select clause by BaseRepository.findPaginatedSortedFields, which rejects anything but mapped fields
+final class SparseFields {
+
+    private SparseFields() {
+    }
+
+    static List<String> parse(String fields) {
+        List<String> parsed = new ArrayList<>();
+        for (String part : fields.split(",")) {
+            if (!part.isBlank()) {
+                parsed.add(part.trim());
+            }
+        }
+        return parsed;
+    }
+
+    static Response failed(Throwable throwable, String entityName) {
+        if (throwable instanceof IllegalArgumentException) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid fields: " + throwable.getMessage())
+                    .build();
+        }
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity("Error retrieving " + entityName + ": " + throwable.getMessage())
+                .build();
+    }
+}
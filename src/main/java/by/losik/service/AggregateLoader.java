@@ -0,0 +1,199 @@
+package by.losik.service;
+
+import io.smallrye.mutiny.Uni;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Loads an in-memory aggregate once for every caller waiting on it and keeps it current through
+ * per-key deltas. A write that lands while rows are being read may or may not be in them, so instead
+ * of throwing the read away the keys it touched are read again once it is applied.
+ * <p>
+ * Everything but {@link #ensureLoaded()} and {@link #refresh(Collection)} is called with the owner's
+ * lock held, and rebuild and refresh run with it held.
+ */
+@Slf4j
+class AggregateLoader<K> {
+
+    private final Object lock;
+    private final String name;
+    private final Supplier<Uni<List<Object[]>>> loadAll;
+    private final Consumer<List<Object[]>> rebuild;
+    private final Function<Collection<K>, Uni<List<Object[]>>> loadKeys;
+    private final BiConsumer<Collection<K>, List<Object[]>> refresh;
+
+    private final List<Read<K>> reads = new ArrayList<>();
+    private volatile boolean loaded = false;
+    // the rebuild every caller waits on while the aggregate is stale, so a cold start runs one query
+    private Uni<Void> loading;
+
+    AggregateLoader(Object lock, String name,
+                    Supplier<Uni<List<Object[]>>> loadAll, Consumer<List<Object[]>> rebuild,
+                    Function<Collection<K>, Uni<List<Object[]>>> loadKeys, BiConsumer<Collection<K>, List<Object[]>> refresh) {
+        this.lock = lock;
+        this.name = name;
+        this.loadAll = loadAll;
+        this.rebuild = rebuild;
+        this.loadKeys = loadKeys;
+        this.refresh = refresh;
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    Uni<Void> ensureLoaded() {
+        if (loaded) {
+            return Uni.createFrom().voidItem();
+        }
+        synchronized (lock) {
+            if (loading == null) {
+                loading = Uni.createFrom().deferred(() -> {
+                            Read<K> read = begin(null);
+                            return loadAll.get()
+                                    .onItem().invoke(rows -> finishLoad(read, rows))
+                                    .onTermination().invoke(() -> end(read));
+                        })
+                        .replaceWithVoid()
+                        .onTermination().invoke(this::loadFinished)
+                        .memoize().indefinitely();
+            }
+            return loading;
+        }
+    }
+
+    // re-reads keys changed elsewhere; while a load is running they are read again after it instead
+    Uni<Void> refresh(Collection<K> keys) {
+        return Uni.createFrom().deferred(() -> {
+            Read<K> read;
+            synchronized (lock) {
+                if (keys.isEmpty()) {
+                    return Uni.createFrom().voidItem();
+                }
+                if (!loaded) {
+                    keys.forEach(this::touch);
+                    return Uni.createFrom().voidItem();
+                }
+                read = begin(new HashSet<>(keys));
+            }
+            return loadKeys.apply(read.keys)
+                    .onItem().invoke(rows -> finishRefresh(read, rows))
+                    .onTermination().invoke(() -> end(read))
+                    .replaceWithVoid();
+        });
+    }
+
+    // called by every write to key before it changes the aggregate; false when the aggregate is not
+    // loaded and the write only has to reach the next load
+    boolean touch(K key) {
+        for (Read<K> read : reads) {
+            if (read.keys == null || read.keys.contains(key)) {
+                read.touched.add(key);
+            }
+        }
+        return loaded;
+    }
+
+    // for writes that can't name the keys they change: a running load is thrown away, running
+    // refreshes are repeated
+    void touchAll() {
+        for (Read<K> read : reads) {
+            if (read.keys == null) {
+                read.discarded = true;
+            } else {
+                read.touched.addAll(read.keys);
+            }
+        }
+    }
+
+    void invalidate() {
+        for (Read<K> read : reads) {
+            read.discarded = true;
+        }
+        if (loaded) {
+            log.debug("{} marked stale", name);
+        }
+        loaded = false;
+    }
+
+    private Read<K> begin(Set<K> keys) {
+        synchronized (lock) {
+            Read<K> read = new Read<>(keys);
+            reads.add(read);
+            return read;
+        }
+    }
+
+    private void end(Read<K> read) {
+        synchronized (lock) {
+            reads.remove(read);
+        }
+    }
+
+    private void loadFinished() {
+        synchronized (lock) {
+            loading = null;
+        }
+    }
+
+    private void finishLoad(Read<K> read, List<Object[]> rows) {
+        synchronized (lock) {
+            reads.remove(read);
+            if (read.discarded) {
+                log.debug("{} changed during rebuild, rebuilding on next read", name);
+                return;
+            }
+            rebuild.accept(rows);
+            loaded = true;
+            refreshTouched(read);
+        }
+    }
+
+    private void finishRefresh(Read<K> read, List<Object[]> rows) {
+        synchronized (lock) {
+            reads.remove(read);
+            if (!loaded || read.discarded) {
+                return;
+            }
+            refresh.accept(read.keys, rows);
+            if (loaded) {
+                refreshTouched(read);
+            }
+        }
+    }
+
+    private void refreshTouched(Read<K> read) {
+        if (read.touched.isEmpty()) {
+            return;
+        }
+        log.debug("Re-reading {} keys of {} written during the read", read.touched.size(), name);
+        refresh(read.touched).subscribe().with(
+                ignored -> { },
+                throwable -> {
+                    log.warn("Error re-reading {}, rebuilding on next read", name, throwable);
+                    synchronized (lock) {
+                        invalidate();
+                    }
+                });
+    }
+
+    private static class Read<K> {
+        // null for a full load
+        final Set<K> keys;
+        final Set<K> touched = new HashSet<>();
+        boolean discarded;
+
+        Read(Set<K> keys) {
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package by.losik.service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Log-bucketed sketch of invoice amounts: bin i holds amounts in (gamma^(i-1), gamma^i], so every
+// reported percentile is within RELATIVE_ACCURACY of a real amount and merging is adding counts.
+// The same bins are computed in SQL when the stored sketches are rebuilt from invoices. A sketch
+// also serves as a delta, with negative counts for removed amounts, until it is merged.
+class AmountSketch {
+
+    static final double RELATIVE_ACCURACY = 0.01;
+    static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    static final double LOG_GAMMA = Math.log(GAMMA);
+
+    long zeroCount;
+    final TreeMap<Integer, Long> bins = new TreeMap<>();
+
+    long count() {
+        long count = zeroCount;
+        for (long binCount : bins.values()) {
+            count += binCount;
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return zeroCount == 0 && bins.isEmpty();
+    }
+
+    // false when a removal does not match any recorded amount; the sketch is left unchanged then
+    boolean add(BigDecimal amount, int delta) {
+        if (amount == null || amount.signum() <= 0) {
+            if (zeroCount + delta < 0) {
+                return false;
+            }
+            zeroCount += delta;
+            return true;
+        }
+        int index = index(amount);
+        long updated = bins.getOrDefault(index, 0L) + delta;
+        if (updated < 0) {
+            return false;
+        }
+        put(index, updated);
+        return true;
+    }
+
+    // for deltas, which go negative when they carry more removals than additions
+    void addDelta(BigDecimal amount, int delta) {
+        if (amount == null || amount.signum() <= 0) {
+            zeroCount += delta;
+            return;
+        }
+        int index = index(amount);
+        put(index, bins.getOrDefault(index, 0L) + delta);
+    }
+
+    void merge(AmountSketch other) {
+        zeroCount += other.zeroCount;
+        other.bins.forEach((index, binCount) -> put(index, bins.getOrDefault(index, 0L) + binCount));
+    }
+
+    BigDecimal quantile(double q) {
+        long count = count();
+        if (count == 0) {
+            return null;
+        }
+        long rank = (long) Math.floor(q * (count - 1));
+        long seen = zeroCount;
+        if (seen > rank) {
+            return BigDecimal.ZERO;
+        }
+        for (Map.Entry<Integer, Long> bin : bins.entrySet()) {
+            seen += bin.getValue();
+            if (seen > rank) {
+                return value(bin.getKey());
+            }
+        }
+        return value(bins.lastKey());
+    }
+
+    List<Map<String, Object>> histogram(int maxBins) {
+        List<Map<String, Object>> histogram = new ArrayList<>();
+        if (zeroCount > 0) {
+            histogram.add(histogramRow(BigDecimal.ZERO, BigDecimal.ZERO, zeroCount));
+        }
+        if (bins.isEmpty()) {
+            return histogram;
+        }
+        int first = bins.firstKey();
+        int span = bins.lastKey() - first + 1;
+        int width = Math.max(1, (span + maxBins - 1) / maxBins);
+        for (int start = first; start <= bins.lastKey(); start += width) {
+            long binCount = 0;
+            for (long c : bins.subMap(start, true, start + width - 1, true).values()) {
+                binCount += c;
+            }
+            if (binCount > 0) {
+                histogram.add(histogramRow(bound(start - 1), bound(start + width - 1), binCount));
+            }
+        }
+        return histogram;
+    }
+
+    String encodeBins() {
+        StringBuilder encoded = new StringBuilder();
+        bins.forEach((index, binCount) -> {
+            if (!encoded.isEmpty()) {
+                encoded.append(',');
+            }
+            encoded.append(index).append(':').append(binCount);
+        });
+        return encoded.toString();
+    }
+
+    static AmountSketch decode(long zeroCount, String encoded) {
+        AmountSketch sketch = new AmountSketch();
+        sketch.zeroCount = zeroCount;
+        if (encoded != null && !encoded.isEmpty()) {
+            for (String bin : encoded.split(",")) {
+                String[] parts = bin.split(":");
+                sketch.bins.put(Integer.parseInt(parts[0]), Long.parseLong(parts[1]));
+            }
+        }
+        return sketch;
+    }
+
+    static int index(BigDecimal amount) {
+        return (int) Math.ceil(Math.log(amount.doubleValue()) / LOG_GAMMA);
+    }
+
+    static BigDecimal value(int index) {
+        return BigDecimal.valueOf(2 * Math.pow(GAMMA, index) / (GAMMA + 1)).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private void put(int index, long binCount) {
+        if (binCount == 0) {
+            bins.remove(index);
+        } else {
+            bins.put(index, binCount);
+        }
+    }
+
+    private static BigDecimal bound(int index) {
+        return BigDecimal.valueOf(Math.pow(GAMMA, index)).setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private static Map<String, Object> histogramRow(BigDecimal lower, BigDecimal upper, long count) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("lower", lower);
+        row.put("upper", upper);
+        row.put("count", count);
+        return row;
+    }
+}
@@ -1,15 +1,24 @@
 package by.losik.service;
 
 import by.losik.repository.BaseRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.cache.CacheInvalidate;
 import io.quarkus.cache.CacheKey;
 import io.quarkus.cache.CacheResult;
 import io.quarkus.panache.common.Sort;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
 import io.smallrye.mutiny.Uni;
 import jakarta.inject.Inject;
+import jakarta.persistence.OptimisticLockException;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 public abstract class BaseService<T, R extends BaseRepository<T>> {
@@ -17,6 +26,20 @@ public abstract class BaseService<T, R extends BaseRepository<T>> {
     @Inject
     protected R repository;
 
+    // rows fetched per query by the streaming list endpoints
+    @ConfigProperty(name = "app.streaming.page-size", defaultValue = "500")
+    protected int streamPageSize;
+
+    // lifetime of entries written by findByIds; writes clear the whole "<prefix>-by-id" cache anyway
+    @ConfigProperty(name = "app.multi-get.ttl", defaultValue = "10m")
+    Duration multiGetTtl;
+
+    @Inject
+    ReactiveRedisDataSource redis;
+
+    @Inject
+    ObjectMapper objectMapper;
+
     protected abstract String getEntityName();
 
     protected abstract String getCachePrefix();
@@ -42,6 +65,65 @@ public abstract class BaseService<T, R extends BaseRepository<T>> {
                         log.error("Error finding {} by id: {}", getEntityName(), id, throwable));
     }
 
+    // Resolves many ids with one MGET on the per-entity "<prefix>-by-id" cache and one IN query for
+    // the misses, which are then written back. The keys follow the redis-cache layout, so the
+    // @CacheInvalidateAll on that cache name in invalidateRelatedCaches clears them as well.
+    // The result keeps the order of ids, drops duplicates and skips ids without a row.
+    public Uni<List<T>> findByIds(List<Long> ids) {
+        List<Long> distinct = ids.stream().distinct().toList();
+        log.info("Finding {} {} by ids", distinct.size(), getEntityName());
+        return findCachedByIds(distinct)
+                .onItem().transformToUni(found -> {
+                    List<Long> misses = distinct.stream().filter(id -> !found.containsKey(id)).toList();
+                    return loadByIds(misses)
+                            .onItem().transform(loaded -> {
+                                Map<Long, T> all = new HashMap<>(found);
+                                all.putAll(loaded);
+                                return inOrder(distinct, all);
+                            });
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error finding {} by ids", getEntityName(), throwable));
+    }
+
+    // the cache half of findByIds: one MGET, hits only; a Redis failure is reported as all misses
+    public Uni<Map<Long, T>> findCachedByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Uni.createFrom().item(Map.of());
+        }
+        String[] keys = ids.stream().map(this::multiGetKey).toArray(String[]::new);
+        return redis.value(String.class).mget(keys)
+                .onFailure().recoverWithItem(throwable -> {
+                    log.warn("Cache multi-get of {} failed, reading from the database", getEntityName(), throwable);
+                    return Map.of();
+                })
+                .onItem().transform(cached -> {
+                    Map<Long, T> found = new HashMap<>();
+                    for (Long id : ids) {
+                        T entity = decode(cached.get(multiGetKey(id)));
+                        if (entity != null) {
+                            found.put(id, entity);
+                        }
+                    }
+                    log.debug("{} by ids: {} cache hits, {} misses", getEntityName(), found.size(), ids.size() - found.size());
+                    return found;
+                });
+    }
+
+    // the database half of findByIds: one IN query, with the loaded rows written back to the cache
+    public Uni<Map<Long, T>> loadByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Uni.createFrom().item(Map.of());
+        }
+        return repository.findByIds(ids)
+                .call(this::cacheAll)
+                .onItem().transform(loaded -> {
+                    Map<Long, T> byId = new HashMap<>();
+                    loaded.forEach(entity -> byId.put(repository.idOf(entity), entity));
+                    return byId;
+                });
+    }
+
     @CacheResult(cacheName = "by-name")
     public Uni<List<T>> findByName(@CacheKey String name) {
         log.info("Finding {} by name: {}", getEntityName(), name);
@@ -101,6 +183,15 @@ public abstract class BaseService<T, R extends BaseRepository<T>> {
                                 getEntityName(), pageIndex, pageSize, sort, throwable));
     }
 
+    public Uni<List<Map<String, Object>>> findPaginatedSortedFields(List<String> fields, int pageIndex, int pageSize, Sort sort) {
+        log.info("Finding paginated sorted {} fields {}, pageIndex: {}, pageSize: {}, sort: {}",
+                getEntityName(), fields, pageIndex, pageSize, sort);
+        return repository.findPaginatedSortedFields(fields, pageIndex, pageSize, sort)
+                .onFailure().invoke(throwable ->
+                        log.error("Error finding paginated sorted {} fields {}, pageIndex: {}, pageSize: {}, sort: {}",
+                                getEntityName(), fields, pageIndex, pageSize, sort, throwable));
+    }
+
     public Uni<List<T>> findByNamePaginated(String namePattern, int pageIndex, int pageSize) {
         log.info("Finding {} by name pattern paginated, pattern: {}, pageIndex: {}, pageSize: {}",
                 getEntityName(), namePattern, pageIndex, pageSize);
@@ -203,6 +294,28 @@ public abstract class BaseService<T, R extends BaseRepository<T>> {
                         log.error("Error updating {}", getEntityName(), throwable));
     }
 
+    @CacheInvalidate(cacheName = "by-id")
+    public Uni<T> patch(@CacheKey Long id, Map<String, Object> changes, Long expectedVersion) {
+        log.info("Patching {} with id: {}, fields: {}", getEntityName(), id, changes.keySet());
+        return repository.patch(id, changes, expectedVersion)
+                .onItem().transformToUni(patched -> {
+                    if (patched != null) {
+                        invalidateRelatedCaches();
+                        return Uni.createFrom().item(patched);
+                    }
+                    if (expectedVersion == null) {
+                        return Uni.createFrom().nullItem();
+                    }
+                    // only a failed conditional patch pays for telling a stale version from a missing row
+                    return repository.existsById(id).onItem().transformToUni(exists -> exists
+                            ? Uni.createFrom().failure(new OptimisticLockException(
+                                    getEntityName() + " with id " + id + " was modified, expected version " + expectedVersion))
+                            : Uni.createFrom().nullItem());
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error patching {} with id: {}", getEntityName(), id, throwable));
+    }
+
     public Uni<Void> saveAll(List<T> entities) {
         log.info("Saving {} {}", entities.size(), getEntityName());
         return repository.saveAll(entities)
@@ -213,7 +326,7 @@ public abstract class BaseService<T, R extends BaseRepository<T>> {
 
     public Uni<Boolean> delete(T entity) {
         log.info("Deleting {}", getEntityName());
-        return repository.delete(entity)
+        return repository.remove(entity)
                 .onItem().invoke(deleted -> {
                     invalidateRelatedCaches();
                 }).replaceWith(true)
@@ -223,7 +336,7 @@ public abstract class BaseService<T, R extends BaseRepository<T>> {
 
     public Uni<Boolean> deleteById(Long id) {
         log.info("Deleting {} by id: {}", getEntityName(), id);
-        return repository.deleteById(id)
+        return repository.removeById(id)
                 .onItem().invoke(deleted -> {
                     if (deleted) {
                         invalidateRelatedCaches();
@@ -237,4 +350,53 @@ public abstract class BaseService<T, R extends BaseRepository<T>> {
         log.debug("Invalidating related caches for {}", getEntityName());
         // This method can be overridden by subclasses for specific cache invalidation
     }
+
+    protected String multiGetKey(Long id) {
+        return "cache:" + cacheById() + ":" + id;
+    }
+
+    // an entry that no longer matches the entity shape counts as a miss
+    private T decode(String json) {
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(json, repository.entityClass());
+        } catch (JsonProcessingException e) {
+            log.debug("Ignoring unreadable cached {}", getEntityName(), e);
+            return null;
+        }
+    }
+
+    // best effort: a failed write-back only costs a database read next time
+    private Uni<Void> cacheAll(List<T> entities) {
+        List<Uni<Void>> writes = new ArrayList<>(entities.size());
+        for (T entity : entities) {
+            try {
+                writes.add(redis.value(String.class).setex(multiGetKey(repository.idOf(entity)),
+                        multiGetTtl.toSeconds(), objectMapper.writeValueAsString(entity)));
+            } catch (JsonProcessingException e) {
+                log.debug("Not caching {} that cannot be serialized", getEntityName(), e);
+            }
+        }
+        if (writes.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        return Uni.join().all(writes).andCollectFailures()
+                .onFailure().invoke(throwable ->
+                        log.warn("Error caching {} {} by id", entities.size(), getEntityName(), throwable))
+                .onFailure().recoverWithNull()
+                .replaceWithVoid();
+    }
+
+    private List<T> inOrder(List<Long> ids, Map<Long, T> found) {
+        List<T> ordered = new ArrayList<>(found.size());
+        for (Long id : ids) {
+            T entity = found.get(id);
+            if (entity != null) {
+                ordered.add(entity);
+            }
+        }
+        return ordered;
+    }
 }
\ No newline at end of file
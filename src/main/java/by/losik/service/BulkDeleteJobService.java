@@ -0,0 +1,227 @@
+package by.losik.service;
+
+import by.losik.dto.BulkDeleteJob;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.vertx.VertxContextSupport;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+// Runs large deletes in the background as a sequence of chunk-sized transactions, so no request
+// holds row locks for longer than one chunk and a client timeout cannot trigger a re-run.
+// Job state lives in Redis, so any replica can report or cancel a job that another one runs; the
+// replica running a job rewrites it after every chunk, and it expires retention after the last write.
+@ApplicationScoped
+@Slf4j
+public class BulkDeleteJobService {
+
+    public static final String STATUS_RUNNING = "running";
+    public static final String STATUS_COMPLETED = "completed";
+    public static final String STATUS_CANCELLED = "cancelled";
+    public static final String STATUS_FAILED = "failed";
+
+    private static final String KEY_PREFIX = "bulk-delete-job:";
+    private static final String INDEX_KEY = "bulk-delete-jobs";
+
+    @ConfigProperty(name = "app.bulk-delete.chunk-size", defaultValue = "1000")
+    int chunkSize;
+
+    @ConfigProperty(name = "app.bulk-delete.retention", defaultValue = "1h")
+    Duration retention;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @Inject
+    ReactiveRedisDataSource redis;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    // deletes the next chunk after afterId and returns {deleted, last deleted id}
+    @FunctionalInterface
+    public interface ChunkDeleter {
+        Uni<Object[]> deleteAfter(long afterId, int limit);
+    }
+
+    // the job is stored before it starts, so its Location resolves on every replica at once;
+    // onChunk runs after every chunk that deleted rows
+    public Uni<BulkDeleteJob> start(String type, String target, ChunkDeleter deleter, Runnable onChunk) {
+        BulkDeleteJob job = new BulkDeleteJob();
+        job.setId(UUID.randomUUID().toString());
+        job.setType(type);
+        job.setTarget(target);
+        job.setStatus(STATUS_RUNNING);
+        job.setStartedAt(Instant.now());
+        return store(job)
+                .invoke(() -> {
+                    log.info("Started bulk delete job {} ({} {})", job.getId(), type, target);
+                    runOnContext(() -> run(job, deleter, onChunk));
+                })
+                .replaceWith(job);
+    }
+
+    public Uni<List<BulkDeleteJob>> findAll() {
+        return loadAll().onItem().transform(jobs -> {
+            List<BulkDeleteJob> all = new ArrayList<>(jobs);
+            all.sort(Comparator.comparing(BulkDeleteJob::getStartedAt).reversed());
+            return all;
+        });
+    }
+
+    public Uni<BulkDeleteJob> findById(String id) {
+        return load(id);
+    }
+
+    // the running chunk still commits; the replica running the job stops before the next one
+    public Uni<BulkDeleteJob> cancel(String id) {
+        return load(id).onItem().ifNotNull().transformToUni(job -> {
+            if (!STATUS_RUNNING.equals(job.getStatus())) {
+                return Uni.createFrom().item(job);
+            }
+            return requestCancel(id)
+                    .invoke(() -> {
+                        job.setCancelRequested(true);
+                        log.info("Cancellation requested for bulk delete job {}", id);
+                    })
+                    .replaceWith(job);
+        });
+    }
+
+    // a fresh safe duplicated context keeps the job off the request's session and deadline;
+    // Panache refuses contexts that were duplicated without being flagged safe
+    void runOnContext(Supplier<Uni<Void>> work) {
+        VertxContextSupport.subscribe(() -> work.get().toMulti(), subscription -> subscription.with(ignored -> { }));
+    }
+
+    // every write renews the expiry, so the job of a replica that died expires like a finished one
+    Uni<Void> store(BulkDeleteJob job) {
+        String value;
+        try {
+            value = objectMapper.writeValueAsString(job);
+        } catch (JsonProcessingException e) {
+            return Uni.createFrom().failure(e);
+        }
+        return redis.value(String.class).psetex(KEY_PREFIX + job.getId(), retention.toMillis(), value)
+                .chain(() -> redis.sortedSet(String.class).zadd(INDEX_KEY, job.getStartedAt().toEpochMilli(), job.getId()))
+                .replaceWithVoid();
+    }
+
+    Uni<BulkDeleteJob> load(String id) {
+        return redis.value(String.class).get(KEY_PREFIX + id)
+                .onItem().transform(this::decode);
+    }
+
+    // ids of expired jobs are dropped from the index on the way
+    Uni<List<BulkDeleteJob>> loadAll() {
+        return redis.sortedSet(String.class).zrange(INDEX_KEY, 0, -1)
+                .onItem().transformToUni(ids -> {
+                    if (ids.isEmpty()) {
+                        return Uni.createFrom().item(List.<BulkDeleteJob>of());
+                    }
+                    return redis.value(String.class).mget(ids.stream().map(id -> KEY_PREFIX + id).toArray(String[]::new))
+                            .onItem().transformToUni(values -> {
+                                List<BulkDeleteJob> jobs = new ArrayList<>();
+                                List<String> expired = new ArrayList<>();
+                                for (String id : ids) {
+                                    String value = values.get(KEY_PREFIX + id);
+                                    if (value == null) {
+                                        expired.add(id);
+                                    } else {
+                                        jobs.add(decode(value));
+                                    }
+                                }
+                                return expired.isEmpty()
+                                        ? Uni.createFrom().item(jobs)
+                                        : redis.sortedSet(String.class).zrem(INDEX_KEY, expired.toArray(String[]::new))
+                                                .replaceWith(jobs);
+                            });
+                });
+    }
+
+    Uni<Void> requestCancel(String id) {
+        return redis.value(String.class).psetex(KEY_PREFIX + id + ":cancel", retention.toMillis(), "1");
+    }
+
+    Uni<Boolean> isCancelRequested(String id) {
+        return redis.key().exists(KEY_PREFIX + id + ":cancel");
+    }
+
+    private BulkDeleteJob decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(value, BulkDeleteJob.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Unreadable bulk delete job", e);
+        }
+    }
+
+    private Uni<Void> run(BulkDeleteJob job, ChunkDeleter deleter, Runnable onChunk) {
+        return runChunks(job, deleter, onChunk, 0)
+                .onItem().invoke(() -> log.info("Bulk delete job {} {} after deleting {} rows in {} chunks",
+                        job.getId(), job.getStatus(), job.getDeleted(), job.getChunks()))
+                .onFailure().invoke(throwable -> {
+                    job.setStatus(STATUS_FAILED);
+                    job.setError(throwable.getMessage());
+                    log.error("Bulk delete job {} failed after deleting {} rows",
+                            job.getId(), job.getDeleted(), throwable);
+                })
+                .onFailure().recoverWithNull()
+                .invoke(() -> job.setFinishedAt(Instant.now()))
+                .chain(() -> save(job));
+    }
+
+    private Uni<Void> runChunks(BulkDeleteJob job, ChunkDeleter deleter, Runnable onChunk, long afterId) {
+        return cancelRequested(job).onItem().transformToUni(cancelled -> {
+            if (cancelled) {
+                job.setCancelRequested(true);
+                job.setStatus(STATUS_CANCELLED);
+                return Uni.createFrom().voidItem();
+            }
+            return deleter.deleteAfter(afterId, chunkSize)
+                    .onItem().transformToUni(row -> {
+                        long deleted = ((Number) row[0]).longValue();
+                        if (deleted == 0) {
+                            job.setStatus(STATUS_COMPLETED);
+                            return Uni.createFrom().voidItem();
+                        }
+                        job.setDeleted(job.getDeleted() + deleted);
+                        job.setChunks(job.getChunks() + 1);
+                        meterRegistry.counter("bulk.delete.rows", "type", job.getType()).increment(deleted);
+                        // readers see each committed chunk instead of stale data until the whole job ends
+                        onChunk.run();
+                        return save(job).chain(() -> runChunks(job, deleter, onChunk, ((Number) row[1]).longValue()));
+                    });
+        });
+    }
+
+    // a lost progress write only leaves the stored job a chunk behind
+    private Uni<Void> save(BulkDeleteJob job) {
+        return store(job)
+                .onFailure().invoke(throwable -> log.warn("Error storing bulk delete job {}", job.getId(), throwable))
+                .onFailure().recoverWithNull();
+    }
+
+    // with Redis unavailable the job runs on, since nobody could have asked for the cancel either
+    private Uni<Boolean> cancelRequested(BulkDeleteJob job) {
+        return isCancelRequested(job.getId())
+                .onFailure().invoke(throwable ->
+                        log.warn("Error checking cancellation of bulk delete job {}", job.getId(), throwable))
+                .onFailure().recoverWithItem(false);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,258 @@
+package by.losik.service;
+
+import by.losik.dto.EntityChangeEvent;
+import by.losik.repository.EntityChangeRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.vertx.VertxContextSupport;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import io.vertx.mutiny.core.Vertx;
+import io.vertx.mutiny.pgclient.pubsub.PgSubscriber;
+import io.vertx.mutiny.sqlclient.Pool;
+import io.vertx.mutiny.sqlclient.Row;
+import io.vertx.mutiny.sqlclient.Tuple;
+import io.vertx.pgclient.PgConnectOptions;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Relays committed outbox rows to every replica. A trigger on entity_changes issues NOTIFY,
+// which PostgreSQL delivers only after commit; rows missed while disconnected are replayed
+// from the table on resubscribe, so there is no polling in the steady state.
+@ApplicationScoped
+@Slf4j
+public class ChangeStreamService {
+
+    public static final String CHANNEL = "entity_changes";
+
+    private static final int CATCH_UP_LIMIT = 1000;
+
+    @ConfigProperty(name = "app.change-stream.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.change-stream.retention", defaultValue = "24h")
+    Duration retention;
+
+    @ConfigProperty(name = "quarkus.datasource.reactive.url")
+    String url;
+
+    @ConfigProperty(name = "quarkus.datasource.username")
+    String username;
+
+    @ConfigProperty(name = "quarkus.datasource.password")
+    String password;
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    Pool pool;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    EntityChangeRepository entityChangeRepository;
+
+    @Inject
+    InvoiceRollupService invoiceRollupService;
+
+    @Inject
+    CustomerAggregateService customerAggregateService;
+
+    private final BroadcastProcessor<EntityChangeEvent> processor = BroadcastProcessor.create();
+
+    private PgSubscriber subscriber;
+    private volatile Long lastSeenId;
+
+    // every committed change, local and remote, for in-process consumers
+    public Multi<EntityChangeEvent> changes() {
+        return processor;
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        if (!enabled) {
+            return;
+        }
+        PgConnectOptions options = PgConnectOptions.fromUri(url)
+                .setUser(username)
+                .setPassword(password);
+        subscriber = PgSubscriber.subscriber(vertx, options)
+                .reconnectPolicy(retries -> 1000L);
+        subscriber.channel(CHANNEL)
+                .handler(this::onNotification)
+                .subscribeHandler(this::catchUp);
+        subscriber.connect().subscribe().with(
+                ignored -> log.info("Listening for entity changes on channel {}", CHANNEL),
+                throwable -> log.error("Error connecting entity change listener", throwable));
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (subscriber != null) {
+            subscriber.closeAndAwait();
+        }
+        processor.onComplete();
+    }
+
+    @Scheduled(cron = "0 30 * * * ?")
+    public Uni<Void> scheduledCleanup() {
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - retention.toMillis());
+        return entityChangeRepository.deleteOlderThan(cutoff)
+                .onItem().invoke(deleted -> log.debug("Deleted {} entity changes older than {}", deleted, cutoff))
+                .onFailure().invoke(throwable -> log.warn("Error deleting entity changes older than {}", cutoff, throwable))
+                .onFailure().recoverWithNull()
+                .replaceWithVoid();
+    }
+
+    void onNotification(String payload) {
+        try {
+            dispatch(objectMapper.readValue(payload, EntityChangeEvent.class), true);
+        } catch (Exception e) {
+            log.warn("Ignoring malformed entity change notification: {}", payload, e);
+        }
+    }
+
+    // runs on the first subscribe and after every reconnect
+    void catchUp() {
+        Long from = lastSeenId;
+        Uni<Void> replay = from == null
+                ? pool.query("SELECT COALESCE(MAX(id), 0) FROM lab2var10.entity_changes").execute()
+                        .onItem().invoke(rows -> advance(rows.iterator().next().getLong(0)))
+                        .replaceWithVoid()
+                : pool.preparedQuery("SELECT id, entity_name, entity_id, operation, origin, refs " +
+                                "FROM lab2var10.entity_changes WHERE id > $1 ORDER BY id LIMIT " + CATCH_UP_LIMIT)
+                        .execute(Tuple.of(from))
+                        .onItem().invoke(rows -> {
+                            for (Row row : rows) {
+                                dispatch(toEvent(row), false);
+                            }
+                            log.info("Replayed {} entity changes after id {}", rows.size(), from);
+                            // ids come from pooled blocks, so a replica may commit a change below lastSeenId while
+                            // the listener is down; one rebuild covers those as well as the replayed ones
+                            invalidateAggregates();
+                        })
+                        .replaceWithVoid();
+        replay.subscribe().with(
+                ignored -> { },
+                throwable -> {
+                    log.error("Error replaying entity changes after id {}, invalidating all aggregates", from, throwable);
+                    invalidateAggregates();
+                });
+    }
+
+    // synchronized: notifications and replays arrive on different event loops and the processor needs serial emits
+    private synchronized void dispatch(EntityChangeEvent change, boolean apply) {
+        advance(change.getId());
+        // this process applied its own changes to the aggregates precisely when it made them
+        if (apply && isRemote(change)) {
+            applyRemote(change);
+        }
+        processor.onNext(change);
+    }
+
+    // refreshes only the settlements and customers a remote change touched; a change without an id is a
+    // bulk statement and a delete of a parent cascades to invoices, so the extent of either is unknown here
+    private void applyRemote(EntityChangeEvent change) {
+        Long id = change.getEntityId();
+        boolean deleted = EntityChangeRepository.OPERATION_DELETE.equals(change.getOperation());
+        switch (change.getEntity()) {
+            case "Invoice" -> {
+                if (EntityChangeRepository.OPERATION_ARCHIVE.equals(change.getOperation())) {
+                    // archived invoices stay in the aggregates through their frozen archive totals
+                    return;
+                }
+                List<Long> settlementIds = change.refIds("settlement");
+                List<Long> customerIds = change.refIds("customer");
+                if (id == null || settlementIds.isEmpty() || customerIds.isEmpty()) {
+                    invalidateAggregates(change);
+                    return;
+                }
+                refresh(() -> invoiceRollupService.refreshSettlements(settlementIds));
+                refresh(() -> customerAggregateService.refreshCustomers(customerIds));
+            }
+            case "Customer" -> {
+                if (id == null) {
+                    invalidateAggregates(change);
+                } else if (deleted) {
+                    customerAggregateService.removeCustomer(id);
+                    invoiceRollupService.invalidate();
+                } else {
+                    refresh(() -> customerAggregateService.refreshCustomers(List.of(id)));
+                }
+            }
+            case "Settlement" -> {
+                if (id == null || deleted) {
+                    invalidateAggregates(change);
+                } else {
+                    refresh(() -> invoiceRollupService.refreshSettlements(List.of(id)));
+                }
+            }
+            case "Region" -> {
+                if (id == null || deleted) {
+                    invalidateAggregates(change);
+                } else {
+                    invoiceRollupService.invalidate();
+                }
+            }
+            default -> {
+                // items, products, categories and prices feed no per-replica aggregate
+            }
+        }
+    }
+
+    private void refresh(Supplier<Uni<Void>> refresh) {
+        runOnContext(() -> refresh.get()
+                .onFailure().invoke(throwable -> {
+                    log.warn("Error refreshing aggregates after a remote change, invalidating them", throwable);
+                    invalidateAggregates();
+                })
+                .onFailure().recoverWithNull());
+    }
+
+    // refresh queries need a context Panache accepts, which the listener's event loop is not
+    void runOnContext(Supplier<Uni<Void>> work) {
+        VertxContextSupport.subscribe(() -> work.get().toMulti(), subscription -> subscription.with(ignored -> { }));
+    }
+
+    private synchronized void advance(Long id) {
+        if (id != null && (lastSeenId == null || id > lastSeenId)) {
+            lastSeenId = id;
+        }
+    }
+
+    private void invalidateAggregates(EntityChangeEvent change) {
+        log.debug("Remote {} of {} {} invalidates aggregates", change.getOperation(), change.getEntity(), change.getEntityId());
+        invalidateAggregates();
+    }
+
+    private void invalidateAggregates() {
+        invoiceRollupService.invalidate();
+        customerAggregateService.invalidate();
+    }
+
+    private static boolean isRemote(EntityChangeEvent change) {
+        return !EntityChangeRepository.ORIGIN.equals(change.getOrigin());
+    }
+
+    private static EntityChangeEvent toEvent(Row row) {
+        EntityChangeEvent change = new EntityChangeEvent();
+        change.setId(row.getLong("id"));
+        change.setEntity(row.getString("entity_name"));
+        change.setEntityId(row.getLong("entity_id"));
+        change.setOperation(row.getString("operation"));
+        change.setOrigin(row.getString("origin"));
+        change.setRefs(row.getString("refs"));
+        return change;
+    }
+}
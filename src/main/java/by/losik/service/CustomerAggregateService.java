@@ -0,0 +1,252 @@
+package by.losik.service;
+
+import by.losik.repository.CustomerRepository;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+@ApplicationScoped
+@Slf4j
+public class CustomerAggregateService {
+
+    private static final Comparator<CustomerNode> BY_REVENUE =
+            Comparator.comparing((CustomerNode node) -> node.revenue).thenComparing(node -> node.id);
+
+    @Inject
+    CustomerRepository customerRepository;
+
+    private final Map<Long, CustomerNode> customers = new HashMap<>();
+
+    private final AggregateLoader<Long> loader = new AggregateLoader<>(this, "Customer aggregates",
+            () -> customerRepository.getLifetimeValueStats(), this::rebuild,
+            customerIds -> customerRepository.getLifetimeValueStats(customerIds), this::refresh);
+
+    public Uni<List<Map<String, Object>>> getTopByRevenue(int k, Boolean isLegalEntity) {
+        return ensureLoaded().onItem().transform(ignored -> snapshotTop(k, isLegalEntity));
+    }
+
+    public Uni<Map<String, Object>> getLifetimeValue(Long customerId) {
+        return ensureLoaded().onItem().transform(ignored -> snapshotCustomer(customerId));
+    }
+
+    public synchronized void recordCustomer(Long customerId, String name, Boolean isLegalEntity) {
+        if (!loader.touch(customerId)) {
+            return;
+        }
+        customers.putIfAbsent(customerId, new CustomerNode(customerId, name, isLegalEntity));
+    }
+
+    public synchronized void updateCustomer(Long customerId, String name, Boolean isLegalEntity) {
+        if (!loader.touch(customerId)) {
+            return;
+        }
+        CustomerNode customer = customers.get(customerId);
+        if (customer == null) {
+            loader.invalidate();
+            return;
+        }
+        customer.name = name;
+        customer.isLegalEntity = isLegalEntity;
+    }
+
+    public synchronized void renameCustomer(Long customerId, String name) {
+        if (!loader.touch(customerId)) {
+            return;
+        }
+        CustomerNode customer = customers.get(customerId);
+        if (customer == null) {
+            loader.invalidate();
+            return;
+        }
+        customer.name = name;
+    }
+
+    // the customer's invoices went with it through the cascade
+    public synchronized void removeCustomer(Long customerId) {
+        if (loader.touch(customerId)) {
+            customers.remove(customerId);
+        }
+    }
+
+    public synchronized void recordInvoice(Long customerId, BigDecimal amount, Date invoiceDate) {
+        if (customerId == null) {
+            loader.invalidate();
+            return;
+        }
+        if (!loader.touch(customerId)) {
+            return;
+        }
+        CustomerNode customer = customers.get(customerId);
+        if (customer == null) {
+            loader.invalidate();
+            return;
+        }
+        customer.add(amount, invoiceDate);
+    }
+
+    public synchronized void removeInvoice(Long customerId, BigDecimal amount, Date invoiceDate) {
+        if (customerId == null) {
+            loader.invalidate();
+            return;
+        }
+        if (!loader.touch(customerId)) {
+            return;
+        }
+        CustomerNode customer = customers.get(customerId);
+        if (customer == null || !customer.remove(amount, invoiceDate)) {
+            loader.invalidate();
+        }
+    }
+
+    public synchronized void replaceInvoice(Long oldCustomerId, BigDecimal oldAmount, Date oldDate,
+                                            Long newCustomerId, BigDecimal newAmount, Date newDate) {
+        removeInvoice(oldCustomerId, oldAmount, oldDate);
+        recordInvoice(newCustomerId, newAmount, newDate);
+    }
+
+    public synchronized void invalidate() {
+        loader.invalidate();
+    }
+
+    // re-reads customers changed on another replica
+    public Uni<Void> refreshCustomers(Collection<Long> customerIds) {
+        return loader.refresh(customerIds);
+    }
+
+    @Scheduled(cron = "0 0 * * * ?")
+    public void scheduledRebuild() {
+        log.debug("Scheduled rebuild of customer aggregates");
+        invalidate();
+    }
+
+    private Uni<Void> ensureLoaded() {
+        return loader.ensureLoaded();
+    }
+
+    private void rebuild(List<Object[]> rows) {
+        customers.clear();
+        for (Object[] row : rows) {
+            CustomerNode customer = toNode(row);
+            customers.put(customer.id, customer);
+        }
+        log.info("Rebuilt customer aggregates for {} customers", customers.size());
+    }
+
+    // customers missing from rows were deleted
+    private void refresh(Collection<Long> customerIds, List<Object[]> rows) {
+        Set<Long> deleted = new HashSet<>(customerIds);
+        for (Object[] row : rows) {
+            CustomerNode customer = toNode(row);
+            customers.put(customer.id, customer);
+            deleted.remove(customer.id);
+        }
+        deleted.forEach(customers::remove);
+        log.debug("Refreshed customer aggregates for customers {}", customerIds);
+    }
+
+    private static CustomerNode toNode(Object[] row) {
+        CustomerNode customer = new CustomerNode((Long) row[0], (String) row[1], (Boolean) row[2]);
+        customer.invoiceCount = (Long) row[3];
+        customer.revenue = (BigDecimal) row[4];
+        customer.firstInvoiceDate = (Date) row[5];
+        customer.lastInvoiceDate = (Date) row[6];
+        return customer;
+    }
+
+    private synchronized List<Map<String, Object>> snapshotTop(int k, Boolean isLegalEntity) {
+        PriorityQueue<CustomerNode> heap = new PriorityQueue<>(k + 1, BY_REVENUE);
+        for (CustomerNode customer : customers.values()) {
+            if (isLegalEntity != null && !isLegalEntity.equals(customer.isLegalEntity)) {
+                continue;
+            }
+            if (heap.size() < k) {
+                heap.offer(customer);
+            } else if (BY_REVENUE.compare(customer, heap.peek()) > 0) {
+                heap.poll();
+                heap.offer(customer);
+            }
+        }
+
+        List<CustomerNode> top = new ArrayList<>(heap);
+        top.sort(BY_REVENUE.reversed());
+        List<Map<String, Object>> result = new ArrayList<>(top.size());
+        for (CustomerNode customer : top) {
+            result.add(toRow(customer));
+        }
+        return result;
+    }
+
+    private synchronized Map<String, Object> snapshotCustomer(Long customerId) {
+        CustomerNode customer = customers.get(customerId);
+        return customer != null ? toRow(customer) : null;
+    }
+
+    private static Map<String, Object> toRow(CustomerNode customer) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("customerId", customer.id);
+        row.put("name", customer.name);
+        row.put("isLegalEntity", customer.isLegalEntity);
+        row.put("invoiceCount", customer.invoiceCount);
+        row.put("revenue", customer.revenue);
+        row.put("firstInvoiceDate", customer.firstInvoiceDate);
+        row.put("lastInvoiceDate", customer.lastInvoiceDate);
+        return row;
+    }
+
+    private static class CustomerNode {
+        final Long id;
+        String name;
+        Boolean isLegalEntity;
+        long invoiceCount;
+        BigDecimal revenue = BigDecimal.ZERO;
+        Date firstInvoiceDate;
+        Date lastInvoiceDate;
+
+        CustomerNode(Long id, String name, Boolean isLegalEntity) {
+            this.id = id;
+            this.name = name;
+            this.isLegalEntity = isLegalEntity;
+        }
+
+        void add(BigDecimal amount, Date invoiceDate) {
+            invoiceCount++;
+            revenue = revenue.add(amount != null ? amount : BigDecimal.ZERO);
+            if (invoiceDate != null) {
+                if (firstInvoiceDate == null || invoiceDate.before(firstInvoiceDate)) {
+                    firstInvoiceDate = invoiceDate;
+                }
+                if (lastInvoiceDate == null || invoiceDate.after(lastInvoiceDate)) {
+                    lastInvoiceDate = invoiceDate;
+                }
+            }
+        }
+
+        // false when first/last invoice date can't be recovered without a rescan
+        boolean remove(BigDecimal amount, Date invoiceDate) {
+            invoiceCount--;
+            revenue = revenue.subtract(amount != null ? amount : BigDecimal.ZERO);
+            if (invoiceCount == 0) {
+                firstInvoiceDate = null;
+                lastInvoiceDate = null;
+                return true;
+            }
+            return invoiceDate == null
+                    || (!invoiceDate.equals(firstInvoiceDate) && !invoiceDate.equals(lastInvoiceDate));
+        }
+    }
+}
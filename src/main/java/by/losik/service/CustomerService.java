@@ -12,6 +12,7 @@ import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
+import java.util.Map;
 
 @ApplicationScoped
 @Slf4j
@@ -20,6 +21,21 @@ public class CustomerService extends BaseService<Customer, CustomerRepository> {
     @Inject
     CustomerRepository customerRepository;
 
+    @Inject
+    InvoiceRollupService invoiceRollupService;
+
+    @Inject
+    RevenueSeriesService revenueSeriesService;
+
+    @Inject
+    InvoiceService invoiceService;
+
+    @Inject
+    InvoiceSketchService invoiceSketchService;
+
+    @Inject
+    CustomerAggregateService customerAggregateService;
+
     @Override
     protected String getEntityName() {
         return "Customer";
@@ -199,23 +215,108 @@ public class CustomerService extends BaseService<Customer, CustomerRepository> {
                         log.error("Error finding customer statistics by legal entity", throwable));
     }
 
+    public Uni<List<Map<String, Object>>> getTopCustomersByRevenue(int k, Boolean isLegalEntity) {
+        log.info("Getting top {} customers by revenue, legal entity filter: {}", k, isLegalEntity);
+        return customerAggregateService.getTopByRevenue(k, isLegalEntity)
+                .onItem().transform(customers -> {
+                    log.debug("Found {} top customers by revenue", customers.size());
+                    return customers;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting top {} customers by revenue", k, throwable));
+    }
+
+    public Uni<Map<String, Object>> getLifetimeValue(Long customerId) {
+        log.info("Getting lifetime value for customer id: {}", customerId);
+        return customerAggregateService.getLifetimeValue(customerId)
+                .onItem().transform(lifetimeValue -> {
+                    log.debug("Lifetime value for customer id {} found: {}", customerId, lifetimeValue != null);
+                    return lifetimeValue;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting lifetime value for customer id: {}", customerId, throwable));
+    }
+
     // Override base methods for customer-specific behavior
     @Override
     public Uni<Customer> save(Customer customer) {
         log.info("Saving customer: {}", customer.getName());
         return super.save(customer)
-                .onItem().invoke(savedCustomer ->
-                        log.info("Successfully saved customer: {} with id: {}",
-                                savedCustomer.getName(), savedCustomer.getId()));
+                .onItem().invoke(savedCustomer -> {
+                    log.info("Successfully saved customer: {} with id: {}",
+                            savedCustomer.getName(), savedCustomer.getId());
+                    customerAggregateService.recordCustomer(savedCustomer.getId(), savedCustomer.getName(),
+                            savedCustomer.getIsLegalEntity());
+                });
     }
 
     @Override
     public Uni<Customer> update(Customer customer) {
         log.info("Updating customer: {} with id: {}", customer.getName(), customer.getId());
         return super.update(customer)
-                .onItem().invoke(updatedCustomer ->
-                        log.info("Successfully updated customer: {} with id: {}",
-                                updatedCustomer.getName(), updatedCustomer.getId()));
+                .onItem().invoke(updatedCustomer -> {
+                    log.info("Successfully updated customer: {} with id: {}",
+                            updatedCustomer.getName(), updatedCustomer.getId());
+                    customerAggregateService.updateCustomer(updatedCustomer.getId(), updatedCustomer.getName(),
+                            updatedCustomer.getIsLegalEntity());
+                });
+    }
+
+    @Override
+    public Uni<Customer> patch(Long id, Map<String, Object> changes, Long expectedVersion) {
+        return super.patch(id, changes, expectedVersion)
+                .onItem().ifNotNull().invoke(patchedCustomer ->
+                        customerAggregateService.updateCustomer(patchedCustomer.getId(), patchedCustomer.getName(),
+                                patchedCustomer.getIsLegalEntity()));
+    }
+
+    @Override
+    public Uni<Integer> updateName(Long id, String newName) {
+        return super.updateName(id, newName)
+                .onItem().invoke(count -> {
+                    if (count > 0) {
+                        customerAggregateService.renameCustomer(id, newName);
+                    }
+                });
+    }
+
+    // invoices reference customers ON DELETE CASCADE, so a deleted customer takes its invoices along
+    @Override
+    public Uni<Boolean> delete(Customer customer) {
+        return super.delete(customer)
+                .onItem().invoke(deleted -> {
+                    invalidateCascadedInvoices();
+                    customerAggregateService.removeCustomer(customer.getId());
+                });
+    }
+
+    @Override
+    public Uni<Boolean> deleteById(Long id) {
+        return super.deleteById(id)
+                .onItem().invoke(deleted -> {
+                    if (deleted) {
+                        invalidateCascadedInvoices();
+                        customerAggregateService.removeCustomer(id);
+                    }
+                });
+    }
+
+    @Override
+    public Uni<Long> deleteByName(String name) {
+        return super.deleteByName(name)
+                .onItem().invoke(count -> {
+                    if (count > 0) {
+                        invalidateCascadedInvoices();
+                        customerAggregateService.invalidate();
+                    }
+                });
+    }
+
+    private void invalidateCascadedInvoices() {
+        invoiceRollupService.invalidate();
+        revenueSeriesService.evictAll();
+        invoiceService.evictTopPurchases();
+        invoiceSketchService.requestRebuild();
     }
 
     @Scheduled(cron = "0 0 * * * ?")
@@ -0,0 +1,87 @@
+package by.losik.service;
+
+import by.losik.repository.InvoiceRepository;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.sql.Date;
+import java.time.LocalDate;
+
+// Moves invoices older than the configured age, together with their items, out of the hot
+// tables into lz4-compressed archive segments of up to batch-size invoices each. Reads in
+// InvoiceService fall back to the archive whenever a requested range starts before the cutoff.
+// Archived invoices are read-only. Rollups and lifetime values count them through frozen per customer
+// and settlement totals, and sketch rebuilds unpack them, so archiving leaves every aggregate as it was.
+@ApplicationScoped
+@Slf4j
+public class InvoiceArchiveService {
+
+    @ConfigProperty(name = "app.archive.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.archive.age-months", defaultValue = "24")
+    int ageMonths;
+
+    @ConfigProperty(name = "app.archive.batch-size", defaultValue = "1000")
+    int batchSize;
+
+    @ConfigProperty(name = "app.archive.max-batches-per-run", defaultValue = "100")
+    int maxBatchesPerRun;
+
+    @Inject
+    InvoiceRepository invoiceRepository;
+
+    @Inject
+    InvoiceService invoiceService;
+
+    @Inject
+    InvoiceItemService invoiceItemService;
+
+    // first day of the month ageMonths back; everything strictly before it may live in the archive
+    public Date cutoff() {
+        return Date.valueOf(LocalDate.now().withDayOfMonth(1).minusMonths(ageMonths));
+    }
+
+    // the cutoff only moves forward, so a range starting at or after it cannot contain archived rows
+    public boolean reaches(Date startDate) {
+        return startDate == null || startDate.before(cutoff());
+    }
+
+    @Scheduled(cron = "${app.archive.cron:0 0 3 * * ?}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public Uni<Void> scheduledArchive() {
+        if (!enabled) {
+            return Uni.createFrom().voidItem();
+        }
+        Date cutoff = cutoff();
+        log.info("Archiving invoices before {}", cutoff);
+        return archiveBatches(cutoff, 0, 0)
+                .onItem().invoke(archived -> {
+                    log.info("Archived {} invoices before {}", archived, cutoff);
+                    if (archived > 0) {
+                        invoiceService.invalidateRelatedCaches();
+                        invoiceItemService.invalidateRelatedCaches();
+                    }
+                })
+                .onFailure().invoke(throwable -> log.error("Error archiving invoices before {}", cutoff, throwable))
+                .onFailure().recoverWithNull()
+                .replaceWithVoid();
+    }
+
+    // one transaction per batch keeps locks short; stops on a partial batch or after maxBatchesPerRun
+    private Uni<Integer> archiveBatches(Date cutoff, int batch, int total) {
+        if (batch >= maxBatchesPerRun) {
+            return Uni.createFrom().item(total);
+        }
+        return invoiceRepository.archiveBefore(cutoff, batchSize)
+                .onItem().transformToUni(archived -> {
+                    log.debug("Archived batch {} of {} invoices", batch + 1, archived);
+                    return archived < batchSize
+                            ? Uni.createFrom().item(total + archived)
+                            : archiveBatches(cutoff, batch + 1, total + archived);
+                });
+    }
+}
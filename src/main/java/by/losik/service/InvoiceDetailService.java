@@ -0,0 +1,183 @@
+package by.losik.service;
+
+import by.losik.dto.InvoiceDetail;
+import by.losik.entity.Customer;
+import by.losik.entity.Invoice;
+import by.losik.entity.InvoiceItem;
+import by.losik.entity.Product;
+import by.losik.entity.Region;
+import by.losik.entity.Settlement;
+import by.losik.repository.BaseRepository;
+import by.losik.repository.InvoiceItemRepository;
+import by.losik.repository.InvoiceRepository;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Assembles invoice screens: the invoices and their items come from two queries that also return
+// the referenced ids, then customers, settlements, regions and products are each resolved with one
+// cache multi-get, all four concurrently, and whatever missed is loaded with one IN query per type.
+// Lookups are collected across all requested invoices, so a batch costs the same number of round
+// trips as a single invoice. Ids missing from the hot tables are looked up in the archive, which
+// costs two more queries for invoices and two for their items.
+@ApplicationScoped
+@Slf4j
+public class InvoiceDetailService {
+
+    @Inject
+    InvoiceRepository invoiceRepository;
+
+    @Inject
+    InvoiceItemRepository invoiceItemRepository;
+
+    @Inject
+    CustomerService customerService;
+
+    @Inject
+    SettlementService settlementService;
+
+    @Inject
+    RegionService regionService;
+
+    @Inject
+    ProductService productService;
+
+    public Uni<InvoiceDetail> findDetail(Long id) {
+        return findDetails(List.of(id))
+                .onItem().transform(details -> details.isEmpty() ? null : details.get(0));
+    }
+
+    // details in the order of ids; ids without an invoice are skipped
+    public Uni<List<InvoiceDetail>> findDetails(List<Long> ids) {
+        List<Long> distinct = ids.stream().distinct().toList();
+        log.info("Finding details of {} invoices", distinct.size());
+        return invoiceRepository.findWithReferenceIds(distinct)
+                .onItem().transformToUni(hotRows -> {
+                    List<Long> hot = invoiceIds(hotRows);
+                    List<Long> missing = distinct.stream().filter(id -> !hot.contains(id)).toList();
+                    Uni<List<Object[]>> hotItems = hot.isEmpty()
+                            ? Uni.createFrom().item(List.of())
+                            : invoiceItemRepository.findWithReferenceIdsByInvoiceIds(hot);
+                    return hotItems.onItem().transformToUni(hotItemRows -> missing.isEmpty()
+                            ? resolve(distinct, hotRows, hotItemRows)
+                            : withArchived(distinct, missing, hotRows, hotItemRows));
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error finding details of {} invoices", distinct.size(), throwable));
+    }
+
+    private Uni<List<InvoiceDetail>> withArchived(List<Long> ids, List<Long> missing,
+                                                  List<Object[]> hotRows, List<Object[]> hotItemRows) {
+        return invoiceRepository.findArchivedWithReferenceIds(missing)
+                .onItem().transformToUni(archivedRows -> archivedRows.isEmpty()
+                        ? resolve(ids, hotRows, hotItemRows)
+                        : invoiceItemRepository.findArchivedWithReferenceIdsByInvoiceIds(invoiceIds(archivedRows))
+                                .onItem().transformToUni(archivedItemRows -> {
+                                    log.debug("Found {} archived invoices for details", archivedRows.size());
+                                    List<Object[]> invoiceRows = new ArrayList<>(hotRows);
+                                    invoiceRows.addAll(archivedRows);
+                                    List<Object[]> itemRows = new ArrayList<>(hotItemRows);
+                                    itemRows.addAll(archivedItemRows);
+                                    return resolve(ids, invoiceRows, itemRows);
+                                }));
+    }
+
+    private Uni<List<InvoiceDetail>> resolve(List<Long> ids, List<Object[]> invoiceRows, List<Object[]> itemRows) {
+        if (invoiceRows.isEmpty()) {
+            return Uni.createFrom().item(List.of());
+        }
+        List<Long> customerIds = referencedIds(invoiceRows, 1);
+        List<Long> settlementIds = referencedIds(invoiceRows, 2);
+        List<Long> regionIds = referencedIds(invoiceRows, 3);
+        List<Long> productIds = referencedIds(itemRows, 2);
+
+        return Uni.combine().all().unis(
+                        customerService.findCachedByIds(customerIds),
+                        settlementService.findCachedByIds(settlementIds),
+                        regionService.findCachedByIds(regionIds),
+                        productService.findCachedByIds(productIds))
+                .asTuple()
+                .onItem().transformToUni(cached -> {
+                    // misses are loaded one type after another because the queries share the
+                    // request's reactive session, which does not allow concurrent use
+                    Lookups lookups = new Lookups();
+                    return withMisses(customerService, customerIds, cached.getItem1())
+                            .invoke(found -> lookups.customers = found)
+                            .chain(() -> withMisses(settlementService, settlementIds, cached.getItem2()))
+                            .invoke(found -> lookups.settlements = found)
+                            .chain(() -> withMisses(regionService, regionIds, cached.getItem3()))
+                            .invoke(found -> lookups.regions = found)
+                            .chain(() -> withMisses(productService, productIds, cached.getItem4()))
+                            .invoke(found -> lookups.products = found)
+                            .replaceWith(() -> assemble(ids, invoiceRows, itemRows, lookups));
+                });
+    }
+
+    private static List<InvoiceDetail> assemble(List<Long> ids, List<Object[]> invoiceRows, List<Object[]> itemRows,
+                                                Lookups lookups) {
+        Map<Long, InvoiceDetail> details = new HashMap<>();
+        for (Object[] row : invoiceRows) {
+            Invoice invoice = (Invoice) row[0];
+            InvoiceDetail detail = new InvoiceDetail();
+            detail.setInvoice(invoice);
+            detail.setCustomer(lookups.customers.get((Long) row[1]));
+            detail.setSettlement(lookups.settlements.get((Long) row[2]));
+            detail.setRegion(lookups.regions.get((Long) row[3]));
+            details.put(invoice.getId(), detail);
+        }
+        for (Object[] row : itemRows) {
+            InvoiceDetail.Item item = new InvoiceDetail.Item();
+            item.setItem((InvoiceItem) row[0]);
+            item.setProduct(lookups.products.get((Long) row[2]));
+            details.get((Long) row[1]).getItems().add(item);
+        }
+        List<InvoiceDetail> ordered = new ArrayList<>(details.size());
+        for (Long id : ids) {
+            InvoiceDetail detail = details.get(id);
+            if (detail != null) {
+                ordered.add(detail);
+            }
+        }
+        return ordered;
+    }
+
+    private static <T> Uni<Map<Long, T>> withMisses(BaseService<T, ? extends BaseRepository<T>> service,
+                                                     List<Long> ids, Map<Long, T> cached) {
+        List<Long> misses = ids.stream().filter(id -> !cached.containsKey(id)).toList();
+        return service.loadByIds(misses)
+                .onItem().transform(loaded -> {
+                    Map<Long, T> all = new HashMap<>(cached);
+                    all.putAll(loaded);
+                    return all;
+                });
+    }
+
+    private static List<Long> invoiceIds(List<Object[]> invoiceRows) {
+        return invoiceRows.stream().map(row -> ((Invoice) row[0]).getId()).toList();
+    }
+
+    private static List<Long> referencedIds(List<Object[]> rows, int column) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Object[] row : rows) {
+            if (row[column] != null) {
+                ids.add((Long) row[column]);
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    private static class Lookups {
+        Map<Long, Customer> customers;
+        Map<Long, Settlement> settlements;
+        Map<Long, Region> regions;
+        Map<Long, Product> products;
+    }
+}
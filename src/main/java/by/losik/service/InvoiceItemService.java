@@ -3,11 +3,14 @@ package by.losik.service;
 import by.losik.entity.Invoice;
 import by.losik.entity.InvoiceItem;
 import by.losik.entity.Product;
+import by.losik.repository.EntityChangeRepository;
 import by.losik.repository.InvoiceItemRepository;
+import io.quarkus.cache.CacheInvalidate;
 import io.quarkus.cache.CacheInvalidateAll;
 import io.quarkus.cache.CacheKey;
 import io.quarkus.cache.CacheResult;
 import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -15,7 +18,12 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @ApplicationScoped
 @Slf4j
@@ -24,6 +32,12 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
     @Inject
     InvoiceItemRepository invoiceItemRepository;
 
+    @Inject
+    PriceWriteBehindService priceWriteBehindService;
+
+    @Inject
+    LiveFeedService liveFeedService;
+
     @Override
     protected String getEntityName() {
         return "InvoiceItem";
@@ -39,6 +53,21 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
         this.repository = repository;
     }
 
+    // items of archived invoices live in the invoice's archive segment and are read-only
+    @Override
+    @CacheResult(cacheName = "by-id")
+    public Uni<InvoiceItem> findById(@CacheKey Long id) {
+        return super.findById(id)
+                .onItem().transformToUni(item -> item != null
+                        ? Uni.createFrom().item(item)
+                        : invoiceItemRepository.findArchivedById(id)
+                                .onItem().invoke(archived -> {
+                                    if (archived != null) {
+                                        log.debug("Found archived invoice item with id: {}", id);
+                                    }
+                                }));
+    }
+
     @CacheResult(cacheName = "invoice-item-by-invoice")
     public Uni<List<InvoiceItem>> findByInvoice(@CacheKey Invoice invoice) {
         log.info("Finding invoice items by invoice: {}", invoice.getId());
@@ -55,6 +84,9 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
     public Uni<List<InvoiceItem>> findByInvoiceId(@CacheKey Long invoiceId) {
         log.info("Finding invoice items by invoice id: {}", invoiceId);
         return invoiceItemRepository.findByInvoiceId(invoiceId)
+                .onItem().transformToUni(items -> items.isEmpty()
+                        ? invoiceItemRepository.findArchivedByInvoiceId(invoiceId, 0, Integer.MAX_VALUE)
+                        : Uni.createFrom().item(items))
                 .onItem().transform(items -> {
                     log.debug("Found {} invoice items for invoice id: {}", items.size(), invoiceId);
                     return items;
@@ -63,6 +95,18 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
                         log.error("Error finding invoice items by invoice id: {}", invoiceId, throwable));
     }
 
+    // not cached: the list is unbounded and is written to the response page by page; an invoice
+    // without hot items may be archived, whose items fit in one segment and are read at once
+    public Multi<InvoiceItem> streamByInvoiceId(Long invoiceId) {
+        log.info("Streaming invoice items by invoice id: {}", invoiceId);
+        return invoiceItemRepository.streamByInvoiceId(invoiceId, streamPageSize)
+                .onCompletion().ifEmpty().switchTo(() -> invoiceItemRepository
+                        .findArchivedByInvoiceId(invoiceId, 0, Integer.MAX_VALUE)
+                        .onItem().transformToMulti(items -> Multi.createFrom().iterable(items)))
+                .onFailure().invoke(throwable ->
+                        log.error("Error streaming invoice items by invoice id: {}", invoiceId, throwable));
+    }
+
     @CacheResult(cacheName = "invoice-item-by-product")
     public Uni<List<InvoiceItem>> findByProduct(@CacheKey Product product) {
         log.info("Finding invoice items by product: {}", product.getId());
@@ -90,6 +134,9 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
     public Uni<Long> countByInvoice(Invoice invoice) {
         log.info("Counting invoice items by invoice: {}", invoice.getId());
         return invoiceItemRepository.countByInvoice(invoice)
+                .onItem().transformToUni(count -> count == 0
+                        ? invoiceItemRepository.countArchivedByInvoiceId(invoice.getId())
+                        : Uni.createFrom().item(count))
                 .onItem().transform(count -> {
                     log.debug("Found {} invoice items for invoice: {}", count, invoice.getId());
                     return count;
@@ -185,6 +232,9 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
         log.info("Finding invoice items by invoice id paginated, invoiceId: {}, pageIndex: {}, pageSize: {}",
                 invoiceId, pageIndex, pageSize);
         return invoiceItemRepository.findByInvoiceIdPaginated(invoiceId, pageIndex, pageSize)
+                .onItem().transformToUni(items -> items.isEmpty()
+                        ? invoiceItemRepository.findArchivedByInvoiceId(invoiceId, pageIndex * pageSize, pageSize)
+                        : Uni.createFrom().item(items))
                 .onItem().transform(items -> {
                     log.debug("Found {} invoice items for invoice id paginated query", items.size());
                     return items;
@@ -230,6 +280,7 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
                     invalidateRelatedCaches();
                     return count;
                 })
+                .call(count -> count > 0 ? publishInvoices(invoice.getId()) : Uni.createFrom().voidItem())
                 .onFailure().invoke(throwable ->
                         log.error("Error deleting invoice items by invoice: {}", invoice.getId(), throwable));
     }
@@ -242,6 +293,7 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
                     invalidateRelatedCaches();
                     return count;
                 })
+                .call(count -> count > 0 ? publishInvoices(invoiceId) : Uni.createFrom().voidItem())
                 .onFailure().invoke(throwable ->
                         log.error("Error deleting invoice items by invoice id: {}", invoiceId, throwable));
     }
@@ -266,12 +318,17 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
                     invalidateRelatedCaches();
                     return updatedCount;
                 })
+                .call(updatedCount -> updatedCount > 0 ? publishInvoiceOfItem(id) : Uni.createFrom().voidItem())
                 .onFailure().invoke(throwable ->
                         log.error("Error updating quantity for invoice item id: {}, new quantity: {}",
                                 id, newQuantity, throwable));
     }
 
     public Uni<Integer> updatePrice(Long id, BigDecimal newPrice) {
+        if (priceWriteBehindService.isEnabled()) {
+            log.debug("Queueing price for invoice item id: {}, new price: {}", id, newPrice);
+            return priceWriteBehindService.queueInvoiceItemPrice(id, newPrice);
+        }
         log.info("Updating price for invoice item id: {}, new price: {}", id, newPrice);
         return invoiceItemRepository.updatePrice(id, newPrice)
                 .onItem().transform(updatedCount -> {
@@ -279,6 +336,7 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
                     invalidateRelatedCaches();
                     return updatedCount;
                 })
+                .call(updatedCount -> updatedCount > 0 ? publishInvoiceOfItem(id) : Uni.createFrom().voidItem())
                 .onFailure().invoke(throwable ->
                         log.error("Error updating price for invoice item id: {}, new price: {}",
                                 id, newPrice, throwable));
@@ -293,6 +351,7 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
                     invalidateRelatedCaches();
                     return updatedCount;
                 })
+                .call(updatedCount -> updatedCount > 0 ? publishInvoiceOfItem(id) : Uni.createFrom().voidItem())
                 .onFailure().invoke(throwable ->
                         log.error("Error updating quantity and price for invoice item id: {}, quantity: {}, price: {}",
                                 id, newQuantity, newPrice, throwable));
@@ -365,15 +424,83 @@ public class InvoiceItemService extends BaseService<InvoiceItem, InvoiceItemRepo
                 invoiceItem.getInvoice().getId(), invoiceItem.getProduct().getId());
         return super.save(invoiceItem)
                 .onItem().invoke(savedItem ->
-                        log.info("Successfully saved invoice item with id: {}", savedItem.getId()));
+                        log.info("Successfully saved invoice item with id: {}", savedItem.getId()))
+                .call(savedItem -> publishInvoices(invoiceIdOf(savedItem)));
     }
 
+    @Override
+    public Uni<Void> saveAll(List<InvoiceItem> invoiceItems) {
+        return super.saveAll(invoiceItems)
+                .call(() -> publishInvoices(invoiceItems.stream()
+                        .map(InvoiceItemService::invoiceIdOf)
+                        .toArray(Long[]::new)));
+    }
+
+    // an update or patch may move the item, so both the old and the new invoice are published
     @Override
     public Uni<InvoiceItem> update(InvoiceItem invoiceItem) {
         log.info("Updating invoice item with id: {}", invoiceItem.getId());
-        return super.update(invoiceItem)
-                .onItem().invoke(updatedItem ->
-                        log.info("Successfully updated invoice item with id: {}", updatedItem.getId()));
+        return findInvoiceIdOf(invoiceItem.getId())
+                .onItem().transformToUni(previousInvoiceId -> super.update(invoiceItem)
+                        .onItem().invoke(updatedItem ->
+                                log.info("Successfully updated invoice item with id: {}", updatedItem.getId()))
+                        .call(updatedItem -> publishInvoices(previousInvoiceId, invoiceIdOf(updatedItem))));
+    }
+
+    @Override
+    @CacheInvalidate(cacheName = "by-id")
+    public Uni<InvoiceItem> patch(@CacheKey Long id, Map<String, Object> changes, Long expectedVersion) {
+        return findInvoiceIdOf(id)
+                .onItem().transformToUni(previousInvoiceId -> super.patch(id, changes, expectedVersion)
+                        .call(patchedItem -> patchedItem != null
+                                ? publishInvoices(previousInvoiceId, invoiceIdOf(patchedItem))
+                                : Uni.createFrom().voidItem()));
+    }
+
+    @Override
+    public Uni<Boolean> deleteById(Long id) {
+        return findInvoiceIdOf(id)
+                .onItem().transformToUni(invoiceId -> super.deleteById(id)
+                        .call(deleted -> deleted ? publishInvoices(invoiceId) : Uni.createFrom().voidItem()));
+    }
+
+    // item writes leave the invoice row as it is, so nothing else tells the live feed that the
+    // invoice changed; bulk writes by product are not published, like other bulk statements
+    private Uni<Void> publishInvoices(Long... invoiceIds) {
+        Set<Long> ids = new LinkedHashSet<>(Arrays.asList(invoiceIds));
+        ids.remove(null);
+        Uni<Void> published = Uni.createFrom().voidItem();
+        for (Long invoiceId : ids) {
+            published = published.call(() -> liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_UPDATE, invoiceId));
+        }
+        return published;
+    }
+
+    // for item writes that bypass this service, such as the price write-behind flush
+    public Uni<Void> publishInvoicesOfItems(Collection<Long> ids) {
+        return invoiceItemRepository.findInvoiceIds(ids)
+                .onFailure().invoke(throwable -> log.warn("Error finding the invoices of {} invoice items", ids.size(), throwable))
+                .onFailure().recoverWithItem(List.of())
+                .onItem().transformToUni(invoiceIds -> publishInvoices(invoiceIds.toArray(Long[]::new)));
+    }
+
+    private Uni<Void> publishInvoiceOfItem(Long id) {
+        return findInvoiceIdOf(id)
+                .onItem().transformToUni(invoiceId -> publishInvoices(invoiceId));
+    }
+
+    // null when the item is gone or the lookup failed, which only costs the live feed an event
+    private Uni<Long> findInvoiceIdOf(Long id) {
+        if (id == null) {
+            return Uni.createFrom().nullItem();
+        }
+        return invoiceItemRepository.findInvoiceId(id)
+                .onFailure().invoke(throwable -> log.warn("Error finding the invoice of invoice item {}", id, throwable))
+                .onFailure().recoverWithNull();
+    }
+
+    private static Long invoiceIdOf(InvoiceItem invoiceItem) {
+        return invoiceItem.getInvoice() != null ? invoiceItem.getInvoice().getId() : null;
     }
 
     @Scheduled(cron = "0 0 * * * ?")
@@ -0,0 +1,322 @@
+package by.losik.service;
+
+import by.losik.repository.RegionRepository;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+@ApplicationScoped
+@Slf4j
+public class InvoiceRollupService {
+
+    @Inject
+    RegionRepository regionRepository;
+
+    private final Map<String, Totals> countries = new HashMap<>();
+    private final Map<Long, RegionNode> regions = new HashMap<>();
+    private final Map<Long, SettlementNode> settlements = new HashMap<>();
+
+    private final AggregateLoader<Long> loader = new AggregateLoader<>(this, "Invoice rollup",
+            () -> regionRepository.getInvoiceRollup(), this::rebuild,
+            settlementIds -> regionRepository.getSettlementRollup(settlementIds), this::refresh);
+
+    public Uni<List<Map<String, Object>>> getCountryRollup() {
+        return ensureLoaded().onItem().transform(ignored -> snapshotCountries());
+    }
+
+    public Uni<List<Map<String, Object>>> getRegionRollup(String country) {
+        return ensureLoaded().onItem().transform(ignored -> snapshotRegions(country));
+    }
+
+    public Uni<List<Map<String, Object>>> getSettlementRollup(Long regionId) {
+        return ensureLoaded().onItem().transform(ignored -> snapshotSettlements(regionId));
+    }
+
+    public Uni<List<Object[]>> getSettlementInvoiceStats() {
+        return ensureLoaded().onItem().transform(ignored -> snapshotSettlementStats());
+    }
+
+    public Uni<List<Object[]>> getSettlementCountByRegion() {
+        return ensureLoaded().onItem().transform(ignored -> snapshotSettlementCounts());
+    }
+
+    public synchronized void recordInvoice(Long settlementId, BigDecimal amount) {
+        applyDelta(settlementId, 1, amount);
+    }
+
+    public synchronized void removeInvoice(Long settlementId, BigDecimal amount) {
+        applyDelta(settlementId, -1, negate(amount));
+    }
+
+    public synchronized void replaceInvoice(Long oldSettlementId, BigDecimal oldAmount,
+                                            Long newSettlementId, BigDecimal newAmount) {
+        applyDelta(oldSettlementId, -1, negate(oldAmount));
+        applyDelta(newSettlementId, 1, newAmount);
+    }
+
+    public synchronized void moveSettlement(Long settlementId, Long toRegionId) {
+        if (!loader.touch(settlementId)) {
+            return;
+        }
+        SettlementNode settlement = settlements.get(settlementId);
+        RegionNode target = regions.get(toRegionId);
+        if (settlement == null || target == null) {
+            loader.invalidate();
+            return;
+        }
+        moveTotals(settlement, target);
+    }
+
+    public synchronized void moveSettlements(Long fromRegionId, Long toRegionId) {
+        loader.touchAll();
+        if (!loader.isLoaded()) {
+            return;
+        }
+        RegionNode target = regions.get(toRegionId);
+        if (target == null) {
+            loader.invalidate();
+            return;
+        }
+        for (SettlementNode settlement : settlements.values()) {
+            if (Objects.equals(settlement.regionId, fromRegionId)) {
+                moveTotals(settlement, target);
+            }
+        }
+    }
+
+    public synchronized void invalidate() {
+        loader.invalidate();
+    }
+
+    // re-reads the totals of settlements changed on another replica
+    public Uni<Void> refreshSettlements(Collection<Long> settlementIds) {
+        return loader.refresh(settlementIds);
+    }
+
+    @Scheduled(cron = "0 0 * * * ?")
+    public void scheduledRebuild() {
+        log.debug("Scheduled rebuild of invoice rollup");
+        invalidate();
+    }
+
+    private Uni<Void> ensureLoaded() {
+        return loader.ensureLoaded();
+    }
+
+    private void rebuild(List<Object[]> rows) {
+        countries.clear();
+        regions.clear();
+        settlements.clear();
+
+        for (Object[] row : rows) {
+            Long regionId = (Long) row[0];
+            String regionName = (String) row[1];
+            String country = (String) row[2];
+            RegionNode region = regions.computeIfAbsent(regionId, id -> new RegionNode(id, regionName, country));
+            countries.computeIfAbsent(country, c -> new Totals());
+
+            if (row[3] == null) {
+                continue;
+            }
+            SettlementNode settlement = new SettlementNode((Long) row[3], (String) row[4], regionId);
+            settlement.add((Long) row[5], (BigDecimal) row[6]);
+            settlements.put(settlement.id, settlement);
+            region.add(settlement.invoiceCount, settlement.revenue);
+            countries.get(country).add(settlement.invoiceCount, settlement.revenue);
+        }
+
+        log.info("Rebuilt invoice rollup: {} countries, {} regions, {} settlements",
+                countries.size(), regions.size(), settlements.size());
+    }
+
+    // a settlement missing from rows was deleted along with invoices this rollup cannot see, so only a
+    // rebuild is exact then
+    private void refresh(Collection<Long> settlementIds, List<Object[]> rows) {
+        if (rows.size() != settlementIds.size()) {
+            loader.invalidate();
+            return;
+        }
+        for (Object[] row : rows) {
+            RegionNode region = regions.get((Long) row[2]);
+            if (region == null) {
+                loader.invalidate();
+                return;
+            }
+            SettlementNode settlement = settlements.computeIfAbsent((Long) row[0],
+                    id -> new SettlementNode(id, (String) row[1], region.id));
+            settlement.name = (String) row[1];
+            if (!Objects.equals(settlement.regionId, region.id)) {
+                moveTotals(settlement, region);
+            }
+            long countDelta = (Long) row[3] - settlement.invoiceCount;
+            BigDecimal amountDelta = ((BigDecimal) row[4]).subtract(settlement.revenue);
+            settlement.add(countDelta, amountDelta);
+            region.add(countDelta, amountDelta);
+            countries.get(region.country).add(countDelta, amountDelta);
+        }
+        log.debug("Refreshed invoice rollup for settlements {}", settlementIds);
+    }
+
+    private void applyDelta(Long settlementId, long countDelta, BigDecimal amountDelta) {
+        if (settlementId == null) {
+            loader.invalidate();
+            return;
+        }
+        if (!loader.touch(settlementId)) {
+            return;
+        }
+        SettlementNode settlement = settlements.get(settlementId);
+        if (settlement == null) {
+            loader.invalidate();
+            return;
+        }
+        BigDecimal amount = amountDelta != null ? amountDelta : BigDecimal.ZERO;
+        RegionNode region = regions.get(settlement.regionId);
+        settlement.add(countDelta, amount);
+        region.add(countDelta, amount);
+        countries.get(region.country).add(countDelta, amount);
+    }
+
+    private void moveTotals(SettlementNode settlement, RegionNode target) {
+        RegionNode source = regions.get(settlement.regionId);
+        source.add(-settlement.invoiceCount, settlement.revenue.negate());
+        countries.get(source.country).add(-settlement.invoiceCount, settlement.revenue.negate());
+        target.add(settlement.invoiceCount, settlement.revenue);
+        countries.get(target.country).add(settlement.invoiceCount, settlement.revenue);
+        settlement.regionId = target.id;
+    }
+
+    private synchronized List<Map<String, Object>> snapshotCountries() {
+        Map<String, Long> regionCounts = new HashMap<>();
+        for (RegionNode region : regions.values()) {
+            regionCounts.merge(region.country, 1L, Long::sum);
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        countries.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<String, Totals> e) -> e.getValue().revenue).reversed())
+                .forEach(e -> {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("country", e.getKey());
+                    row.put("regionCount", regionCounts.getOrDefault(e.getKey(), 0L));
+                    row.put("invoiceCount", e.getValue().invoiceCount);
+                    row.put("revenue", e.getValue().revenue);
+                    result.add(row);
+                });
+        return result;
+    }
+
+    private synchronized List<Map<String, Object>> snapshotRegions(String country) {
+        Map<Long, Long> settlementCounts = countSettlementsByRegion();
+
+        List<Map<String, Object>> result = new ArrayList<>();
+        regions.values().stream()
+                .filter(region -> region.country.equals(country))
+                .sorted(Comparator.comparing((RegionNode region) -> region.revenue).reversed())
+                .forEach(region -> {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("regionId", region.id);
+                    row.put("region", region.name);
+                    row.put("settlementCount", settlementCounts.getOrDefault(region.id, 0L));
+                    row.put("invoiceCount", region.invoiceCount);
+                    row.put("revenue", region.revenue);
+                    result.add(row);
+                });
+        return result;
+    }
+
+    private synchronized List<Map<String, Object>> snapshotSettlements(Long regionId) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        settlements.values().stream()
+                .filter(settlement -> Objects.equals(settlement.regionId, regionId))
+                .sorted(Comparator.comparing((SettlementNode settlement) -> settlement.revenue).reversed())
+                .forEach(settlement -> {
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    row.put("settlementId", settlement.id);
+                    row.put("settlement", settlement.name);
+                    row.put("invoiceCount", settlement.invoiceCount);
+                    row.put("revenue", settlement.revenue);
+                    result.add(row);
+                });
+        return result;
+    }
+
+    private synchronized List<Object[]> snapshotSettlementStats() {
+        return settlements.values().stream()
+                .sorted(Comparator.comparingLong((SettlementNode settlement) -> settlement.invoiceCount).reversed())
+                .map(settlement -> new Object[]{
+                        settlement.name,
+                        regions.get(settlement.regionId).name,
+                        settlement.invoiceCount,
+                        settlement.revenue
+                })
+                .toList();
+    }
+
+    private synchronized List<Object[]> snapshotSettlementCounts() {
+        Map<Long, Long> settlementCounts = countSettlementsByRegion();
+        return regions.values().stream()
+                .sorted(Comparator.comparingLong((RegionNode region) ->
+                        settlementCounts.getOrDefault(region.id, 0L)).reversed())
+                .map(region -> new Object[]{region.name, settlementCounts.getOrDefault(region.id, 0L)})
+                .toList();
+    }
+
+    private Map<Long, Long> countSettlementsByRegion() {
+        Map<Long, Long> counts = new HashMap<>();
+        for (SettlementNode settlement : settlements.values()) {
+            counts.merge(settlement.regionId, 1L, Long::sum);
+        }
+        return counts;
+    }
+
+    private static BigDecimal negate(BigDecimal amount) {
+        return amount != null ? amount.negate() : BigDecimal.ZERO;
+    }
+
+    private static class Totals {
+        long invoiceCount;
+        BigDecimal revenue = BigDecimal.ZERO;
+
+        void add(long countDelta, BigDecimal amountDelta) {
+            invoiceCount += countDelta;
+            revenue = revenue.add(amountDelta);
+        }
+    }
+
+    private static class RegionNode extends Totals {
+        final Long id;
+        final String name;
+        final String country;
+
+        RegionNode(Long id, String name, String country) {
+            this.id = id;
+            this.name = name;
+            this.country = country;
+        }
+    }
+
+    private static class SettlementNode extends Totals {
+        final Long id;
+        String name;
+        Long regionId;
+
+        SettlementNode(Long id, String name, Long regionId) {
+            this.id = id;
+            this.name = name;
+            this.regionId = regionId;
+        }
+    }
+}
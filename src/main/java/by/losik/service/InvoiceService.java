@@ -1,29 +1,75 @@
 package by.losik.service;
 
+import by.losik.dto.BulkDeleteJob;
 import by.losik.entity.Invoice;
+import by.losik.entity.InvoiceItem;
 import by.losik.entity.Customer;
 import by.losik.entity.Settlement;
+import by.losik.repository.EntityChangeRepository;
 import by.losik.repository.InvoiceRepository;
+import io.quarkus.cache.Cache;
 import io.quarkus.cache.CacheInvalidateAll;
+import io.quarkus.cache.CacheName;
 import io.quarkus.cache.CacheResult;
 import io.quarkus.cache.CacheKey;
 import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 @ApplicationScoped
 @Slf4j
 public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
 
+    // patching any of these moves the invoice between rollup, customer and sketch buckets, so such a
+    // patch reads the values it replaces to apply the move as a delta
+    private static final Set<String> AGGREGATE_FIELDS = Set.of("invoiceDate", "customer", "settlement", "totalAmount");
+
     @Inject
     InvoiceRepository invoiceRepository;
 
+    @Inject
+    InvoiceRollupService invoiceRollupService;
+
+    @Inject
+    CustomerAggregateService customerAggregateService;
+
+    @Inject
+    RevenueSeriesService revenueSeriesService;
+
+    @Inject
+    InvoiceSketchService invoiceSketchService;
+
+    @Inject
+    InvoiceItemService invoiceItemService;
+
+    @Inject
+    InvoiceArchiveService invoiceArchiveService;
+
+    @Inject
+    BulkDeleteJobService bulkDeleteJobService;
+
+    @Inject
+    LiveFeedService liveFeedService;
+
+    @Inject
+    @CacheName("invoice-top-purchases-by-day")
+    Cache topPurchasesCache;
+
     @Override
     protected String getEntityName() {
         return "Invoice";
@@ -39,6 +85,26 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
         this.repository = repository;
     }
 
+    @Override
+    @CacheResult(cacheName = "by-id")
+    public Uni<Invoice> findById(@CacheKey Long id) {
+        return super.findById(id)
+                .onItem().transformToUni(invoice -> invoice != null
+                        ? Uni.createFrom().item(invoice)
+                        : invoiceRepository.findArchivedById(id)
+                                .onItem().invoke(archived -> {
+                                    if (archived != null) {
+                                        log.debug("Found archived invoice with id: {}", id);
+                                    }
+                                }));
+    }
+
+    // archived invoices are read-only; writes to them are rejected instead of re-creating a hot row
+    public Uni<Boolean> isArchived(Long id) {
+        return invoiceRepository.isArchived(id)
+                .onFailure().invoke(throwable -> log.error("Error checking whether invoice {} is archived", id, throwable));
+    }
+
     @CacheResult(cacheName = "invoice-by-customer")
     public Uni<List<Invoice>> findByCustomer(@CacheKey Customer customer) {
         log.info("Finding invoices by customer: {}", customer.getId());
@@ -63,6 +129,14 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
                         log.error("Error finding invoices by customer id: {}", customerId, throwable));
     }
 
+    // not cached: the list is unbounded and is written to the response page by page
+    public Multi<Invoice> streamByCustomerId(Long customerId) {
+        log.info("Streaming invoices by customer id: {}", customerId);
+        return invoiceRepository.streamByCustomerId(customerId, streamPageSize)
+                .onFailure().invoke(throwable ->
+                        log.error("Error streaming invoices by customer id: {}", customerId, throwable));
+    }
+
     @CacheResult(cacheName = "invoice-by-settlement")
     public Uni<List<Invoice>> findBySettlement(@CacheKey Settlement settlement) {
         log.info("Finding invoices by settlement: {}", settlement.getId());
@@ -90,7 +164,7 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
     @CacheResult(cacheName = "invoice-by-date")
     public Uni<List<Invoice>> findByDate(@CacheKey Date date) {
         log.info("Finding invoices by date: {}", date);
-        return invoiceRepository.findByDate(date)
+        return withArchived(invoiceRepository.findByDate(date), date, date)
                 .onItem().transform(invoices -> {
                     log.debug("Found {} invoices for date: {}", invoices.size(), date);
                     return invoices;
@@ -102,7 +176,7 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
     @CacheResult(cacheName = "invoice-by-date-range")
     public Uni<List<Invoice>> findByDateRange(@CacheKey Date startDate, @CacheKey Date endDate) {
         log.info("Finding invoices by date range: {} to {}", startDate, endDate);
-        return invoiceRepository.findByDateRange(startDate, endDate)
+        return withArchived(invoiceRepository.findByDateRange(startDate, endDate), startDate, endDate)
                 .onItem().transform(invoices -> {
                     log.debug("Found {} invoices for date range: {} to {}", invoices.size(), startDate, endDate);
                     return invoices;
@@ -113,7 +187,7 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
 
     public Uni<List<Invoice>> findByDateBefore(Date date) {
         log.info("Finding invoices before date: {}", date);
-        return invoiceRepository.findByDateBefore(date)
+        return withArchived(invoiceRepository.findByDateBefore(date), null, dayBefore(date))
                 .onItem().transform(invoices -> {
                     log.debug("Found {} invoices before date: {}", invoices.size(), date);
                     return invoices;
@@ -124,7 +198,7 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
 
     public Uni<List<Invoice>> findByDateAfter(Date date) {
         log.info("Finding invoices after date: {}", date);
-        return invoiceRepository.findByDateAfter(date)
+        return withArchived(invoiceRepository.findByDateAfter(date), dayAfter(date), null)
                 .onItem().transform(invoices -> {
                     log.debug("Found {} invoices after date: {}", invoices.size(), date);
                     return invoices;
@@ -207,7 +281,10 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
     public Uni<List<Invoice>> findByDateRangePaginated(Date startDate, Date endDate, int pageIndex, int pageSize) {
         log.info("Finding invoices by date range paginated, startDate: {}, endDate: {}, pageIndex: {}, pageSize: {}",
                 startDate, endDate, pageIndex, pageSize);
-        return invoiceRepository.findByDateRangePaginated(startDate, endDate, pageIndex, pageSize)
+        Uni<List<Invoice>> page = invoiceArchiveService.reaches(startDate)
+                ? findByDateRangePageWithArchived(startDate, endDate, pageIndex, pageSize)
+                : invoiceRepository.findByDateRangePaginated(startDate, endDate, pageIndex, pageSize);
+        return page
                 .onItem().transform(invoices -> {
                     log.debug("Found {} invoices for date range paginated query", invoices.size());
                     return invoices;
@@ -217,11 +294,12 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
                                 startDate, endDate, pageIndex, pageSize, throwable));
     }
 
-    @CacheResult(cacheName = "invoice-total-revenue-by-customer")
-    public Uni<Invoice> getTotalRevenueByCustomer(@CacheKey Customer customer) {
+    // read from the customer aggregates, which already keep every customer's invoice total
+    public Uni<BigDecimal> getTotalRevenueByCustomer(Customer customer) {
         log.info("Calculating total revenue by customer: {}", customer.getId());
-        return invoiceRepository.getTotalRevenueByCustomer(customer)
-                .onItem().transform(revenue -> {
+        return customerAggregateService.getLifetimeValue(customer.getId())
+                .onItem().transform(lifetimeValue -> {
+                    BigDecimal revenue = lifetimeValue != null ? (BigDecimal) lifetimeValue.get("revenue") : null;
                     log.debug("Total revenue for customer {}: {}", customer.getId(), revenue);
                     return revenue;
                 })
@@ -242,7 +320,12 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
 
     public Uni<Long> countByDateRange(Date startDate, Date endDate) {
         log.info("Counting invoices by date range: {} to {}", startDate, endDate);
-        return invoiceRepository.countByDateRange(startDate, endDate)
+        Uni<Long> count = invoiceRepository.countByDateRange(startDate, endDate);
+        if (invoiceArchiveService.reaches(startDate)) {
+            count = count.onItem().transformToUni(hot -> invoiceRepository.countArchivedByDateRange(startDate, endDate)
+                    .onItem().transform(archived -> hot + archived));
+        }
+        return count
                 .onItem().transform(count -> {
                     log.debug("Found {} invoices for date range: {} to {}", count, startDate, endDate);
                     return count;
@@ -319,6 +402,7 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
                 .onItem().transform(count -> {
                     log.info("Deleted {} invoices for customer: {}", count, customer.getId());
                     invalidateRelatedCaches();
+                    invalidateAggregates();
                     return count;
                 })
                 .onFailure().invoke(throwable ->
@@ -331,15 +415,47 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
                 .onItem().transform(count -> {
                     log.info("Deleted {} invoices for date range: {} to {}", count, startDate, endDate);
                     invalidateRelatedCaches();
+                    invalidateAggregates();
                     return count;
                 })
                 .onFailure().invoke(throwable ->
                         log.error("Error deleting invoices by date range: {} to {}", startDate, endDate, throwable));
     }
 
+    public Uni<BulkDeleteJob> startDeleteByCustomer(Customer customer) {
+        log.info("Starting background delete of invoices by customer: {}", customer.getId());
+        Long customerId = customer.getId();
+        return bulkDeleteJobService.start("invoices-by-customer", "customer " + customerId,
+                (afterId, limit) -> invoiceRepository.deleteChunkByCustomer(customerId, afterId, limit),
+                () -> {
+                    invalidateRelatedCaches();
+                    invalidateAggregates();
+                });
+    }
+
+    public Uni<BulkDeleteJob> startDeleteByDateRange(Date startDate, Date endDate) {
+        log.info("Starting background delete of invoices by date range: {} to {}", startDate, endDate);
+        return bulkDeleteJobService.start("invoices-by-date-range", startDate + " to " + endDate,
+                (afterId, limit) -> invoiceRepository.deleteChunkByDateRange(startDate, endDate, afterId, limit),
+                () -> {
+                    invalidateRelatedCaches();
+                    invalidateAggregates();
+                });
+    }
+
     public Uni<Integer> updateTotalAmount(Long id, BigDecimal newAmount) {
         log.info("Updating total amount for invoice id: {}, new amount: {}", id, newAmount);
-        return invoiceRepository.updateTotalAmount(id, newAmount)
+        return invoiceRepository.writeWithSnapshot(id, previous -> invoiceRepository.updateTotalAmount(id, newAmount))
+                .onItem().transform(write -> {
+                    Object[] previous = write.previous();
+                    if (write.result() > 0 && previous != null) {
+                        applyInvoiceWrite(previous,
+                                (Long) previous[0], (Long) previous[1], newAmount, (Date) previous[3]);
+                        liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_UPDATE, id,
+                                (Long) previous[0], (Long) previous[1], newAmount, (Date) previous[3]);
+                    }
+                    return write.result();
+                })
                 .onItem().transform(updatedCount -> {
                     log.info("Updated total amount for {} invoices with id: {}", updatedCount, id);
                     invalidateRelatedCaches();
@@ -369,6 +485,7 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
                 .onItem().transform(updatedCount -> {
                     log.info("Updated amounts for {} invoices with customer: {}", updatedCount, customer.getId());
                     invalidateRelatedCaches();
+                    invalidateAggregates();
                     return updatedCount;
                 })
                 .onFailure().invoke(throwable ->
@@ -412,6 +529,69 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
                         log.error("Error finding invoices without items", throwable));
     }
 
+    // today's list changes with every invoice, so only closed days are cached
+    public Uni<List<Object[]>> findTopPurchasesByDay(Date date) {
+        log.info("Finding top purchases for date: {}", date);
+        return date.toLocalDate().isBefore(LocalDate.now())
+                ? findTopPurchasesByClosedDay(date)
+                : loadTopPurchasesByDay(date);
+    }
+
+    @CacheResult(cacheName = "invoice-top-purchases-by-day")
+    Uni<List<Object[]>> findTopPurchasesByClosedDay(@CacheKey Date date) {
+        return loadTopPurchasesByDay(date);
+    }
+
+    // get_max_purchase_customers reads only the hot table, so an archived day takes the ranged query
+    private Uni<List<Object[]>> loadTopPurchasesByDay(Date date) {
+        Uni<List<Object[]>> purchases = invoiceArchiveService.reaches(date)
+                ? invoiceRepository.findTopPurchasesByDateRange(date, date)
+                : invoiceRepository.findTopPurchasesByDay(date);
+        return purchases
+                .onItem().transform(purchases -> {
+                    log.debug("Found {} top purchases for date: {}", purchases.size(), date);
+                    return purchases;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error finding top purchases for date: {}", date, throwable));
+    }
+
+    public Uni<List<Object[]>> findTopPurchasesByDateRange(Date startDate, Date endDate) {
+        log.info("Finding top purchases from {} to {}", startDate, endDate);
+        return invoiceRepository.findTopPurchasesByDateRange(startDate, endDate)
+                .onItem().transform(purchases -> {
+                    log.debug("Found {} top purchases from {} to {}", purchases.size(), startDate, endDate);
+                    return purchases;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error finding top purchases from {} to {}", startDate, endDate, throwable));
+    }
+
+    public Uni<Map<String, Object>> getAmountDistribution(Set<Long> settlementIds, YearMonth from, YearMonth to,
+                                                          List<Double> percentiles, int histogramBins) {
+        log.info("Getting invoice amount distribution for settlements: {}, months: {} to {}",
+                settlementIds, from, to);
+        return invoiceSketchService.getDistribution(settlementIds, from, to, percentiles, histogramBins)
+                .onItem().transform(distribution -> {
+                    log.debug("Merged amount distribution over {} invoices", distribution.get("count"));
+                    return distribution;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting invoice amount distribution for settlements: {}, months: {} to {}",
+                                settlementIds, from, to, throwable));
+    }
+
+    public Uni<List<Map<String, Object>>> getRevenueSeries(String unit, LocalDate from, LocalDate to) {
+        log.info("Getting {} revenue series from {} to {}", unit, from, to);
+        return revenueSeriesService.getSeries(unit, from, to)
+                .onItem().transform(series -> {
+                    log.debug("Found {} {} revenue buckets from {} to {}", series.size(), unit, from, to);
+                    return series;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting {} revenue series from {} to {}", unit, from, to, throwable));
+    }
+
     public Uni<Long> getPageCountByCustomer(Customer customer, int pageSize) {
         log.info("Calculating page count by customer: {}, page size: {}", customer.getId(), pageSize);
         return invoiceRepository.getPageCountByCustomer(customer, pageSize)
@@ -426,7 +606,10 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
 
     public Uni<Long> getPageCountByDateRange(Date startDate, Date endDate, int pageSize) {
         log.info("Calculating page count by date range: {} to {}, page size: {}", startDate, endDate, pageSize);
-        return invoiceRepository.getPageCountByDateRange(startDate, endDate, pageSize)
+        Uni<Long> pageCount = invoiceArchiveService.reaches(startDate)
+                ? countByDateRange(startDate, endDate).onItem().transform(count -> (count + pageSize - 1) / pageSize)
+                : invoiceRepository.getPageCountByDateRange(startDate, endDate, pageSize);
+        return pageCount
                 .onItem().transform(pageCount -> {
                     log.debug("Page count by date range: {} for page size: {}", pageCount, pageSize);
                     return pageCount;
@@ -441,16 +624,161 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
         log.info("Saving invoice for customer: {}, date: {}",
                 invoice.getCustomer().getId(), invoice.getInvoiceDate());
         return super.save(invoice)
-                .onItem().invoke(savedInvoice ->
-                        log.info("Successfully saved invoice with id: {}", savedInvoice.getId()));
+                .onItem().invoke(savedInvoice -> {
+                    log.info("Successfully saved invoice with id: {}", savedInvoice.getId());
+                    applyInvoiceWrite(null, savedInvoice.getSettlement().getId(), savedInvoice.getCustomer().getId(),
+                            savedInvoice.getTotalAmount(), savedInvoice.getInvoiceDate());
+                    liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_SAVE, savedInvoice);
+                });
+    }
+
+    @Override
+    public Uni<Void> saveAll(List<Invoice> invoices) {
+        return super.saveAll(invoices)
+                .onItem().invoke(() -> invoices.forEach(savedInvoice -> {
+                    applyInvoiceWrite(null, savedInvoice.getSettlement().getId(), savedInvoice.getCustomer().getId(),
+                            savedInvoice.getTotalAmount(), savedInvoice.getInvoiceDate());
+                    liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_SAVE, savedInvoice);
+                }));
+    }
+
+    public Uni<Invoice> saveWithItems(Invoice invoice, List<InvoiceItem> items) {
+        log.info("Saving invoice with {} items for customer: {}, date: {}",
+                items.size(), invoice.getCustomer().getId(), invoice.getInvoiceDate());
+        invoice.setTotalAmount(items.stream()
+                .map(item -> item.getPrice().multiply(new BigDecimal(item.getQuantity())))
+                .reduce(BigDecimal.ZERO, BigDecimal::add)
+                .setScale(2, RoundingMode.HALF_UP));
+        return invoiceRepository.saveWithItems(invoice, items)
+                .onItem().invoke(savedInvoice -> {
+                    log.info("Successfully saved invoice with id: {} and {} items", savedInvoice.getId(), items.size());
+                    invalidateRelatedCaches();
+                    invoiceItemService.scheduledCacheInvalidation();
+                    applyInvoiceWrite(null, savedInvoice.getSettlement().getId(), savedInvoice.getCustomer().getId(),
+                            savedInvoice.getTotalAmount(), savedInvoice.getInvoiceDate());
+                    liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_SAVE, savedInvoice);
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error saving invoice with {} items", items.size(), throwable));
     }
 
     @Override
     public Uni<Invoice> update(Invoice invoice) {
         log.info("Updating invoice with id: {}", invoice.getId());
-        return super.update(invoice)
-                .onItem().invoke(updatedInvoice ->
-                        log.info("Successfully updated invoice with id: {}", updatedInvoice.getId()));
+        return invoiceRepository.writeWithSnapshot(invoice.getId(), previous -> super.update(invoice))
+                .onItem().transform(write -> {
+                    Object[] previous = write.previous();
+                    Invoice updatedInvoice = write.result();
+                    log.info("Successfully updated invoice with id: {}", updatedInvoice.getId());
+                    if (previous == null
+                            || updatedInvoice.getSettlement() == null
+                            || updatedInvoice.getCustomer() == null) {
+                        invalidateAggregates();
+                    } else {
+                        applyInvoiceWrite(previous, updatedInvoice.getSettlement().getId(),
+                                updatedInvoice.getCustomer().getId(), updatedInvoice.getTotalAmount(),
+                                updatedInvoice.getInvoiceDate());
+                    }
+                    liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_UPDATE, updatedInvoice);
+                    return updatedInvoice;
+                });
+    }
+
+    @Override
+    public Uni<Invoice> patch(Long id, Map<String, Object> changes, Long expectedVersion) {
+        if (Collections.disjoint(changes.keySet(), AGGREGATE_FIELDS)) {
+            return super.patch(id, changes, expectedVersion)
+                    .onItem().invoke(patchedInvoice -> {
+                        if (patchedInvoice != null) {
+                            liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_UPDATE, patchedInvoice);
+                        }
+                    });
+        }
+        return invoiceRepository.writeWithSnapshot(id, previous -> super.patch(id, changes, expectedVersion))
+                .onItem().transform(write -> {
+                    Invoice patchedInvoice = write.result();
+                    if (patchedInvoice == null) {
+                        return null;
+                    }
+                    if (write.previous() == null
+                            || patchedInvoice.getSettlement() == null
+                            || patchedInvoice.getCustomer() == null) {
+                        invalidateAggregates();
+                    } else {
+                        applyInvoiceWrite(write.previous(), patchedInvoice.getSettlement().getId(),
+                                patchedInvoice.getCustomer().getId(), patchedInvoice.getTotalAmount(),
+                                patchedInvoice.getInvoiceDate());
+                    }
+                    liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_UPDATE, patchedInvoice);
+                    return patchedInvoice;
+                });
+    }
+
+    @Override
+    public Uni<Boolean> deleteById(Long id) {
+        return invoiceRepository.writeWithSnapshot(id, previous -> super.deleteById(id))
+                .onItem().transform(write -> {
+                    Object[] previous = write.previous();
+                    if (write.result() && previous != null) {
+                        applyInvoiceRemoval(previous);
+                        liveFeedService.publishInvoice(EntityChangeRepository.OPERATION_DELETE, id,
+                                (Long) previous[0], (Long) previous[1], (BigDecimal) previous[2], (Date) previous[3]);
+                    }
+                    return write.result();
+                });
+    }
+
+    private void applyInvoiceWrite(Object[] previous, Long settlementId, Long customerId,
+                                   BigDecimal amount, Date invoiceDate) {
+        revenueSeriesService.evict(invoiceDate);
+        evictTopPurchases(invoiceDate);
+        if (previous == null) {
+            invoiceRollupService.recordInvoice(settlementId, amount);
+            customerAggregateService.recordInvoice(customerId, amount, invoiceDate);
+            invoiceSketchService.recordInvoice(settlementId, amount, invoiceDate);
+            return;
+        }
+        if (!Objects.equals(invoiceDate, previous[3])) {
+            revenueSeriesService.evict((Date) previous[3]);
+            evictTopPurchases((Date) previous[3]);
+        }
+        invoiceRollupService.replaceInvoice((Long) previous[0], (BigDecimal) previous[2], settlementId, amount);
+        customerAggregateService.replaceInvoice((Long) previous[1], (BigDecimal) previous[2], (Date) previous[3],
+                customerId, amount, invoiceDate);
+        invoiceSketchService.replaceInvoice((Long) previous[0], (BigDecimal) previous[2], (Date) previous[3],
+                settlementId, amount, invoiceDate);
+    }
+
+    private void applyInvoiceRemoval(Object[] previous) {
+        revenueSeriesService.evict((Date) previous[3]);
+        evictTopPurchases((Date) previous[3]);
+        invoiceRollupService.removeInvoice((Long) previous[0], (BigDecimal) previous[2]);
+        customerAggregateService.removeInvoice((Long) previous[1], (BigDecimal) previous[2], (Date) previous[3]);
+        invoiceSketchService.removeInvoice((Long) previous[0], (BigDecimal) previous[2], (Date) previous[3]);
+    }
+
+    private void invalidateAggregates() {
+        invoiceRollupService.invalidate();
+        customerAggregateService.invalidate();
+        revenueSeriesService.evictAll();
+        evictTopPurchases();
+        invoiceSketchService.requestRebuild();
+    }
+
+    private void evictTopPurchases(Date invoiceDate) {
+        if (invoiceDate == null || !invoiceDate.toLocalDate().isBefore(LocalDate.now())) {
+            return;
+        }
+        topPurchasesCache.invalidate(invoiceDate)
+                .subscribe().with(
+                        ignored -> log.debug("Evicted top purchases for date: {}", invoiceDate),
+                        throwable -> log.warn("Error evicting top purchases for date: {}", invoiceDate, throwable));
+    }
+
+    // called by the customer, region and settlement services when a delete cascades to invoices
+    @CacheInvalidateAll(cacheName = "invoice-top-purchases-by-day")
+    public void evictTopPurchases() {
+        log.debug("Evicted all top purchases");
     }
 
     @Scheduled(cron = "0 0 * * * ?")
@@ -469,7 +797,6 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
     @CacheInvalidateAll(cacheName = "invoice-by-enterprise")
     @CacheInvalidateAll(cacheName = "invoice-exists-by-customer-date")
     @CacheInvalidateAll(cacheName = "invoice-exists-by-enterprise-date")
-    @CacheInvalidateAll(cacheName = "invoice-total-revenue-by-customer")
     @CacheInvalidateAll(cacheName = "invoice-average-amount")
     @CacheInvalidateAll(cacheName = "invoice-max-amount")
     @CacheInvalidateAll(cacheName = "invoice-min-amount")
@@ -480,6 +807,58 @@ public class InvoiceService extends BaseService<Invoice, InvoiceRepository> {
         log.debug("Scheduled cache invalidation for InvoiceService");
     }
 
+    // archived rows are older than every hot row in the range, so they are listed first
+    private Uni<List<Invoice>> withArchived(Uni<List<Invoice>> hot, Date startDate, Date endDate) {
+        if (!invoiceArchiveService.reaches(startDate)) {
+            return hot;
+        }
+        return hot.onItem().transformToUni(invoices -> invoiceRepository.findArchivedByDateRange(startDate, endDate)
+                .onItem().transform(archived -> {
+                    if (archived.isEmpty()) {
+                        return invoices;
+                    }
+                    log.debug("Merged {} archived invoices from {} to {}", archived.size(), startDate, endDate);
+                    List<Invoice> merged = new ArrayList<>(archived.size() + invoices.size());
+                    merged.addAll(archived);
+                    merged.addAll(invoices);
+                    return merged;
+                }));
+    }
+
+    // pages run through the archived rows of the range first and continue into the hot rows
+    private Uni<List<Invoice>> findByDateRangePageWithArchived(Date startDate, Date endDate, int pageIndex, int pageSize) {
+        long first = (long) pageIndex * pageSize;
+        return invoiceRepository.countArchivedByDateRange(startDate, endDate)
+                .onItem().transformToUni(archivedCount -> {
+                    Uni<List<Invoice>> archived = first < archivedCount
+                            ? invoiceRepository.findArchivedByDateRange(startDate, endDate, (int) first,
+                                    (int) Math.min(pageSize, archivedCount - first))
+                            : Uni.createFrom().item(List.of());
+                    return archived.onItem().transformToUni(archivedPage -> {
+                        int remaining = pageSize - archivedPage.size();
+                        if (remaining == 0) {
+                            return Uni.createFrom().item(archivedPage);
+                        }
+                        int hotFirst = (int) Math.max(0, first - archivedCount);
+                        return invoiceRepository.findByDateRangeSlice(startDate, endDate, hotFirst, hotFirst + remaining - 1)
+                                .onItem().transform(hotPage -> {
+                                    List<Invoice> page = new ArrayList<>(archivedPage.size() + hotPage.size());
+                                    page.addAll(archivedPage);
+                                    page.addAll(hotPage);
+                                    return page;
+                                });
+                    });
+                });
+    }
+
+    private static Date dayBefore(Date date) {
+        return Date.valueOf(date.toLocalDate().minusDays(1));
+    }
+
+    private static Date dayAfter(Date date) {
+        return Date.valueOf(date.toLocalDate().plusDays(1));
+    }
+
     @Override
     protected void invalidateRelatedCaches() {
         scheduledCacheInvalidation();
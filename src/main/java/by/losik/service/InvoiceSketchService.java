@@ -0,0 +1,227 @@
+package by.losik.service;
+
+import by.losik.repository.InvoiceRepository;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Percentile and histogram queries over invoice amounts, answered from one AmountSketch per
+// settlement and month. Writes through this replica are applied to the in-memory sketches at once
+// and queued as deltas; every flush interval the deltas are added to the stored sketches in one
+// transaction and the stored sketches are read back, which also brings in the other replicas'
+// deltas. Rebuilding the stored sketches from invoices is left to the scheduled flush: hourly,
+// and after writes whose amounts are unknown here, such as bulk updates and cascading deletes.
+@ApplicationScoped
+@Slf4j
+public class InvoiceSketchService {
+
+    @Inject
+    InvoiceRepository invoiceRepository;
+
+    private final Map<SketchKey, AmountSketch> sketches = new HashMap<>();
+    private final Map<SketchKey, AmountSketch> pending = new HashMap<>();
+
+    private volatile boolean loaded = false;
+    private boolean rebuildRequested = false;
+    // the flush every caller waits on, so a cold start and the scheduled flush run one at a time
+    private Uni<Void> syncing;
+
+    public Uni<Map<String, Object>> getDistribution(Set<Long> settlementIds, YearMonth from, YearMonth to,
+                                                    List<Double> percentiles, int histogramBins) {
+        return ensureLoaded().onItem().transform(ignored -> {
+            AmountSketch merged = merge(settlementIds, from, to);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", merged.count());
+            Map<String, BigDecimal> quantiles = new LinkedHashMap<>();
+            for (Double percentile : percentiles) {
+                quantiles.put("p" + BigDecimal.valueOf(percentile).stripTrailingZeros().toPlainString(),
+                        merged.quantile(percentile / 100));
+            }
+            result.put("percentiles", quantiles);
+            result.put("histogram", merged.histogram(histogramBins));
+            return result;
+        });
+    }
+
+    public synchronized void recordInvoice(Long settlementId, BigDecimal amount, Date invoiceDate) {
+        applyDelta(settlementId, amount, invoiceDate, 1);
+    }
+
+    public synchronized void removeInvoice(Long settlementId, BigDecimal amount, Date invoiceDate) {
+        applyDelta(settlementId, amount, invoiceDate, -1);
+    }
+
+    public synchronized void replaceInvoice(Long oldSettlementId, BigDecimal oldAmount, Date oldDate,
+                                            Long newSettlementId, BigDecimal newAmount, Date newDate) {
+        applyDelta(oldSettlementId, oldAmount, oldDate, -1);
+        applyDelta(newSettlementId, newAmount, newDate, 1);
+    }
+
+    // for writes whose old or new amounts are unknown; picked up by the next scheduled flush
+    public synchronized void requestRebuild() {
+        if (!rebuildRequested) {
+            log.debug("Invoice amount sketch rebuild requested");
+        }
+        rebuildRequested = true;
+    }
+
+    @Scheduled(cron = "0 0 * * * ?")
+    public void scheduledRebuild() {
+        log.debug("Scheduled rebuild of invoice amount sketches");
+        requestRebuild();
+    }
+
+    @Scheduled(every = "30s")
+    public Uni<Void> scheduledFlush() {
+        synchronized (this) {
+            if (!loaded && pending.isEmpty() && !rebuildRequested) {
+                return Uni.createFrom().voidItem();
+            }
+        }
+        return sync()
+                .onFailure().invoke(throwable -> log.warn("Error flushing invoice amount sketches", throwable))
+                .onFailure().recoverWithNull();
+    }
+
+    private Uni<Void> ensureLoaded() {
+        if (loaded) {
+            return Uni.createFrom().voidItem();
+        }
+        return sync();
+    }
+
+    private Uni<Void> sync() {
+        synchronized (this) {
+            if (syncing == null) {
+                syncing = Uni.createFrom().deferred(this::flushAndLoad)
+                        .onTermination().invoke(this::syncFinished)
+                        .memoize().indefinitely();
+            }
+            return syncing;
+        }
+    }
+
+    private synchronized void syncFinished() {
+        syncing = null;
+    }
+
+    private Uni<Void> flushAndLoad() {
+        boolean rebuild;
+        Map<SketchKey, AmountSketch> flushed;
+        synchronized (this) {
+            rebuild = rebuildRequested;
+            rebuildRequested = false;
+            flushed = new HashMap<>(pending);
+            pending.clear();
+        }
+        // deltas taken before a rebuild belong to invoices it reads anyway, unless another replica
+        // holds the rebuild lock, in which case they are merged after its rebuild commits
+        Uni<Void> write = rebuild
+                ? invoiceRepository.rebuildAmountSketches(AmountSketch.LOG_GAMMA)
+                        .onItem().transformToUni(count -> {
+                            if (count != null) {
+                                log.info("Rebuilt {} invoice amount sketches from invoices", count);
+                                return Uni.createFrom().voidItem();
+                            }
+                            log.debug("Invoice amount sketches are being rebuilt by another replica");
+                            return mergeDeltas(flushed);
+                        })
+                : mergeDeltas(flushed);
+        return write
+                .onFailure().invoke(throwable -> restore(flushed, rebuild))
+                .onItem().transformToUni(ignored -> invoiceRepository.findAmountSketches())
+                .onItem().transformToUni(rows -> !rows.isEmpty() || rebuild
+                        ? Uni.createFrom().item(rows)
+                        : seed())
+                .onItem().invoke(this::load)
+                .replaceWithVoid();
+    }
+
+    private Uni<Void> mergeDeltas(Map<SketchKey, AmountSketch> deltas) {
+        if (deltas.isEmpty()) {
+            return Uni.createFrom().voidItem();
+        }
+        List<Object[]> rows = new ArrayList<>(deltas.size());
+        deltas.forEach((key, delta) -> rows.add(new Object[]{key.settlementId, Date.valueOf(key.month.atDay(1)),
+                delta.zeroCount, delta.encodeBins()}));
+        return invoiceRepository.mergeAmountSketches(rows)
+                .onItem().invoke(merged -> log.debug("Merged {} invoice amount sketch deltas", merged))
+                .replaceWithVoid();
+    }
+
+    // an empty table on a fresh database is seeded right away rather than at the next flush
+    private Uni<List<Object[]>> seed() {
+        return invoiceRepository.rebuildAmountSketches(AmountSketch.LOG_GAMMA)
+                .onItem().invoke(count -> {
+                    if (count != null) {
+                        log.info("Seeded {} invoice amount sketches from invoices", count);
+                    }
+                })
+                .onItem().transformToUni(count -> invoiceRepository.findAmountSketches());
+    }
+
+    private synchronized void restore(Map<SketchKey, AmountSketch> flushed, boolean rebuild) {
+        flushed.forEach((key, delta) -> pending.computeIfAbsent(key, k -> new AmountSketch()).merge(delta));
+        rebuildRequested |= rebuild;
+    }
+
+    // deltas queued while the stored sketches were read are not in them yet
+    private synchronized void load(List<Object[]> rows) {
+        sketches.clear();
+        for (Object[] row : rows) {
+            SketchKey key = new SketchKey(((Number) row[0]).longValue(), YearMonth.from(LocalDate.parse((String) row[1])));
+            sketches.put(key, AmountSketch.decode(((Number) row[2]).longValue(), (String) row[3]));
+        }
+        pending.forEach((key, delta) -> sketches.computeIfAbsent(key, k -> new AmountSketch()).merge(delta));
+        loaded = true;
+        log.debug("Loaded {} invoice amount sketches", sketches.size());
+    }
+
+    private void applyDelta(Long settlementId, BigDecimal amount, Date invoiceDate, int delta) {
+        if (settlementId == null || invoiceDate == null) {
+            requestRebuild();
+            return;
+        }
+        SketchKey key = new SketchKey(settlementId, YearMonth.from(invoiceDate.toLocalDate()));
+        AmountSketch queued = pending.computeIfAbsent(key, k -> new AmountSketch());
+        queued.addDelta(amount, delta);
+        if (queued.isEmpty()) {
+            pending.remove(key);
+        }
+        // a removal this replica has not seen the addition of yet is read back at the next flush
+        if (loaded && !sketches.computeIfAbsent(key, k -> new AmountSketch()).add(amount, delta)) {
+            loaded = false;
+        }
+    }
+
+    private synchronized AmountSketch merge(Set<Long> settlementIds, YearMonth from, YearMonth to) {
+        AmountSketch merged = new AmountSketch();
+        for (Map.Entry<SketchKey, AmountSketch> entry : sketches.entrySet()) {
+            SketchKey key = entry.getKey();
+            if (!settlementIds.isEmpty() && !settlementIds.contains(key.settlementId)) {
+                continue;
+            }
+            if ((from != null && key.month.isBefore(from)) || (to != null && key.month.isAfter(to))) {
+                continue;
+            }
+            merged.merge(entry.getValue());
+        }
+        return merged;
+    }
+
+    private record SketchKey(Long settlementId, YearMonth month) {
+    }
+}
@@ -0,0 +1,202 @@
+package by.losik.service;
+
+import by.losik.dto.EntityChangeEvent;
+import by.losik.dto.InvoiceFeedEvent;
+import by.losik.dto.PriceFeedEvent;
+import by.losik.entity.Invoice;
+import by.losik.entity.PriceHistory;
+import by.losik.repository.EntityChangeRepository;
+import by.losik.repository.InvoiceRepository;
+import by.losik.repository.PriceHistoryRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.quarkus.vertx.VertxContextSupport;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import io.smallrye.mutiny.subscription.BackPressureFailure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Fans invoice and price writes out to live feed subscribers. Writes made through this replica are
+// published from the service write paths; writes made on other replicas arrive on the change stream
+// and are looked up once here, however many subscribers are connected. An item write is published
+// as an update of its invoice. Every subscriber has its own buffer of buffer-size events: one that
+// falls further behind is disconnected, to reconnect and re-read /recent, rather than holding
+// events for the others.
+@ApplicationScoped
+@Slf4j
+public class LiveFeedService {
+
+    @ConfigProperty(name = "app.live-feed.buffer-size", defaultValue = "256")
+    int bufferSize;
+
+    @Inject
+    ChangeStreamService changeStreamService;
+
+    @Inject
+    InvoiceRepository invoiceRepository;
+
+    @Inject
+    PriceHistoryRepository priceHistoryRepository;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private final BroadcastProcessor<InvoiceFeedEvent> invoices = BroadcastProcessor.create();
+    private final BroadcastProcessor<PriceFeedEvent> prices = BroadcastProcessor.create();
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    void onStart(@Observes StartupEvent event) {
+        meterRegistry.gauge("live.feed.subscribers", subscribers);
+        changeStreamService.changes()
+                .select().where(change -> !EntityChangeRepository.ORIGIN.equals(change.getOrigin())
+                        && change.getEntityId() != null)
+                .subscribe().with(this::relay,
+                        throwable -> log.error("Live feed stopped relaying remote changes", throwable));
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        invoices.onComplete();
+        prices.onComplete();
+    }
+
+    // null filters match everything
+    public Multi<InvoiceFeedEvent> invoices(Long customerId, Long settlementId) {
+        return subscribe(invoices, "invoices")
+                .select().where(invoice -> (customerId == null || customerId.equals(invoice.getCustomerId()))
+                        && (settlementId == null || settlementId.equals(invoice.getSettlementId())));
+    }
+
+    public Multi<PriceFeedEvent> prices(Long productId) {
+        return subscribe(prices, "prices")
+                .select().where(price -> productId == null || productId.equals(price.getProductId()));
+    }
+
+    public void publishInvoice(String operation, Invoice invoice) {
+        publishInvoice(operation, invoice.getId(),
+                invoice.getSettlement() != null ? invoice.getSettlement().getId() : null,
+                invoice.getCustomer() != null ? invoice.getCustomer().getId() : null,
+                invoice.getTotalAmount(), invoice.getInvoiceDate());
+    }
+
+    public void publishInvoice(String operation, Long id, Long settlementId, Long customerId,
+                               BigDecimal totalAmount, Date invoiceDate) {
+        InvoiceFeedEvent event = new InvoiceFeedEvent();
+        event.setOperation(operation);
+        event.setId(id);
+        event.setSettlementId(settlementId);
+        event.setCustomerId(customerId);
+        event.setTotalAmount(totalAmount);
+        event.setInvoiceDate(invoiceDate);
+        emit(invoices, event);
+    }
+
+    // for writes that change an invoice without touching its row, such as item writes (totals are
+    // not derived from the items); must run where the repository can open a session
+    public Uni<Void> publishInvoice(String operation, Long id) {
+        return invoiceRepository.findWriteSnapshot(id)
+                .onItem().ifNotNull().invoke(row -> publishInvoice(operation, id,
+                        (Long) row[0], (Long) row[1], (BigDecimal) row[2], (Date) row[3]))
+                .onFailure().invoke(throwable -> log.warn("Error publishing invoice {} to the live feed", id, throwable))
+                .onFailure().recoverWithNull()
+                .replaceWithVoid();
+    }
+
+    public void publishPrice(String operation, PriceHistory priceHistory) {
+        publishPrice(operation, priceHistory.getId(),
+                priceHistory.getProduct() != null ? priceHistory.getProduct().getId() : null,
+                priceHistory.getPrice(), priceHistory.getChangeDate());
+    }
+
+    public void publishPrice(String operation, Long id, Long productId, BigDecimal price, Date changeDate) {
+        PriceFeedEvent event = new PriceFeedEvent();
+        event.setOperation(operation);
+        event.setId(id);
+        event.setProductId(productId);
+        event.setPrice(price);
+        event.setChangeDate(changeDate);
+        emit(prices, event);
+    }
+
+    // for targeted updates that only know the id; must run where the repository can open a session
+    public Uni<Void> publishPrice(String operation, Long id) {
+        return priceHistoryRepository.findFeedSnapshot(id)
+                .onItem().ifNotNull().invoke(row ->
+                        publishPrice(operation, id, (Long) row[0], (BigDecimal) row[1], (Date) row[2]))
+                .onFailure().invoke(throwable -> log.warn("Error publishing price history {} to the live feed", id, throwable))
+                .onFailure().recoverWithNull()
+                .replaceWithVoid();
+    }
+
+    private <T> Multi<T> subscribe(BroadcastProcessor<T> processor, String feed) {
+        // the buffer must sit right on the processor, which fails any subscriber without demand
+        return processor
+                .onOverflow().buffer(bufferSize)
+                .onSubscription().invoke(subscription -> subscribers.incrementAndGet())
+                .onTermination().invoke(() -> subscribers.decrementAndGet())
+                .onFailure(BackPressureFailure.class).invoke(throwable -> {
+                    meterRegistry.counter("live.feed.overflowed", "feed", feed).increment();
+                    log.warn("Disconnecting {} feed subscriber that fell {} events behind", feed, bufferSize);
+                })
+                .onFailure(BackPressureFailure.class).recoverWithCompletion();
+    }
+
+    // synchronized: writes complete on different event loops and the processors need serial emits
+    private synchronized <T> void emit(BroadcastProcessor<T> processor, T event) {
+        processor.onNext(event);
+    }
+
+    private void relay(EntityChangeEvent change) {
+        Long id = change.getEntityId();
+        String operation = change.getOperation();
+        boolean deleted = EntityChangeRepository.OPERATION_DELETE.equals(operation);
+        if ("Invoice".equals(change.getEntity())) {
+            // a deleted row cannot be looked up; the references the outbox kept still let
+            // filtered subscribers see the delete
+            if (deleted) {
+                publishInvoice(operation, id, firstRef(change, "settlement"), firstRef(change, "customer"), null, null);
+                return;
+            }
+            lookUp(() -> invoiceRepository.findWriteSnapshot(id), row -> publishInvoice(operation, id,
+                    (Long) row[0], (Long) row[1], (BigDecimal) row[2], (Date) row[3]));
+        } else if ("InvoiceItem".equals(change.getEntity())) {
+            // every invoice the item belonged to before or after the write
+            for (Long invoiceId : change.refIds("invoice")) {
+                lookUp(() -> invoiceRepository.findWriteSnapshot(invoiceId), row -> publishInvoice(
+                        EntityChangeRepository.OPERATION_UPDATE, invoiceId,
+                        (Long) row[0], (Long) row[1], (BigDecimal) row[2], (Date) row[3]));
+            }
+        } else if ("PriceHistory".equals(change.getEntity())) {
+            if (deleted) {
+                publishPrice(operation, id, null, null, null);
+                return;
+            }
+            lookUp(() -> priceHistoryRepository.findFeedSnapshot(id), row -> publishPrice(operation, id,
+                    (Long) row[0], (BigDecimal) row[1], (Date) row[2]));
+        }
+    }
+
+    private static Long firstRef(EntityChangeEvent change, String relation) {
+        List<Long> ids = change.refIds(relation);
+        return ids.isEmpty() ? null : ids.get(0);
+    }
+
+    // change notifications arrive on the listener's event loop, which has no context Panache accepts
+    private void lookUp(Supplier<Uni<Object[]>> snapshot, Consumer<Object[]> publisher) {
+        VertxContextSupport.subscribe(() -> snapshot.get().toMulti(), subscription -> subscription.with(
+                publisher,
+                throwable -> log.warn("Error relaying a remote change to the live feed", throwable)));
+    }
+}
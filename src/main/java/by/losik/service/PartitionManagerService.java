@@ -0,0 +1,83 @@
+package by.losik.service;
+
+import by.losik.repository.InvoiceRepository;
+import by.losik.repository.PriceHistoryRepository;
+import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.LocalDate;
+import java.util.function.Function;
+
+// Keeps the monthly range partitions of invoices and price_history ahead of the calendar so
+// inserts never land in the default partition, and detaches months older than the retention.
+// Detached partitions stay in the schema as plain tables; nothing is dropped. The items of detached
+// invoices are moved into a table named after the partition with an _items suffix.
+@ApplicationScoped
+@Slf4j
+public class PartitionManagerService {
+
+    @ConfigProperty(name = "app.partitions.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.partitions.months-ahead", defaultValue = "3")
+    int monthsAhead;
+
+    // 0 keeps every partition attached
+    @ConfigProperty(name = "app.partitions.retention-months", defaultValue = "0")
+    int retentionMonths;
+
+    @Inject
+    InvoiceRepository invoiceRepository;
+
+    @Inject
+    PriceHistoryRepository priceHistoryRepository;
+
+    @Scheduled(every = "${app.partitions.check-interval:12h}", concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+    public Uni<Void> scheduledMaintenance() {
+        if (!enabled) {
+            return Uni.createFrom().voidItem();
+        }
+        LocalDate currentMonth = LocalDate.now().withDayOfMonth(1);
+        return maintain("invoices", currentMonth,
+                invoiceRepository::createMonthlyPartition, invoiceRepository::detachMonthlyPartitionsBefore)
+                .onItem().transformToUni(ignored -> maintain("price_history", currentMonth,
+                        priceHistoryRepository::createMonthlyPartition, priceHistoryRepository::detachMonthlyPartitionsBefore))
+                .onFailure().invoke(throwable -> log.error("Error maintaining table partitions", throwable))
+                .onFailure().recoverWithNull()
+                .replaceWithVoid();
+    }
+
+    private Uni<Void> maintain(String table, LocalDate currentMonth,
+                               Function<LocalDate, Uni<Boolean>> create,
+                               Function<LocalDate, Uni<Integer>> detach) {
+        Uni<Integer> created = Uni.createFrom().item(0);
+        for (int i = 0; i <= monthsAhead; i++) {
+            LocalDate month = currentMonth.plusMonths(i);
+            created = created.flatMap(count -> create.apply(month)
+                    .map(createdNow -> Boolean.TRUE.equals(createdNow) ? count + 1 : count));
+        }
+        return created
+                .onItem().invoke(count -> {
+                    if (count > 0) {
+                        log.info("Created {} monthly partitions of {} up to {}", count, table, currentMonth.plusMonths(monthsAhead));
+                    }
+                })
+                .onItem().transformToUni(ignored -> {
+                    if (retentionMonths <= 0) {
+                        return Uni.createFrom().item(0);
+                    }
+                    LocalDate cutoff = currentMonth.minusMonths(retentionMonths);
+                    return detach.apply(cutoff)
+                            .onItem().invoke(count -> {
+                                if (count > 0) {
+                                    log.info("Detached {} partitions of {} older than {}", count, table, cutoff);
+                                }
+                            });
+                })
+                .replaceWithVoid();
+    }
+}
@@ -2,11 +2,13 @@ package by.losik.service;
 
 import by.losik.entity.PriceHistory;
 import by.losik.entity.Product;
+import by.losik.repository.EntityChangeRepository;
 import by.losik.repository.PriceHistoryRepository;
 import io.quarkus.cache.CacheInvalidateAll;
 import io.quarkus.cache.CacheResult;
 import io.quarkus.cache.CacheKey;
 import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -20,9 +22,18 @@ import java.util.List;
 @Slf4j
 public class PriceHistoryService extends BaseService<PriceHistory, PriceHistoryRepository> {
 
+    public static final String REPRICE_PERCENT = "percent";
+    public static final String REPRICE_ABSOLUTE = "absolute";
+
     @Inject
     PriceHistoryRepository priceHistoryRepository;
 
+    @Inject
+    PriceWriteBehindService priceWriteBehindService;
+
+    @Inject
+    LiveFeedService liveFeedService;
+
     @Override
     protected String getEntityName() {
         return "PriceHistory";
@@ -62,6 +73,14 @@ public class PriceHistoryService extends BaseService<PriceHistory, PriceHistoryR
                         log.error("Error finding price histories by product id: {}", productId, throwable));
     }
 
+    // not cached: the list is unbounded and is written to the response page by page
+    public Multi<PriceHistory> streamByProductId(Long productId) {
+        log.info("Streaming price histories by product id: {}", productId);
+        return priceHistoryRepository.streamByProductId(productId, streamPageSize)
+                .onFailure().invoke(throwable ->
+                        log.error("Error streaming price histories by product id: {}", productId, throwable));
+    }
+
     @CacheResult(cacheName = "price-history-by-date")
     public Uni<List<PriceHistory>> findByChangeDate(@CacheKey Date date) {
         log.info("Finding price histories by change date: {}", date);
@@ -390,6 +409,10 @@ public class PriceHistoryService extends BaseService<PriceHistory, PriceHistoryR
     }
 
     public Uni<Integer> updatePrice(Long id, BigDecimal newPrice) {
+        if (priceWriteBehindService.isEnabled()) {
+            log.debug("Queueing price for price history id: {}, new price: {}", id, newPrice);
+            return priceWriteBehindService.queuePriceHistoryPrice(id, newPrice);
+        }
         log.info("Updating price for price history id: {}, new price: {}", id, newPrice);
         return priceHistoryRepository.updatePrice(id, newPrice)
                 .onItem().transform(updatedCount -> {
@@ -397,6 +420,9 @@ public class PriceHistoryService extends BaseService<PriceHistory, PriceHistoryR
                     invalidateRelatedCaches();
                     return updatedCount;
                 })
+                .call(updatedCount -> updatedCount > 0
+                        ? liveFeedService.publishPrice(EntityChangeRepository.OPERATION_UPDATE, id)
+                        : Uni.createFrom().voidItem())
                 .onFailure().invoke(throwable ->
                         log.error("Error updating price for price history id: {}, new price: {}",
                                 id, newPrice, throwable));
@@ -410,6 +436,9 @@ public class PriceHistoryService extends BaseService<PriceHistory, PriceHistoryR
                     invalidateRelatedCaches();
                     return updatedCount;
                 })
+                .call(updatedCount -> updatedCount > 0
+                        ? liveFeedService.publishPrice(EntityChangeRepository.OPERATION_UPDATE, id)
+                        : Uni.createFrom().voidItem())
                 .onFailure().invoke(throwable ->
                         log.error("Error updating change date for price history id: {}, new date: {}",
                                 id, newDate, throwable));
@@ -452,21 +481,64 @@ public class PriceHistoryService extends BaseService<PriceHistory, PriceHistoryR
                                 product.getId(), pageSize, throwable));
     }
 
+    public Uni<Integer> repriceProducts(Long categoryId, String manufacturer, String codePrefix,
+                                        String mode, BigDecimal value) {
+        log.info("Repricing products, category: {}, manufacturer: {}, code prefix: {}, {} change: {}",
+                categoryId, manufacturer, codePrefix, mode, value);
+        BigDecimal factor = REPRICE_PERCENT.equals(mode)
+                ? BigDecimal.ONE.add(value.movePointLeft(2))
+                : BigDecimal.ONE;
+        BigDecimal delta = REPRICE_PERCENT.equals(mode) ? BigDecimal.ZERO : value;
+        return priceHistoryRepository.repriceProducts(categoryId, manufacturer, codePrefix, factor, delta)
+                .onItem().invoke(repricedCount -> {
+                    log.info("Recorded new prices for {} products", repricedCount);
+                    if (repricedCount > 0) {
+                        invalidateRelatedCaches();
+                    }
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error repricing products, category: {}, manufacturer: {}, code prefix: {}",
+                                categoryId, manufacturer, codePrefix, throwable));
+    }
+
     @Override
     public Uni<PriceHistory> save(PriceHistory priceHistory) {
         log.info("Saving price history for product: {}, date: {}, price: {}",
                 priceHistory.getProduct().getId(), priceHistory.getChangeDate(), priceHistory.getPrice());
         return super.save(priceHistory)
-                .onItem().invoke(savedHistory ->
-                        log.info("Successfully saved price history with id: {}", savedHistory.getId()));
+                .onItem().invoke(savedHistory -> {
+                    log.info("Successfully saved price history with id: {}", savedHistory.getId());
+                    liveFeedService.publishPrice(EntityChangeRepository.OPERATION_SAVE, savedHistory);
+                });
+    }
+
+    @Override
+    public Uni<Void> saveAll(List<PriceHistory> priceHistories) {
+        return super.saveAll(priceHistories)
+                .onItem().invoke(() -> priceHistories.forEach(savedHistory ->
+                        liveFeedService.publishPrice(EntityChangeRepository.OPERATION_SAVE, savedHistory)));
     }
 
     @Override
     public Uni<PriceHistory> update(PriceHistory priceHistory) {
         log.info("Updating price history with id: {}", priceHistory.getId());
         return super.update(priceHistory)
-                .onItem().invoke(updatedHistory ->
-                        log.info("Successfully updated price history with id: {}", updatedHistory.getId()));
+                .onItem().invoke(updatedHistory -> {
+                    log.info("Successfully updated price history with id: {}", updatedHistory.getId());
+                    liveFeedService.publishPrice(EntityChangeRepository.OPERATION_UPDATE, updatedHistory);
+                });
+    }
+
+    @Override
+    public Uni<Boolean> deleteById(Long id) {
+        return priceHistoryRepository.findFeedSnapshot(id)
+                .onItem().transformToUni(previous -> super.deleteById(id)
+                        .onItem().invoke(deleted -> {
+                            if (deleted && previous != null) {
+                                liveFeedService.publishPrice(EntityChangeRepository.OPERATION_DELETE, id,
+                                        (Long) previous[0], (BigDecimal) previous[1], (Date) previous[2]);
+                            }
+                        }));
     }
 
     @Scheduled(cron = "0 0 * * * ?")
@@ -0,0 +1,224 @@
+package by.losik.service;
+
+import by.losik.repository.EntityChangeRepository;
+import by.losik.repository.InvoiceItemRepository;
+import by.losik.repository.PriceHistoryRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.vertx.VertxContextSupport;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Opt-in write-behind for price updates. An accepted update is acknowledged before it is durable:
+// it reaches the database on the next flush (every flush-interval or batch-size entries, and on
+// graceful shutdown), so a crash loses at most one flush interval of updates. Repeated updates of
+// the same row inside one interval are coalesced and only the latest price is written.
+@ApplicationScoped
+@Slf4j
+public class PriceWriteBehindService {
+
+    // returned for a price taken into the buffer: whether the row exists is only known at the flush
+    public static final int QUEUED = -1;
+
+    @ConfigProperty(name = "app.price-write-behind.enabled", defaultValue = "false")
+    boolean enabled;
+
+    @ConfigProperty(name = "app.price-write-behind.capacity", defaultValue = "10000")
+    int capacity;
+
+    @ConfigProperty(name = "app.price-write-behind.batch-size", defaultValue = "500")
+    int batchSize;
+
+    @Inject
+    InvoiceItemRepository invoiceItemRepository;
+
+    @Inject
+    PriceHistoryRepository priceHistoryRepository;
+
+    @Inject
+    InvoiceItemService invoiceItemService;
+
+    @Inject
+    PriceHistoryService priceHistoryService;
+
+    @Inject
+    LiveFeedService liveFeedService;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private PriceBuffer invoiceItemPrices;
+    private PriceBuffer priceHistoryPrices;
+
+    @PostConstruct
+    void init() {
+        invoiceItemPrices = new PriceBuffer("invoice_item", prices ->
+                invoiceItemRepository.updatePrices(prices)
+                        .onItem().invoke(updated -> invoiceItemService.invalidateRelatedCaches())
+                        .call(updated -> updated > 0
+                                ? invoiceItemService.publishInvoicesOfItems(prices.keySet())
+                                : Uni.createFrom().voidItem()));
+        priceHistoryPrices = new PriceBuffer("price_history", prices ->
+                priceHistoryRepository.updatePrices(prices)
+                        .onItem().invoke(updated -> priceHistoryService.invalidateRelatedCaches())
+                        .call(updated -> updated > 0 ? publishPrices(prices.keySet()) : Uni.createFrom().voidItem()));
+    }
+
+    // ids that matched no row are skipped by the lookup behind each event
+    private Uni<Void> publishPrices(Collection<Long> ids) {
+        Uni<Void> published = Uni.createFrom().voidItem();
+        for (Long id : ids) {
+            published = published.call(() -> liveFeedService.publishPrice(EntityChangeRepository.OPERATION_UPDATE, id));
+        }
+        return published;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Uni<Integer> queueInvoiceItemPrice(Long id, BigDecimal price) {
+        return invoiceItemPrices.offer(id, price);
+    }
+
+    public Uni<Integer> queuePriceHistoryPrice(Long id, BigDecimal price) {
+        return priceHistoryPrices.offer(id, price);
+    }
+
+    @Scheduled(every = "${app.price-write-behind.flush-interval:200ms}")
+    public Uni<Void> scheduledFlush() {
+        if (!enabled) {
+            return Uni.createFrom().voidItem();
+        }
+        return Uni.join().all(invoiceItemPrices.flush(), priceHistoryPrices.flush())
+                .andCollectFailures()
+                .replaceWithVoid();
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (!enabled) {
+            return;
+        }
+        log.info("Flushing {} buffered invoice item prices and {} buffered price history prices before shutdown",
+                invoiceItemPrices.size(), priceHistoryPrices.size());
+        try {
+            VertxContextSupport.subscribeAndAwait(this::scheduledFlush);
+        } catch (Throwable throwable) {
+            log.error("Error flushing buffered prices before shutdown", throwable);
+        }
+    }
+
+    private class PriceBuffer {
+        private final String target;
+        private final Function<Map<Long, BigDecimal>, Uni<Integer>> writer;
+        private final Counter coalesced;
+        private final Counter overflowed;
+        private final Counter written;
+        private final Counter unmatched;
+        private final Timer flushLatency;
+
+        private Map<Long, BigDecimal> pending = new LinkedHashMap<>();
+        private Uni<Void> inFlight;
+
+        PriceBuffer(String target, Function<Map<Long, BigDecimal>, Uni<Integer>> writer) {
+            this.target = target;
+            this.writer = writer;
+            Gauge.builder("price.write.behind.queue.depth", this, PriceBuffer::size)
+                    .tag("target", target)
+                    .register(meterRegistry);
+            coalesced = meterRegistry.counter("price.write.behind.coalesced", "target", target);
+            overflowed = meterRegistry.counter("price.write.behind.overflowed", "target", target);
+            written = meterRegistry.counter("price.write.behind.written", "target", target);
+            unmatched = meterRegistry.counter("price.write.behind.unmatched", "target", target);
+            flushLatency = meterRegistry.timer("price.write.behind.flush", "target", target);
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        Uni<Integer> offer(Long id, BigDecimal price) {
+            boolean accepted = true;
+            boolean flushNow = false;
+            synchronized (this) {
+                if (pending.containsKey(id)) {
+                    coalesced.increment();
+                    pending.put(id, price);
+                } else if (pending.size() < capacity) {
+                    pending.put(id, price);
+                    flushNow = pending.size() >= batchSize;
+                } else {
+                    overflowed.increment();
+                    accepted = false;
+                }
+            }
+            if (flushNow) {
+                flush().subscribe().with(ignored -> { }, throwable -> { });
+            }
+            if (accepted) {
+                return Uni.createFrom().item(QUEUED);
+            }
+            // buffer full: wait for the in-flight batch so an older buffered price cannot overwrite this one
+            log.warn("Price write-behind buffer for {} is full, writing price for id {} through", target, id);
+            return flush().onItem().transformToUni(ignored -> writer.apply(Map.of(id, price)));
+        }
+
+        Uni<Void> flush() {
+            Map<Long, BigDecimal> batch;
+            synchronized (this) {
+                if (inFlight != null) {
+                    return inFlight;
+                }
+                if (pending.isEmpty()) {
+                    return Uni.createFrom().voidItem();
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                long start = System.nanoTime();
+                inFlight = writer.apply(batch)
+                        .onItem().invoke(updated -> {
+                            written.increment(updated);
+                            if (updated < batch.size()) {
+                                unmatched.increment(batch.size() - updated);
+                            }
+                            log.debug("Flushed {} buffered {} prices, {} rows updated", batch.size(), target, updated);
+                        })
+                        .onFailure().invoke(throwable -> {
+                            log.error("Error flushing {} buffered {} prices, requeueing", batch.size(), target, throwable);
+                            requeue(batch);
+                        })
+                        .onFailure().recoverWithNull()
+                        .onTermination().invoke(() -> {
+                            flushLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                            synchronized (this) {
+                                inFlight = null;
+                            }
+                        })
+                        .replaceWithVoid()
+                        .memoize().indefinitely();
+                return inFlight;
+            }
+        }
+
+        private synchronized void requeue(Map<Long, BigDecimal> batch) {
+            // prices offered after the failed batch was taken are newer and win
+            batch.forEach(pending::putIfAbsent);
+        }
+    }
+}
@@ -1,26 +1,52 @@
 package by.losik.service;
 
+import by.losik.dto.BulkDeleteJob;
 import by.losik.entity.Product;
 import by.losik.repository.ProductRepository;
+import io.quarkus.cache.Cache;
 import io.quarkus.cache.CacheInvalidateAll;
+import io.quarkus.cache.CacheName;
 import io.quarkus.cache.CacheResult;
 import io.quarkus.cache.CacheKey;
 import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @ApplicationScoped
 @Slf4j
 public class ProductService extends BaseService<Product, ProductRepository> {
 
+    // 4 bind parameters per row keeps a chunk well below the PostgreSQL limit of 32767
+    private static final int UPSERT_CHUNK_SIZE = 1000;
+
     @Inject
     ProductRepository productRepository;
 
+    @Inject
+    BulkDeleteJobService bulkDeleteJobService;
+
+    @Inject
+    @CacheName("product-by-code")
+    Cache productByCodeCache;
+
+    @Inject
+    @CacheName("product-exists-by-code")
+    Cache productExistsByCodeCache;
+
+    @Inject
+    @CacheName("by-id")
+    Cache byIdCache;
+
     @Override
     protected String getEntityName() {
         return "Product";
@@ -182,6 +208,34 @@ public class ProductService extends BaseService<Product, ProductRepository> {
                         log.info("Successfully saved product: {} with id: {}", savedProduct.getName(), savedProduct.getId()));
     }
 
+    public Uni<Integer> upsertByCode(List<Product> products) {
+        // a code may appear only once per statement, the last occurrence wins
+        Map<String, Product> byCode = new LinkedHashMap<>();
+        for (Product product : products) {
+            byCode.put(product.getCode(), product);
+        }
+        List<Product> distinct = new ArrayList<>(byCode.values());
+        List<List<Product>> chunks = new ArrayList<>();
+        for (int i = 0; i < distinct.size(); i += UPSERT_CHUNK_SIZE) {
+            chunks.add(distinct.subList(i, Math.min(i + UPSERT_CHUNK_SIZE, distinct.size())));
+        }
+        log.info("Upserting {} products by code in {} chunks", distinct.size(), chunks.size());
+
+        return Multi.createFrom().iterable(chunks)
+                .onItem().transformToUniAndConcatenate(chunk -> productRepository.upsertByCode(chunk)
+                        .onItem().invoke(this::evictUpserted)
+                        .onItem().transform(List::size))
+                .collect().with(Collectors.summingInt(Integer::intValue))
+                .onItem().invoke(changed -> {
+                    log.info("Upserted {} products, {} inserted or changed", distinct.size(), changed);
+                    if (changed > 0) {
+                        invalidateListCaches();
+                    }
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error upserting {} products by code", distinct.size(), throwable));
+    }
+
     public Uni<Integer> updateProductCode(Long id, String newCode) {
         log.info("Updating product code for id: {}, new code: {}", id, newCode);
         return productRepository.updateProductCode(id, newCode)
@@ -218,6 +272,13 @@ public class ProductService extends BaseService<Product, ProductRepository> {
                         log.error("Error deleting products by category: {}", categoryId, throwable));
     }
 
+    public Uni<BulkDeleteJob> startDeleteByCategory(Long categoryId) {
+        log.info("Starting background delete of products by category: {}", categoryId);
+        return bulkDeleteJobService.start("products-by-category", "category " + categoryId,
+                (afterId, limit) -> productRepository.deleteChunkByCategory(categoryId, afterId, limit),
+                this::invalidateRelatedCaches);
+    }
+
     public Uni<Long> deleteByManufacturer(String manufacturer) {
         log.info("Deleting products by manufacturer: {}", manufacturer);
         return productRepository.deleteByManufacturer(manufacturer)
@@ -247,6 +308,39 @@ public class ProductService extends BaseService<Product, ProductRepository> {
         log.debug("Scheduled cache invalidation for ProductService");
     }
 
+    @CacheInvalidateAll(cacheName = "product-all-sorted")
+    @CacheInvalidateAll(cacheName = "product-count-all")
+    @CacheInvalidateAll(cacheName = "product-by-category")
+    @CacheInvalidateAll(cacheName = "product-by-manufacturer")
+    @CacheInvalidateAll(cacheName = "product-search")
+    @CacheInvalidateAll(cacheName = "product-exists-by-name-manufacturer")
+    public void invalidateListCaches() {
+        log.debug("Invalidating product list caches");
+    }
+
+    // only the keys of rows the upsert actually inserted or changed are evicted
+    private void evictUpserted(List<Object[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        List<Uni<Void>> invalidations = new ArrayList<>(rows.size() * 3 + 1);
+        String[] multiGetKeys = new String[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            String code = (String) row[1];
+            long id = ((Number) row[0]).longValue();
+            invalidations.add(productByCodeCache.invalidate(code));
+            invalidations.add(productExistsByCodeCache.invalidate(code));
+            invalidations.add(byIdCache.invalidate(id));
+            multiGetKeys[i] = multiGetKey(id);
+        }
+        invalidations.add(redis.key().del(multiGetKeys).replaceWithVoid());
+        Uni.join().all(invalidations).andCollectFailures()
+                .subscribe().with(
+                        ignored -> log.debug("Evicted cache entries for {} upserted products", rows.size()),
+                        throwable -> log.warn("Error evicting cache entries for {} upserted products", rows.size(), throwable));
+    }
+
     @Override
     protected void invalidateRelatedCaches() {
         scheduledCacheInvalidation();
@@ -12,6 +12,7 @@ import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.List;
+import java.util.Map;
 
 @ApplicationScoped
 @Slf4j
@@ -20,6 +21,18 @@ public class RegionService extends BaseService<Region, RegionRepository> {
     @Inject
     RegionRepository regionRepository;
 
+    @Inject
+    InvoiceRollupService invoiceRollupService;
+
+    @Inject
+    RevenueSeriesService revenueSeriesService;
+
+    @Inject
+    InvoiceService invoiceService;
+
+    @Inject
+    CustomerAggregateService customerAggregateService;
+
     @Override
     protected String getEntityName() {
         return "Region";
@@ -180,6 +193,7 @@ public class RegionService extends BaseService<Region, RegionRepository> {
                 .onItem().invoke(count -> {
                     if (count > 0) {
                         invalidateRelatedCaches();
+                        invalidateCascadedInvoices();
                     }
                 })
                 .onFailure().invoke(throwable ->
@@ -212,7 +226,7 @@ public class RegionService extends BaseService<Region, RegionRepository> {
 
     public Uni<List<Object[]>> getSettlementCountByRegion() {
         log.info("Getting settlement count by region");
-        return regionRepository.getSettlementCountByRegion()
+        return invoiceRollupService.getSettlementCountByRegion()
                 .onItem().transform(results -> {
                     log.debug("Found settlement count for {} regions", results.size());
                     return results;
@@ -221,6 +235,73 @@ public class RegionService extends BaseService<Region, RegionRepository> {
                         log.error("Error getting settlement count by region", throwable));
     }
 
+    public Uni<List<Map<String, Object>>> getCountryRollup() {
+        log.info("Getting invoice rollup by country");
+        return invoiceRollupService.getCountryRollup()
+                .onItem().transform(results -> {
+                    log.debug("Found invoice rollup for {} countries", results.size());
+                    return results;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting invoice rollup by country", throwable));
+    }
+
+    public Uni<List<Map<String, Object>>> getRegionRollup(String country) {
+        log.info("Getting invoice rollup by region for country: {}", country);
+        return invoiceRollupService.getRegionRollup(country)
+                .onItem().transform(results -> {
+                    log.debug("Found invoice rollup for {} regions in country: {}", results.size(), country);
+                    return results;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting invoice rollup by region for country: {}", country, throwable));
+    }
+
+    public Uni<List<Map<String, Object>>> getSettlementRollup(Long regionId) {
+        log.info("Getting invoice rollup by settlement for region id: {}", regionId);
+        return invoiceRollupService.getSettlementRollup(regionId)
+                .onItem().transform(results -> {
+                    log.debug("Found invoice rollup for {} settlements in region id: {}", results.size(), regionId);
+                    return results;
+                })
+                .onFailure().invoke(throwable ->
+                        log.error("Error getting invoice rollup by settlement for region id: {}", regionId, throwable));
+    }
+
+    // settlements reference regions ON DELETE CASCADE and invoices settlements, so a deleted region
+    // takes its invoices along
+    @Override
+    public Uni<Boolean> delete(Region region) {
+        return super.delete(region)
+                .onItem().invoke(deleted -> invalidateCascadedInvoices());
+    }
+
+    @Override
+    public Uni<Boolean> deleteById(Long id) {
+        return super.deleteById(id)
+                .onItem().invoke(deleted -> {
+                    if (deleted) {
+                        invalidateCascadedInvoices();
+                    }
+                });
+    }
+
+    @Override
+    public Uni<Long> deleteByName(String name) {
+        return super.deleteByName(name)
+                .onItem().invoke(count -> {
+                    if (count > 0) {
+                        invalidateCascadedInvoices();
+                    }
+                });
+    }
+
+    private void invalidateCascadedInvoices() {
+        customerAggregateService.invalidate();
+        revenueSeriesService.evictAll();
+        invoiceService.evictTopPurchases();
+    }
+
     @Scheduled(cron = "0 0 * * * ?")
     @CacheInvalidateAll(cacheName = "region-by-id")
     @CacheInvalidateAll(cacheName = "region-by-name")
@@ -239,5 +320,6 @@ public class RegionService extends BaseService<Region, RegionRepository> {
     @Override
     protected void invalidateRelatedCaches() {
         scheduledCacheInvalidation();
+        invoiceRollupService.invalidate();
     }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package by.losik.service;
+
+import by.losik.repository.InvoiceRepository;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@ApplicationScoped
+@Slf4j
+public class RevenueSeriesService {
+
+    public static final List<String> UNITS = List.of("day", "week", "month");
+
+    private static final String EMPTY_BUCKET = "0:0";
+    private static final String VERSION_PREFIX = "invoice-revenue-bucket-version:";
+    private static final String EPOCH_KEY = VERSION_PREFIX + "all";
+
+    @Inject
+    InvoiceRepository invoiceRepository;
+
+    @Inject
+    ReactiveRedisDataSource redis;
+
+    @Inject
+    @CacheName("invoice-revenue-bucket")
+    Cache bucketCache;
+
+    public Uni<List<Map<String, Object>>> getSeries(String unit, LocalDate from, LocalDate to) {
+        LocalDate currentBucket = truncate(unit, LocalDate.now());
+        List<LocalDate> buckets = new ArrayList<>();
+        for (LocalDate bucket = truncate(unit, from); !bucket.isAfter(to); bucket = next(unit, bucket)) {
+            buckets.add(bucket);
+        }
+
+        List<String> versionKeys = new ArrayList<>(buckets.size() + 1);
+        versionKeys.add(EPOCH_KEY);
+        for (LocalDate bucket : buckets) {
+            if (bucket.isBefore(currentBucket)) {
+                versionKeys.add(versionKey(unit, bucket));
+            }
+        }
+        return redis.value(String.class).mget(versionKeys.toArray(String[]::new))
+                .onItem().transformToUni(versions -> getSeries(unit, buckets, currentBucket, versions));
+    }
+
+    private Uni<List<Map<String, Object>>> getSeries(String unit, List<LocalDate> buckets, LocalDate currentBucket,
+                                                     Map<String, String> versions) {
+        // one range query backs every closed-bucket miss and is never subscribed when all of them hit
+        LocalDate rangeEnd = next(unit, buckets.get(buckets.size() - 1));
+        LocalDate closedEnd = rangeEnd.isBefore(currentBucket) ? rangeEnd : currentBucket;
+        Uni<Map<LocalDate, String>> closedRange = load(unit, buckets.get(0), closedEnd).memoize().indefinitely();
+        Uni<Map<LocalDate, String>> currentRange = load(unit, currentBucket, next(unit, currentBucket));
+
+        String epoch = version(versions, EPOCH_KEY);
+        List<Uni<String>> values = new ArrayList<>(buckets.size());
+        for (LocalDate bucket : buckets) {
+            if (bucket.isBefore(currentBucket)) {
+                String version = epoch + "." + version(versions, versionKey(unit, bucket));
+                values.add(bucketCache.getAsync(key(unit, bucket, version),
+                        k -> closedRange.onItem().transform(rows -> rows.getOrDefault(bucket, EMPTY_BUCKET))));
+            } else if (bucket.equals(currentBucket)) {
+                values.add(currentRange.onItem().transform(rows -> rows.getOrDefault(bucket, EMPTY_BUCKET)));
+            } else {
+                values.add(Uni.createFrom().item(EMPTY_BUCKET));
+            }
+        }
+
+        return Uni.join().all(values).andFailFast()
+                .onItem().transform(encoded -> {
+                    List<Map<String, Object>> series = new ArrayList<>(buckets.size());
+                    for (int i = 0; i < buckets.size(); i++) {
+                        String[] parts = encoded.get(i).split(":");
+                        Map<String, Object> row = new LinkedHashMap<>();
+                        row.put("bucket", buckets.get(i).toString());
+                        row.put("invoiceCount", Long.parseLong(parts[0]));
+                        row.put("revenue", new BigDecimal(parts[1]));
+                        series.add(row);
+                    }
+                    return series;
+                });
+    }
+
+    // Evicting bumps the bucket's version, which is part of its cache key: a load that read the
+    // bucket before the write and stores after the eviction lands under the old version, which no
+    // reader asks for again. Superseded entries age out with the cache's expire-after-write.
+    public void evict(Date invoiceDate) {
+        if (invoiceDate == null) {
+            return;
+        }
+        LocalDate date = invoiceDate.toLocalDate();
+        List<Uni<Void>> invalidations = new ArrayList<>(UNITS.size());
+        for (String unit : UNITS) {
+            invalidations.add(redis.value(String.class).incr(versionKey(unit, truncate(unit, date))).replaceWithVoid());
+        }
+        Uni.join().all(invalidations).andCollectFailures()
+                .subscribe().with(
+                        ignored -> log.debug("Evicted revenue buckets for date: {}", date),
+                        throwable -> log.warn("Error evicting revenue buckets for date: {}", date, throwable));
+    }
+
+    // for writes whose invoice dates are unknown, such as deletes cascading from a customer
+    public void evictAll() {
+        Uni.join().all(redis.value(String.class).incr(EPOCH_KEY).replaceWithVoid(), bucketCache.invalidateAll())
+                .andCollectFailures()
+                .subscribe().with(
+                        ignored -> log.debug("Evicted all revenue buckets"),
+                        throwable -> log.warn("Error evicting all revenue buckets", throwable));
+    }
+
+    private Uni<Map<LocalDate, String>> load(String unit, LocalDate from, LocalDate to) {
+        if (!from.isBefore(to)) {
+            return Uni.createFrom().item(Map.of());
+        }
+        return invoiceRepository.getRevenueSeries(unit, Date.valueOf(from), Date.valueOf(to))
+                .onItem().transform(rows -> {
+                    Map<LocalDate, String> buckets = new HashMap<>();
+                    for (Object[] row : rows) {
+                        BigDecimal revenue = new BigDecimal(row[2].toString());
+                        buckets.put(LocalDate.parse((String) row[0]),
+                                ((Number) row[1]).longValue() + ":" + revenue.toPlainString());
+                    }
+                    log.debug("Loaded {} {} revenue buckets from {} to {}", buckets.size(), unit, from, to);
+                    return buckets;
+                });
+    }
+
+    private static String key(String unit, LocalDate bucket, String version) {
+        return unit + ":" + bucket + ":" + version;
+    }
+
+    private static String versionKey(String unit, LocalDate bucket) {
+        return VERSION_PREFIX + unit + ":" + bucket;
+    }
+
+    // buckets that were never evicted have no version key yet
+    private static String version(Map<String, String> versions, String versionKey) {
+        String version = versions.get(versionKey);
+        return version != null ? version : "0";
+    }
+
+    private static LocalDate truncate(String unit, LocalDate date) {
+        return switch (unit) {
+            case "week" -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case "month" -> date.withDayOfMonth(1);
+            default -> date;
+        };
+    }
+
+    private static LocalDate next(String unit, LocalDate bucket) {
+        return switch (unit) {
+            case "week" -> bucket.plusWeeks(1);
+            case "month" -> bucket.plusMonths(1);
+            default -> bucket.plusDays(1);
+        };
+    }
+}
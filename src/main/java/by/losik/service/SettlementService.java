@@ -20,6 +20,18 @@ public class SettlementService extends BaseService<Settlement, SettlementReposit
     @Inject
     SettlementRepository settlementRepository;
 
+    @Inject
+    InvoiceRollupService invoiceRollupService;
+
+    @Inject
+    RevenueSeriesService revenueSeriesService;
+
+    @Inject
+    InvoiceService invoiceService;
+
+    @Inject
+    CustomerAggregateService customerAggregateService;
+
     @Override
     protected String getEntityName() {
         return "Settlement";
@@ -147,7 +159,8 @@ public class SettlementService extends BaseService<Settlement, SettlementReposit
         return settlementRepository.updateSettlementRegion(id, newRegionId)
                 .onItem().invoke(updatedCount -> {
                     if (updatedCount > 0) {
-                        invalidateRelatedCaches();
+                        scheduledCacheInvalidation();
+                        invoiceRollupService.moveSettlement(id, newRegionId);
                     }
                 })
                 .onFailure().invoke(throwable ->
@@ -161,6 +174,7 @@ public class SettlementService extends BaseService<Settlement, SettlementReposit
                 .onItem().invoke(count -> {
                     if (count > 0) {
                         invalidateRelatedCaches();
+                        invalidateCascadedInvoices();
                     }
                 })
                 .onFailure().invoke(throwable ->
@@ -172,7 +186,8 @@ public class SettlementService extends BaseService<Settlement, SettlementReposit
         return settlementRepository.bulkUpdateRegionForSettlements(fromRegionId, toRegionId)
                 .onItem().invoke(updatedCount -> {
                     if (updatedCount > 0) {
-                        invalidateRelatedCaches();
+                        scheduledCacheInvalidation();
+                        invoiceRollupService.moveSettlements(fromRegionId, toRegionId);
                     }
                 })
                 .onFailure().invoke(throwable ->
@@ -215,7 +230,7 @@ public class SettlementService extends BaseService<Settlement, SettlementReposit
 
     public Uni<List<Object[]>> getSettlementInvoiceStats() {
         log.info("Getting settlement invoice statistics");
-        return settlementRepository.getSettlementInvoiceStats()
+        return invoiceRollupService.getSettlementInvoiceStats()
                 .onItem().transform(results -> {
                     log.debug("Found invoice stats for {} settlements", results.size());
                     return results;
@@ -224,6 +239,39 @@ public class SettlementService extends BaseService<Settlement, SettlementReposit
                         log.error("Error getting settlement invoice statistics", throwable));
     }
 
+    // invoices reference settlements ON DELETE CASCADE, so a deleted settlement takes its invoices along
+    @Override
+    public Uni<Boolean> delete(Settlement settlement) {
+        return super.delete(settlement)
+                .onItem().invoke(deleted -> invalidateCascadedInvoices());
+    }
+
+    @Override
+    public Uni<Boolean> deleteById(Long id) {
+        return super.deleteById(id)
+                .onItem().invoke(deleted -> {
+                    if (deleted) {
+                        invalidateCascadedInvoices();
+                    }
+                });
+    }
+
+    @Override
+    public Uni<Long> deleteByName(String name) {
+        return super.deleteByName(name)
+                .onItem().invoke(count -> {
+                    if (count > 0) {
+                        invalidateCascadedInvoices();
+                    }
+                });
+    }
+
+    private void invalidateCascadedInvoices() {
+        customerAggregateService.invalidate();
+        revenueSeriesService.evictAll();
+        invoiceService.evictTopPurchases();
+    }
+
     @Scheduled(cron = "0 0 * * * ?")
     @CacheInvalidateAll(cacheName = "settlement-by-id")
     @CacheInvalidateAll(cacheName = "settlement-by-name")
@@ -241,5 +289,6 @@ public class SettlementService extends BaseService<Settlement, SettlementReposit
     @Override
     protected void invalidateRelatedCaches() {
         scheduledCacheInvalidation();
+        invoiceRollupService.invalidate();
     }
 }
\ No newline at end of file
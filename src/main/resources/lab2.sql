@@ -325,44 +325,51 @@ $$ language plpgsql;
 
 create or replace function update_invoice_total()
     returns trigger as $$
-declare
-    target_invoice_id integer;
 begin
     if tg_op = 'INSERT' then
-        target_invoice_id := NEW.invoice_id;
+        update invoices i
+        set total_amount = (
+            select coalesce(sum(quantity * price), 0)
+            from invoice_items
+            where invoice_id = i.id
+        )
+        where i.id in (select distinct invoice_id from new_items);
     elsif tg_op = 'UPDATE' then
-        IF NEW.invoice_id != OLD.invoice_id THEN
-            update invoices
-            set total_amount = (
-                select coalesce(sum(quantity * price), 0)
-                from invoice_items
-                where invoice_id = OLD.invoice_id
-            )
-            where id = OLD.invoice_id;
-
-            target_invoice_id := NEW.invoice_id;
-        else
-            target_invoice_id := NEW.invoice_id;
-        end if;
+        update invoices i
+        set total_amount = (
+            select coalesce(sum(quantity * price), 0)
+            from invoice_items
+            where invoice_id = i.id
+        )
+        where i.id in (select invoice_id from old_items union select invoice_id from new_items);
     elsif tg_op = 'DELETE' then
-        target_invoice_id := OLD.invoice_id;
+        update invoices i
+        set total_amount = (
+            select coalesce(sum(quantity * price), 0)
+            from invoice_items
+            where invoice_id = i.id
+        )
+        where i.id in (select distinct invoice_id from old_items);
     end if;
 
-    update invoices
-    set total_amount = (
-        select coalesce(sum(quantity * price), 0)
-        from invoice_items
-        where invoice_id = target_invoice_id
-    )
-    where id = target_invoice_id;
-
-    return coalesce(new, old);
+    return null;
 end;
 $$ language plpgsql;
 
-create trigger trigger_update_invoice_total
-    after insert or update or delete on invoice_items
-    for each row execute function update_invoice_total();
+create trigger trigger_update_invoice_total_insert
+    after insert on invoice_items
+    referencing new table as new_items
+    for each statement execute function update_invoice_total();
+
+create trigger trigger_update_invoice_total_update
+    after update on invoice_items
+    referencing old table as old_items new table as new_items
+    for each statement execute function update_invoice_total();
+
+create trigger trigger_update_invoice_total_delete
+    after delete on invoice_items
+    referencing old table as old_items
+    for each statement execute function update_invoice_total();
 
 create or replace function record_price_history()
     returns trigger as $$
@@ -406,7 +413,9 @@ execute function record_price_history();
 -- deallocate insert_price_history;
 -- drop publication if exists lab_publication;
 -- drop trigger if exists trigger_record_price_history on invoice_items;
--- drop trigger if exists trigger_update_invoice_total on invoice_items;
+-- drop trigger if exists trigger_update_invoice_total_insert on invoice_items;
+-- drop trigger if exists trigger_update_invoice_total_update on invoice_items;
+-- drop trigger if exists trigger_update_invoice_total_delete on invoice_items;
 -- drop function if exists update_invoice_total();
 -- drop function if exists record_price_history();
 -- drop function if exists get_categories();
@@ -0,0 +1,58 @@
+package by.losik.filter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    void rejectsAboveLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(2, 1, 10, 0.2, 1.5);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        limiter.release(10 * MILLIS);
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void growsWhileLatencyIsFlat() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(10, 5, 100, 0.2, 1.5);
+
+        saturate(limiter, 10 * MILLIS, 50);
+
+        assertTrue(limiter.getLimit() > 10);
+    }
+
+    @Test
+    void shrinksWhenLatencyRises() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(50, 5, 100, 0.2, 1.5);
+
+        saturate(limiter, 10 * MILLIS, 20);
+        int before = limiter.getLimit();
+        saturate(limiter, 200 * MILLIS, 1);
+
+        assertTrue(limiter.getLimit() < before);
+        assertEquals(1, limiter.retryAfterSeconds());
+    }
+
+    // fills the limiter to its limit, then releases everything with the given latency
+    private static void saturate(AdaptiveLimiter limiter, long rttNanos, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int acquired = 0;
+            while (limiter.tryAcquire()) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(rttNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package by.losik.filter;
+
+import by.losik.configuration.RequestDeadline;
+import by.losik.dto.BulkRepriceRequest;
+import by.losik.resource.PriceHistoryResource;
+import by.losik.resource.ProductResource;
+import io.smallrye.common.vertx.VertxContext;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ResourceInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DeadlineFilterTest {
+
+    private Vertx vertx;
+    private ResourceInfo resourceInfo;
+    private DeadlineFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        resourceInfo = mock(ResourceInfo.class);
+        filter = new DeadlineFilter();
+        filter.enabled = true;
+        filter.budgetMillis = 5000;
+        filter.resourceInfo = resourceInfo;
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    void methodTimeoutWinsOverTheClassTimeout() throws Exception {
+        assertEquals(120000, filter.endpointBudgetMillis(ProductResource.class.getMethod("upsertProducts", List.class)));
+        assertEquals(5000, filter.endpointBudgetMillis(ProductResource.class.getMethod("getProductById", Long.class)));
+    }
+
+    @Test
+    void configuredBudgetAppliesWithoutAnEndpoint() {
+        filter.budgetMillis = 2000;
+
+        assertEquals(2000, filter.endpointBudgetMillis(null));
+    }
+
+    @Test
+    void bulkEndpointGetsItsOwnTimeout() throws Exception {
+        Long remaining = remainingAfterFilter(bulkReprice(), null);
+
+        assertTrue(remaining > 5000 && remaining <= 30000, "remaining " + remaining);
+    }
+
+    @Test
+    void clientMayShortenButNotExtendTheBudget() throws Exception {
+        Long shortened = remainingAfterFilter(bulkReprice(), "1000");
+        Long extended = remainingAfterFilter(bulkReprice(), "600000");
+        Long invalid = remainingAfterFilter(bulkReprice(), "soon");
+
+        assertTrue(shortened <= 1000, "shortened " + shortened);
+        assertTrue(extended > 5000 && extended <= 30000, "extended " + extended);
+        assertTrue(invalid > 5000 && invalid <= 30000, "invalid " + invalid);
+    }
+
+    @Test
+    void disabledFilterStartsNoDeadline() throws Exception {
+        filter.enabled = false;
+
+        assertNull(remainingAfterFilter(bulkReprice(), null));
+    }
+
+    private static Method bulkReprice() throws NoSuchMethodException {
+        return PriceHistoryResource.class.getMethod("repriceProducts", BulkRepriceRequest.class);
+    }
+
+    private Long remainingAfterFilter(Method method, String header) throws Exception {
+        ContainerRequestContext requestContext = mock(ContainerRequestContext.class);
+        when(requestContext.getHeaderString(DeadlineFilter.TIMEOUT_HEADER)).thenReturn(header);
+        when(resourceInfo.getResourceMethod()).thenReturn(method);
+
+        Context context = VertxContext.getOrCreateDuplicatedContext(vertx);
+        CompletableFuture<Long> remaining = new CompletableFuture<>();
+        context.runOnContext(ignored -> {
+            try {
+                filter.filter(requestContext);
+                remaining.complete(RequestDeadline.remainingMillis());
+            } catch (RuntimeException e) {
+                remaining.completeExceptionally(e);
+            }
+        });
+        return remaining.get(5, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,33 @@
+package by.losik.filter;
+
+import by.losik.entity.Invoice;
+import by.losik.resource.InvoiceResource;
+import by.losik.resource.SettlementResource;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+class RequestClassifierTest {
+
+    @Inject
+    RequestClassifier requestClassifier;
+
+    @Test
+    void annotationWinsOverPaths() throws NoSuchMethodException {
+        assertEquals(RequestClass.CRITICAL, requestClassifier.classify("POST", "/api/invoices",
+                InvoiceResource.class.getMethod("createInvoice", Invoice.class)));
+        assertEquals(RequestClass.ANALYTICS, requestClassifier.classify("GET", "/api/settlements/stats/invoice-stats",
+                SettlementResource.class.getMethod("getSettlementInvoiceStats")));
+    }
+
+    @Test
+    void pathsClassifyUnannotatedRequests() {
+        assertEquals(RequestClass.ANALYTICS, requestClassifier.classify("GET", "/api/invoices/stats/max-amount", null));
+        assertEquals(RequestClass.BULK, requestClassifier.classify("GET", "/api/invoices/date-range/paginated", null));
+        assertEquals(RequestClass.DEFAULT, requestClassifier.classify("GET", "/api/categories", null));
+        assertEquals(RequestClass.DEFAULT, requestClassifier.classify("POST", "/api/invoices/date-range", null));
+    }
+}
@@ -0,0 +1,121 @@
+package by.losik.grpc;
+
+import by.losik.entity.Invoice;
+import by.losik.service.InvoiceService;
+import io.grpc.Metadata;
+import io.grpc.StatusRuntimeException;
+import io.quarkus.grpc.GrpcClient;
+import io.quarkus.grpc.GrpcClientUtils;
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@QuarkusTest
+class IngestionGrpcServiceTest {
+
+    @ConfigProperty(name = "app.auth.username")
+    String VALID_USERNAME;
+
+    @ConfigProperty(name = "app.auth.password")
+    String VALID_PASSWORD;
+
+    @GrpcClient("ingestion")
+    Ingestion ingestion;
+
+    @InjectMock
+    InvoiceService invoiceService;
+
+    private Ingestion authenticated() {
+        Metadata headers = new Metadata();
+        headers.put(Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER), "Basic " +
+                Base64.getEncoder().encodeToString((VALID_USERNAME + ":" + VALID_PASSWORD).getBytes(StandardCharsets.UTF_8)));
+        return GrpcClientUtils.attachHeaders(ingestion, headers);
+    }
+
+    private InvoiceRecord invoice(long customerId, String amount) {
+        return InvoiceRecord.newBuilder()
+                .setCustomerId(customerId)
+                .setSettlementId(1L)
+                .setInvoiceDate("2024-01-01")
+                .setTotalAmount(amount)
+                .setEnterprise("Enterprise A")
+                .build();
+    }
+
+    @Test
+    void testIngestInvoices_ReportsRejectedRecords() {
+        when(invoiceService.saveAll(anyList())).thenReturn(Uni.createFrom().voidItem());
+
+        IngestSummary summary = authenticated()
+                .ingestInvoices(Multi.createFrom().items(invoice(1L, "100.00"), invoice(0L, "100.00"), invoice(2L, "abc")))
+                .await().atMost(Duration.ofSeconds(10));
+
+        assertEquals(1, summary.getAccepted());
+        assertEquals(2, summary.getRejected());
+        assertEquals(3, summary.getResultsCount());
+        assertTrue(summary.getResults(0).getError().isEmpty());
+        assertEquals("Customer is required", summary.getResults(1).getError());
+        assertEquals("Total amount must be a decimal number", summary.getResults(2).getError());
+    }
+
+    @Test
+    void testIngestInvoices_BatchFailure() {
+        when(invoiceService.saveAll(anyList()))
+                .thenReturn(Uni.createFrom().failure(new RuntimeException("Database error")));
+
+        IngestSummary summary = authenticated()
+                .ingestInvoices(Multi.createFrom().items(invoice(1L, "100.00"), invoice(2L, "200.00")))
+                .await().atMost(Duration.ofSeconds(10));
+
+        assertEquals(0, summary.getAccepted());
+        assertEquals(2, summary.getRejected());
+        assertEquals("Database error", summary.getResults(1).getError());
+    }
+
+    @Test
+    void testIngestInvoices_FailedRecordDoesNotRejectItsBatch() {
+        when(invoiceService.saveAll(anyList())).thenAnswer(invocation -> {
+            List<Invoice> invoices = invocation.getArgument(0);
+            return invoices.stream().anyMatch(invoice -> invoice.getCustomer().getId() == 2L)
+                    ? Uni.createFrom().failure(new RuntimeException("Customer not found"))
+                    : Uni.createFrom().voidItem();
+        });
+
+        IngestSummary summary = authenticated()
+                .ingestInvoices(Multi.createFrom().items(invoice(1L, "100.00"), invoice(2L, "200.00"),
+                        invoice(3L, "300.00"), invoice(4L, "400.00")))
+                .await().atMost(Duration.ofSeconds(10));
+
+        assertEquals(3, summary.getAccepted());
+        assertEquals(1, summary.getRejected());
+        assertTrue(summary.getResults(0).getError().isEmpty());
+        assertEquals("Customer not found", summary.getResults(1).getError());
+        assertTrue(summary.getResults(2).getError().isEmpty());
+        assertTrue(summary.getResults(3).getError().isEmpty());
+        // the batch, its first half, then both records of that half; the second half at once
+        verify(invoiceService, times(5)).saveAll(anyList());
+    }
+
+    @Test
+    void testIngestInvoices_Unauthenticated() {
+        assertThrows(StatusRuntimeException.class, () -> ingestion
+                .ingestInvoices(Multi.createFrom().items(invoice(1L, "100.00")))
+                .await().atMost(Duration.ofSeconds(10)));
+    }
+}
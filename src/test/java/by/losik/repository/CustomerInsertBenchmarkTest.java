@@ -0,0 +1,75 @@
+package by.losik.repository;
+
+import by.losik.entity.Customer;
+import io.quarkus.hibernate.reactive.panache.Panache;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.vertx.VertxContextSupport;
+import jakarta.inject.Inject;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Needs a migrated database: mvn test -Dtest=CustomerInsertBenchmarkTest -Dbenchmark=true
+// Compares one transaction per row with saveAll, which the pooled-lo ids let Hibernate batch.
+@Slf4j
+@QuarkusTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CustomerInsertBenchmarkTest {
+
+    private static final int ROWS = Integer.getInteger("benchmark.rows", 10000);
+    private static final int CHUNK_SIZE = 1000;
+
+    @Inject
+    CustomerRepository customerRepository;
+
+    private final String marker = "benchmark-" + UUID.randomUUID();
+
+    @AfterEach
+    void cleanUp() throws Throwable {
+        VertxContextSupport.subscribeAndAwait(() -> customerRepository.deleteByName(marker));
+    }
+
+    @Test
+    void benchmarkInserts() throws Throwable {
+        int singleRows = Math.max(1, ROWS / 10);
+        long start = System.nanoTime();
+        for (int i = 0; i < singleRows; i++) {
+            Customer customer = createCustomer(i);
+            VertxContextSupport.subscribeAndAwait(() -> customerRepository.save(customer));
+        }
+        report("save per row", singleRows, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int offset = 0; offset < ROWS; offset += CHUNK_SIZE) {
+            List<Customer> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (int i = offset; i < Math.min(offset + CHUNK_SIZE, ROWS); i++) {
+                chunk.add(createCustomer(i));
+            }
+            VertxContextSupport.subscribeAndAwait(() -> customerRepository.saveAll(chunk));
+        }
+        report("saveAll in chunks of " + CHUNK_SIZE, ROWS, System.nanoTime() - start);
+
+        long inserted = VertxContextSupport.subscribeAndAwait(() -> Panache.withSession(() -> customerRepository.count("name", marker)));
+        assertEquals(singleRows + ROWS, inserted);
+    }
+
+    private Customer createCustomer(int index) {
+        Customer customer = new Customer();
+        customer.setName(marker);
+        customer.setAddress("Benchmark street " + index);
+        customer.setIsLegalEntity(index % 2 == 0);
+        return customer;
+    }
+
+    private static void report(String mode, int rows, long nanos) {
+        double seconds = nanos / 1_000_000_000.0;
+        log.info("{}: {} rows in {} s, {} inserts/s", mode, rows, String.format("%.2f", seconds), Math.round(rows / seconds));
+    }
+}
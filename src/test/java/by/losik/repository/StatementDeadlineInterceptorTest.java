@@ -0,0 +1,149 @@
+package by.losik.repository;
+
+import by.losik.configuration.DeadlineExceededException;
+import by.losik.configuration.RequestDeadline;
+import io.smallrye.common.vertx.VertxContext;
+import io.smallrye.mutiny.Uni;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import jakarta.interceptor.InvocationContext;
+import org.hibernate.reactive.mutiny.Mutiny;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StatementDeadlineInterceptorTest {
+
+    private Vertx vertx;
+    private List<Long> timeouts;
+    private Mutiny.Transaction transaction;
+    private StatementDeadlineInterceptor interceptor;
+
+    @BeforeEach
+    void setUp() {
+        vertx = Vertx.vertx();
+        timeouts = new ArrayList<>();
+        transaction = mock(Mutiny.Transaction.class);
+        interceptor = new StatementDeadlineInterceptor() {
+            @Override
+            Uni<String> setStatementTimeout(long timeoutMillis) {
+                timeouts.add(timeoutMillis);
+                return Uni.createFrom().item(timeoutMillis + "ms");
+            }
+
+            @Override
+            Uni<Mutiny.Transaction> currentTransaction() {
+                return Uni.createFrom().item(transaction);
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    void statementsAreCappedAtTheRemainingBudget() throws Exception {
+        InvocationContext context = invocation("find", Uni.createFrom().item("row"));
+
+        Object result = onRequestContext(10000L, () -> interceptor.applyDeadline(context));
+
+        assertEquals("row", ((Uni<?>) result).await().indefinitely());
+        assertEquals(1, timeouts.size());
+        assertTrue(timeouts.get(0) > 0 && timeouts.get(0) <= 10000, "timeout " + timeouts.get(0));
+    }
+
+    @Test
+    void timeoutIsSetOncePerTransaction() throws Exception {
+        InvocationContext context = invocation("find", Uni.createFrom().item("row"));
+
+        Object results = onRequestContext(10000L, () -> {
+            Object outer = ((Uni<?>) interceptor.applyDeadline(context)).await().indefinitely();
+            Object nested = ((Uni<?>) interceptor.applyDeadline(context)).await().indefinitely();
+            transaction = mock(Mutiny.Transaction.class);
+            Object next = ((Uni<?>) interceptor.applyDeadline(context)).await().indefinitely();
+            return List.of(outer, nested, next);
+        });
+
+        assertEquals(List.of("row", "row", "row"), results);
+        assertEquals(2, timeouts.size());
+    }
+
+    @Test
+    void expiredDeadlineFailsWithoutTouchingTheDatabase() throws Exception {
+        InvocationContext context = invocation("find", Uni.createFrom().item("row"));
+
+        Object result = onRequestContext(-1L, () -> interceptor.applyDeadline(context));
+
+        Uni<?> uni = (Uni<?>) result;
+        assertInstanceOf(DeadlineExceededException.class,
+                assertThrows(RuntimeException.class, () -> uni.await().indefinitely()));
+        verify(context, never()).proceed();
+        assertTrue(timeouts.isEmpty());
+    }
+
+    @Test
+    void callsWithoutARequestDeadlineAreLeftAlone() throws Exception {
+        Uni<String> uni = Uni.createFrom().item("row");
+        InvocationContext context = invocation("find", uni);
+
+        assertSame(uni, onRequestContext(null, () -> interceptor.applyDeadline(context)));
+        assertSame(uni, interceptor.applyDeadline(context));
+        assertTrue(timeouts.isEmpty());
+    }
+
+    @Test
+    void nonReactiveMethodsAreLeftAlone() throws Exception {
+        InvocationContext context = invocation("count", 3L);
+
+        assertEquals(3L, onRequestContext(10000L, () -> interceptor.applyDeadline(context)));
+        assertTrue(timeouts.isEmpty());
+    }
+
+    private static InvocationContext invocation(String method, Object result) throws Exception {
+        InvocationContext context = mock(InvocationContext.class);
+        when(context.getMethod()).thenReturn(Repository.class.getDeclaredMethod(method));
+        when(context.proceed()).thenReturn(result);
+        return context;
+    }
+
+    private Object onRequestContext(Long budgetMillis, Callable<Object> call) throws Exception {
+        Context context = VertxContext.getOrCreateDuplicatedContext(vertx);
+        CompletableFuture<Object> result = new CompletableFuture<>();
+        context.runOnContext(ignored -> {
+            try {
+                if (budgetMillis != null) {
+                    RequestDeadline.start(budgetMillis);
+                }
+                result.complete(call.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result.get(5, TimeUnit.SECONDS);
+    }
+
+    @SuppressWarnings("unused")
+    private interface Repository {
+        Uni<String> find();
+
+        long count();
+    }
+}
@@ -11,12 +11,16 @@ import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentMatchers;
 
+import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
 
@@ -61,6 +65,26 @@ class CustomerResourceTest {
                 .body("[1].name", is("Customer Two"));
     }
 
+    @Test
+    void testGetAllCustomers_SparseFields() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 1L);
+        row.put("name", "Test Customer");
+
+        when(customerService.findPaginatedSortedFields(eq(List.of("name")), eq(0), eq(20), any(Sort.class)))
+                .thenReturn(Uni.createFrom().item(List.of(row)));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/customers?fields=name")
+                .then()
+                .statusCode(200)
+                .body("size()", is(1))
+                .body("[0].name", is("Test Customer"))
+                .body("[0].bankAccount", nullValue());
+    }
+
     @Test
     void testGetAllCustomers_InvalidPage() {
         given()
@@ -83,6 +107,23 @@ class CustomerResourceTest {
                 .body(containsString("Page size must be between 1 and 100"));
     }
 
+    @Test
+    void testGetCustomersByIds_Success() {
+        when(customerService.findByIds(List.of(1L, 2L)))
+                .thenReturn(Uni.createFrom().item(Arrays.asList(
+                        createTestCustomer(1L, "First Customer", false),
+                        createTestCustomer(2L, "Second Customer", true))));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/customers?ids=1,2")
+                .then()
+                .statusCode(200)
+                .body("size()", is(2))
+                .body("[1].name", is("Second Customer"));
+    }
+
     @Test
     void testGetCustomerById_Success() {
         Customer customer = createTestCustomer(1L, "Test Customer", false);
@@ -384,6 +425,26 @@ class CustomerResourceTest {
                 .body(is("false"));
     }
 
+    @Test
+    void testPatchCustomer_Success() {
+        Customer patchedCustomer = createTestCustomer(1L, "Test Customer", false);
+        patchedCustomer.setAddress("New Street 1");
+        patchedCustomer.setVersion(1L);
+
+        when(customerService.patch(eq(1L), anyMap(), isNull()))
+                .thenReturn(Uni.createFrom().item(patchedCustomer));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType("application/merge-patch+json")
+                .body("{\"address\": \"New Street 1\"}")
+                .when()
+                .patch("/api/customers/1")
+                .then()
+                .statusCode(200)
+                .body("address", is("New Street 1"));
+    }
+
     @Test
     void testUpdateAddress_Success() {
         when(customerService.updateCustomerAddress(1L, "New Address 123"))
@@ -507,6 +568,53 @@ class CustomerResourceTest {
                 .statusCode(415);
     }
 
+    @Test
+    void testGetTopCustomersByRevenue_Success() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("customerId", 1L);
+        row.put("name", "Big Customer");
+        row.put("isLegalEntity", true);
+        row.put("invoiceCount", 12L);
+        row.put("revenue", new BigDecimal("9000.00"));
+
+        when(customerService.getTopCustomersByRevenue(5, true))
+                .thenReturn(Uni.createFrom().item(List.of(row)));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/customers/stats/top-revenue?k=5&legalEntity=true")
+                .then()
+                .statusCode(200)
+                .body("size()", is(1))
+                .body("[0].name", is("Big Customer"))
+                .body("[0].invoiceCount", is(12));
+    }
+
+    @Test
+    void testGetTopCustomersByRevenue_InvalidK() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/customers/stats/top-revenue?k=0")
+                .then()
+                .statusCode(400)
+                .body(containsString("K must be between 1 and 100"));
+    }
+
+    @Test
+    void testGetLifetimeValue_NotFound() {
+        when(customerService.getLifetimeValue(999L))
+                .thenReturn(Uni.createFrom().item((Map<String, Object>) null));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/customers/999/lifetime-value")
+                .then()
+                .statusCode(404);
+    }
+
     @Test
     void testUnauthenticatedAccess() {
         given()
@@ -8,6 +8,7 @@ import io.quarkus.panache.common.Sort;
 import io.quarkus.test.InjectMock;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.Test;
@@ -249,8 +250,8 @@ class InvoiceItemResourceTest {
                 createTestInvoiceItem(2L, 1L, 2L, BigInteger.valueOf(5), new BigDecimal("50.25"))
         );
 
-        when(invoiceItemService.findByInvoiceId(1L))
-                .thenReturn(Uni.createFrom().item(items));
+        when(invoiceItemService.streamByInvoiceId(1L))
+                .thenReturn(Multi.createFrom().iterable(items));
 
         given()
                 .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
@@ -1,26 +1,43 @@
 package by.losik.resource;
 
+import by.losik.dto.BulkDeleteJob;
+import by.losik.dto.InvoiceDetail;
+import by.losik.dto.InvoiceFeedEvent;
 import by.losik.entity.Customer;
 import by.losik.entity.Invoice;
 import by.losik.entity.Settlement;
+import by.losik.service.InvoiceDetailService;
 import by.losik.service.InvoiceService;
+import by.losik.service.LiveFeedService;
 import io.quarkus.panache.common.Sort;
 import io.quarkus.test.InjectMock;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
 import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.mockito.ArgumentMatchers.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @QuarkusTest
@@ -35,6 +52,12 @@ class InvoiceResourceTest {
     @InjectMock
     InvoiceService invoiceService;
 
+    @InjectMock
+    InvoiceDetailService invoiceDetailService;
+
+    @InjectMock
+    LiveFeedService liveFeedService;
+
     private Invoice createTestInvoice(Long id, String enterprise, BigDecimal amount) {
         Invoice invoice = new Invoice();
         invoice.setId(id);
@@ -137,6 +160,71 @@ class InvoiceResourceTest {
                 .body(containsString("Invalid invoice ID"));
     }
 
+    @Test
+    void testGetInvoiceDetail_Success() {
+        Invoice invoice = createTestInvoice(1L, "Enterprise A", new BigDecimal("100.00"));
+        InvoiceDetail detail = new InvoiceDetail();
+        detail.setInvoice(invoice);
+        detail.setCustomer(invoice.getCustomer());
+        detail.setSettlement(invoice.getSettlement());
+
+        when(invoiceDetailService.findDetail(1L))
+                .thenReturn(Uni.createFrom().item(detail));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/1/detail")
+                .then()
+                .statusCode(200)
+                .body("invoice.enterprise", is("Enterprise A"))
+                .body("customer.id", is(1))
+                .body("items.size()", is(0));
+    }
+
+    @Test
+    void testGetInvoiceDetail_NotFound() {
+        when(invoiceDetailService.findDetail(999L))
+                .thenReturn(Uni.createFrom().nullItem());
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/999/detail")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    void testGetInvoiceDetails_Success() {
+        InvoiceDetail first = new InvoiceDetail();
+        first.setInvoice(createTestInvoice(2L, "Enterprise B", new BigDecimal("200.00")));
+        InvoiceDetail second = new InvoiceDetail();
+        second.setInvoice(createTestInvoice(1L, "Enterprise A", new BigDecimal("100.00")));
+
+        when(invoiceDetailService.findDetails(List.of(2L, 1L)))
+                .thenReturn(Uni.createFrom().item(List.of(first, second)));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/details?ids=2,1")
+                .then()
+                .statusCode(200)
+                .body("size()", is(2))
+                .body("[0].invoice.id", is(2));
+    }
+
+    @Test
+    void testGetInvoiceDetails_MissingIds() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/details")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     void testCreateInvoice_Success() {
         Invoice savedInvoice = createTestInvoice(1L, "New Enterprise", new BigDecimal("150.00"));
@@ -156,6 +244,143 @@ class InvoiceResourceTest {
                 .body("enterprise", is("New Enterprise"));
     }
 
+    @Test
+    void testCreateInvoice_WithIdempotencyKey() {
+        Invoice savedInvoice = createTestInvoice(1L, "New Enterprise", new BigDecimal("150.00"));
+
+        when(invoiceService.save(any(Invoice.class)))
+                .thenReturn(Uni.createFrom().item(savedInvoice));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", UUID.randomUUID().toString())
+                .body("{\"enterprise\": \"New Enterprise\", \"totalAmount\": 150.00, \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}")
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(201)
+                .body("id", is(1));
+    }
+
+    @Test
+    void testCreateInvoice_SameIdempotencyKeyIsReplayed() {
+        Invoice savedInvoice = createTestInvoice(1L, "New Enterprise", new BigDecimal("150.00"));
+        String key = UUID.randomUUID().toString();
+        String body = "{\"enterprise\": \"New Enterprise\", \"totalAmount\": 150.00, \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}";
+
+        when(invoiceService.save(any(Invoice.class)))
+                .thenReturn(Uni.createFrom().item(savedInvoice));
+
+        String first = given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", key)
+                .body(body)
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(201)
+                .extract().asString();
+
+        String replayed = given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", key)
+                .body(body)
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(201)
+                .header("Idempotent-Replayed", "true")
+                .extract().asString();
+
+        assertEquals(first, replayed);
+        verify(invoiceService, times(1)).save(any(Invoice.class));
+    }
+
+    @Test
+    void testCreateInvoice_IdempotencyKeyReusedForAnotherBody() {
+        Invoice savedInvoice = createTestInvoice(1L, "New Enterprise", new BigDecimal("150.00"));
+        String key = UUID.randomUUID().toString();
+
+        when(invoiceService.save(any(Invoice.class)))
+                .thenReturn(Uni.createFrom().item(savedInvoice));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", key)
+                .body("{\"enterprise\": \"New Enterprise\", \"totalAmount\": 150.00, \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}")
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(201);
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", key)
+                .body("{\"enterprise\": \"New Enterprise\", \"totalAmount\": 999.00, \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}")
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(422)
+                .body(containsString("Idempotency-Key was already used for a different request body"));
+
+        verify(invoiceService, times(1)).save(any(Invoice.class));
+    }
+
+    @Test
+    void testCreateInvoice_FailedRequestIsNotReplayed() {
+        Invoice savedInvoice = createTestInvoice(1L, "New Enterprise", new BigDecimal("150.00"));
+        String key = UUID.randomUUID().toString();
+        String body = "{\"enterprise\": \"New Enterprise\", \"totalAmount\": 150.00, \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}";
+
+        when(invoiceService.save(any(Invoice.class)))
+                .thenReturn(Uni.createFrom().failure(new RuntimeException("Database error")))
+                .thenReturn(Uni.createFrom().item(savedInvoice));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", key)
+                .body(body)
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(400);
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", key)
+                .body(body)
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(201)
+                .body("id", is(1));
+
+        verify(invoiceService, times(2)).save(any(Invoice.class));
+    }
+
+    @Test
+    void testCreateInvoice_InvalidIdempotencyKey() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .header("Idempotency-Key", "k".repeat(256))
+                .body("{\"enterprise\": \"New Enterprise\", \"totalAmount\": 150.00, \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}")
+                .when()
+                .post("/api/invoices")
+                .then()
+                .statusCode(400)
+                .body(containsString("Idempotency-Key must be between 1 and 255 characters"));
+
+        verify(invoiceService, never()).save(any(Invoice.class));
+    }
+
     @Test
     void testCreateInvoice_MissingCustomer() {
         given()
@@ -182,10 +407,45 @@ class InvoiceResourceTest {
                 .body(containsString("Total amount must be greater than 0"));
     }
 
+    @Test
+    void testCreateInvoiceWithItems_Success() {
+        Invoice savedInvoice = createTestInvoice(1L, "New Enterprise", new BigDecimal("250.00"));
+
+        when(invoiceService.saveWithItems(any(Invoice.class), anyList()))
+                .thenReturn(Uni.createFrom().item(savedInvoice));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("{\"invoice\": {\"enterprise\": \"New Enterprise\", \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}, " +
+                        "\"items\": [{\"product\": {\"id\": 1}, \"quantity\": 2, \"price\": 100.00}, {\"product\": {\"id\": 2}, \"quantity\": 1, \"price\": 50.00}]}")
+                .when()
+                .post("/api/invoices/with-items")
+                .then()
+                .statusCode(201)
+                .body("id", is(1))
+                .body("enterprise", is("New Enterprise"));
+    }
+
+    @Test
+    void testCreateInvoiceWithItems_NoItems() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("{\"invoice\": {\"enterprise\": \"New Enterprise\", \"invoiceDate\": \"2024-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}, \"items\": []}")
+                .when()
+                .post("/api/invoices/with-items")
+                .then()
+                .statusCode(400)
+                .body(containsString("Invoice must have between 1 and"));
+    }
+
     @Test
     void testUpdateInvoice_Success() {
         Invoice updatedInvoice = createTestInvoice(1L, "Updated Enterprise", new BigDecimal("200.00"));
 
+        when(invoiceService.isArchived(1L))
+                .thenReturn(Uni.createFrom().item(false));
         when(invoiceService.update(any(Invoice.class)))
                 .thenReturn(Uni.createFrom().item(updatedInvoice));
 
@@ -201,6 +461,73 @@ class InvoiceResourceTest {
                 .body("enterprise", is("Updated Enterprise"));
     }
 
+    @Test
+    void testUpdateInvoice_Archived() {
+        when(invoiceService.isArchived(1L))
+                .thenReturn(Uni.createFrom().item(true));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("{\"enterprise\": \"Updated Enterprise\", \"totalAmount\": 200.00, \"invoiceDate\": \"2020-01-01\", \"customer\": {\"id\": 1}, \"settlement\": {\"id\": 1}}")
+                .when()
+                .put("/api/invoices/1")
+                .then()
+                .statusCode(409)
+                .body(containsString("archived"));
+
+        verify(invoiceService, never()).update(any(Invoice.class));
+    }
+
+    @Test
+    void testPatchInvoice_Archived() {
+        when(invoiceService.patch(eq(1L), anyMap(), isNull()))
+                .thenReturn(Uni.createFrom().nullItem());
+        when(invoiceService.isArchived(1L))
+                .thenReturn(Uni.createFrom().item(true));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType("application/merge-patch+json")
+                .body("{\"enterprise\": \"Renamed Enterprise\"}")
+                .when()
+                .patch("/api/invoices/1")
+                .then()
+                .statusCode(409)
+                .body(containsString("archived"));
+    }
+
+    @Test
+    void testPatchInvoice_NotFound() {
+        when(invoiceService.patch(eq(999L), anyMap(), isNull()))
+                .thenReturn(Uni.createFrom().nullItem());
+        when(invoiceService.isArchived(999L))
+                .thenReturn(Uni.createFrom().item(false));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType("application/merge-patch+json")
+                .body("{\"enterprise\": \"Renamed Enterprise\"}")
+                .when()
+                .patch("/api/invoices/999")
+                .then()
+                .statusCode(404)
+                .body(containsString("Invoice not found"));
+    }
+
+    @Test
+    void testPatchInvoice_EmptyPatch() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType("application/merge-patch+json")
+                .body("{}")
+                .when()
+                .patch("/api/invoices/1")
+                .then()
+                .statusCode(400)
+                .body(containsString("Patch document must not be empty"));
+    }
+
     @Test
     void testUpdateInvoice_InvalidId() {
         given()
@@ -231,6 +558,8 @@ class InvoiceResourceTest {
     void testDeleteInvoice_NotFound() {
         when(invoiceService.deleteById(999L))
                 .thenReturn(Uni.createFrom().item(false));
+        when(invoiceService.isArchived(999L))
+                .thenReturn(Uni.createFrom().item(false));
 
         given()
                 .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
@@ -247,8 +576,8 @@ class InvoiceResourceTest {
                 createTestInvoice(2L, "Enterprise B", new BigDecimal("200.00"))
         );
 
-        when(invoiceService.findByCustomerId(1L))
-                .thenReturn(Uni.createFrom().item(invoices));
+        when(invoiceService.streamByCustomerId(1L))
+                .thenReturn(Multi.createFrom().iterable(invoices));
 
         given()
                 .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
@@ -261,6 +590,22 @@ class InvoiceResourceTest {
                 .body("[1].enterprise", is("Enterprise B"));
     }
 
+    @Test
+    void testGetInvoicesByCustomerId_GzipNegotiated() {
+        when(invoiceService.streamByCustomerId(1L))
+                .thenReturn(Multi.createFrom().items(createTestInvoice(1L, "Enterprise A", new BigDecimal("100.00"))));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .header("Accept-Encoding", "gzip")
+                .when()
+                .get("/api/invoices/customer/1")
+                .then()
+                .statusCode(200)
+                .header("Content-Encoding", "gzip")
+                .body("[0].enterprise", is("Enterprise A"));
+    }
+
     @Test
     void testGetInvoicesByCustomerId_InvalidId() {
         given()
@@ -464,6 +809,99 @@ class InvoiceResourceTest {
                 .statusCode(200);
     }
 
+    @Test
+    void testGetTopPurchasesByDate_Success() {
+        Date date = Date.valueOf("2024-01-15");
+        List<Object[]> purchases = List.<Object[]>of(
+                new Object[]{"2024-01-15", "Big Customer", "Main St 1", new BigDecimal("999.00")});
+
+        when(invoiceService.findTopPurchasesByDay(date))
+                .thenReturn(Uni.createFrom().item(purchases));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/stats/top-purchases/date/2024-01-15")
+                .then()
+                .statusCode(200)
+                .body("size()", is(1))
+                .body("[0][1]", is("Big Customer"));
+    }
+
+    @Test
+    void testGetTopPurchasesByDateRange_MissingParams() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/stats/top-purchases?start=2024-01-01")
+                .then()
+                .statusCode(400)
+                .body(containsString("Start date and end date are required"));
+    }
+
+    @Test
+    void testGetAmountDistribution_Success() {
+        Map<String, Object> distribution = new LinkedHashMap<>();
+        distribution.put("count", 42L);
+        distribution.put("percentiles", Map.of("p50", new BigDecimal("120.00")));
+        distribution.put("histogram", List.of());
+
+        when(invoiceService.getAmountDistribution(eq(Set.of(1L)), eq(YearMonth.of(2024, 1)), eq(YearMonth.of(2024, 3)),
+                eq(List.of(50.0)), eq(20)))
+                .thenReturn(Uni.createFrom().item(distribution));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/stats/amount-distribution?settlementId=1&from=2024-01&to=2024-03&p=50")
+                .then()
+                .statusCode(200)
+                .body("count", is(42));
+    }
+
+    @Test
+    void testGetAmountDistribution_InvalidMonth() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/stats/amount-distribution?from=2024-13")
+                .then()
+                .statusCode(400)
+                .body(containsString("Months must be in yyyy-MM format"));
+    }
+
+    @Test
+    void testGetRevenueSeries_Success() {
+        Map<String, Object> bucket = new LinkedHashMap<>();
+        bucket.put("bucket", "2024-01-01");
+        bucket.put("invoiceCount", 3L);
+        bucket.put("revenue", new BigDecimal("450.00"));
+
+        when(invoiceService.getRevenueSeries("month", LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31)))
+                .thenReturn(Uni.createFrom().item(List.of(bucket)));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/stats/revenue-series?unit=month&start=2024-01-01&end=2024-01-31")
+                .then()
+                .statusCode(200)
+                .body("size()", is(1))
+                .body("[0].bucket", is("2024-01-01"))
+                .body("[0].invoiceCount", is(3));
+    }
+
+    @Test
+    void testGetRevenueSeries_InvalidUnit() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/invoices/stats/revenue-series?unit=year&start=2024-01-01&end=2024-01-31")
+                .then()
+                .statusCode(400)
+                .body(containsString("Unit must be one of"));
+    }
+
     @Test
     void testCountByCustomerId_Success() {
         when(invoiceService.countByCustomer(any(Customer.class)))
@@ -503,18 +941,56 @@ class InvoiceResourceTest {
                 .body(containsString("Amount must be greater than 0"));
     }
 
+    @Test
+    void testGetInvoiceFeed_Success() {
+        InvoiceFeedEvent event = new InvoiceFeedEvent();
+        event.setOperation("save");
+        event.setId(5L);
+        event.setCustomerId(1L);
+        event.setTotalAmount(new BigDecimal("150.00"));
+
+        when(liveFeedService.invoices(1L, null))
+                .thenReturn(Multi.createFrom().item(event));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .accept("text/event-stream")
+                .when()
+                .get("/api/invoices/feed?customerId=1")
+                .then()
+                .statusCode(200)
+                .body(containsString("\"id\":5"));
+    }
+
+    @Test
+    void testGetInvoiceFeed_InvalidCustomerId() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .accept("text/event-stream")
+                .when()
+                .get("/api/invoices/feed?customerId=0")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     void testDeleteInvoicesByCustomerId_Success() {
-        when(invoiceService.deleteByCustomer(any(Customer.class)))
-                .thenReturn(Uni.createFrom().item(3L));
+        BulkDeleteJob job = new BulkDeleteJob();
+        job.setId("job-1");
+        job.setType("invoices-by-customer");
+        job.setStatus("running");
+        job.setStartedAt(Instant.now());
+        when(invoiceService.startDeleteByCustomer(any(Customer.class)))
+                .thenReturn(Uni.createFrom().item(job));
 
         given()
                 .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
                 .when()
                 .delete("/api/invoices/customer/1")
                 .then()
-                .statusCode(200)
-                .body(containsString("Deleted 3 invoices"));
+                .statusCode(202)
+                .header("Location", containsString("/api/jobs/job-1"))
+                .body("status", is("running"));
     }
 
     @Test
@@ -0,0 +1,100 @@
+package by.losik.resource;
+
+import by.losik.dto.BulkDeleteJob;
+import by.losik.service.BulkDeleteJobService;
+import io.quarkus.test.InjectMock;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.mockito.Mockito.when;
+
+@QuarkusTest
+class JobResourceTest {
+
+    @ConfigProperty(name = "app.auth.username")
+    String VALID_USERNAME;
+
+    @ConfigProperty(name = "app.auth.password")
+    String VALID_PASSWORD;
+
+    @InjectMock
+    BulkDeleteJobService bulkDeleteJobService;
+
+    private BulkDeleteJob createTestJob(String id, String status, long deleted) {
+        BulkDeleteJob job = new BulkDeleteJob();
+        job.setId(id);
+        job.setType("invoices-by-date-range");
+        job.setTarget("2020-01-01 to 2020-12-31");
+        job.setStatus(status);
+        job.setDeleted(deleted);
+        job.setStartedAt(Instant.now().minusSeconds(10));
+        return job;
+    }
+
+    @Test
+    void testGetAllJobs_Success() {
+        when(bulkDeleteJobService.findAll())
+                .thenReturn(Uni.createFrom().item(List.of(createTestJob("job-1", "running", 5000))));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/jobs")
+                .then()
+                .statusCode(200)
+                .body("[0].id", is("job-1"))
+                .body("[0].deleted", is(5000));
+    }
+
+    @Test
+    void testGetJobById_NotFound() {
+        when(bulkDeleteJobService.findById("missing"))
+                .thenReturn(Uni.createFrom().nullItem());
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/jobs/missing")
+                .then()
+                .statusCode(404)
+                .body(containsString("Job not found"));
+    }
+
+    @Test
+    void testCancelJob_Running() {
+        BulkDeleteJob job = createTestJob("job-1", "running", 1000);
+        job.setCancelRequested(true);
+        when(bulkDeleteJobService.cancel("job-1"))
+                .thenReturn(Uni.createFrom().item(job));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .delete("/api/jobs/job-1")
+                .then()
+                .statusCode(202)
+                .body("cancelRequested", is(true));
+    }
+
+    @Test
+    void testCancelJob_AlreadyCompleted() {
+        when(bulkDeleteJobService.cancel("job-1"))
+                .thenReturn(Uni.createFrom().item(createTestJob("job-1", "completed", 1000)));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .delete("/api/jobs/job-1")
+                .then()
+                .statusCode(409)
+                .body(containsString("already completed"));
+    }
+}
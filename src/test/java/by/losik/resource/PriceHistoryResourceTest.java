@@ -3,10 +3,12 @@ package by.losik.resource;
 import by.losik.entity.PriceHistory;
 import by.losik.entity.Product;
 import by.losik.service.PriceHistoryService;
+import by.losik.service.PriceWriteBehindService;
 import io.quarkus.panache.common.Sort;
 import io.quarkus.test.InjectMock;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
+import io.smallrye.mutiny.Multi;
 import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.Test;
@@ -116,8 +118,8 @@ class PriceHistoryResourceTest {
                 createTestPriceHistory(2L, 1L, new BigDecimal("150.00"), Date.valueOf("2024-01-02"))
         );
 
-        when(priceHistoryService.findByProductId(1L))
-                .thenReturn(Uni.createFrom().item(priceHistories));
+        when(priceHistoryService.streamByProductId(1L))
+                .thenReturn(Multi.createFrom().iterable(priceHistories));
 
         given()
                 .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
@@ -378,6 +380,22 @@ class PriceHistoryResourceTest {
                 .body(containsString("Price updated successfully"));
     }
 
+    @Test
+    void testUpdatePrice_Queued() {
+        when(priceHistoryService.updatePrice(1L, new BigDecimal("200.00")))
+                .thenReturn(Uni.createFrom().item(PriceWriteBehindService.QUEUED));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("200.00")
+                .when()
+                .patch("/api/price-history/1/price")
+                .then()
+                .statusCode(202)
+                .body(containsString("Price update queued"));
+    }
+
     @Test
     void testUpdatePrice_NotFound() {
         when(priceHistoryService.updatePrice(999L, new BigDecimal("200.00")))
@@ -502,6 +520,35 @@ class PriceHistoryResourceTest {
                 .body("changeCount", is(5));
     }
 
+    @Test
+    void testRepriceProducts_Success() {
+        when(priceHistoryService.repriceProducts(eq(1L), eq("Dell"), isNull(), eq("percent"), any(BigDecimal.class)))
+                .thenReturn(Uni.createFrom().item(12));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("{\"categoryId\": 1, \"manufacturer\": \"Dell\", \"mode\": \"percent\", \"value\": 5}")
+                .when()
+                .post("/api/price-history/bulk-reprice")
+                .then()
+                .statusCode(200)
+                .body("repricedCount", is(12));
+    }
+
+    @Test
+    void testRepriceProducts_NoFilter() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("{\"mode\": \"absolute\", \"value\": 10}")
+                .when()
+                .post("/api/price-history/bulk-reprice")
+                .then()
+                .statusCode(400)
+                .body(containsString("At least one of categoryId, manufacturer or codePrefix is required"));
+    }
+
     @Test
     void testUnauthenticatedAccess() {
         given()
@@ -1,5 +1,6 @@
 package by.losik.resource;
 
+import by.losik.dto.BulkDeleteJob;
 import by.losik.entity.Product;
 import by.losik.service.ProductService;
 import io.quarkus.panache.common.Sort;
@@ -7,9 +8,11 @@ import io.quarkus.test.InjectMock;
 import io.quarkus.test.junit.QuarkusTest;
 import io.restassured.http.ContentType;
 import io.smallrye.mutiny.Uni;
+import jakarta.persistence.OptimisticLockException;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.Test;
 
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -62,6 +65,69 @@ class ProductResourceTest {
                 .body("[1].name", is("Mouse"));
     }
 
+    @Test
+    void testGetProductsByIds_Success() {
+        List<Product> products = Arrays.asList(
+                createTestProduct(2L, "Mouse", "MS001", "Logitech"),
+                createTestProduct(1L, "Laptop", "LP001", "Dell")
+        );
+
+        when(productService.findByIds(List.of(2L, 1L, 3L)))
+                .thenReturn(Uni.createFrom().item(products));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/products?ids=2,1,3")
+                .then()
+                .statusCode(200)
+                .body("size()", is(2))
+                .body("[0].id", is(2))
+                .body("[1].id", is(1));
+    }
+
+    @Test
+    void testGetProductsByIds_Post() {
+        when(productService.findByIds(List.of(1L, 2L)))
+                .thenReturn(Uni.createFrom().item(List.of(createTestProduct(1L, "Laptop", "LP001", "Dell"))));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("[1, 2]")
+                .when()
+                .post("/api/products/by-ids")
+                .then()
+                .statusCode(200)
+                .body("size()", is(1))
+                .body("[0].code", is("LP001"));
+    }
+
+    @Test
+    void testGetProductsByIds_Invalid() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/products?ids=1,abc")
+                .then()
+                .statusCode(400)
+                .body(containsString("positive ids"));
+    }
+
+    @Test
+    void testGetAllProducts_UnknownField() {
+        when(productService.findPaginatedSortedFields(eq(List.of("name", "secret")), anyInt(), anyInt(), any(Sort.class)))
+                .thenReturn(Uni.createFrom().failure(new IllegalArgumentException("Unknown field: secret")));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/products?fields=name,secret")
+                .then()
+                .statusCode(400)
+                .body(containsString("Unknown field: secret"));
+    }
+
     @Test
     void testGetProductById_Success() {
         Product product = createTestProduct(1L, "Laptop", "LP001", "Dell");
@@ -359,6 +425,45 @@ class ProductResourceTest {
                 .body(containsString("ID in path does not match ID in request body"));
     }
 
+    @Test
+    void testPatchProduct_Success() {
+        Product patchedProduct = createTestProduct(1L, "Gaming Laptop", "LP001", "Dell");
+        patchedProduct.setVersion(4L);
+
+        when(productService.patch(eq(1L), anyMap(), eq(3L)))
+                .thenReturn(Uni.createFrom().item(patchedProduct));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType("application/merge-patch+json")
+                .header("If-Match", "\"3\"")
+                .body("{\"name\": \"Gaming Laptop\"}")
+                .when()
+                .patch("/api/products/1")
+                .then()
+                .statusCode(200)
+                .header("ETag", "\"4\"")
+                .body("name", is("Gaming Laptop"))
+                .body("version", is(4));
+    }
+
+    @Test
+    void testPatchProduct_StaleVersion() {
+        when(productService.patch(eq(1L), anyMap(), eq(2L)))
+                .thenReturn(Uni.createFrom().failure(new OptimisticLockException("Product with id 1 was modified")));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType("application/merge-patch+json")
+                .header("If-Match", "\"2\"")
+                .body("{\"name\": \"Gaming Laptop\"}")
+                .when()
+                .patch("/api/products/1")
+                .then()
+                .statusCode(412)
+                .body(containsString("was modified"));
+    }
+
     @Test
     void testUpdateProductCode_Success() {
         when(productService.updateProductCode(1L, "NEWCODE"))
@@ -462,16 +567,22 @@ class ProductResourceTest {
 
     @Test
     void testDeleteProductsByCategory_Success() {
-        when(productService.deleteByCategory(1L))
-                .thenReturn(Uni.createFrom().item(5L));
+        BulkDeleteJob job = new BulkDeleteJob();
+        job.setId("job-1");
+        job.setType("products-by-category");
+        job.setStatus("running");
+        job.setStartedAt(Instant.now());
+        when(productService.startDeleteByCategory(1L))
+                .thenReturn(Uni.createFrom().item(job));
 
         given()
                 .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
                 .when()
                 .delete("/api/products/category/1")
                 .then()
-                .statusCode(200)
-                .body(containsString("Deleted 5 products"));
+                .statusCode(202)
+                .header("Location", containsString("/api/jobs/job-1"))
+                .body("type", is("products-by-category"));
     }
 
     @Test
@@ -555,6 +666,37 @@ class ProductResourceTest {
                 .body(containsString("Both name and manufacturer parameters are required"));
     }
 
+    @Test
+    void testUpsertProducts_Success() {
+        when(productService.upsertByCode(anyList()))
+                .thenReturn(Uni.createFrom().item(1));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("[{\"code\": \"LP001\", \"name\": \"Laptop\", \"manufacturer\": \"Dell\", \"category\": {\"id\": 1}}, " +
+                        "{\"code\": \"MS001\", \"name\": \"Mouse\", \"manufacturer\": \"Logitech\", \"category\": {\"id\": 1}}]")
+                .when()
+                .post("/api/products/bulk-upsert")
+                .then()
+                .statusCode(200)
+                .body("received", is(2))
+                .body("changed", is(1));
+    }
+
+    @Test
+    void testUpsertProducts_MissingCategory() {
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body("[{\"code\": \"LP001\", \"name\": \"Laptop\", \"manufacturer\": \"Dell\"}]")
+                .when()
+                .post("/api/products/bulk-upsert")
+                .then()
+                .statusCode(400)
+                .body(containsString("Category is required"));
+    }
+
     @Test
     void testUnauthenticatedAccess() {
         given()
@@ -10,8 +10,11 @@ import io.smallrye.mutiny.Uni;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.containsString;
@@ -449,6 +452,64 @@ class RegionResourceTest {
                 .statusCode(200);
     }
 
+    @Test
+    void testGetCountryRollup_Success() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("country", "USA");
+        row.put("regionCount", 2L);
+        row.put("invoiceCount", 5L);
+        row.put("revenue", new BigDecimal("1500.00"));
+
+        when(regionService.getCountryRollup())
+                .thenReturn(Uni.createFrom().item(List.of(row)));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/regions/stats/rollup")
+                .then()
+                .statusCode(200)
+                .body("size()", is(1))
+                .body("[0].country", is("USA"))
+                .body("[0].invoiceCount", is(5));
+    }
+
+    @Test
+    void testGetRegionRollup_Success() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("regionId", 1L);
+        row.put("region", "California");
+        row.put("settlementCount", 3L);
+        row.put("invoiceCount", 4L);
+        row.put("revenue", new BigDecimal("1000.00"));
+
+        when(regionService.getRegionRollup("USA"))
+                .thenReturn(Uni.createFrom().item(List.of(row)));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/regions/stats/rollup/country/USA")
+                .then()
+                .statusCode(200)
+                .body("[0].region", is("California"))
+                .body("[0].settlementCount", is(3));
+    }
+
+    @Test
+    void testGetSettlementRollup_Success() {
+        when(regionService.getSettlementRollup(1L))
+                .thenReturn(Uni.createFrom().item(List.of()));
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .when()
+                .get("/api/regions/stats/rollup/region/1")
+                .then()
+                .statusCode(200)
+                .body("size()", is(0));
+    }
+
     @Test
     void testCheckRegionExistsByNameAndCountry_Success() {
         when(regionService.existsByNameAndCountry("California", "USA"))
@@ -14,6 +14,7 @@ import org.junit.jupiter.api.Test;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.LongStream;
 
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.CoreMatchers.containsString;
@@ -65,6 +66,21 @@ class SettlementResourceTest {
                 .body("[1].name", is("Gomel"));
     }
 
+    @Test
+    void testGetSettlementsByIds_TooMany() {
+        List<Long> ids = LongStream.rangeClosed(1, 1001).boxed().toList();
+
+        given()
+                .auth().preemptive().basic(VALID_USERNAME, VALID_PASSWORD)
+                .contentType(ContentType.JSON)
+                .body(ids)
+                .when()
+                .post("/api/settlements/by-ids")
+                .then()
+                .statusCode(400)
+                .body(containsString("At most 1000 ids"));
+    }
+
     @Test
     void testGetSettlementById_Success() {
         Settlement settlement = createTestSettlement(1L, "Minsk", 1L);
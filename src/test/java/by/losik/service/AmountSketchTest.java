@@ -0,0 +1,147 @@
+package by.losik.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AmountSketchTest {
+
+    @Test
+    void quantilesStayWithinRelativeAccuracy() {
+        AmountSketch sketch = new AmountSketch();
+        for (int amount = 1; amount <= 1000; amount++) {
+            assertTrue(sketch.add(BigDecimal.valueOf(amount), 1));
+        }
+
+        assertEquals(1000, sketch.count());
+        assertWithinAccuracy(500, sketch.quantile(0.5));
+        assertWithinAccuracy(900, sketch.quantile(0.9));
+        assertWithinAccuracy(990, sketch.quantile(0.99));
+        assertWithinAccuracy(1, sketch.quantile(0));
+    }
+
+    @Test
+    void emptySketchHasNoQuantile() {
+        assertNull(new AmountSketch().quantile(0.5));
+    }
+
+    @Test
+    void zeroAndMissingAmountsAreCountedApart() {
+        AmountSketch sketch = new AmountSketch();
+        sketch.add(BigDecimal.ZERO, 1);
+        sketch.add(null, 1);
+        sketch.add(BigDecimal.TEN, 1);
+
+        assertEquals(2, sketch.zeroCount);
+        assertEquals(BigDecimal.ZERO, sketch.quantile(0.5));
+        assertEquals(3, sketch.count());
+    }
+
+    @Test
+    void removalWithoutMatchingAmountIsRejected() {
+        AmountSketch sketch = new AmountSketch();
+        sketch.add(BigDecimal.TEN, 1);
+
+        assertFalse(sketch.add(BigDecimal.valueOf(5000), -1));
+        assertFalse(sketch.add(BigDecimal.ZERO, -1));
+        assertEquals(1, sketch.count());
+
+        assertTrue(sketch.add(BigDecimal.TEN, -1));
+        assertTrue(sketch.isEmpty());
+    }
+
+    @Test
+    void mergeAddsCountsBinByBin() {
+        AmountSketch left = new AmountSketch();
+        AmountSketch right = new AmountSketch();
+        AmountSketch both = new AmountSketch();
+        for (int amount = 1; amount <= 200; amount++) {
+            AmountSketch side = amount % 3 == 0 ? left : right;
+            side.add(BigDecimal.valueOf(amount), 1);
+            both.add(BigDecimal.valueOf(amount), 1);
+        }
+
+        left.merge(right);
+
+        assertEquals(both.bins, left.bins);
+        assertEquals(both.quantile(0.75), left.quantile(0.75));
+    }
+
+    @Test
+    void deltaMergeMatchesApplyingTheWritesInPlace() {
+        AmountSketch stored = new AmountSketch();
+        stored.add(BigDecimal.valueOf(100), 1);
+        stored.add(BigDecimal.valueOf(250), 1);
+
+        // one invoice moved from 100 to 300, one added at 100, one removed at 250
+        AmountSketch delta = new AmountSketch();
+        delta.addDelta(BigDecimal.valueOf(100), -1);
+        delta.addDelta(BigDecimal.valueOf(300), 1);
+        delta.addDelta(BigDecimal.valueOf(100), 1);
+        delta.addDelta(BigDecimal.valueOf(250), -1);
+
+        AmountSketch expected = new AmountSketch();
+        expected.add(BigDecimal.valueOf(100), 1);
+        expected.add(BigDecimal.valueOf(300), 1);
+
+        stored.merge(delta);
+
+        assertEquals(expected.bins, stored.bins);
+        assertEquals(expected.zeroCount, stored.zeroCount);
+    }
+
+    @Test
+    void deltaKeepsNegativeCountsAndDropsCancelledBins() {
+        AmountSketch delta = new AmountSketch();
+        delta.addDelta(BigDecimal.valueOf(42), -1);
+        delta.addDelta(BigDecimal.ZERO, -1);
+
+        assertEquals(-1L, delta.bins.get(AmountSketch.index(BigDecimal.valueOf(42))));
+        assertEquals(-1, delta.zeroCount);
+
+        delta.addDelta(BigDecimal.valueOf(42), 1);
+        delta.addDelta(BigDecimal.ZERO, 1);
+        assertTrue(delta.isEmpty());
+    }
+
+    @Test
+    void encodingRoundTrips() {
+        AmountSketch sketch = new AmountSketch();
+        sketch.add(BigDecimal.ZERO, 1);
+        sketch.add(BigDecimal.valueOf(3), 1);
+        sketch.add(BigDecimal.valueOf(70000), 1);
+
+        AmountSketch decoded = AmountSketch.decode(sketch.zeroCount, sketch.encodeBins());
+
+        assertEquals(sketch.bins, decoded.bins);
+        assertEquals(1, decoded.zeroCount);
+        assertEquals(0, AmountSketch.decode(0, "").count());
+    }
+
+    @Test
+    void histogramCountsEveryAmountOnce() {
+        AmountSketch sketch = new AmountSketch();
+        sketch.add(BigDecimal.ZERO, 1);
+        for (int amount = 1; amount <= 500; amount += 7) {
+            sketch.add(BigDecimal.valueOf(amount), 1);
+        }
+
+        List<Map<String, Object>> histogram = sketch.histogram(10);
+
+        assertTrue(histogram.size() <= 11);
+        assertEquals(sketch.count(), histogram.stream().mapToLong(row -> (Long) row.get("count")).sum());
+    }
+
+    private static void assertWithinAccuracy(double expected, BigDecimal actual) {
+        double error = Math.abs(actual.doubleValue() - expected) / expected;
+        assertTrue(error <= AmountSketch.RELATIVE_ACCURACY + 0.005,
+                "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,209 @@
+package by.losik.service;
+
+import by.losik.dto.BulkDeleteJob;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkDeleteJobServiceTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private Map<String, BulkDeleteJob> stored;
+    private Set<String> cancelled;
+    private BulkDeleteJobService service;
+    private List<Long> afterIds;
+    private AtomicInteger chunksSeen;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        stored = new LinkedHashMap<>();
+        cancelled = new HashSet<>();
+        afterIds = new ArrayList<>();
+        chunksSeen = new AtomicInteger();
+        service = replica();
+    }
+
+    @Test
+    void chunksRunUntilNothingIsLeft() {
+        BulkDeleteJob job = start((afterId, limit) -> {
+            afterIds.add(afterId);
+            return chunk(afterId < 20 ? 2 : 0, afterId + 10);
+        });
+
+        assertEquals(List.of(0L, 10L, 20L), afterIds);
+        assertEquals(BulkDeleteJobService.STATUS_COMPLETED, job.getStatus());
+        assertEquals(4, job.getDeleted());
+        assertEquals(2, job.getChunks());
+        assertNotNull(job.getFinishedAt());
+        assertEquals(2, chunksSeen.get());
+        assertEquals(4, meterRegistry.counter("bulk.delete.rows", "type", "test").count());
+    }
+
+    @Test
+    void progressIsStoredAfterEveryChunk() {
+        List<Long> storedBefore = new ArrayList<>();
+        List<Integer> chunksSeenBefore = new ArrayList<>();
+        start((afterId, limit) -> {
+            BulkDeleteJob running = replica().findAll().await().indefinitely().get(0);
+            storedBefore.add(running.getDeleted());
+            chunksSeenBefore.add(chunksSeen.get());
+            assertEquals(BulkDeleteJobService.STATUS_RUNNING, running.getStatus());
+            assertNull(running.getFinishedAt());
+            return chunk(afterId < 4 ? 2 : 0, afterId + 2);
+        });
+
+        assertEquals(List.of(0L, 2L, 4L), storedBefore);
+        assertEquals(List.of(0, 1, 2), chunksSeenBefore);
+    }
+
+    @Test
+    void jobIsStoredBeforeItRuns() {
+        List<BulkDeleteJob> seen = new ArrayList<>();
+        BulkDeleteJob job = start((afterId, limit) -> {
+            seen.add(stored.get(service.findAll().await().indefinitely().get(0).getId()));
+            return chunk(0, null);
+        });
+
+        assertEquals(job.getId(), seen.get(0).getId());
+        assertEquals(BulkDeleteJobService.STATUS_COMPLETED, replica().findById(job.getId()).await().indefinitely().getStatus());
+    }
+
+    @Test
+    void cancelOnAnotherReplicaStopsBeforeTheNextChunk() {
+        BulkDeleteJobService other = replica();
+        BulkDeleteJob job = start((afterId, limit) -> {
+            afterIds.add(afterId);
+            BulkDeleteJob cancelling = other.cancel(other.findAll().await().indefinitely().get(0).getId())
+                    .await().indefinitely();
+            assertTrue(cancelling.isCancelRequested());
+            return chunk(2, afterId + 10);
+        });
+
+        assertEquals(List.of(0L), afterIds);
+        assertEquals(BulkDeleteJobService.STATUS_CANCELLED, job.getStatus());
+        assertEquals(2, job.getDeleted());
+        assertEquals(1, chunksSeen.get());
+    }
+
+    @Test
+    void finishedJobCannotBeCancelled() {
+        BulkDeleteJob job = start((afterId, limit) -> chunk(0, null));
+
+        BulkDeleteJob found = service.cancel(job.getId()).await().indefinitely();
+
+        assertEquals(BulkDeleteJobService.STATUS_COMPLETED, found.getStatus());
+        assertFalse(found.isCancelRequested());
+        assertTrue(cancelled.isEmpty());
+    }
+
+    @Test
+    void unknownJobIsNotFound() {
+        assertNull(service.findById("missing").await().indefinitely());
+        assertNull(service.cancel("missing").await().indefinitely());
+    }
+
+    @Test
+    void failedChunkFailsTheJobAndKeepsItsProgress() {
+        BulkDeleteJob job = start((afterId, limit) -> afterId == 0
+                ? chunk(2, 10L)
+                : Uni.createFrom().failure(new RuntimeException("Database error")));
+
+        BulkDeleteJob found = replica().findById(job.getId()).await().indefinitely();
+        assertEquals(BulkDeleteJobService.STATUS_FAILED, found.getStatus());
+        assertEquals("Database error", found.getError());
+        assertEquals(2, found.getDeleted());
+        assertNotNull(found.getFinishedAt());
+        assertEquals(1, chunksSeen.get());
+    }
+
+    @Test
+    void jobWithoutDeletedRowsDoesNotRunTheChunkHook() {
+        BulkDeleteJob job = start((afterId, limit) -> Uni.createFrom().failure(new RuntimeException("Database error")));
+
+        assertEquals(BulkDeleteJobService.STATUS_FAILED, job.getStatus());
+        assertEquals(0, chunksSeen.get());
+    }
+
+    // replicas share the stored jobs and cancellations the way they share Redis
+    private BulkDeleteJobService replica() {
+        BulkDeleteJobService replica = new BulkDeleteJobService() {
+            @Override
+            void runOnContext(Supplier<Uni<Void>> work) {
+                work.get().await().indefinitely();
+            }
+
+            @Override
+            Uni<Void> store(BulkDeleteJob job) {
+                stored.put(job.getId(), copy(job));
+                return Uni.createFrom().voidItem();
+            }
+
+            @Override
+            Uni<BulkDeleteJob> load(String id) {
+                BulkDeleteJob job = stored.get(id);
+                return Uni.createFrom().item(job != null ? copy(job) : null);
+            }
+
+            @Override
+            Uni<List<BulkDeleteJob>> loadAll() {
+                return Uni.createFrom().item(stored.values().stream().map(BulkDeleteJobServiceTest::copy).toList());
+            }
+
+            @Override
+            Uni<Void> requestCancel(String id) {
+                cancelled.add(id);
+                return Uni.createFrom().voidItem();
+            }
+
+            @Override
+            Uni<Boolean> isCancelRequested(String id) {
+                return Uni.createFrom().item(cancelled.contains(id));
+            }
+        };
+        replica.chunkSize = 2;
+        replica.retention = Duration.ofHours(1);
+        replica.meterRegistry = meterRegistry;
+        return replica;
+    }
+
+    private BulkDeleteJob start(BulkDeleteJobService.ChunkDeleter deleter) {
+        return service.start("test", "everything", deleter, chunksSeen::incrementAndGet).await().indefinitely();
+    }
+
+    private static BulkDeleteJob copy(BulkDeleteJob job) {
+        BulkDeleteJob copy = new BulkDeleteJob();
+        copy.setId(job.getId());
+        copy.setType(job.getType());
+        copy.setTarget(job.getTarget());
+        copy.setStatus(job.getStatus());
+        copy.setCancelRequested(job.isCancelRequested());
+        copy.setDeleted(job.getDeleted());
+        copy.setChunks(job.getChunks());
+        copy.setStartedAt(job.getStartedAt());
+        copy.setFinishedAt(job.getFinishedAt());
+        copy.setError(job.getError());
+        return copy;
+    }
+
+    private static Uni<Object[]> chunk(long deleted, Long lastId) {
+        return Uni.createFrom().item(new Object[]{deleted, lastId});
+    }
+}
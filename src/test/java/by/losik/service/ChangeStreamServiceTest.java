@@ -0,0 +1,224 @@
+package by.losik.service;
+
+import by.losik.dto.EntityChangeEvent;
+import by.losik.repository.EntityChangeRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import io.vertx.mutiny.sqlclient.Pool;
+import io.vertx.mutiny.sqlclient.PreparedQuery;
+import io.vertx.mutiny.sqlclient.Row;
+import io.vertx.mutiny.sqlclient.RowIterator;
+import io.vertx.mutiny.sqlclient.RowSet;
+import io.vertx.mutiny.sqlclient.Tuple;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ChangeStreamServiceTest {
+
+    private static final String REMOTE = "00000000-0000-0000-0000-000000000000";
+
+    private InvoiceRollupService invoiceRollupService;
+    private CustomerAggregateService customerAggregateService;
+    private Pool pool;
+    private ChangeStreamService service;
+
+    @BeforeEach
+    void setUp() {
+        invoiceRollupService = mock(InvoiceRollupService.class);
+        customerAggregateService = mock(CustomerAggregateService.class);
+        pool = mock(Pool.class);
+        when(invoiceRollupService.refreshSettlements(anyCollection())).thenReturn(Uni.createFrom().voidItem());
+        when(customerAggregateService.refreshCustomers(anyCollection())).thenReturn(Uni.createFrom().voidItem());
+
+        service = new ChangeStreamService() {
+            @Override
+            void runOnContext(Supplier<Uni<Void>> work) {
+                work.get().await().indefinitely();
+            }
+        };
+        service.objectMapper = new ObjectMapper();
+        service.invoiceRollupService = invoiceRollupService;
+        service.customerAggregateService = customerAggregateService;
+        service.pool = pool;
+    }
+
+    @Test
+    void remoteInvoiceChangeRefreshesOnlyTheReferencedRows() {
+        service.onNotification(payload(1, "Invoice", 10L, "update", REMOTE, "customer:3,settlement:1,settlement:2"));
+
+        verify(invoiceRollupService).refreshSettlements(List.of(1L, 2L));
+        verify(customerAggregateService).refreshCustomers(List.of(3L));
+        verify(invoiceRollupService, never()).invalidate();
+        verify(customerAggregateService, never()).invalidate();
+    }
+
+    @Test
+    void bulkInvoiceChangeInvalidatesAggregates() {
+        service.onNotification(payload(1, "Invoice", null, "delete", REMOTE, null));
+
+        verify(invoiceRollupService).invalidate();
+        verify(customerAggregateService).invalidate();
+        verify(invoiceRollupService, never()).refreshSettlements(anyCollection());
+    }
+
+    @Test
+    void archiveDoesNotTouchAggregates() {
+        service.onNotification(payload(1, "Invoice", null, EntityChangeRepository.OPERATION_ARCHIVE, REMOTE, null));
+
+        verifyNoInteractions(invoiceRollupService, customerAggregateService);
+    }
+
+    @Test
+    void failedRefreshInvalidatesAggregates() {
+        when(invoiceRollupService.refreshSettlements(anyCollection()))
+                .thenReturn(Uni.createFrom().failure(new RuntimeException("Database error")));
+
+        service.onNotification(payload(1, "Invoice", 10L, "save", REMOTE, "customer:3,settlement:1"));
+
+        verify(invoiceRollupService).invalidate();
+        verify(customerAggregateService).invalidate();
+    }
+
+    @Test
+    void remoteCustomerDeleteRemovesTheCustomerAndRebuildsTheRollup() {
+        service.onNotification(payload(1, "Customer", 7L, "delete", REMOTE, null));
+
+        verify(customerAggregateService).removeCustomer(7L);
+        verify(invoiceRollupService).invalidate();
+        verify(customerAggregateService, never()).invalidate();
+    }
+
+    @Test
+    void remoteCustomerUpdateRefreshesTheCustomer() {
+        service.onNotification(payload(1, "Customer", 7L, "update", REMOTE, null));
+
+        verify(customerAggregateService).refreshCustomers(List.of(7L));
+        verifyNoInteractions(invoiceRollupService);
+    }
+
+    @Test
+    void remoteSettlementUpdateRefreshesTheSettlement() {
+        service.onNotification(payload(1, "Settlement", 4L, "update", REMOTE, "region:2"));
+
+        verify(invoiceRollupService).refreshSettlements(List.of(4L));
+        verify(invoiceRollupService, never()).invalidate();
+    }
+
+    @Test
+    void itemChangesDoNotTouchAggregates() {
+        service.onNotification(payload(1, "InvoiceItem", 5L, "update", REMOTE, "invoice:10,product:2"));
+
+        verifyNoInteractions(invoiceRollupService, customerAggregateService);
+    }
+
+    @Test
+    void ownChangesAreNotAppliedAgain() {
+        service.onNotification(payload(1, "Invoice", 10L, "update", EntityChangeRepository.ORIGIN, "customer:3,settlement:1"));
+
+        verifyNoInteractions(invoiceRollupService, customerAggregateService);
+    }
+
+    @Test
+    void notificationsAreRelayedToConsumers() {
+        AssertSubscriber<EntityChangeEvent> subscriber = service.changes().subscribe()
+                .withSubscriber(AssertSubscriber.create(10));
+
+        service.onNotification(payload(1, "Invoice", 10L, "update", EntityChangeRepository.ORIGIN, "customer:3,settlement:1"));
+        service.onNotification("not json");
+        service.onNotification(payload(2, "Product", 4L, "save", REMOTE, "category:1"));
+
+        List<EntityChangeEvent> changes = subscriber.getItems();
+        assertEquals(2, changes.size());
+        assertEquals(10L, changes.get(0).getEntityId());
+        assertEquals(List.of(1L), changes.get(0).refIds("settlement"));
+        assertEquals("Product", changes.get(1).getEntity());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void catchUpReplaysMissedChangesAndRebuildsOnce() {
+        service.onNotification(payload(41, "Product", 4L, "save", REMOTE, null));
+        AssertSubscriber<EntityChangeEvent> subscriber = service.changes().subscribe()
+                .withSubscriber(AssertSubscriber.create(10));
+        PreparedQuery<RowSet<Row>> query = mock(PreparedQuery.class);
+        RowSet<Row> rows = rowSet(
+                row(42, "Invoice", 10L, "update", REMOTE, "customer:3,settlement:1"),
+                row(43, "Invoice", 11L, "save", REMOTE, "customer:3,settlement:1"));
+        when(pool.preparedQuery(anyString())).thenReturn(query);
+        when(query.execute(any(Tuple.class))).thenReturn(Uni.createFrom().item(rows));
+
+        service.catchUp();
+
+        ArgumentCaptor<Tuple> from = ArgumentCaptor.forClass(Tuple.class);
+        verify(query).execute(from.capture());
+        assertEquals(41L, from.getValue().getLong(0));
+        assertEquals(2, subscriber.getItems().size());
+        verify(invoiceRollupService, times(1)).invalidate();
+        verify(customerAggregateService, times(1)).invalidate();
+        verify(invoiceRollupService, never()).refreshSettlements(anyCollection());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void catchUpRebuildsEvenWhenNothingNewerWasMissed() {
+        service.onNotification(payload(41, "Product", 4L, "save", REMOTE, null));
+        PreparedQuery<RowSet<Row>> query = mock(PreparedQuery.class);
+        RowSet<Row> rows = mock(RowSet.class);
+        when(rows.iterator()).thenReturn(mock(RowIterator.class));
+        when(pool.preparedQuery(anyString())).thenReturn(query);
+        when(query.execute(any(Tuple.class))).thenReturn(Uni.createFrom().item(rows));
+
+        service.catchUp();
+
+        verify(invoiceRollupService, times(1)).invalidate();
+        verify(customerAggregateService, times(1)).invalidate();
+    }
+
+    private static String payload(long id, String entity, Long entityId, String operation, String origin, String refs) {
+        return "{\"id\":" + id + ",\"entity\":\"" + entity + "\",\"entityId\":" + entityId +
+                ",\"operation\":\"" + operation + "\",\"origin\":\"" + origin + "\",\"refs\":" +
+                (refs != null ? "\"" + refs + "\"" : "null") + "}";
+    }
+
+    private static Row row(long id, String entity, Long entityId, String operation, String origin, String refs) {
+        Row row = mock(Row.class);
+        when(row.getLong("id")).thenReturn(id);
+        when(row.getString("entity_name")).thenReturn(entity);
+        when(row.getLong("entity_id")).thenReturn(entityId);
+        when(row.getString("operation")).thenReturn(operation);
+        when(row.getString("origin")).thenReturn(origin);
+        when(row.getString("refs")).thenReturn(refs);
+        return row;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RowSet<Row> rowSet(Row... rows) {
+        RowSet<Row> rowSet = mock(RowSet.class);
+        RowIterator<Row> iterator = mock(RowIterator.class);
+        when(rowSet.size()).thenReturn(rows.length);
+        when(rowSet.iterator()).thenReturn(iterator);
+        Boolean[] more = new Boolean[rows.length];
+        Arrays.fill(more, true);
+        more[rows.length - 1] = false;
+        when(iterator.hasNext()).thenReturn(true, more);
+        when(iterator.next()).thenReturn(rows[0], Arrays.copyOfRange(rows, 1, rows.length));
+        return rowSet;
+    }
+}
@@ -0,0 +1,141 @@
+package by.losik.service;
+
+import by.losik.repository.CustomerRepository;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CustomerAggregateServiceTest {
+
+    private static final Date JANUARY = Date.valueOf("2024-01-15");
+    private static final Date FEBRUARY = Date.valueOf("2024-02-15");
+    private static final Date MARCH = Date.valueOf("2024-03-15");
+
+    private CustomerRepository customerRepository;
+    private CustomerAggregateService service;
+    private CompletableFuture<List<Object[]>> stats;
+
+    @BeforeEach
+    void setUp() {
+        customerRepository = mock(CustomerRepository.class);
+        service = new CustomerAggregateService();
+        service.customerRepository = customerRepository;
+
+        stats = new CompletableFuture<>();
+        when(customerRepository.getLifetimeValueStats()).thenAnswer(invocation -> Uni.createFrom().completionStage(stats));
+    }
+
+    @Test
+    void concurrentReadersShareOneRebuild() {
+        CompletableFuture<Map<String, Object>> first = service.getLifetimeValue(7L).subscribe().asCompletionStage();
+        CompletableFuture<List<Map<String, Object>>> second = service.getTopByRevenue(5, null).subscribe().asCompletionStage();
+
+        stats.complete(rows(2L, BigDecimal.valueOf(200)));
+
+        assertEquals(2L, first.join().get("invoiceCount"));
+        assertEquals(1, second.join().size());
+        verify(customerRepository, times(1)).getLifetimeValueStats();
+    }
+
+    @Test
+    void writesAfterTheRebuildAreAppliedInPlace() {
+        load(2L, BigDecimal.valueOf(200));
+
+        service.recordInvoice(7L, BigDecimal.valueOf(50), MARCH);
+        service.renameCustomer(7L, "Petrov");
+
+        Map<String, Object> customer = customer();
+        assertEquals(3L, customer.get("invoiceCount"));
+        assertEquals(BigDecimal.valueOf(250), customer.get("revenue"));
+        assertEquals(MARCH, customer.get("lastInvoiceDate"));
+        assertEquals("Petrov", customer.get("name"));
+        verify(customerRepository, never()).getLifetimeValueStats(any());
+    }
+
+    @Test
+    void writeDuringRebuildKeepsItAndRereadsTheCustomer() {
+        when(customerRepository.getLifetimeValueStats(any()))
+                .thenReturn(Uni.createFrom().item(rows(3L, BigDecimal.valueOf(250))));
+        CompletableFuture<Map<String, Object>> pending = service.getLifetimeValue(7L).subscribe().asCompletionStage();
+
+        service.recordInvoice(7L, BigDecimal.valueOf(50), MARCH);
+        stats.complete(rows(2L, BigDecimal.valueOf(200)));
+        pending.join();
+
+        Map<String, Object> customer = customer();
+        assertEquals(3L, customer.get("invoiceCount"));
+        assertEquals(BigDecimal.valueOf(250), customer.get("revenue"));
+        verify(customerRepository, times(1)).getLifetimeValueStats();
+        verify(customerRepository).getLifetimeValueStats(eq(Set.of(7L)));
+    }
+
+    @Test
+    void customerDeletedDuringRebuildIsDroppedAfterIt() {
+        when(customerRepository.getLifetimeValueStats(any())).thenReturn(Uni.createFrom().item(List.of()));
+        CompletableFuture<Map<String, Object>> pending = service.getLifetimeValue(7L).subscribe().asCompletionStage();
+
+        service.removeCustomer(7L);
+        stats.complete(rows(2L, BigDecimal.valueOf(200)));
+        pending.join();
+
+        assertNull(customer());
+        verify(customerRepository, times(1)).getLifetimeValueStats();
+    }
+
+    @Test
+    void invalidationDuringRebuildDiscardsIt() {
+        CompletableFuture<Map<String, Object>> pending = service.getLifetimeValue(7L).subscribe().asCompletionStage();
+
+        service.invalidate();
+        stats.complete(rows(2L, BigDecimal.valueOf(200)));
+        pending.join();
+
+        stats = CompletableFuture.completedFuture(rows(5L, BigDecimal.valueOf(500)));
+        assertEquals(5L, customer().get("invoiceCount"));
+        verify(customerRepository, times(2)).getLifetimeValueStats();
+    }
+
+    @Test
+    void removingTheLastInvoiceDateForcesRebuild() {
+        load(2L, BigDecimal.valueOf(200));
+
+        service.removeInvoice(7L, BigDecimal.valueOf(100), FEBRUARY);
+
+        stats = CompletableFuture.completedFuture(rows(1L, BigDecimal.valueOf(100)));
+        assertEquals(1L, customer().get("invoiceCount"));
+        verify(customerRepository, times(2)).getLifetimeValueStats();
+    }
+
+    private void load(long count, BigDecimal revenue) {
+        stats.complete(rows(count, revenue));
+        service.getLifetimeValue(7L).await().indefinitely();
+    }
+
+    private Map<String, Object> customer() {
+        return service.getLifetimeValue(7L).await().indefinitely();
+    }
+
+    private static List<Object[]> rows(long count, BigDecimal revenue) {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{7L, "Ivanov", false, count, revenue, JANUARY, FEBRUARY});
+        return rows;
+    }
+}
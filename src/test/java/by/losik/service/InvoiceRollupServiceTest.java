@@ -0,0 +1,145 @@
+package by.losik.service;
+
+import by.losik.repository.RegionRepository;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InvoiceRollupServiceTest {
+
+    private RegionRepository regionRepository;
+    private InvoiceRollupService service;
+    private CompletableFuture<List<Object[]>> rollup;
+
+    @BeforeEach
+    void setUp() {
+        regionRepository = mock(RegionRepository.class);
+        service = new InvoiceRollupService();
+        service.regionRepository = regionRepository;
+
+        rollup = new CompletableFuture<>();
+        when(regionRepository.getInvoiceRollup()).thenAnswer(invocation -> Uni.createFrom().completionStage(rollup));
+    }
+
+    @Test
+    void concurrentReadersShareOneRebuild() {
+        CompletableFuture<List<Map<String, Object>>> first = service.getCountryRollup().subscribe().asCompletionStage();
+        CompletableFuture<List<Map<String, Object>>> second = service.getCountryRollup().subscribe().asCompletionStage();
+
+        rollup.complete(rows(2L, BigDecimal.valueOf(200)));
+
+        assertEquals(2L, first.join().get(0).get("invoiceCount"));
+        assertEquals(2L, second.join().get(0).get("invoiceCount"));
+        verify(regionRepository, times(1)).getInvoiceRollup();
+    }
+
+    @Test
+    void writesAfterTheRebuildAreAppliedInPlace() {
+        load(2L, BigDecimal.valueOf(200));
+
+        service.recordInvoice(10L, BigDecimal.valueOf(50));
+        service.removeInvoice(10L, BigDecimal.valueOf(20));
+        service.replaceInvoice(10L, BigDecimal.valueOf(30), 10L, BigDecimal.valueOf(40));
+
+        Map<String, Object> settlement = settlement();
+        assertEquals(2L, settlement.get("invoiceCount"));
+        assertEquals(BigDecimal.valueOf(240), settlement.get("revenue"));
+        verify(regionRepository, times(1)).getInvoiceRollup();
+        verify(regionRepository, never()).getSettlementRollup(any());
+    }
+
+    @Test
+    void writeDuringRebuildKeepsItAndRereadsTheSettlement() {
+        when(regionRepository.getSettlementRollup(any()))
+                .thenReturn(Uni.createFrom().item(settlementRows(3L, BigDecimal.valueOf(250))));
+        CompletableFuture<List<Map<String, Object>>> pending = service.getCountryRollup().subscribe().asCompletionStage();
+
+        service.recordInvoice(10L, BigDecimal.valueOf(50));
+        rollup.complete(rows(2L, BigDecimal.valueOf(200)));
+        pending.join();
+
+        Map<String, Object> settlement = settlement();
+        assertEquals(3L, settlement.get("invoiceCount"));
+        assertEquals(BigDecimal.valueOf(250), settlement.get("revenue"));
+        assertEquals(BigDecimal.valueOf(250), service.getCountryRollup().await().indefinitely().get(0).get("revenue"));
+        verify(regionRepository, times(1)).getInvoiceRollup();
+        verify(regionRepository).getSettlementRollup(eq(Set.of(10L)));
+    }
+
+    @Test
+    void remoteChangeDuringRebuildIsReadAfterIt() {
+        when(regionRepository.getSettlementRollup(any()))
+                .thenReturn(Uni.createFrom().item(settlementRows(4L, BigDecimal.valueOf(300))));
+        CompletableFuture<List<Map<String, Object>>> pending = service.getCountryRollup().subscribe().asCompletionStage();
+
+        service.refreshSettlements(List.of(10L)).await().indefinitely();
+        verify(regionRepository, never()).getSettlementRollup(any());
+        rollup.complete(rows(2L, BigDecimal.valueOf(200)));
+        pending.join();
+
+        assertEquals(4L, settlement().get("invoiceCount"));
+        verify(regionRepository).getSettlementRollup(eq(Set.of(10L)));
+    }
+
+    @Test
+    void invalidationDuringRebuildDiscardsIt() {
+        CompletableFuture<List<Map<String, Object>>> pending = service.getCountryRollup().subscribe().asCompletionStage();
+
+        service.invalidate();
+        rollup.complete(rows(2L, BigDecimal.valueOf(200)));
+        pending.join();
+
+        rollup = CompletableFuture.completedFuture(rows(5L, BigDecimal.valueOf(500)));
+        assertEquals(5L, settlement().get("invoiceCount"));
+        verify(regionRepository, times(2)).getInvoiceRollup();
+    }
+
+    @Test
+    void deletedSettlementForcesRebuild() {
+        load(2L, BigDecimal.valueOf(200));
+        when(regionRepository.getSettlementRollup(any())).thenReturn(Uni.createFrom().item(List.of()));
+
+        service.refreshSettlements(List.of(10L)).await().indefinitely();
+
+        rollup = CompletableFuture.completedFuture(rows(1L, BigDecimal.valueOf(100)));
+        assertEquals(1L, settlement().get("invoiceCount"));
+        verify(regionRepository, times(2)).getInvoiceRollup();
+    }
+
+    private void load(long count, BigDecimal revenue) {
+        rollup.complete(rows(count, revenue));
+        service.getCountryRollup().await().indefinitely();
+    }
+
+    private Map<String, Object> settlement() {
+        return service.getSettlementRollup(1L).await().indefinitely().get(0);
+    }
+
+    private static List<Object[]> rows(long count, BigDecimal revenue) {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1L, "Minsk Region", "Belarus", 10L, "Minsk", count, revenue});
+        return rows;
+    }
+
+    private static List<Object[]> settlementRows(long count, BigDecimal revenue) {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{10L, "Minsk", 1L, count, revenue});
+        return rows;
+    }
+}
@@ -0,0 +1,67 @@
+package by.losik.service;
+
+import by.losik.repository.InvoiceRepository;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InvoiceServiceTest {
+
+    private static final Date DAY = Date.valueOf("2020-03-15");
+
+    private InvoiceRepository invoiceRepository;
+    private InvoiceArchiveService invoiceArchiveService;
+    private InvoiceService service;
+
+    @BeforeEach
+    void setUp() {
+        invoiceRepository = mock(InvoiceRepository.class);
+        invoiceArchiveService = mock(InvoiceArchiveService.class);
+        service = new InvoiceService();
+        service.invoiceRepository = invoiceRepository;
+        service.invoiceArchiveService = invoiceArchiveService;
+    }
+
+    @Test
+    void topPurchasesOfAnArchivedDayComeFromTheRangedQuery() {
+        List<Object[]> purchases = purchases();
+        when(invoiceArchiveService.reaches(DAY)).thenReturn(true);
+        when(invoiceRepository.findTopPurchasesByDateRange(DAY, DAY)).thenReturn(Uni.createFrom().item(purchases));
+
+        List<Object[]> result = service.findTopPurchasesByDay(DAY).await().indefinitely();
+
+        assertSame(purchases, result);
+        verify(invoiceRepository, never()).findTopPurchasesByDay(any());
+    }
+
+    @Test
+    void topPurchasesOfAHotDayComeFromTheDailyFunction() {
+        List<Object[]> purchases = purchases();
+        when(invoiceArchiveService.reaches(DAY)).thenReturn(false);
+        when(invoiceRepository.findTopPurchasesByDay(DAY)).thenReturn(Uni.createFrom().item(purchases));
+
+        List<Object[]> result = service.findTopPurchasesByDay(DAY).await().indefinitely();
+
+        assertEquals(1, result.size());
+        verify(invoiceRepository, never()).findTopPurchasesByDateRange(any(), any());
+    }
+
+    private static List<Object[]> purchases() {
+        List<Object[]> purchases = new ArrayList<>();
+        purchases.add(new Object[]{DAY, "Ivanov", "Minsk", BigDecimal.valueOf(500)});
+        return purchases;
+    }
+}
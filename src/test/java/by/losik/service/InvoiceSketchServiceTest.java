@@ -0,0 +1,154 @@
+package by.losik.service;
+
+import by.losik.repository.InvoiceRepository;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class InvoiceSketchServiceTest {
+
+    private static final Date JANUARY = Date.valueOf("2024-01-15");
+    private static final Date JANUARY_START = Date.valueOf("2024-01-01");
+
+    private InvoiceRepository invoiceRepository;
+    private InvoiceSketchService service;
+
+    @BeforeEach
+    void setUp() {
+        invoiceRepository = mock(InvoiceRepository.class);
+        service = new InvoiceSketchService();
+        service.invoiceRepository = invoiceRepository;
+
+        List<Object[]> stored = new ArrayList<>();
+        stored.add(new Object[]{1L, "2024-01-01", 0L, AmountSketch.index(BigDecimal.valueOf(100)) + ":5"});
+        when(invoiceRepository.findAmountSketches()).thenReturn(Uni.createFrom().item(stored));
+        when(invoiceRepository.mergeAmountSketches(anyList())).thenReturn(Uni.createFrom().item(1));
+        when(invoiceRepository.rebuildAmountSketches(anyDouble())).thenReturn(Uni.createFrom().item(1));
+    }
+
+    @Test
+    void writesAreAppliedAtOnceAndFlushedAsDeltas() {
+        assertEquals(5L, count());
+
+        service.recordInvoice(1L, BigDecimal.valueOf(300), JANUARY);
+        assertEquals(6L, count());
+
+        service.scheduledFlush().await().indefinitely();
+
+        List<Object[]> rows = mergedRows(1).get(0);
+        assertEquals(1, rows.size());
+        assertArrayEquals(new Object[]{1L, JANUARY_START, 0L, AmountSketch.index(BigDecimal.valueOf(300)) + ":1"},
+                rows.get(0));
+        verify(invoiceRepository, never()).rebuildAmountSketches(anyDouble());
+    }
+
+    @Test
+    void replacedAmountIsFlushedAsRemovalAndAddition() {
+        load();
+        service.replaceInvoice(1L, BigDecimal.valueOf(100), JANUARY, 1L, BigDecimal.ZERO, JANUARY);
+
+        service.scheduledFlush().await().indefinitely();
+
+        Object[] row = mergedRows(1).get(0).get(0);
+        assertEquals(1L, row[2]);
+        assertEquals(AmountSketch.index(BigDecimal.valueOf(100)) + ":-1", row[3]);
+    }
+
+    @Test
+    void writesThatCancelOutAreNotFlushed() {
+        load();
+        service.recordInvoice(1L, BigDecimal.valueOf(300), JANUARY);
+        service.removeInvoice(1L, BigDecimal.valueOf(300), JANUARY);
+
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceRepository, never()).mergeAmountSketches(anyList());
+    }
+
+    @Test
+    void failedFlushIsRequeued() {
+        load();
+        when(invoiceRepository.mergeAmountSketches(anyList()))
+                .thenReturn(Uni.createFrom().failure(new RuntimeException("Database error")))
+                .thenReturn(Uni.createFrom().item(1));
+
+        service.recordInvoice(1L, BigDecimal.valueOf(300), JANUARY);
+        service.scheduledFlush().await().indefinitely();
+        service.recordInvoice(1L, BigDecimal.valueOf(300), JANUARY);
+        service.scheduledFlush().await().indefinitely();
+
+        List<List<Object[]>> flushes = mergedRows(2);
+        assertEquals(AmountSketch.index(BigDecimal.valueOf(300)) + ":2", flushes.get(1).get(0)[3]);
+    }
+
+    @Test
+    void requestedRebuildWaitsForTheFlush() {
+        load();
+        service.recordInvoice(1L, BigDecimal.valueOf(300), JANUARY);
+        service.requestRebuild();
+        verify(invoiceRepository, never()).rebuildAmountSketches(anyDouble());
+
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceRepository, times(1)).rebuildAmountSketches(anyDouble());
+        verify(invoiceRepository, never()).mergeAmountSketches(anyList());
+    }
+
+    @Test
+    void rebuildHeldByAnotherReplicaStillMergesDeltas() {
+        load();
+        when(invoiceRepository.rebuildAmountSketches(anyDouble())).thenReturn(Uni.createFrom().nullItem());
+
+        service.recordInvoice(1L, BigDecimal.valueOf(300), JANUARY);
+        service.requestRebuild();
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceRepository, times(1)).rebuildAmountSketches(anyDouble());
+        assertEquals(1, mergedRows(1).get(0).size());
+    }
+
+    @Test
+    void writeWithoutSettlementRequestsRebuild() {
+        load();
+        service.recordInvoice(null, BigDecimal.valueOf(300), JANUARY);
+
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceRepository, times(1)).rebuildAmountSketches(anyDouble());
+    }
+
+    private void load() {
+        count();
+    }
+
+    private long count() {
+        Map<String, Object> distribution = service.getDistribution(Set.of(1L), null, null, List.of(50.0), 10)
+                .await().indefinitely();
+        return (Long) distribution.get("count");
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<Object[]>> mergedRows(int flushes) {
+        ArgumentCaptor<List<Object[]>> captor = ArgumentCaptor.forClass(List.class);
+        verify(invoiceRepository, times(flushes)).mergeAmountSketches(captor.capture());
+        return captor.getAllValues();
+    }
+}
@@ -0,0 +1,169 @@
+package by.losik.service;
+
+import by.losik.repository.EntityChangeRepository;
+import by.losik.repository.InvoiceItemRepository;
+import by.losik.repository.PriceHistoryRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PriceWriteBehindServiceTest {
+
+    private InvoiceItemRepository invoiceItemRepository;
+    private PriceHistoryRepository priceHistoryRepository;
+    private InvoiceItemService invoiceItemService;
+    private LiveFeedService liveFeedService;
+    private SimpleMeterRegistry meterRegistry;
+    private PriceWriteBehindService service;
+
+    @BeforeEach
+    void setUp() {
+        invoiceItemRepository = mock(InvoiceItemRepository.class);
+        priceHistoryRepository = mock(PriceHistoryRepository.class);
+        invoiceItemService = mock(InvoiceItemService.class);
+        liveFeedService = mock(LiveFeedService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        when(invoiceItemRepository.updatePrices(anyMap()))
+                .thenAnswer(invocation -> Uni.createFrom().item(((Map<?, ?>) invocation.getArgument(0)).size()));
+        when(invoiceItemService.publishInvoicesOfItems(anyCollection())).thenReturn(Uni.createFrom().voidItem());
+
+        service = new PriceWriteBehindService();
+        service.enabled = true;
+        service.capacity = 3;
+        service.batchSize = 3;
+        service.invoiceItemRepository = invoiceItemRepository;
+        service.priceHistoryRepository = priceHistoryRepository;
+        service.invoiceItemService = invoiceItemService;
+        service.priceHistoryService = mock(PriceHistoryService.class);
+        service.liveFeedService = liveFeedService;
+        service.meterRegistry = meterRegistry;
+        service.init();
+    }
+
+    @Test
+    void pricesAreBufferedUntilTheFlush() {
+        assertEquals(PriceWriteBehindService.QUEUED, offer(1L, "10.00"));
+        assertEquals(PriceWriteBehindService.QUEUED, offer(2L, "20.00"));
+        verify(invoiceItemRepository, never()).updatePrices(anyMap());
+
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceItemRepository).updatePrices(Map.of(1L, price("10.00"), 2L, price("20.00")));
+        verify(invoiceItemService).invalidateRelatedCaches();
+        verify(invoiceItemService).publishInvoicesOfItems(Set.of(1L, 2L));
+        verify(priceHistoryRepository, never()).updatePrices(anyMap());
+        assertEquals(2, counter("price.write.behind.written"));
+    }
+
+    @Test
+    void flushedPriceHistoryIsPublished() {
+        when(priceHistoryRepository.updatePrices(anyMap())).thenReturn(Uni.createFrom().item(2));
+        when(liveFeedService.publishPrice(anyString(), anyLong())).thenReturn(Uni.createFrom().voidItem());
+        service.queuePriceHistoryPrice(1L, price("10.00")).await().indefinitely();
+        service.queuePriceHistoryPrice(2L, price("20.00")).await().indefinitely();
+
+        service.scheduledFlush().await().indefinitely();
+
+        verify(liveFeedService).publishPrice(EntityChangeRepository.OPERATION_UPDATE, 1L);
+        verify(liveFeedService).publishPrice(EntityChangeRepository.OPERATION_UPDATE, 2L);
+    }
+
+    @Test
+    void repeatedUpdatesOfOneRowAreCoalesced() {
+        offer(1L, "10.00");
+        offer(1L, "12.00");
+
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceItemRepository).updatePrices(Map.of(1L, price("12.00")));
+        assertEquals(1, counter("price.write.behind.coalesced"));
+    }
+
+    @Test
+    void fullBatchIsFlushedWithoutWaitingForTheInterval() {
+        offer(1L, "10.00");
+        offer(2L, "20.00");
+        offer(3L, "30.00");
+
+        verify(invoiceItemRepository).updatePrices(Map.of(1L, price("10.00"), 2L, price("20.00"), 3L, price("30.00")));
+    }
+
+    @Test
+    void failedFlushIsRequeuedBehindNewerPrices() {
+        when(invoiceItemRepository.updatePrices(anyMap()))
+                .thenReturn(Uni.createFrom().failure(new RuntimeException("Database error")))
+                .thenReturn(Uni.createFrom().item(2));
+        offer(1L, "10.00");
+        offer(2L, "20.00");
+
+        service.scheduledFlush().await().indefinitely();
+        offer(1L, "15.00");
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceItemRepository).updatePrices(Map.of(1L, price("15.00"), 2L, price("20.00")));
+        verify(invoiceItemService, times(1)).invalidateRelatedCaches();
+    }
+
+    @Test
+    void fullBufferWritesThroughAfterTheBufferedBatch() {
+        service.batchSize = 10;
+        offer(1L, "10.00");
+        offer(2L, "20.00");
+        offer(3L, "30.00");
+
+        assertEquals(1, offer(4L, "40.00"));
+
+        verify(invoiceItemRepository).updatePrices(Map.of(1L, price("10.00"), 2L, price("20.00"), 3L, price("30.00")));
+        verify(invoiceItemRepository).updatePrices(Map.of(4L, price("40.00")));
+        assertEquals(1, counter("price.write.behind.overflowed"));
+    }
+
+    @Test
+    void unmatchedRowsAreCounted() {
+        when(invoiceItemRepository.updatePrices(anyMap())).thenReturn(Uni.createFrom().item(1));
+        offer(1L, "10.00");
+        offer(2L, "20.00");
+
+        service.scheduledFlush().await().indefinitely();
+
+        assertEquals(1, counter("price.write.behind.unmatched"));
+    }
+
+    @Test
+    void disabledServiceDoesNotFlush() {
+        offer(1L, "10.00");
+        service.enabled = false;
+
+        service.scheduledFlush().await().indefinitely();
+
+        verify(invoiceItemRepository, never()).updatePrices(anyMap());
+    }
+
+    private int offer(Long id, String price) {
+        return service.queueInvoiceItemPrice(id, price(price)).await().indefinitely();
+    }
+
+    private double counter(String name) {
+        return meterRegistry.counter(name, "target", "invoice_item").count();
+    }
+
+    private static BigDecimal price(String price) {
+        return new BigDecimal(price);
+    }
+}